@@ -0,0 +1,98 @@
+package me.bausano;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataSetBenchmark {
+
+    /**
+     * File with the training data.
+     */
+    private Path path;
+
+    /**
+     * One line of the data file.
+     */
+    private String line;
+
+    /**
+     * The same line parsed into pixels and the class, before it's mapped through filters.
+     */
+    private double[] rawDigit;
+
+    /**
+     * Reads one line of the data file for the per digit benchmarks.
+     *
+     * @throws IOException If the data file is missing
+     */
+    @Setup
+    public void setUp() throws IOException {
+        path = Paths.get(Settings.TRAINING_FILE_PATH);
+        line = Files.lines(path).findFirst().orElseThrow().trim();
+        rawDigit = Arrays.stream(line.split(",")).mapToDouble(Double::parseDouble).toArray();
+    }
+
+    /**
+     * Parses and maps the whole training file.
+     */
+    @Benchmark
+    public DataSet from() throws IOException {
+        return DataSet.from(path, Settings.CROSSFOLD_FACTOR);
+    }
+
+    /**
+     * Maps one parsed digit through the edge filters.
+     */
+    @Benchmark
+    public double[] mapThroughFilters() {
+        return DataSet.mapDigitThroughFilters(rawDigit, Settings.FILTERS, Settings.IMAGE_WIDTH, Settings.IMAGE_HEIGHT);
+    }
+
+    /**
+     * Parses one line the way the data set does it, with a stream. Compared with the loop below, it verifies the
+     * claim about the cost of streams.
+     */
+    @Benchmark
+    public double[] parseLineWithStream() {
+        return Arrays.stream(line.split(","))
+                .mapToDouble(Double::parseDouble)
+                .toArray();
+    }
+
+    /**
+     * Parses one line with a plain loop.
+     */
+    @Benchmark
+    public double[] parseLineWithLoop() {
+        String[] values = line.split(",");
+        double[] digit = new double[values.length];
+
+        for (int index = 0; index < values.length; index++) {
+            digit[index] = Double.parseDouble(values[index]);
+        }
+
+        return digit;
+    }
+
+}
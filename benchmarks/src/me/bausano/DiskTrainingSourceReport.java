@@ -0,0 +1,153 @@
+package me.bausano;
+
+import me.bausano.algorithms.neuralnetwork.NeuralNetwork;
+import me.bausano.algorithms.neuralnetwork.Trainer;
+import me.bausano.validation.CrossValidator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Reports how fast a network trains from the digits on the heap, from an array source and from a DiskTrainingSource
+ * with and without prefetching.
+ */
+public class DiskTrainingSourceReport {
+
+    /**
+     * Converts the training file into a binary file and trains the same network for the same epochs four ways: from
+     * the digits on the heap, from an array source, and from the binary file with and without prefetching. Each way
+     * reports the digits learned per second, how long the trainer waited for chunks, the heap the digits take and the
+     * accuracy on the testing file. The arguments are the number of epochs and the chunk size.
+     *
+     * @param args Console arguments
+     * @throws Exception Exceptions are thrown into stdout
+     */
+    public static void main(String[] args) throws Exception {
+        int epochs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int chunkSize = args.length > 1 ? Integer.parseInt(args[1]) : Settings.TRAINING_CHUNK_SIZE;
+
+        double[][] training = DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), -1).setForTraining;
+        double[][] testing = DataSet.from(Paths.get(Settings.TESTING_FILE_PATH), -1).setForTraining;
+        int[] blueprint = Hyperparameters.defaults().blueprint(DataSet.inputNeuronsOf(training));
+        long rowBytes = (long) training[0].length * Double.BYTES;
+
+        // The text file is streamed line by line, so the conversion does not need the digits on the heap either.
+        Path file = Files.createTempFile("training-digits", ".bin");
+        file.toFile().deleteOnExit();
+        try (Stream<String> lines = Files.lines(Paths.get(Settings.TRAINING_FILE_PATH))) {
+            DiskTrainingSource.write(lines.filter(line -> !line.isBlank()).map(DataSet::parseDigit).iterator(), file);
+        }
+
+        String[] ways = new String[] { "heap", "array source", "disk prefetch", "disk sync" };
+        System.out.println("\n> OUT OF CORE TRAINING");
+        System.out.printf("%d digits, %d epochs, chunks of %d digits.%n", training.length, epochs, chunkSize);
+        System.out.printf(
+                "%-14s %12s %12s %10s %10s%n",
+                "source",
+                "digits/s",
+                "waited ms",
+                "data MB",
+                "accuracy"
+        );
+
+        // The first round trains two epochs each way without reporting, so that no way pays for the compilation.
+        for (int round = 0; round < 2; round++) {
+            int roundEpochs = round == 0 ? Math.min(2, epochs) : epochs;
+
+            for (String way : ways) {
+                NeuralNetwork network = NeuralNetwork.fromBlueprint(blueprint, new Random(42));
+                TimedSource source = null;
+                long dataBytes = training.length * rowBytes;
+
+                if (way.equals("array source")) {
+                    source = new TimedSource(new ArrayTrainingSource(training, chunkSize, new Random(7)));
+                } else if (way.startsWith("disk")) {
+                    boolean prefetch = way.equals("disk prefetch");
+                    source = new TimedSource(new DiskTrainingSource(file, chunkSize, prefetch, new Random(7)));
+                    dataBytes = (prefetch ? 2 : 1) * Math.min(chunkSize, training.length) * rowBytes;
+                }
+
+                long start = System.nanoTime();
+                try {
+                    Trainer trainer = source == null
+                            ? new Trainer(network, training, Hyperparameters.defaults())
+                            : new Trainer(network, source, Hyperparameters.defaults());
+                    trainer.train(roundEpochs);
+                } finally {
+                    if (source != null) {
+                        source.close();
+                    }
+                }
+                double seconds = (System.nanoTime() - start) / 1e9d;
+                if (round == 0) {
+                    continue;
+                }
+
+                System.out.printf(
+                        "%-14s %12.0f %12.1f %10.2f %8.2f %%%n",
+                        way,
+                        (double) training.length * epochs / seconds,
+                        source == null ? 0d : source.waitedNanos / 1e6d,
+                        dataBytes / 1e6d,
+                        CrossValidator.accuracy(network, DataView.of(testing)) * 100d
+                );
+            }
+        }
+    }
+
+    /**
+     * Training source that counts how long the trainer waits for the chunks of another source.
+     */
+    private static class TimedSource implements TrainingSource {
+
+        /**
+         * Source the chunks come from.
+         */
+        private final TrainingSource source;
+
+        /**
+         * Time spent waiting for chunks so far.
+         */
+        long waitedNanos = 0;
+
+        /**
+         * @param source Source the chunks come from
+         */
+        TimedSource(TrainingSource source) {
+            this.source = source;
+        }
+
+        /**
+         * @inheritDoc
+         */
+        @Override
+        public double[][] nextChunk() {
+            long start = System.nanoTime();
+            double[][] chunk = source.nextChunk();
+            waitedNanos += System.nanoTime() - start;
+
+            return chunk;
+        }
+
+        /**
+         * @inheritDoc
+         */
+        @Override
+        public int size() {
+            return source.size();
+        }
+
+        /**
+         * @inheritDoc
+         */
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package me.bausano.algorithms.estimator;
+
+import me.bausano.DataSet;
+import me.bausano.Settings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EstimatorBenchmark {
+
+    /**
+     * Estimator over the training data. It is not trained, as training takes minutes and the weights do not change how
+     * long an estimate takes.
+     */
+    private Estimator estimator;
+
+    /**
+     * Digit to estimate.
+     */
+    private double[] digit;
+
+    /**
+     * Output buffer of the allocation free benchmark.
+     */
+    private final double[] estimates = new double[Settings.OUTPUT_CLASSES_COUNT];
+
+    /**
+     * Builds the estimator.
+     *
+     * @throws IOException If the data files are missing
+     */
+    @Setup
+    public void setUp() throws IOException {
+        estimator = new Estimator(DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), -1).setForTraining);
+        digit = DataSet.from(Paths.get(Settings.TESTING_FILE_PATH), 0).setForValidation[0];
+    }
+
+    /**
+     * Estimate with a freshly allocated result.
+     */
+    @Benchmark
+    public double[] estimate() {
+        return estimator.estimate(digit);
+    }
+
+    /**
+     * Estimate into a buffer owned by the benchmark.
+     */
+    @Benchmark
+    public double[] estimateInto() {
+        estimator.estimateInto(digit, estimates);
+
+        return estimates;
+    }
+
+}
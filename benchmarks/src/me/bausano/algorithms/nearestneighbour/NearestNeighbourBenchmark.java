@@ -0,0 +1,107 @@
+package me.bausano.algorithms.nearestneighbour;
+
+import me.bausano.DataSet;
+import me.bausano.Settings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NearestNeighbourBenchmark {
+
+    /**
+     * How many digits the batched benchmark classifies at once, matches the inference server's batch size.
+     */
+    private static final int BATCH_SIZE = Settings.MAX_BATCH_SIZE;
+
+    /**
+     * Size of the reference set. Sizes above the training file are made by repeating it.
+     */
+    @Param({ "500", "2810", "11240" })
+    public int references;
+
+    /**
+     * Whether distances that cannot beat the closest neighbour are abandoned early.
+     */
+    @Param({ "false", "true" })
+    public boolean earlyAbandon;
+
+    /**
+     * Classifier over the reference set.
+     */
+    private NearestNeighbour nn;
+
+    /**
+     * Digits to classify.
+     */
+    private double[][] queries;
+
+    /**
+     * Output buffer of the batched benchmark.
+     */
+    private final int[] classes = new int[BATCH_SIZE];
+
+    /**
+     * Builds the reference set of the requested size.
+     *
+     * @throws IOException If the data files are missing
+     */
+    @Setup
+    public void setUp() throws IOException {
+        double[][] training = DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), -1).setForTraining;
+        double[][] neighbours = new double[references][];
+
+        for (int index = 0; index < references; index++) {
+            neighbours[index] = training[index % training.length];
+        }
+
+        nn = new NearestNeighbour(neighbours, Settings.K_NEAREST_NEIGHBOURS, earlyAbandon);
+        queries = Arrays.copyOf(DataSet.from(Paths.get(Settings.TESTING_FILE_PATH), 0).setForValidation, BATCH_SIZE);
+    }
+
+    /**
+     * Distance between two digits, the innermost loop of every query.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public double calculateDistance() {
+        return nn.calculateDistance(queries[0], queries[1]);
+    }
+
+    /**
+     * Full query for one digit.
+     */
+    @Benchmark
+    public int classify() {
+        return nn.classify(queries[0]);
+    }
+
+    /**
+     * Batched query, reported per batch.
+     */
+    @Benchmark
+    public int[] classifyBatch() {
+        nn.classify(queries, classes);
+
+        return classes;
+    }
+
+}
@@ -0,0 +1,87 @@
+package me.bausano.algorithms.neuralnetwork;
+
+import me.bausano.DataSet;
+import me.bausano.DataView;
+import me.bausano.Hyperparameters;
+import me.bausano.Settings;
+import me.bausano.algorithms.Algorithms;
+import me.bausano.algorithms.Classifier;
+import me.bausano.validation.CrossValidator;
+
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Reports how the network that learns its filters in a ConvolutionalLayer compares with the network trained on digits
+ * stored with the fixed filters.
+ */
+public class ConvolutionalLayerReport {
+
+    /**
+     * Trains the network on digits stored with the fixed filters and the network that learns its filters on the raw
+     * digits, both from the same seed, and compares them on the testing file along with the memory of the stored
+     * training digits.
+     *
+     * @param args Console arguments
+     * @throws Exception Exceptions are thrown into stdout
+     */
+    public static void main(String[] args) throws Exception {
+        double[][][] none = new double[0][][];
+        double[][] filteredTraining = DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), -1).setForTraining;
+        double[][] filteredTesting = DataSet.from(Paths.get(Settings.TESTING_FILE_PATH), -1).setForTraining;
+        double[][] rawTraining = DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), -1, none).setForTraining;
+        double[][] rawTesting = DataSet.from(Paths.get(Settings.TESTING_FILE_PATH), -1, none).setForTraining;
+
+        System.out.println("\n> LEARNED FILTERS");
+        System.out.printf(
+                "%-10s %-10s %12s %12s %12s %10s%n",
+                "model",
+                "digits",
+                "data MB",
+                "accuracy",
+                "train s",
+                "us/digit"
+        );
+
+        printRow("mlp", "filtered", filteredTraining, filteredTesting);
+        printRow("cnn", "raw", rawTraining, rawTesting);
+    }
+
+    /**
+     * Trains a network and prints one row of the report.
+     *
+     * @param algorithm Name of the algorithm, see Algorithms::train
+     * @param digits How the digits are stored
+     * @param training Training digits
+     * @param testing Testing digits
+     */
+    private static void printRow(String algorithm, String digits, double[][] training, double[][] testing) {
+        long start = System.nanoTime();
+        Classifier network = Algorithms.train(algorithm, training, Hyperparameters.defaults(), new Random(42));
+        double trainingSeconds = (System.nanoTime() - start) / 1e9d;
+
+        // Warms up before timing single digit queries.
+        for (int round = 0; round < 10; round++) {
+            for (double[] digit : testing) {
+                network.classify(digit);
+            }
+        }
+
+        start = System.nanoTime();
+        for (double[] digit : testing) {
+            network.classify(digit);
+        }
+        double micros = (System.nanoTime() - start) / 1e3d / testing.length;
+
+        System.out.printf(
+                "%-10s %-10s %12.2f %10.2f %% %12.1f %10.2f%n",
+                algorithm,
+                digits,
+                (double) training.length * training[0].length * Double.BYTES / 1e6d,
+                CrossValidator.accuracy(network, DataView.of(testing)) * 100d,
+                trainingSeconds,
+                micros
+        );
+    }
+
+}
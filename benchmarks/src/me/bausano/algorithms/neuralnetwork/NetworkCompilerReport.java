@@ -0,0 +1,112 @@
+package me.bausano.algorithms.neuralnetwork;
+
+import me.bausano.DataSet;
+import me.bausano.DataView;
+import me.bausano.Hyperparameters;
+import me.bausano.Settings;
+import me.bausano.algorithms.Classifier;
+import me.bausano.validation.CrossValidator;
+
+import java.nio.file.Paths;
+
+/**
+ * Reports how long networks take to compile and how fast the compiled classifiers are against the networks, see
+ * NetworkCompiler.
+ */
+public class NetworkCompilerReport {
+
+    /**
+     * Trains networks with hidden layers of two sizes on one half of the training file, compiles them and compares the
+     * compiled classifiers with the networks on the other half.
+     *
+     * @param args Console arguments
+     * @throws Exception Exceptions are thrown into stdout
+     */
+    public static void main(String[] args) throws Exception {
+        DataSet data = DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), Settings.CROSSFOLD_FACTOR);
+        double[][] training = data.setForTraining;
+        double[][] validation = data.setForValidation;
+
+        System.out.println("\n> COMPILED NETWORK");
+        System.out.printf(
+                "%-16s %10s %12s %12s %12s %10s%n",
+                "hidden neurons",
+                "compile ms",
+                "accuracy",
+                "max diff",
+                "us/digit",
+                "generic us"
+        );
+
+        for (int hiddenNeurons : new int[] { Settings.HIDDEN_NEURONS, 128 }) {
+            Hyperparameters parameters = new Hyperparameters(
+                    hiddenNeurons,
+                    Settings.MEAN_LEARNING_RATE,
+                    Settings.OSCILLATION,
+                    Settings.STEP_SIZE,
+                    Settings.BATCH_SIZE,
+                    Settings.CYCLES,
+                    Settings.K_NEAREST_NEIGHBOURS
+            );
+            NeuralNetwork network = NeuralNetwork.fromBlueprint(parameters.blueprint(DataSet.inputNeuronsOf(training)));
+            new Trainer(network, training, parameters).train();
+
+            printRow(String.valueOf(hiddenNeurons), network, validation);
+        }
+    }
+
+    /**
+     * Compiles the network and prints one row of the report.
+     *
+     * @param title Name of the network
+     * @param network Trained network
+     * @param validation Digits to validate on
+     */
+    private static void printRow(String title, NeuralNetwork network, double[][] validation) {
+        long start = System.nanoTime();
+        Classifier compiled = NetworkCompiler.compile(network);
+        double compileMillis = (System.nanoTime() - start) / 1e6d;
+
+        // Largest difference between the estimates of the network and of the compiled classifier, which should be 0.
+        double maxDifference = 0d;
+        for (double[] digit : validation) {
+            double[] expected = network.estimate(digit);
+            double[] actual = compiled.estimate(digit);
+
+            for (int classIndex = 0; classIndex < expected.length; classIndex++) {
+                maxDifference = Math.max(maxDifference, Math.abs(expected[classIndex] - actual[classIndex]));
+            }
+        }
+
+        System.out.printf(
+                "%-16s %10.0f %10.2f %% %12.1e %12.2f %10.2f%n",
+                title,
+                compileMillis,
+                CrossValidator.accuracy(compiled, DataView.of(validation)) * 100d,
+                maxDifference,
+                microsPerDigit(compiled, validation),
+                microsPerDigit(network, validation)
+        );
+    }
+
+    /**
+     * @param classifier Classifier to time
+     * @param validation Digits to classify
+     * @return Time to classify one digit, in microseconds, measured after a warm up
+     */
+    private static double microsPerDigit(Classifier classifier, double[][] validation) {
+        long start = 0;
+        for (int round = 0; round < 60; round++) {
+            if (round == 30) {
+                start = System.nanoTime();
+            }
+
+            for (double[] digit : validation) {
+                classifier.classify(digit);
+            }
+        }
+
+        return (System.nanoTime() - start) / 1e3d / (validation.length * 30d);
+    }
+
+}
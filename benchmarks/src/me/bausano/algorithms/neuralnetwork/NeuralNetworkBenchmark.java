@@ -0,0 +1,113 @@
+package me.bausano.algorithms.neuralnetwork;
+
+import me.bausano.DataSet;
+import me.bausano.Settings;
+import me.bausano.algorithms.Classifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NeuralNetworkBenchmark {
+
+    /**
+     * Number of neurons in the hidden layer.
+     */
+    @Param({ "16", "37", "128" })
+    public int hiddenNeurons;
+
+    /**
+     * Untrained network, weights do not change how long the computation takes.
+     */
+    private NeuralNetwork network;
+
+    /**
+     * The same network compiled for its shape.
+     */
+    private Classifier compiled;
+
+    /**
+     * Digit to feed forward.
+     */
+    private double[] digit;
+
+    /**
+     * Output buffer of the first layer.
+     */
+    private double[] hiddenActivations;
+
+    /**
+     * Builds the network of the requested shape.
+     *
+     * @throws IOException If the data file is missing
+     */
+    @Setup
+    public void setUp() throws IOException {
+        double[][] training = DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), -1).setForTraining;
+
+        network = NeuralNetwork.fromBlueprint(new int[] { Settings.INPUT_NEURONS, hiddenNeurons, 10 });
+        compiled = NetworkCompiler.compile(network);
+        digit = training[0];
+        hiddenActivations = new double[hiddenNeurons];
+    }
+
+    /**
+     * Activations of the first layer, the largest matrix of the network.
+     */
+    @Benchmark
+    public double[] layerActivation() {
+        network.layers[0].activation(digit, hiddenActivations);
+
+        return hiddenActivations;
+    }
+
+    /**
+     * Activations of the first layer through the allocating variant.
+     */
+    @Benchmark
+    public double[] layerActivationAllocating() {
+        return network.layers[0].activation(digit);
+    }
+
+    /**
+     * Whole forward pass.
+     */
+    @Benchmark
+    public double[] feedForward() {
+        return network.feedForward(digit);
+    }
+
+    /**
+     * Classification of a digit by the network.
+     */
+    @Benchmark
+    public int classify() {
+        return network.classify(digit);
+    }
+
+    /**
+     * Classification of a digit by the network compiled for its shape.
+     */
+    @Benchmark
+    public int compiledClassify() {
+        return compiled.classify(digit);
+    }
+
+}
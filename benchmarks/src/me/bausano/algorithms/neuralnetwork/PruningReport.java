@@ -0,0 +1,110 @@
+package me.bausano.algorithms.neuralnetwork;
+
+import me.bausano.DataSet;
+import me.bausano.DataView;
+import me.bausano.Hyperparameters;
+import me.bausano.Settings;
+import me.bausano.validation.CrossValidator;
+
+import java.nio.file.Paths;
+
+/**
+ * Reports how accurate and how fast networks pruned to several levels of sparsity are, see Pruning. It sits in the
+ * package of the network, so that it can force the kernel of the layers.
+ */
+public class PruningReport {
+
+    /**
+     * Trains a network on one half of the training file, then prunes copies of it to several levels of sparsity and
+     * reports the accuracy on the other half before and after fine-tuning, along with the speed of both kernels.
+     *
+     * @param args Console arguments
+     * @throws Exception Exceptions are thrown into stdout
+     */
+    public static void main(String[] args) throws Exception {
+        DataSet data = DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), Settings.CROSSFOLD_FACTOR);
+        double[][] training = data.setForTraining;
+        double[][] validation = data.setForValidation;
+
+        NeuralNetwork network = NeuralNetwork.fromBlueprint(
+                Hyperparameters.defaults().blueprint(DataSet.inputNeuronsOf(training))
+        );
+        new Trainer(network, training).train();
+
+        System.out.println("\n> PRUNING");
+        System.out.printf(
+                "%-10s %-8s %10s %12s %14s %14s%n",
+                "sparsity",
+                "kernel",
+                "pruned",
+                "fine-tuned",
+                "dense us/dig",
+                "sparse us/dig"
+        );
+
+        double[] sparsities = new double[] { 0d, 0.5d, 0.7d, 0.8d, 0.9d, 0.95d, 0.98d };
+        for (double sparsity : sparsities) {
+            NeuralNetwork pruned = network.copy();
+            Pruning.prune(pruned, sparsity);
+            double prunedAccuracy = CrossValidator.accuracy(pruned, DataView.of(validation));
+
+            Pruning.fineTune(
+                    pruned,
+                    training,
+                    Settings.PRUNING_FINE_TUNE_EPOCHS,
+                    Settings.PRUNING_FINE_TUNE_LEARNING_RATE
+            );
+            double fineTunedAccuracy = CrossValidator.accuracy(pruned, DataView.of(validation));
+            String kernel = pruned.layers[0].isSparse() ? "sparse" : "dense";
+
+            // Times the same weights with each kernel forced, single digit queries are the latency sensitive path.
+            double denseMicros = microsPerDigit(pruned, validation, -1d);
+            double sparseMicros = microsPerDigit(pruned, validation, 1d);
+
+            System.out.printf(
+                    "%-10s %-8s %8.2f %% %10.2f %% %14.2f %14.2f%n",
+                    String.format("%.0f %%", sparsity * 100d),
+                    kernel,
+                    prunedAccuracy * 100d,
+                    fineTunedAccuracy * 100d,
+                    denseMicros,
+                    sparseMicros
+            );
+        }
+    }
+
+    /**
+     * Forces a kernel on the pruned layers and times single digit classification.
+     *
+     * @param network Pruned network
+     * @param validation Digits to classify
+     * @param densityThreshold Threshold that picks the kernel, -1 forces the dense one and 1 the sparse one
+     * @return Time to classify one digit, in microseconds
+     */
+    private static double microsPerDigit(NeuralNetwork network, double[][] validation, double densityThreshold) {
+        for (int layerIndex = 0; layerIndex < network.layers.length - 1; layerIndex++) {
+            network.layers[layerIndex].compress(densityThreshold);
+        }
+
+        long start = 0;
+        for (int round = 0; round < 20; round++) {
+            // The first rounds warm up the kernel.
+            if (round == 10) {
+                start = System.nanoTime();
+            }
+
+            for (double[] digit : validation) {
+                network.classify(digit);
+            }
+        }
+        double micros = (System.nanoTime() - start) / 1e3d / (validation.length * 10d);
+
+        // Restores the kernel picked by the threshold in Settings.
+        for (int layerIndex = 0; layerIndex < network.layers.length - 1; layerIndex++) {
+            network.layers[layerIndex].compress(Settings.SPARSE_DENSITY_THRESHOLD);
+        }
+
+        return micros;
+    }
+
+}
@@ -0,0 +1,75 @@
+package me.bausano.algorithms.neuralnetwork;
+
+import me.bausano.DataSet;
+import me.bausano.Settings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrainerBenchmark {
+
+    /**
+     * Number of neurons in the hidden layer.
+     */
+    @Param({ "16", "37", "128" })
+    public int hiddenNeurons;
+
+    /**
+     * Whether the trainer backpropagates whole batches as matrices.
+     */
+    @Param({ "false", "true" })
+    public boolean batched;
+
+    /**
+     * Network the trainer changes.
+     */
+    private NeuralNetwork network;
+
+    /**
+     * Trainer over the training data.
+     */
+    private Trainer trainer;
+
+    /**
+     * Builds the network of the requested shape and its trainer.
+     *
+     * @throws IOException If the data file is missing
+     */
+    @Setup
+    public void setUp() throws IOException {
+        double[][] training = DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), -1).setForTraining;
+
+        network = NeuralNetwork.fromBlueprint(new int[] { Settings.INPUT_NEURONS, hiddenNeurons, 10 });
+        trainer = new Trainer(network, training);
+        trainer.setBatched(batched);
+    }
+
+    /**
+     * One pass of the trainer over the whole training file.
+     */
+    @Benchmark
+    public NeuralNetwork trainerEpoch() {
+        trainer.trainEpoch(0);
+
+        return network;
+    }
+
+}
@@ -0,0 +1,134 @@
+package me.bausano.server;
+
+import me.bausano.DataSet;
+import me.bausano.DataView;
+import me.bausano.Hyperparameters;
+import me.bausano.Settings;
+import me.bausano.algorithms.neuralnetwork.NeuralNetwork;
+import me.bausano.algorithms.neuralnetwork.Trainer;
+import me.bausano.instrumentation.LatencyHistogram;
+import me.bausano.validation.CrossValidator;
+
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reports the latencies readers of a ModelHolder see while the served network is retrained and swapped.
+ */
+public class ModelHolderReport {
+
+    /**
+     * Serves a briefly trained network from a few threads, retrains it in the background and swaps the retrained
+     * network in. Then it retrains it on shuffled classes, which the accuracy gate has to reject. The readers classify
+     * the testing digits the whole time and the latencies they see are reported for each phase. The argument is the
+     * number of reader threads, which defaults to the number of processors.
+     *
+     * @param args Console arguments
+     * @throws Exception Exceptions are thrown into stdout
+     */
+    public static void main(String[] args) throws Exception {
+        int readerCount = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+
+        DataSet split = DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), 1);
+        double[][] training = split.setForTraining;
+        DataView validation = DataView.of(split.setForValidation);
+        double[][] testing = DataSet.from(Paths.get(Settings.TESTING_FILE_PATH), -1).setForTraining;
+
+        // Shuffled classes make a model that the gate must not let through.
+        Random random = new Random(42);
+        double[][] shuffled = new double[training.length][];
+        for (int digitIndex = 0; digitIndex < training.length; digitIndex++) {
+            shuffled[digitIndex] = training[digitIndex].clone();
+            shuffled[digitIndex][shuffled[digitIndex].length - 1] = random.nextInt(Settings.OUTPUT_CLASSES_COUNT);
+        }
+
+        NeuralNetwork network = NeuralNetwork.fromBlueprint(
+                Hyperparameters.defaults().blueprint(DataSet.inputNeuronsOf(training)),
+                new Random(42)
+        );
+        new Trainer(network, training).train(2);
+
+        AtomicReference<LatencyHistogram> phase = new AtomicReference<>(new LatencyHistogram());
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread[] readers = new Thread[readerCount];
+
+        try (ModelHolder<NeuralNetwork> holder = new ModelHolder<>(network, NeuralNetwork::copy)) {
+            for (int readerIndex = 0; readerIndex < readerCount; readerIndex++) {
+                int offset = readerIndex;
+                readers[readerIndex] = new Thread(() -> {
+                    for (int digitIndex = offset; running.get(); digitIndex++) {
+                        double[] digit = testing[digitIndex % testing.length];
+                        long start = System.nanoTime();
+                        holder.classify(digit);
+                        phase.get().record(System.nanoTime() - start);
+                    }
+                }, "reader-" + readerIndex);
+                readers[readerIndex].setDaemon(true);
+                readers[readerIndex].start();
+            }
+
+            System.out.println("\n> HOT MODEL SWAP");
+            System.out.printf(
+                    "%d readers, gate tolerance 0.5 %% on %d validation digits.%n",
+                    readerCount,
+                    validation.size()
+            );
+            System.out.printf(
+                    "%-20s %12s %10s %10s %10s %10s %10s%n",
+                    "phase",
+                    "classified",
+                    "mean us",
+                    "p99 us",
+                    "max us",
+                    "published",
+                    "accuracy"
+            );
+
+            Thread.sleep(1000);
+            printPhase("serving", phase, testing, "-", holder);
+
+            boolean retrained = holder.retrain(model -> new Trainer(model, training).train(), validation, 0.005d)
+                    .get();
+            printPhase("retraining", phase, testing, String.valueOf(retrained), holder);
+
+            Thread.sleep(1000);
+            printPhase("serving retrained", phase, testing, "-", holder);
+
+            boolean scrambled = holder.retrain(model -> new Trainer(model, shuffled).train(20), validation, 0.005d)
+                    .get();
+            printPhase("shuffled classes", phase, testing, String.valueOf(scrambled), holder);
+
+            System.out.printf("Published %d times, rejected %d.%n", holder.version(), holder.rejections());
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Prints the latencies of the phase that just ended and starts the next phase.
+     *
+     * @param title Name of the phase
+     * @param phase Latencies of the phase, replaced by an empty histogram
+     * @param testing Digits the served model is scored on
+     * @param published Whether the phase published a model
+     * @param holder Holder the readers are served by
+     */
+    private static void printPhase(String title, AtomicReference<LatencyHistogram> phase, double[][] testing,
+                                   String published, ModelHolder<NeuralNetwork> holder) {
+        LatencyHistogram latencies = phase.getAndSet(new LatencyHistogram());
+
+        System.out.printf(
+                "%-20s %12d %10.1f %10.1f %10.1f %10s %8.2f %%%n",
+                title,
+                latencies.count(),
+                latencies.mean() / 1e3d,
+                latencies.percentile(0.99d) / 1e3d,
+                latencies.max() / 1e3d,
+                published,
+                CrossValidator.accuracy(holder.current(), DataView.of(testing)) * 100d
+        );
+    }
+
+}
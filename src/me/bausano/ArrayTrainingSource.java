@@ -0,0 +1,104 @@
+package me.bausano;
+
+import java.util.Random;
+
+/**
+ * Training source over digits that are already on the heap. Every pass deals the digits out in chunks of a new random
+ * order. The digits are shared rather than copied.
+ */
+public class ArrayTrainingSource implements TrainingSource {
+
+    /**
+     * Digits to hand out.
+     */
+    private final double[][] data;
+
+    /**
+     * Indices of the digits in the order of the current pass.
+     */
+    private final int[] order;
+
+    /**
+     * Chunk handed out last, reused between calls.
+     */
+    private final double[][] chunk;
+
+    /**
+     * Source of the order of each pass.
+     */
+    private final Random random;
+
+    /**
+     * Position of the next chunk within the pass.
+     */
+    private int position = 0;
+
+    /**
+     * @param data Digits to hand out
+     * @param chunkSize How many digits each chunk has, the last chunk of a pass may have fewer
+     * @param random Source of the order of each pass
+     */
+    public ArrayTrainingSource(double[][] data, int chunkSize, Random random) {
+        this.data = data;
+        this.order = new int[data.length];
+        this.chunk = new double[Math.max(1, chunkSize)][];
+        this.random = random;
+
+        for (int index = 0; index < order.length; index++) {
+            order[index] = index;
+        }
+        shuffle(order, random);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public double[][] nextChunk() {
+        if (position >= data.length) {
+            position = 0;
+            shuffle(order, random);
+            return null;
+        }
+
+        int count = Math.min(chunk.length, data.length - position);
+        double[][] digits = count == chunk.length ? chunk : new double[count][];
+        for (int index = 0; index < count; index++) {
+            digits[index] = data[order[position + index]];
+        }
+        position += count;
+
+        return digits;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public int size() {
+        return data.length;
+    }
+
+    /**
+     * Nothing to release.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Fisher-Yates shuffle of the indices.
+     *
+     * @param indices Indices to shuffle in place
+     * @param random Source of the order
+     */
+    static void shuffle(int[] indices, Random random) {
+        for (int index = indices.length - 1; index > 0; index--) {
+            int other = random.nextInt(index + 1);
+            int swapped = indices[index];
+            indices[index] = indices[other];
+            indices[other] = swapped;
+        }
+    }
+
+}
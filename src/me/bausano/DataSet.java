@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
 
 public class DataSet {
 
@@ -17,15 +19,36 @@ public class DataSet {
      */
     public final double[][] setForValidation;
 
+    /**
+     * How many pixels are on one row of an image.
+     */
+    public final int width;
+
+    /**
+     * How many rows an image has.
+     */
+    public final int height;
+
+    /**
+     * How many classes the digits fall into.
+     */
+    public final int classCount;
+
     /**
      * Instantiates data for training.
      *
      * @param trainingData Array of digits that are going to be used for training
      * @param validatingData Array of digits that are going to be used for validation
+     * @param width How many pixels are on one row of an image
+     * @param height How many rows an image has
+     * @param classCount How many classes the digits fall into
      */
-    private DataSet(double[][] trainingData, double[][] validatingData) {
+    private DataSet(double[][] trainingData, double[][] validatingData, int width, int height, int classCount) {
         this.setForTraining = trainingData;
         this.setForValidation = validatingData;
+        this.width = width;
+        this.height = height;
+        this.classCount = classCount;
     }
 
     /**
@@ -39,17 +62,121 @@ public class DataSet {
      *                      input file
      */
     public static DataSet from (Path path, int factor) throws IOException {
+        return from(path, factor, Settings.FILTERS);
+    }
+
+    /**
+     * DataSet builder that maps the digits through given filters. An empty array of filters keeps only the raw pixels,
+     * which is three times less memory than the defaults and is all that networks with a convolutional layer read.
+     *
+     * @param path Path to the data file
+     * @param factor What part of the data is meant to be used for training and what for validating
+     * @param filters Filters to map the digits through
+     * @throws IOException If the file cannot be read
+     */
+    public static DataSet from (Path path, int factor, double[][][] filters) throws IOException {
         double[][] data = Files.lines(path)
             .filter((String line) -> !line.equals(""))
             .map(String::trim)
-            .map(DataSet::convertToDigit)
+            .map((String line) -> convertToDigit(line, filters))
             .toArray(double[][]::new);
 
+        return split(data, factor, Settings.IMAGE_WIDTH, Settings.IMAGE_HEIGHT, Settings.OUTPUT_CLASSES_COUNT);
+    }
+
+    /**
+     * DataSet builder for MNIST style data sets in the IDX binary format, such as train-images-idx3-ubyte with
+     * train-labels-idx1-ubyte. Both files are memory mapped and the digits are mapped through the default filters.
+     * Factor splits the data in the same way as for text files.
+     *
+     * @param images Path to the decompressed IDX file with images
+     * @param labels Path to the decompressed IDX file with labels
+     * @param factor What part of the data is meant to be used for training and what for validating
+     * @throws IOException If either of the files cannot be read
+     */
+    public static DataSet fromIdx(Path images, Path labels, int factor) throws IOException {
+        return fromIdx(images, labels, factor, Settings.FILTERS);
+    }
+
+    /**
+     * DataSet builder for MNIST style data sets in the IDX binary format. Each filter adds as many inputs as there are
+     * pixels, so on 28x28 images an empty array of filters keeps the data set three times smaller than the defaults.
+     * Pixels are scaled by Settings.IDX_PIXEL_SCALE into the range of the bundled data set.
+     *
+     * @param images Path to the decompressed IDX file with images
+     * @param labels Path to the decompressed IDX file with labels
+     * @param factor What part of the data is meant to be used for training and what for validating
+     * @param filters Filters to map the digits through
+     * @throws IOException If either of the files cannot be read
+     * @throws IllegalArgumentException If the files do not hold images and labels of the same digits
+     */
+    public static DataSet fromIdx(Path images, Path labels, int factor, double[][][] filters) throws IOException {
+        IdxFile imageFile = IdxFile.map(images);
+        IdxFile labelFile = IdxFile.map(labels);
+
+        if (imageFile.dimensions.length != 3 || labelFile.dimensions.length != 1) {
+            throw new IllegalArgumentException("Expected a file of 2D images and a file of labels.");
+        }
+
+        if (imageFile.count() != labelFile.count()) {
+            throw new IllegalArgumentException(
+                    imageFile.count() + " images do not match " + labelFile.count() + " labels."
+            );
+        }
+
+        int height = imageFile.dimensions[1];
+        int width = imageFile.dimensions[2];
+        int pixels = imageFile.itemSize;
+
+        int classCount = 0;
+        for (int item = 0; item < labelFile.count(); item++) {
+            classCount = Math.max(classCount, labelFile.valueAt(item, 0) + 1);
+        }
+
+        if (classCount > Settings.OUTPUT_CLASSES_COUNT) {
+            throw new IllegalArgumentException(
+                    "The classifiers support " + Settings.OUTPUT_CLASSES_COUNT + " classes, got " + classCount + "."
+            );
+        }
+
+        // Digits are independent of each other, so they are decoded in parallel straight from the mapped files.
+        double[][] data = IntStream.range(0, imageFile.count())
+                .parallel()
+                .mapToObj((int item) -> {
+                    double[] digit = new double[pixels + 1];
+                    for (int pixel = 0; pixel < pixels; pixel++) {
+                        digit[pixel] = imageFile.valueAt(item, pixel) * Settings.IDX_PIXEL_SCALE;
+                    }
+                    digit[pixels] = labelFile.valueAt(item, 0);
+
+                    return mapDigitThroughFilters(digit, filters, width, height);
+                })
+                .toArray(double[][]::new);
+
+        return split(data, factor, width, height, classCount);
+    }
+
+    /**
+     * Splits the data into training and validating sets, see DataSet::from for what the factor means.
+     *
+     * @param data All digits
+     * @param factor What part of the data is meant to be used for training and what for validating
+     * @param width How many pixels are on one row of an image
+     * @param height How many rows an image has
+     * @param classCount How many classes the digits fall into
+     * @return New data set
+     */
+    private static DataSet split(double[][] data, int factor, int width, int height, int classCount) {
+        int rowLength = data.length == 0 ? width * height + 1 : data[0].length;
+
         // If factor is zero, initiates new validation data set. Useful for testing data inputs.
         if (factor == 0) {
             return new DataSet(
-                    new double[0][Settings.INPUT_PARAMETERS],
-                    data
+                    new double[0][rowLength],
+                    data,
+                    width,
+                    height,
+                    classCount
             );
         }
 
@@ -57,7 +184,10 @@ public class DataSet {
         if (factor == -1) {
             return new DataSet(
                     data,
-                    new double[0][Settings.INPUT_PARAMETERS]
+                    new double[0][rowLength],
+                    width,
+                    height,
+                    classCount
             );
         }
 
@@ -67,36 +197,222 @@ public class DataSet {
         // Splits the data into two arrays.
         return new DataSet(
                 Arrays.copyOfRange(data, 0, boundaryIndex),
-                Arrays.copyOfRange(data, boundaryIndex, data.length)
+                Arrays.copyOfRange(data, boundaryIndex, data.length),
+                width,
+                height,
+                classCount
         );
     }
 
     /**
-     * Converts line to digit. A digit is represented by an array of 65 integers.
+     * @return How many inputs each digit has, that is the pixels and their mappings through filters without the class
+     */
+    public int inputNeurons() {
+        return inputNeuronsOf(setForTraining.length > 0 ? setForTraining : setForValidation);
+    }
+
+    /**
+     * Derives the number of network inputs from the digits themselves, so that models built for them fit any image
+     * geometry and any number of filters.
+     *
+     * @param data Digits where the last value is the class
+     * @return How many inputs each digit has, Settings.INPUT_NEURONS if there are no digits to look at
+     */
+    public static int inputNeuronsOf(double[][] data) {
+        return data.length == 0 ? Settings.INPUT_NEURONS : data[0].length - 1;
+    }
+
+    /**
+     * Splits the data into k folds of consecutive digits. Each fold validates on its own digits and trains on the
+     * digits of all other folds. The folds are views, so no digits are copied no matter how many folds there are.
+     *
+     * @param data Digits to split, where the last value of each digit is its class
+     * @param k Number of folds
+     * @return Array of k folds
+     * @throws IllegalArgumentException If k is below 2 or above the number of digits
+     */
+    public static Fold[] folds(double[][] data, int k) {
+        checkFoldCount(data, k);
+        int[] foldOfDigit = new int[data.length];
+
+        // Fold boundaries are spread evenly, so that fold sizes differ by one at most.
+        for (int digitIndex = 0; digitIndex < data.length; digitIndex++) {
+            foldOfDigit[digitIndex] = (int) ((long) digitIndex * k / data.length);
+        }
+
+        return foldsFromAssignment(data, foldOfDigit, k);
+    }
+
+    /**
+     * Splits the data into k folds so that each fold has about the same share of every class. The digits of each class
+     * are dealt to the folds in turns, and each class starts dealing at the fold where the previous class stopped. The
+     * remainders of the classes therefore rotate through the folds rather than all landing in the first ones, and the
+     * fold sizes differ by one at most.
+     *
+     * @param data Digits to split, where the last value of each digit is its class
+     * @param k Number of folds
+     * @return Array of k folds
+     * @throws IllegalArgumentException If k is below 2 or above the number of digits
+     */
+    public static Fold[] stratifiedFolds(double[][] data, int k) {
+        checkFoldCount(data, k);
+        int[] foldOfDigit = new int[data.length];
+        int[] membersOfClass = new int[Settings.OUTPUT_CLASSES_COUNT];
+        for (double[] digit : data) {
+            membersOfClass[(int) digit[digit.length - 1]]++;
+        }
+
+        // Fold the dealing of each class starts at, which is where the classes before it left off.
+        int[] seenOfClass = new int[Settings.OUTPUT_CLASSES_COUNT];
+        for (int classIndex = 1; classIndex < seenOfClass.length; classIndex++) {
+            seenOfClass[classIndex] = (seenOfClass[classIndex - 1] + membersOfClass[classIndex - 1]) % k;
+        }
+
+        for (int digitIndex = 0; digitIndex < data.length; digitIndex++) {
+            int target = (int) data[digitIndex][data[digitIndex].length - 1];
+            foldOfDigit[digitIndex] = seenOfClass[target]++ % k;
+        }
+
+        return foldsFromAssignment(data, foldOfDigit, k);
+    }
+
+    /**
+     * Every fold needs a digit to validate on and some to train on.
+     *
+     * @param data Digits to split
+     * @param k Number of folds
+     * @throws IllegalArgumentException If k is below 2 or above the number of digits
+     */
+    private static void checkFoldCount(double[][] data, int k) {
+        if (k < 2 || k > data.length) {
+            throw new IllegalArgumentException(
+                    "Cannot split " + data.length + " digits into " + k + " folds, k has to be from 2 to the number of"
+                            + " digits."
+            );
+        }
+    }
+
+    /**
+     * Builds the fold views once each digit has been assigned to its fold.
+     *
+     * @param data Digits to split
+     * @param foldOfDigit Index of the fold each digit validates in
+     * @param k Number of folds
+     * @return Array of k folds
+     */
+    private static Fold[] foldsFromAssignment(double[][] data, int[] foldOfDigit, int k) {
+        int[] foldSizes = new int[k];
+        for (int fold : foldOfDigit) {
+            foldSizes[fold]++;
+        }
+
+        Fold[] folds = new Fold[k];
+        for (int fold = 0; fold < k; fold++) {
+            int[] training = new int[data.length - foldSizes[fold]];
+            int[] validation = new int[foldSizes[fold]];
+            int trainingCount = 0;
+            int validationCount = 0;
+
+            for (int digitIndex = 0; digitIndex < data.length; digitIndex++) {
+                if (foldOfDigit[digitIndex] == fold) {
+                    validation[validationCount++] = digitIndex;
+                } else {
+                    training[trainingCount++] = digitIndex;
+                }
+            }
+
+            folds[fold] = new Fold(new DataView(data, training), new DataView(data, validation));
+        }
+
+        return folds;
+    }
+
+    /**
+     * Converts line of the bundled data files to digit. A digit is represented by an array of 65 integers.
      *
      * @param line A single line from the data set file
+     * @param filters Filters to map the digit through
      * @return Array of doubles representing pixels and the last integer represents the class
      */
-    private static double[] convertToDigit(String line) {
+    private static double[] convertToDigit(String line, double[][][] filters) {
         return mapDigitThroughFilters(
                 Arrays.stream(line.split(","))
                         .mapToDouble(Double::parseDouble)
                         .toArray(),
-                Settings.FILTERS
+                filters,
+                Settings.IMAGE_WIDTH,
+                Settings.IMAGE_HEIGHT
         );
     }
 
+    /**
+     * Parses a single digit that does not have to come with its class, for example one received over the network.
+     * If the class is missing, the class slot is filled with -1 so that the layout of the digit matches the digits
+     * loaded from data files.
+     *
+     * @param line Comma separated pixels, optionally followed by the class
+     * @return Array of doubles representing pixels mapped through filters and the class
+     * @throws IllegalArgumentException If the line does not contain the expected number of values
+     */
+    public static double[] parseDigit(String line) {
+        double[] values = Arrays.stream(line.trim().split(","))
+                .mapToDouble(Double::parseDouble)
+                .toArray();
+
+        // Appends the unknown class so that the filters do not mistake the last pixel for the class.
+        if (values.length == Settings.INPUT_PARAMETERS) {
+            values = Arrays.copyOf(values, Settings.INPUT_PARAMETERS + 1);
+            values[Settings.INPUT_PARAMETERS] = -1;
+        }
+
+        if (values.length != Settings.INPUT_PARAMETERS + 1) {
+            throw new IllegalArgumentException(
+                    "Expected " + Settings.INPUT_PARAMETERS + " pixels but got " + values.length + " values."
+            );
+        }
+
+        return mapDigitThroughFilters(values, Settings.FILTERS, Settings.IMAGE_WIDTH, Settings.IMAGE_HEIGHT);
+    }
+
+    /**
+     * Changes each pixel of a digit by a small random whole number and maps it through the filters again, which makes a
+     * new plausible digit of the same class. Pixels stay within the 0 - Settings.MAX_PIXEL_VALUE range.
+     *
+     * @param digit Digit mapped through given filters, where the last value is the class
+     * @param amplitude Upper bound on how much each pixel changes in either direction
+     * @param random Source of the changes
+     * @param filters Filters the digit was mapped through
+     * @param width How many pixels are on one row of the image
+     * @param height How many rows the image has
+     * @return New jittered digit with the same class
+     */
+    public static double[] jitter(double[] digit, int amplitude, Random random, double[][][] filters, int width,
+                                  int height) {
+        double[] jittered = new double[width * height + 1];
+        jittered[jittered.length - 1] = digit[digit.length - 1];
+
+        for (int pixel = 0; pixel < width * height; pixel++) {
+            double value = digit[pixel] + random.nextInt(2 * amplitude + 1) - amplitude;
+            jittered[pixel] = Math.max(0d, Math.min(Settings.MAX_PIXEL_VALUE, value));
+        }
+
+        return mapDigitThroughFilters(jittered, filters, width, height);
+    }
+
     /**
      * Maps digit through given filter. This is usually a 3x3 matrix of weights that highlight certain feature in the
      * image, such as edges.
      *
      * @param digit Original digit
      * @param filters Matrix of weights
+     * @param width How many pixels are on one row of the image
+     * @param height How many rows the image has
      * @return Changed digit
      */
-    private static double[] mapDigitThroughFilters(double[] digit, double[][][] filters) {
+    static double[] mapDigitThroughFilters(double[] digit, double[][][] filters, int width, int height) {
+        int pixels = width * height;
         // New image will be composed out of the main image and its mutations under each filter plus the target.
-        double[] output = new double[Settings.INPUT_PARAMETERS * (filters.length + 1) + 1];
+        double[] output = new double[pixels * (filters.length + 1) + 1];
         // Sets the last value as target (classification 0 - 9).
         output[output.length - 1] = digit[digit.length - 1];
 
@@ -106,9 +422,9 @@ public class DataSet {
         for (int filterIndex = 0; filterIndex < filters.length; filterIndex++) {
             // Filters each pixel through a matrix (usually 3x3) with weights. The matrix is set to benefit certain shapes
             // such as corners.
-            for (int pixel = 0; pixel < Settings.INPUT_PARAMETERS; pixel++) {
-                double mappedValue = mapFilterToPixel(digit, pixel, filters[filterIndex]);
-                output[pixel + Settings.INPUT_PARAMETERS * (filterIndex + 1)] = mappedValue;
+            for (int pixel = 0; pixel < pixels; pixel++) {
+                double mappedValue = mapFilterToPixel(digit, pixel, filters[filterIndex], width, pixels);
+                output[pixel + pixels * (filterIndex + 1)] = mappedValue;
             }
         }
 
@@ -121,12 +437,11 @@ public class DataSet {
      * @param digit Original input image
      * @param pixel Pixel index to map
      * @param filter Filter matrix to apply
+     * @param rowLength How many pixels are on one row of the digit
+     * @param pixels How many pixels the digit has
      * @return Value for given pixel in given point
      */
-    private static double mapFilterToPixel(double[] digit, int pixel, double[][] filter) {
-        // How many pixels are on one row of the digit.
-        int rowLength = (int) Math.sqrt(Settings.INPUT_PARAMETERS);
-
+    private static double mapFilterToPixel(double[] digit, int pixel, double[][] filter, int rowLength, int pixels) {
         // New pixel value.
         double checksum = 0d;
         // Multiplies values of each neighbour pixel with one weight from the filter.
@@ -134,12 +449,10 @@ public class DataSet {
             for (int filterColumn = 0; filterColumn < filter[rowShift].length; filterColumn++) {
                 int targetPixel = rowLength * rowShift + pixel + filterColumn;
 
-                // Add check for the pixels that are on the edges (both vertically and horizontally). Prevents
-                // index out of bounds error.
-                if (
-                        targetPixel >= (Math.floor((double) targetPixel / rowLength) + 1) * rowLength ||
-                        targetPixel > Settings.INPUT_PARAMETERS
-                ) {
+                // Add check for the pixels that are on the edges (both vertically and horizontally). Pixels past the
+                // right edge would wrap around to the next row and pixels past the bottom edge would read the class of
+                // the digit, which sits right after the last pixel.
+                if (pixel % rowLength + filterColumn >= rowLength || targetPixel >= pixels) {
                     break;
                 }
 
@@ -0,0 +1,72 @@
+package me.bausano;
+
+/**
+ * Read only view of selected rows of a data set. The view holds indices into the data set rather than the rows, so that
+ * splitting the data into many views never copies the digits.
+ */
+public class DataView {
+
+    /**
+     * Data set the view looks into.
+     */
+    private final double[][] data;
+
+    /**
+     * Indices of the rows the view consists of.
+     */
+    private final int[] indices;
+
+    /**
+     * @param data Data set the view looks into
+     * @param indices Indices of the rows the view consists of
+     */
+    public DataView(double[][] data, int[] indices) {
+        this.data = data;
+        this.indices = indices;
+    }
+
+    /**
+     * @param data Data set to view
+     * @return View of all rows of the data set
+     */
+    public static DataView of(double[][] data) {
+        int[] indices = new int[data.length];
+        for (int index = 0; index < indices.length; index++) {
+            indices[index] = index;
+        }
+
+        return new DataView(data, indices);
+    }
+
+    /**
+     * @return Number of digits in the view
+     */
+    public int size() {
+        return indices.length;
+    }
+
+    /**
+     * @param index Index within the view
+     * @return Digit from the underlying data set, shared rather than copied
+     */
+    public double[] get(int index) {
+        return data[indices[index]];
+    }
+
+    /**
+     * Collects references to the rows of the view for the algorithms that take a plain array. The digits themselves
+     * are shared with the underlying data set.
+     *
+     * @return Array of references to the digits of the view
+     */
+    public double[][] rows() {
+        double[][] rows = new double[indices.length][];
+
+        for (int index = 0; index < indices.length; index++) {
+            rows[index] = data[indices[index]];
+        }
+
+        return rows;
+    }
+
+}
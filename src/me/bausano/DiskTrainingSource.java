@@ -0,0 +1,429 @@
+package me.bausano;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Training source that streams the digits from a binary file, so that there can be more training digits than fit the
+ * heap. The file is split into chunks of consecutive digits. Every pass reads the chunks in a new random order and
+ * shuffles the digits within each chunk, which mixes the digits of the whole file as long as a chunk holds digits of
+ * all classes.
+ *
+ * With prefetching, a background thread reads the next chunk while the trainer learns the current one. There are two
+ * chunk buffers, the trainer learns from one while the thread fills the other, and they swap at each call. The reading
+ * then overlaps with the learning and the heap holds two chunks however large the file is. Without prefetching the
+ * chunks are read on the calling thread, which waits for each of them.
+ *
+ * The file starts with two ints, the number of values of one digit and the number of digits, followed by the values
+ * of the digits as doubles, all little endian. See write.
+ */
+public class DiskTrainingSource implements TrainingSource {
+
+    /**
+     * Size of the header of the file in bytes.
+     */
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+    /**
+     * How many digits write encodes at a time.
+     */
+    private static final int WRITE_BLOCK_SIZE = 256;
+
+    /**
+     * File the digits are read from.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Number of values of one digit, the class included.
+     */
+    private final int rowLength;
+
+    /**
+     * Number of digits in the file.
+     */
+    private final int size;
+
+    /**
+     * Number of digits in a chunk, the last chunk of the file may have fewer.
+     */
+    private final int chunkSize;
+
+    /**
+     * Indices of the chunks in the order of the pass that is being read.
+     */
+    private final int[] order;
+
+    /**
+     * Source of the order of the chunks and of the digits within them.
+     */
+    private final Random random;
+
+    /**
+     * Bytes of the chunk that is being read, owned by the reading thread.
+     */
+    private final ByteBuffer bytes;
+
+    /**
+     * Position of the next chunk to read within the order.
+     */
+    private int position = 0;
+
+    /**
+     * Buffers the reading thread may fill.
+     */
+    private final BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(2);
+
+    /**
+     * Buffers filled by the reading thread, in the order they are to be learned.
+     */
+    private final BlockingQueue<Chunk> filled = new ArrayBlockingQueue<>(2);
+
+    /**
+     * Thread that reads ahead, or null when the chunks are read on the calling thread.
+     */
+    private final Thread prefetcher;
+
+    /**
+     * Chunk the trainer is learning from, or null between passes.
+     */
+    private Chunk current;
+
+    /**
+     * Opens the file and, with prefetching, starts reading the first chunk right away.
+     *
+     * @param path File written by write
+     * @param chunkSize Number of digits in a chunk
+     * @param prefetch Whether a background thread reads the next chunk while the current one is learned
+     * @param random Source of the order of the chunks and of the digits within them
+     * @throws IOException If the file cannot be opened or its header cannot be read
+     * @throws IllegalArgumentException If the header does not match the length of the file
+     */
+    public DiskTrainingSource(Path path, int chunkSize, boolean prefetch, Random random) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.random = random;
+
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(header, 0);
+            header.flip();
+
+            this.rowLength = header.getInt();
+            this.size = header.getInt();
+            if (rowLength <= 0 || size < 0 || channel.size() != HEADER_BYTES + (long) size * rowLength * Double.BYTES) {
+                throw new IllegalArgumentException(path + " is not a file of training digits.");
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        this.chunkSize = Math.max(1, Math.min(chunkSize, Math.max(1, size)));
+        this.bytes = ByteBuffer.allocate(this.chunkSize * rowLength * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        this.order = new int[(size + this.chunkSize - 1) / this.chunkSize];
+        for (int index = 0; index < order.length; index++) {
+            order[index] = index;
+        }
+        ArrayTrainingSource.shuffle(order, random);
+
+        free.add(new Chunk(this.chunkSize, rowLength));
+        if (prefetch) {
+            free.add(new Chunk(this.chunkSize, rowLength));
+            prefetcher = new Thread(this::prefetch, "training-prefetch");
+            prefetcher.setDaemon(true);
+            prefetcher.start();
+        } else {
+            prefetcher = null;
+        }
+    }
+
+    /**
+     * Writes digits into a file the source can read. The digits are streamed, so they do not have to fit the heap
+     * either, for example when they are parsed line by line from a text file.
+     *
+     * @param digits Digits of the same length where last value is the class
+     * @param path File to create or overwrite
+     * @return Number of digits written
+     * @throws IOException If the file cannot be written
+     * @throws IllegalArgumentException If the digits differ in length
+     */
+    public static int write(Iterator<double[]> digits, Path path) throws IOException {
+        try (FileChannel output = FileChannel.open(
+                path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE
+        )) {
+            output.position(HEADER_BYTES);
+
+            int rowLength = -1;
+            int count = 0;
+            ByteBuffer block = null;
+
+            while (digits.hasNext()) {
+                double[] digit = digits.next();
+                if (block == null) {
+                    rowLength = digit.length;
+                    block = ByteBuffer.allocate(WRITE_BLOCK_SIZE * rowLength * Double.BYTES)
+                            .order(ByteOrder.LITTLE_ENDIAN);
+                } else if (digit.length != rowLength) {
+                    throw new IllegalArgumentException(
+                            "Digit " + count + " has " + digit.length + " values, expected " + rowLength + "."
+                    );
+                }
+
+                block.asDoubleBuffer().put(digit);
+                block.position(block.position() + rowLength * Double.BYTES);
+                count++;
+
+                if (!block.hasRemaining()) {
+                    writeFully(output, block);
+                }
+            }
+
+            if (block != null) {
+                writeFully(output, block);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(Math.max(rowLength, 1)).putInt(count).flip();
+            output.write(header, 0);
+
+            return count;
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public double[][] nextChunk() {
+        try {
+            if (prefetcher == null) {
+                if (current == null) {
+                    current = free.take();
+                }
+                fill(current);
+            } else {
+                // Hands the chunk learned last back to the reading thread, which is by now filling the other one.
+                if (current != null) {
+                    free.put(current);
+                }
+                current = filled.take();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for training digits.", e);
+        }
+
+        if (current.error != null) {
+            throw new UncheckedIOException(current.error);
+        }
+
+        if (current.endOfPass) {
+            // The marker holds no digits, so it goes straight back to be filled.
+            if (prefetcher != null) {
+                free.add(current);
+                current = null;
+            }
+
+            return null;
+        }
+
+        return current.digits();
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Stops the reading thread and closes the file.
+     *
+     * @throws IOException If the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (prefetcher != null) {
+            prefetcher.interrupt();
+
+            try {
+                prefetcher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        channel.close();
+    }
+
+    /**
+     * Body of the reading thread. It fills chunks pass after pass until the source is closed, at most two ahead of
+     * the trainer as there are only two buffers.
+     */
+    private void prefetch() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Chunk chunk = free.take();
+
+                try {
+                    fill(chunk);
+                } catch (IOException e) {
+                    chunk.error = e;
+                    filled.put(chunk);
+                    return;
+                }
+
+                filled.put(chunk);
+            }
+        } catch (InterruptedException e) {
+            // The source has been closed.
+        }
+    }
+
+    /**
+     * Reads the next chunk of the pass into a buffer and shuffles its digits, or marks the end of the pass and starts
+     * the next one in a new order.
+     *
+     * @param chunk Buffer to fill
+     * @throws IOException If the file cannot be read
+     */
+    private void fill(Chunk chunk) throws IOException {
+        if (position == order.length) {
+            position = 0;
+            ArrayTrainingSource.shuffle(order, random);
+            chunk.endOfPass = true;
+            return;
+        }
+
+        int first = order[position++] * chunkSize;
+        int count = Math.min(chunkSize, size - first);
+
+        bytes.clear().limit(count * rowLength * Double.BYTES);
+        readFully(bytes, HEADER_BYTES + (long) first * rowLength * Double.BYTES);
+        bytes.flip();
+
+        DoubleBuffer values = bytes.asDoubleBuffer();
+        for (int index = 0; index < count; index++) {
+            values.get(chunk.rows[index]);
+        }
+
+        // Fisher-Yates shuffle of the digits of the chunk, the rows only swap places within the buffer.
+        for (int index = count - 1; index > 0; index--) {
+            int other = random.nextInt(index + 1);
+            double[] swapped = chunk.rows[index];
+            chunk.rows[index] = chunk.rows[other];
+            chunk.rows[other] = swapped;
+        }
+
+        chunk.count = count;
+        chunk.endOfPass = false;
+    }
+
+    /**
+     * Reads from the file until the buffer is full.
+     *
+     * @param buffer Buffer to fill up to its limit
+     * @param offset Position in the file to read from
+     * @throws IOException If the file ends before the buffer is full or cannot be read
+     */
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("The file of training digits ends early.");
+            }
+
+            position += read;
+        }
+    }
+
+    /**
+     * Writes the encoded digits of a block and clears it.
+     *
+     * @param output File to write to
+     * @param block Encoded digits up to its position
+     * @throws IOException If the file cannot be written
+     */
+    private static void writeFully(FileChannel output, ByteBuffer block) throws IOException {
+        block.flip();
+        while (block.hasRemaining()) {
+            output.write(block);
+        }
+        block.clear();
+    }
+
+    /**
+     * Buffer of one chunk. The rows are allocated once and overwritten by every chunk read into the buffer.
+     */
+    private static class Chunk {
+
+        /**
+         * Digits of the chunk, only the first count are valid.
+         */
+        final double[][] rows;
+
+        /**
+         * Number of valid digits.
+         */
+        int count;
+
+        /**
+         * Whether the buffer marks the end of a pass rather than holding digits.
+         */
+        boolean endOfPass;
+
+        /**
+         * Error the reading thread ran into, which the trainer rethrows.
+         */
+        IOException error;
+
+        /**
+         * References to the valid digits of a chunk shorter than the buffer, reused while the length stays.
+         */
+        private double[][] shorter = new double[0][];
+
+        /**
+         * @param chunkSize Number of digits in a chunk
+         * @param rowLength Number of values of one digit
+         */
+        Chunk(int chunkSize, int rowLength) {
+            rows = new double[chunkSize][rowLength];
+        }
+
+        /**
+         * @return The valid digits
+         */
+        double[][] digits() {
+            if (count == rows.length) {
+                return rows;
+            }
+
+            if (shorter.length != count) {
+                shorter = new double[count][];
+            }
+            System.arraycopy(rows, 0, shorter, 0, count);
+
+            return shorter;
+        }
+    }
+
+}
@@ -0,0 +1,27 @@
+package me.bausano;
+
+/**
+ * One fold of a k-fold split. The validation part is the fold itself and the training part is everything else.
+ */
+public class Fold {
+
+    /**
+     * Digits to train on.
+     */
+    public final DataView training;
+
+    /**
+     * Digits to validate on.
+     */
+    public final DataView validation;
+
+    /**
+     * @param training Digits to train on
+     * @param validation Digits to validate on
+     */
+    public Fold(DataView training, DataView validation) {
+        this.training = training;
+        this.validation = validation;
+    }
+
+}
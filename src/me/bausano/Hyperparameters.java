@@ -0,0 +1,126 @@
+package me.bausano;
+
+/**
+ * Hyper-parameters of the algorithms that can be picked at runtime. Settings hold the defaults, an instance of this
+ * class lets a run or a tuning trial override them without touching the code. Instances are immutable, so they can be
+ * shared between threads.
+ */
+public class Hyperparameters {
+
+    /**
+     * Number of neurons in the hidden layer of the networks.
+     */
+    public final int hiddenNeurons;
+
+    /**
+     * Initial learning rate that will decrease with each epoch and also is cycled around.
+     */
+    public final double meanLearningRate;
+
+    /**
+     * How much should the learning rate be changed throughout the cycling.
+     */
+    public final double oscillation;
+
+    /**
+     * How many epochs does one half of the learning rate cycle last.
+     */
+    public final int stepSize;
+
+    /**
+     * After how many data samples should the neural network update its weights.
+     */
+    public final int batchSize;
+
+    /**
+     * How many learning rate cycles does the training last.
+     */
+    public final int cycles;
+
+    /**
+     * How many closest neighbours get to vote on the classification.
+     */
+    public final int kNearestNeighbours;
+
+    /**
+     * @param hiddenNeurons Number of neurons in the hidden layer
+     * @param meanLearningRate Learning rate the cycling oscillates around
+     * @param oscillation Amplitude of the learning rate cycling
+     * @param stepSize Epochs in one half of the learning rate cycle
+     * @param batchSize Samples between weight updates
+     * @param cycles Learning rate cycles in the training
+     * @param kNearestNeighbours Closest neighbours that vote on the classification
+     */
+    public Hyperparameters(
+            int hiddenNeurons,
+            double meanLearningRate,
+            double oscillation,
+            int stepSize,
+            int batchSize,
+            int cycles,
+            int kNearestNeighbours
+    ) {
+        this.hiddenNeurons = hiddenNeurons;
+        this.meanLearningRate = meanLearningRate;
+        this.oscillation = oscillation;
+        this.stepSize = stepSize;
+        this.batchSize = batchSize;
+        this.cycles = cycles;
+        this.kNearestNeighbours = kNearestNeighbours;
+    }
+
+    /**
+     * @return Hyper-parameters with the values from Settings
+     */
+    public static Hyperparameters defaults() {
+        return new Hyperparameters(
+                Settings.HIDDEN_NEURONS,
+                Settings.MEAN_LEARNING_RATE,
+                Settings.OSCILLATION,
+                Settings.STEP_SIZE,
+                Settings.BATCH_SIZE,
+                Settings.CYCLES,
+                Settings.K_NEAREST_NEIGHBOURS
+        );
+    }
+
+    /**
+     * Number of epochs of a full training. It's set so that the network always finishes the training when the learning
+     * rate is lowest.
+     *
+     * @return Number of epochs
+     */
+    public int iterations() {
+        return cycles * (stepSize * 2) + stepSize + 1;
+    }
+
+    /**
+     * @return Blueprint of a network with one hidden layer that classifies all digits of the bundled data set
+     */
+    public int[] blueprint() {
+        return blueprint(Settings.INPUT_NEURONS);
+    }
+
+    /**
+     * @param inputNeurons How many inputs each digit has, see DataSet::inputNeuronsOf
+     * @return Blueprint of a network with one hidden layer that classifies all digits
+     */
+    public int[] blueprint(int inputNeurons) {
+        return new int[] { inputNeurons, hiddenNeurons, Settings.OUTPUT_CLASSES_COUNT };
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "hidden=%d lr=%.3f oscillation=%.3f step=%d batch=%d cycles=%d k=%d",
+                hiddenNeurons,
+                meanLearningRate,
+                oscillation,
+                stepSize,
+                batchSize,
+                cycles,
+                kNearestNeighbours
+        );
+    }
+
+}
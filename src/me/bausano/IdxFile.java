@@ -0,0 +1,132 @@
+package me.bausano;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File in the IDX binary format, which is how MNIST style data sets are distributed. The header holds the type of the
+ * values and the size of each dimension, the values follow in row-major order. The file is memory mapped rather than
+ * read, so the operating system pages it in as the values are read and no copy of the raw bytes ends up on the heap.
+ * Only files with unsigned byte values are supported and they have to be decompressed first.
+ */
+class IdxFile {
+
+    /**
+     * Type code of unsigned byte values.
+     */
+    private static final int UNSIGNED_BYTE = 0x08;
+
+    /**
+     * Size of each dimension, the first one being the number of items in the file.
+     */
+    final int[] dimensions;
+
+    /**
+     * Number of values of one item, which is the product of all dimensions but the first.
+     */
+    final int itemSize;
+
+    /**
+     * Mapped content of the file.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Position of the first value in the file.
+     */
+    private final int valuesOffset;
+
+    /**
+     * @param dimensions Size of each dimension
+     * @param buffer Mapped content of the file
+     * @param valuesOffset Position of the first value in the file
+     */
+    private IdxFile(int[] dimensions, ByteBuffer buffer, int valuesOffset) {
+        int itemSize = 1;
+        for (int dimension = 1; dimension < dimensions.length; dimension++) {
+            itemSize *= dimensions[dimension];
+        }
+
+        this.dimensions = dimensions;
+        this.itemSize = itemSize;
+        this.buffer = buffer;
+        this.valuesOffset = valuesOffset;
+    }
+
+    /**
+     * Maps the file into memory and reads its header.
+     *
+     * @param path Path to the file
+     * @return Mapped file
+     * @throws IOException If the file cannot be read
+     * @throws IllegalArgumentException If the file is not an IDX file with unsigned byte values
+     */
+    static IdxFile map(Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(path + " is larger than 2 GB, which cannot be mapped at once.");
+            }
+
+            // The mapping stays valid after the channel is closed.
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        // The magic number is two zero bytes, the type of the values and the number of dimensions.
+        if (buffer.limit() < 4 || buffer.get(0) != 0 || buffer.get(1) != 0) {
+            throw new IllegalArgumentException(path + " is not an IDX file.");
+        }
+
+        if (buffer.get(2) != UNSIGNED_BYTE) {
+            throw new IllegalArgumentException(path + " does not hold unsigned bytes.");
+        }
+
+        int[] dimensions = new int[buffer.get(3)];
+        for (int dimension = 0; dimension < dimensions.length; dimension++) {
+            // Sizes are big endian, which is the default order of byte buffers.
+            dimensions[dimension] = buffer.getInt(4 + dimension * 4);
+        }
+
+        int valuesOffset = 4 + dimensions.length * 4;
+        if (dimensions.length == 0 || buffer.limit() - valuesOffset < values(dimensions)) {
+            throw new IllegalArgumentException(path + " is shorter than its header says.");
+        }
+
+        return new IdxFile(dimensions, buffer, valuesOffset);
+    }
+
+    /**
+     * @return Number of items in the file
+     */
+    int count() {
+        return dimensions[0];
+    }
+
+    /**
+     * Reads one value. Reads do not move any position of the buffer, so many threads can read at the same time.
+     *
+     * @param item Index of the item
+     * @param value Index of the value within the item
+     * @return Value in range 0 - 255
+     */
+    int valueAt(int item, int value) {
+        return buffer.get(valuesOffset + item * itemSize + value) & 0xFF;
+    }
+
+    /**
+     * @param dimensions Size of each dimension
+     * @return Number of values in the file
+     */
+    private static long values(int[] dimensions) {
+        long values = 1;
+        for (int size : dimensions) {
+            values *= size;
+        }
+
+        return values;
+    }
+
+}
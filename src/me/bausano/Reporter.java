@@ -1,6 +1,13 @@
 package me.bausano;
 
 import me.bausano.algorithms.Classifier;
+import me.bausano.cache.CachingClassifier;
+import me.bausano.algorithms.nearestneighbour.NearestNeighbour;
+import me.bausano.instrumentation.MetricsSnapshot;
+import me.bausano.instrumentation.OperationStats;
+import me.bausano.validation.CrossValidationResult;
+import me.bausano.validation.Evaluation;
+import me.bausano.validation.Evaluator;
 
 public class Reporter {
 
@@ -12,9 +19,12 @@ public class Reporter {
      * @param data Validation data
      */
     public static void assess (String title, Classifier classifier, double[][] data) {
+        int[] classes = new int[data.length];
+        classifier.classify(data, classes);
+
         int correctlyClassified = 0;
-        for (double[] digit : data) {
-            if (classifier.classify(digit) == digit[digit.length - 1]) {
+        for (int digitIndex = 0; digitIndex < data.length; digitIndex++) {
+            if (classes[digitIndex] == data[digitIndex][data[digitIndex].length - 1]) {
                 correctlyClassified++;
             }
         }
@@ -24,51 +34,188 @@ public class Reporter {
                 title.toUpperCase(),
                 correctlyClassified,
                 data.length,
-                (float) correctlyClassified / (float) data.length * 100f
+                data.length == 0 ? 0d : (double) correctlyClassified / data.length * 100d
+        );
+    }
+
+    /**
+     * Full report on one classifier: accuracy, top k accuracy, precision and recall of each class and the confusion
+     * matrix.
+     *
+     * @param evaluation Scores of the classifier
+     */
+    public static void printEvaluation (Evaluation evaluation) {
+        System.out.printf(
+                "\n> %s EVALUATION\nCorrectly classified %d out of %d (%.2f %%).\n",
+                evaluation.title.toUpperCase(),
+                evaluation.correct(),
+                evaluation.count(),
+                evaluation.accuracy() * 100d
+        );
+
+        for (int k = 1; k <= evaluation.topK(); k++) {
+            System.out.printf("Top %d accuracy %.2f %%\n", k, evaluation.topKAccuracy(k) * 100d);
+        }
+
+        System.out.printf(
+                "Macro precision %.2f %%, macro recall %.2f %%\n",
+                evaluation.macroPrecision() * 100d,
+                evaluation.macroRecall() * 100d
+        );
+        System.out.printf("%-6s %10s %10s\n", "class", "precision", "recall");
+        for (int classIndex = 0; classIndex < evaluation.confusion.length; classIndex++) {
+            System.out.printf(
+                    "%-6d %8.2f %% %8.2f %%\n",
+                    classIndex,
+                    evaluation.precision(classIndex) * 100d,
+                    evaluation.recall(classIndex) * 100d
+            );
+        }
+
+        printConfusionMatrix(evaluation);
+    }
+
+    /**
+     * Report on the accuracy of the classifier across the folds of a cross validation.
+     *
+     * @param title Name of the report
+     * @param result Accuracies of the folds
+     */
+    public static void printCrossValidation (String title, CrossValidationResult result) {
+        System.out.printf(
+                "\n> %s\nMean accuracy over %d folds %.2f %% (standard deviation %.2f %%).\n",
+                title.toUpperCase(),
+                result.accuracies.length,
+                result.mean * 100d,
+                result.standardDeviation() * 100d
+        );
+
+        for (int foldIndex = 0; foldIndex < result.accuracies.length; foldIndex++) {
+            System.out.printf("Fold %d: %.2f %%\n", foldIndex, result.accuracies[foldIndex] * 100d);
+        }
+    }
+
+    /**
+     * Report on how much of the distance computation the nearest neighbour skips by abandoning distances early.
+     *
+     * @param title Name of the report
+     * @param nn Nearest neighbour that has answered some queries
+     */
+    public static void printDistanceWork (String title, NearestNeighbour nn) {
+        System.out.printf(
+                "\n> %s DISTANCES\nSummed up %.1f features per compared neighbour on average.\n",
+                title.toUpperCase(),
+                nn.featuresTouchedPerCandidate()
         );
     }
 
     /**
-     * Calculates the confusion matrix for given data. This matrix represents how many times has been each class
-     * classified as each other class. This gives us insight on how much different classes resemble each other.
+     * Report on how many results the cache has answered.
+     *
+     * @param title Name of the report
+     * @param cache Caching classifier that has answered some queries
+     */
+    public static void printCache (String title, CachingClassifier cache) {
+        System.out.printf(
+                "\n> %s CACHE\nHit rate %.2f %% (%d hits, %d misses, %d uncacheable), %d digits cached, %d evicted, "
+                        + "%d invalidated.\n",
+                title.toUpperCase(),
+                cache.hitRate() * 100d,
+                cache.hits(),
+                cache.misses(),
+                cache.bypasses(),
+                cache.size(),
+                cache.evictions(),
+                cache.invalidations()
+        );
+    }
+
+    /**
+     * Calculates the confusion matrix of each classifier for given data, all of them in one pass over the data. The
+     * matrix represents how many times has been each class classified as each other class. This gives us insight on
+     * how much different classes resemble each other.
      *
      * @param classifiers Algorithm that classifies digits
      * @param data Data that is preferably not included in the neighbours
      */
     public static void printConfusionMatrix (Classifier[] classifiers, double[][] data) {
-        // Matrix where rows are classes and columns their classifications.
-        int[][] matrix = new int[Settings.OUTPUT_CLASSES_COUNT][Settings.OUTPUT_CLASSES_COUNT];
-
-        for (double[] digit : data) {
-            for (Classifier classifier : classifiers) {
-                int classification = classifier.classify(digit);
-                int target = (int) digit[digit.length - 1];
-
-                // We don't care about correctly classified digits.
-                if (classification == target) {
-                    matrix[target][classification] = -1;
-                    continue;
-                }
-
-                // Rows represent target correct classes and columns represent how many times that class has been classified
-                // as certain class. If first row was [10, 0, 1, ...], that would mean that class 0 was classified as 0 ten
-                // times (a.k.a. correctly), as 1 zero times, as 2 one time...
-                // Then we add up all [x][y] and [y][x], because it's more important to know how many times has zero been
-                // identified as 8 plus 8 as 0, rather than having two separate counters.
-                matrix[target][classification]++;
-                matrix[classification][target]++;
+        String[] titles = new String[classifiers.length];
+        for (int modelIndex = 0; modelIndex < classifiers.length; modelIndex++) {
+            titles[modelIndex] = "Classifier " + modelIndex;
+        }
 
-            }
+        for (Evaluation evaluation : new Evaluator().evaluate(titles, classifiers, DataView.of(data))) {
+            printConfusionMatrix(evaluation);
         }
+    }
 
-        // Prints it into the stdout.
-        System.out.println("\n--- Confusion matrix ----------");
-        for (int[] target : matrix) {
-            System.out.print("| ");
-            for (int classification : target) System.out.printf("%d, ", classification);
-            System.out.print("|\n");
+    /**
+     * Prints the confusion matrix of one classifier.
+     *
+     * @param evaluation Scores of the classifier
+     */
+    private static void printConfusionMatrix (Evaluation evaluation) {
+        // Rows represent target correct classes and columns represent how many times that class has been classified as
+        // certain class. If first row was [10, 0, 1, ...], that would mean that class 0 was classified as 0 ten times
+        // (a.k.a. correctly), as 1 zero times, as 2 one time...
+        System.out.printf("\n--- Confusion matrix of %s ----------\n", evaluation.title);
+        System.out.print("      ");
+        for (int classification = 0; classification < evaluation.confusion.length; classification++) {
+            System.out.printf("%5d", classification);
+        }
+        System.out.println();
+
+        for (int target = 0; target < evaluation.confusion.length; target++) {
+            System.out.printf("%4d |", target);
+            for (int count : evaluation.confusion[target]) {
+                System.out.printf("%5d", count);
+            }
+            System.out.println();
         }
         System.out.println("------------------------------");
     }
 
+    /**
+     * Report on how fast the classifier is. Latencies are per call, so batched calls report the latency of the whole
+     * batch.
+     *
+     * @param metrics Metrics of an instrumented classifier
+     */
+    public static void printPerformance (MetricsSnapshot metrics) {
+        System.out.printf(
+                "\n> %s PERFORMANCE\nThroughput %.0f digits/s over %.2f s.\n",
+                metrics.title.toUpperCase(),
+                metrics.throughput(),
+                metrics.elapsedSeconds
+        );
+
+        printOperation("classify", metrics.classify);
+        printOperation("estimate", metrics.estimate);
+    }
+
+    /**
+     * Prints one line with the statistics of one kind of call.
+     *
+     * @param name Name of the call
+     * @param stats Statistics of the call
+     */
+    private static void printOperation (String name, OperationStats stats) {
+        if (stats.calls == 0) {
+            return;
+        }
+
+        System.out.printf(
+                "%s: %d calls, %d digits, mean %.1f us, p50 %.1f us, p99 %.1f us, p999 %.1f us, max %.1f us%s\n",
+                name,
+                stats.calls,
+                stats.digits,
+                stats.meanNanos / 1e3d,
+                stats.p50Nanos / 1e3d,
+                stats.p99Nanos / 1e3d,
+                stats.p999Nanos / 1e3d,
+                stats.maxNanos / 1e3d,
+                stats.allocatedBytesPerCall < 0 ? "" : String.format(", %.0f B/call", stats.allocatedBytesPerCall)
+        );
+    }
+
 }
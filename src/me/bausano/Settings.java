@@ -9,11 +9,34 @@ public class Settings {
      */
     public static final int K_NEAREST_NEIGHBOURS = 1;
 
+    /**
+     * Whether the nearest neighbour stops summing up the distance to a neighbour once it cannot be among the closest.
+     * The results are the same either way. It is off by default, because it keeps a second copy of the reference digits
+     * with their features reordered, which doubles the memory of every nearest neighbour, including those inside the
+     * estimator. For 60 000 IDX digits of 2352 features that is over a gigabyte more.
+     */
+    public static final boolean NEAREST_NEIGHBOUR_EARLY_ABANDON = false;
+
+    /**
+     * Number of neurons in the hidden layer of the networks.
+     */
+    public static final int HIDDEN_NEURONS = 37;
+
+    /**
+     * How many pixels are on one row of the images in the bundled data files.
+     */
+    public static final int IMAGE_WIDTH = 8;
+
+    /**
+     * How many rows the images in the bundled data files have.
+     */
+    public static final int IMAGE_HEIGHT = 8;
+
     /**
      * Defines over how many input parameters are we working on. This is useful for constructing arrays of static length
      * which brings performance benefits.
      */
-    public static final int INPUT_PARAMETERS = 64;
+    public static final int INPUT_PARAMETERS = IMAGE_WIDTH * IMAGE_HEIGHT;
 
     /**
      * How many output classes are there. For digit classification, there's 10 (0-9).
@@ -31,6 +54,29 @@ public class Settings {
      */
     public static final int BATCH_SIZE = 10;
 
+    /**
+     * Whether the networks are trained with the batched backpropagation, which processes a whole batch as matrices,
+     * rather than sample by sample. It is off by default, because the batched path sums the bias gradients over the
+     * batch while the sample by sample path applies those of the last sample only, so the two train different models.
+     */
+    public static final boolean BATCHED_TRAINING = false;
+
+    /**
+     * Pruned layers compute their activations from compressed rows when at most this portion of their weights is left.
+     * Denser layers are faster with the plain weight arrays, which need no index per weight.
+     */
+    public static final double SPARSE_DENSITY_THRESHOLD = 0.5d;
+
+    /**
+     * How many passes over the training data a pruned network is fine-tuned for.
+     */
+    public static final int PRUNING_FINE_TUNE_EPOCHS = 10;
+
+    /**
+     * Fixed learning rate of the fine-tuning of a pruned network.
+     */
+    public static final double PRUNING_FINE_TUNE_LEARNING_RATE = 0.5d;
+
     /**
      * Hyper-parameter for cycling learning rate that indicates how many batches does one half of the cycle last.
      */
@@ -67,6 +113,135 @@ public class Settings {
      */
     public static final String TESTING_FILE_PATH = "data/testing-data.txt";
 
+    /**
+     * Spec file the experiment runner and the main method run when none is given on the command line.
+     */
+    public static final String EXPERIMENT_SPEC_PATH = "experiments/default.txt";
+
+    /**
+     * File the experiment runner writes the results into when none is given on the command line.
+     */
+    public static final String EXPERIMENT_RESULTS_PATH = "experiments/results.csv";
+
+    /**
+     * Largest k the evaluator counts the top k accuracy for, that is how often the correct class is among the k classes
+     * with the highest estimates.
+     */
+    public static final int EVALUATION_TOP_K = 3;
+
+    /**
+     * Pixels of the bundled data range 0 - 16.
+     */
+    public static final double MAX_PIXEL_VALUE = 16d;
+
+    /**
+     * Pixels of IDX files range 0 - 255 while the pixels of the bundled data range 0 - 16. Scaling them keeps the
+     * learning rates and the initial weights of the networks sensible for both.
+     */
+    public static final double IDX_PIXEL_SCALE = MAX_PIXEL_VALUE / 255d;
+
+    /**
+     * Port the inference server listens on when none is given on the command line.
+     */
+    public static final int SERVER_PORT = 8080;
+
+    /**
+     * Maximum number of digits the inference server dispatches to the classifier in one batch.
+     */
+    public static final int MAX_BATCH_SIZE = 64;
+
+    /**
+     * How long in microseconds the inference server waits for a batch to fill up before it dispatches what it has.
+     */
+    public static final long MAX_BATCH_WAIT_MICROS = 2000;
+
+    /**
+     * How many digits can wait in the inference server queue. Requests that do not fit are rejected, which pushes the
+     * load back to the clients instead of growing the queue without bounds.
+     */
+    public static final int BATCH_QUEUE_CAPACITY = 4096;
+
+    /**
+     * How many items can wait between two stages of the streaming pipeline. Stages ahead of a slow stage block once
+     * its buffer is full, which keeps the memory of the pipeline constant however long the stream is.
+     */
+    public static final int STREAM_BUFFER_SIZE = 256;
+
+    /**
+     * Upper bound on the number of digits the streaming pipeline classifies in one batched call.
+     */
+    public static final int STREAM_BLOCK_SIZE = 64;
+
+    /**
+     * Upper bound on the number of digits whose results a caching classifier keeps. An entry of a digit with 192
+     * features takes about half a kilobyte.
+     */
+    public static final int RESULT_CACHE_CAPACITY = 16384;
+
+    /**
+     * Number of independently locked parts of a caching classifier. More stripes let more threads look up at the same
+     * time.
+     */
+    public static final int RESULT_CACHE_STRIPES = 16;
+
+    /**
+     * Temperature the estimates of a teacher are softened by before a student network learns them. Above one spreads
+     * the probability towards less likely classes, below one sharpens it. The estimator's sums are flat, as the IDK
+     * neuron of each network votes for all classes of the other group, so they are sharpened.
+     */
+    public static final double DISTILLATION_TEMPERATURE = 0.25d;
+
+    /**
+     * Number of worker processes the sharded nearest neighbour splits the reference digits between.
+     */
+    public static final int SHARD_COUNT = 3;
+
+    /**
+     * How long in milliseconds the coordinator of the sharded nearest neighbour waits for a shard to connect or to
+     * answer. Shards that do not make it are left out of the vote of that query.
+     */
+    public static final int SHARD_TIMEOUT_MILLIS = 500;
+
+    /**
+     * How long in milliseconds a shard that failed or timed out is left alone before the coordinator tries it again.
+     * Queries in the meantime do not wait for it.
+     */
+    public static final long SHARD_RETRY_MILLIS = 2000;
+
+    /**
+     * Maximum number of digits the coordinator of the sharded nearest neighbour sends to a shard in one request. It
+     * bounds how long a shard takes to answer, so that the timeout does not have to grow with the batch.
+     */
+    public static final int SHARD_REQUEST_SIZE = 256;
+
+    /**
+     * Number of worker processes distributed training splits the training data between.
+     */
+    public static final int TRAINING_WORKERS = 3;
+
+    /**
+     * How many steps a training worker may get ahead of the slowest one before it waits. With 0 all workers wait for
+     * each other after every step, which is synchronous training with the deltas averaged.
+     */
+    public static final int TRAINING_STALENESS = 0;
+
+    /**
+     * How long in milliseconds the parameter server waits for all training workers to connect. Workers that have not
+     * connected by then count as left, so that the others do not wait for a worker that failed while it was starting.
+     */
+    public static final int WORKER_CONNECT_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * Portion of the weight changes a training worker sends with the top k codec. The rest waits in the residual.
+     */
+    public static final double DELTA_TOP_K_FRACTION = 0.05d;
+
+    /**
+     * Number of digits a training source reads from disk at a time. A multiple of the batch size keeps the batches of
+     * the trainer whole, as a batch never spans two chunks.
+     */
+    public static final int TRAINING_CHUNK_SIZE = 500;
+
     /**
      * Activation function is used throughout all layers to indulge linearity.
      */
@@ -0,0 +1,24 @@
+package me.bausano;
+
+import java.io.Closeable;
+
+/**
+ * Training digits handed out chunk by chunk, so that a trainer does not need all of them on the heap at once. Each pass
+ * over the digits hands them out in a new order. Digits have the layout of DataSet, the class in the last element.
+ */
+public interface TrainingSource extends Closeable {
+
+    /**
+     * Hands out the next chunk of the current pass. After the last chunk of a pass it returns null once, the call after
+     * that starts the next pass.
+     *
+     * @return Digits of the chunk, valid until the next call, or null at the end of the pass
+     */
+    double[][] nextChunk();
+
+    /**
+     * @return Number of digits in one pass
+     */
+    int size();
+
+}
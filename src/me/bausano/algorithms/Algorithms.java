@@ -0,0 +1,70 @@
+package me.bausano.algorithms;
+
+import me.bausano.DataSet;
+import me.bausano.Hyperparameters;
+import me.bausano.Settings;
+import me.bausano.algorithms.estimator.Estimator;
+import me.bausano.algorithms.nearestneighbour.NearestNeighbour;
+import me.bausano.algorithms.neuralnetwork.NeuralNetwork;
+import me.bausano.algorithms.neuralnetwork.Trainer;
+
+import java.util.Random;
+
+public class Algorithms {
+
+    /**
+     * Builds and trains an algorithm picked by its name, which is how the command line tools refer to them.
+     *
+     * @param name Name of the algorithm, one of nn, mlp, cnn or estimator
+     * @param data Training data
+     * @param parameters Hyper-parameters of the algorithm
+     * @return Trained classifier
+     * @throws IllegalArgumentException If there is no algorithm with such name
+     */
+    public static Classifier train(String name, double[][] data, Hyperparameters parameters) {
+        return train(name, data, parameters, new Random());
+    }
+
+    /**
+     * Builds and trains an algorithm picked by its name with the initial weights drawn from given source, so that a
+     * seeded source trains the same model every time.
+     *
+     * @param name Name of the algorithm, one of nn, mlp, cnn or estimator
+     * @param data Training data
+     * @param parameters Hyper-parameters of the algorithm
+     * @param random Source of the initial weights of the networks
+     * @return Trained classifier
+     * @throws IllegalArgumentException If there is no algorithm with such name
+     */
+    public static Classifier train(String name, double[][] data, Hyperparameters parameters, Random random) {
+        switch (name) {
+            case "nn":
+                return new NearestNeighbour(data, parameters.kNearestNeighbours);
+            case "mlp":
+                NeuralNetwork mlp = NeuralNetwork.fromBlueprint(
+                        parameters.blueprint(DataSet.inputNeuronsOf(data)),
+                        random
+                );
+                new Trainer(mlp, data, parameters).train();
+                return mlp;
+            case "cnn":
+                // The images are taken to be of the size of the bundled ones.
+                NeuralNetwork cnn = NeuralNetwork.withConvolution(
+                        Settings.FILTERS,
+                        Settings.IMAGE_WIDTH,
+                        Settings.IMAGE_HEIGHT,
+                        new int[] { parameters.hiddenNeurons, Settings.OUTPUT_CLASSES_COUNT },
+                        random
+                );
+                new Trainer(cnn, data, parameters).train();
+                return cnn;
+            case "estimator":
+                Estimator estimator = new Estimator(data, parameters, random);
+                estimator.train();
+                return estimator;
+            default:
+                throw new IllegalArgumentException("Unknown algorithm " + name + ".");
+        }
+    }
+
+}
@@ -18,4 +18,52 @@ public interface Classifier {
      */
     double[] estimate (double[] digit);
 
+    /**
+     * Gives probabilities for each class and writes them into a buffer owned by the caller. Callers on latency
+     * sensitive paths should prefer this method, as implementations do not allocate for it.
+     *
+     * @param digit Input digit
+     * @param estimates Output buffer with at least Settings.OUTPUT_CLASSES_COUNT elements
+     */
+    default void estimateInto (double[] digit, double[] estimates) {
+        double[] result = estimate(digit);
+        System.arraycopy(result, 0, estimates, 0, result.length);
+    }
+
+    /**
+     * Classifies a block of digits at once. This is the entry point for callers that collect digits into batches, such
+     * as the inference server. Implementations that can share work between digits should override it.
+     *
+     * @param digits Block of input digits
+     * @param classes Output array that receives the class of each digit, must be at least as long as digits
+     */
+    default void classify (double[][] digits, int[] classes) {
+        for (int digitIndex = 0; digitIndex < digits.length; digitIndex++) {
+            classes[digitIndex] = classify(digits[digitIndex]);
+        }
+    }
+
+    /**
+     * Gives probabilities for each class for a block of digits at once.
+     *
+     * @param digits Block of input digits
+     * @param estimates Output buffers, one for each digit, with at least Settings.OUTPUT_CLASSES_COUNT elements each
+     */
+    default void estimate (double[][] digits, double[][] estimates) {
+        for (int digitIndex = 0; digitIndex < digits.length; digitIndex++) {
+            estimateInto(digits[digitIndex], estimates[digitIndex]);
+        }
+    }
+
+    /**
+     * Tells whether the model has changed, for example by training or by new reference digits. The number only ever
+     * grows and it grows whenever the results of the model may change, so anyone who keeps results of the model, such
+     * as a cache, can tell whether they are still valid.
+     *
+     * @return Version of the model, 0 for models that never change
+     */
+    default long version () {
+        return 0;
+    }
+
 }
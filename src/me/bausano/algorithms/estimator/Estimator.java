@@ -1,15 +1,23 @@
 package me.bausano.algorithms.estimator;
 
+import me.bausano.DataSet;
+import me.bausano.Hyperparameters;
 import me.bausano.Settings;
 import me.bausano.algorithms.Classifier;
 import me.bausano.algorithms.nearestneighbour.NearestNeighbour;
 import me.bausano.algorithms.neuralnetwork.NeuralNetwork;
 import me.bausano.algorithms.neuralnetwork.Trainer;
+import me.bausano.instrumentation.SubModelEvent;
 
-import java.util.Set;
+import java.util.Random;
 
 public class Estimator implements Classifier {
 
+    /**
+     * Never committed, only asks whether flight recording of sub model events is enabled.
+     */
+    private static final SubModelEvent subModelEventProbe = new SubModelEvent();
+
     /**
      * Data set of structured input data to train on.
      */
@@ -18,32 +26,115 @@ public class Estimator implements Classifier {
     /**
      * The numbers are split into groups. These groups are based on my observations from confusion matrix.
      */
-    private NeuralNetwork[] groups = new NeuralNetwork[] {
-            // Train network only for numbers 2, 4, 5, 7 and 8.
-            NeuralNetwork.fromBlueprint(
-                    new int[]{ Settings.INPUT_NEURONS, 37, 6 },
-                    new int[]{ 2, 4, 5, 7, 8, -1 },
-                    new int[]{ 5, 5, 0, 5, 1, 2, 5, 3, 4, 5 }
-            ),
-            // Network only for numbers 0, 1, 3, 6 and 9.
-            NeuralNetwork.fromBlueprint(
-                    new int[] { Settings.INPUT_NEURONS, 37, 6 },
-                    new int[] { 0, 1, 3, 6, 9, -1 },
-                    new int[] { 0, 1, 5, 2, 5, 5, 3, 5, 5, 4 }
-            )
-    };
+    private final NeuralNetwork[] groups;
 
     /**
      * Nearest neighbour instance.
      */
     private final NearestNeighbour nn;
 
+    /**
+     * Buffers reused between queries made by the same thread.
+     */
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * Hyper-parameters of the networks and of the nearest neighbour.
+     */
+    private final Hyperparameters parameters;
+
     /**
      * @param data Input data set where last int is the class
      */
     public Estimator(double[][] data) {
+        this(data, Hyperparameters.defaults());
+    }
+
+    /**
+     * @param data Input data set where last int is the class
+     * @param parameters Hyper-parameters of the networks and of the nearest neighbour
+     */
+    public Estimator(double[][] data, Hyperparameters parameters) {
+        this(data, parameters, new Random());
+    }
+
+    /**
+     * @param data Input data set where last int is the class
+     * @param parameters Hyper-parameters of the networks and of the nearest neighbour
+     * @param random Source of the initial weights of the networks
+     */
+    public Estimator(double[][] data, Hyperparameters parameters, Random random) {
         this.data = data;
-        this.nn = new NearestNeighbour(data);
+        this.parameters = parameters;
+        this.nn = new NearestNeighbour(data, parameters.kNearestNeighbours);
+
+        int inputNeurons = DataSet.inputNeuronsOf(data);
+        this.groups = new NeuralNetwork[] {
+                // Train network only for numbers 2, 4, 5, 7 and 8.
+                NeuralNetwork.fromBlueprint(
+                        new int[]{ inputNeurons, parameters.hiddenNeurons, 6 },
+                        new int[]{ 2, 4, 5, 7, 8, -1 },
+                        new int[]{ 5, 5, 0, 5, 1, 2, 5, 3, 4, 5 },
+                        random
+                ),
+                // Network only for numbers 0, 1, 3, 6 and 9.
+                NeuralNetwork.fromBlueprint(
+                        new int[] { inputNeurons, parameters.hiddenNeurons, 6 },
+                        new int[] { 0, 1, 3, 6, 9, -1 },
+                        new int[] { 0, 1, 5, 2, 5, 5, 3, 5, 5, 4 },
+                        random
+                )
+        };
+    }
+
+    /**
+     * Creates a copy of the source whose networks and nearest neighbour can be changed without affecting the source.
+     *
+     * @param source Estimator to copy
+     */
+    private Estimator(Estimator source) {
+        this.data = source.data;
+        this.parameters = source.parameters;
+        this.nn = source.nn.copy();
+
+        this.groups = new NeuralNetwork[source.groups.length];
+        for (int groupIndex = 0; groupIndex < groups.length; groupIndex++) {
+            groups[groupIndex] = source.groups[groupIndex].copy();
+        }
+    }
+
+    /**
+     * Deep clones the estimator, so that the copy can be trained further or given new digits without affecting this
+     * one. The training data is shared, as neither of them changes it.
+     *
+     * @return New estimator with the same weights and neighbours
+     */
+    public Estimator copy() {
+        return new Estimator(this);
+    }
+
+    /**
+     * Adds a labelled digit to the nearest neighbour's data set. The networks pick it up on the next training.
+     *
+     * @param digit Digit where last int is the class
+     */
+    public void append(double[] digit) {
+        nn.append(digit);
+    }
+
+    /**
+     * The versions of the sub models only ever grow, so their sum grows whenever any of them changes.
+     *
+     * @inheritDoc
+     */
+    @Override
+    public long version() {
+        long version = nn.version();
+        for (NeuralNetwork group : groups) {
+            version += group.version();
+        }
+
+        return version;
     }
 
     /**
@@ -51,7 +142,7 @@ public class Estimator implements Classifier {
      */
     public void train() {
         for (NeuralNetwork group : groups) {
-            new Trainer(group, data).train();
+            new Trainer(group, data, parameters).train();
         }
     }
 
@@ -59,13 +150,128 @@ public class Estimator implements Classifier {
      * @inheritDoc
      */
     public int classify (double[] digit) {
-        double[] estimates = this.estimate(digit);
+        double[] estimates = scratch.get().estimates;
+        this.estimateInto(digit, estimates);
 
+        return classOf(estimates);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public double[] estimate(double[] digit) {
+        double[] estimates = new double[Settings.OUTPUT_CLASSES_COUNT];
+        this.estimateInto(digit, estimates);
+
+        return estimates;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void estimateInto(double[] digit, double[] estimates) {
+        double[] partialEstimates = scratch.get().partialEstimates;
+
+        SubModelEvent event = begin();
+        nn.estimateInto(digit, estimates);
+        commit(event, -1, 1);
+
+        for (int groupIndex = 0; groupIndex < groups.length; groupIndex++) {
+            event = begin();
+            groups[groupIndex].estimateInto(digit, partialEstimates);
+            commit(event, groupIndex, 1);
+
+            addPartialEstimates(estimates, partialEstimates);
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void classify(double[][] digits, int[] classes) {
+        double[][] estimates = scratch.get().estimates(digits.length);
+        this.estimate(digits, estimates);
+
+        for (int digitIndex = 0; digitIndex < digits.length; digitIndex++) {
+            classes[digitIndex] = classOf(estimates[digitIndex]);
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void estimate(double[][] digits, double[][] estimates) {
+        Scratch buffers = scratch.get();
+        double[][] partialEstimates = buffers.partialEstimates(digits.length);
+
+        // Each sub model gets the whole block, so that it can use its own batched path.
+        SubModelEvent event = begin();
+        nn.estimate(digits, estimates);
+        commit(event, -1, digits.length);
+
+        for (int groupIndex = 0; groupIndex < groups.length; groupIndex++) {
+            event = begin();
+            groups[groupIndex].estimate(digits, partialEstimates);
+            commit(event, groupIndex, digits.length);
+
+            for (int digitIndex = 0; digitIndex < digits.length; digitIndex++) {
+                addPartialEstimates(estimates[digitIndex], partialEstimates[digitIndex]);
+            }
+        }
+    }
+
+    /**
+     * Starts timing a sub model. The event is only created while flight recording of it is enabled, the allocation
+     * would otherwise show up on every estimate.
+     *
+     * @return Started event or null if flight recording of it is disabled
+     */
+    private static SubModelEvent begin() {
+        if (!subModelEventProbe.isEnabled()) {
+            return null;
+        }
+
+        SubModelEvent event = new SubModelEvent();
+        event.begin();
+
+        return event;
+    }
+
+    /**
+     * Commits the flight recorder event with the timing of one sub model if flight recording of it is enabled.
+     *
+     * @param event Event started before the sub model was called or null
+     * @param groupIndex Index of the network group, -1 for the nearest neighbour
+     * @param digits How many digits the sub model estimated
+     */
+    private void commit(SubModelEvent event, int groupIndex, int digits) {
+        if (event == null) {
+            return;
+        }
+
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.subModel = groupIndex == -1 ? "nearest neighbour" : "network group " + groupIndex;
+            event.digits = digits;
+            event.commit();
+        }
+    }
+
+    /**
+     * Finds the maximum estimate class.
+     *
+     * @param estimates Summed estimates of all sub models
+     * @return Class with the highest estimate
+     */
+    private int classOf(double[] estimates) {
         double maxEstimate = 0;
         int maxEstimateClass = 0;
 
-        // Finds the maximum estimate class.
-        for (int classIndex = 0; classIndex < estimates.length; classIndex++) {
+        for (int classIndex = 0; classIndex < Settings.OUTPUT_CLASSES_COUNT; classIndex++) {
             if (estimates[classIndex] < maxEstimate) {
                 continue;
             }
@@ -78,19 +284,6 @@ public class Estimator implements Classifier {
         return maxEstimateClass;
     }
 
-    /**
-     * @inheritDoc
-     */
-    public double[] estimate(double[] digit) {
-        double[] estimates = nn.estimate(digit);
-
-        for (NeuralNetwork group : groups) {
-            addPartialEstimates(estimates, group.estimate(digit));
-        }
-
-        return estimates;
-    }
-
     /**
      * Adds estimates array into base array.
      *
@@ -103,4 +296,55 @@ public class Estimator implements Classifier {
         }
     }
 
+    /**
+     * Estimate buffers owned by one thread.
+     */
+    private static class Scratch {
+
+        /**
+         * Summed estimates of the digit being classified.
+         */
+        final double[] estimates = new double[Settings.OUTPUT_CLASSES_COUNT];
+
+        /**
+         * Estimates of a single sub model.
+         */
+        final double[] partialEstimates = new double[Settings.OUTPUT_CLASSES_COUNT];
+
+        /**
+         * Summed estimates of a block of digits, grown when a larger block comes in.
+         */
+        private double[][] blockEstimates = new double[0][];
+
+        /**
+         * Estimates of a single sub model for a block of digits, grown when a larger block comes in.
+         */
+        private double[][] blockPartialEstimates = new double[0][];
+
+        /**
+         * @param count Number of digits in the block
+         * @return Buffer for the summed estimates of the block, with at least count rows
+         */
+        double[][] estimates(int count) {
+            if (blockEstimates.length < count) {
+                blockEstimates = new double[count][Settings.OUTPUT_CLASSES_COUNT];
+            }
+
+            return blockEstimates;
+        }
+
+        /**
+         * @param count Number of digits in the block
+         * @return Buffer for the estimates of a single sub model, with at least count rows
+         */
+        double[][] partialEstimates(int count) {
+            if (blockPartialEstimates.length < count) {
+                blockPartialEstimates = new double[count][Settings.OUTPUT_CLASSES_COUNT];
+            }
+
+            return blockPartialEstimates;
+        }
+
+    }
+
 }
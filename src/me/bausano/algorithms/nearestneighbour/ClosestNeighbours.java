@@ -0,0 +1,76 @@
+package me.bausano.algorithms.nearestneighbour;
+
+/**
+ * Keeps the k closest neighbours seen so far in plain arrays sorted by distance. It replaces a priority queue of
+ * neighbour objects, so that a query does not allocate anything. The instance is reused between queries.
+ */
+class ClosestNeighbours {
+
+    /**
+     * Distances of the closest neighbours in ascending order.
+     */
+    final double[] distances;
+
+    /**
+     * Classes of the closest neighbours, aligned with distances.
+     */
+    final int[] classes;
+
+    /**
+     * How many neighbours are stored.
+     */
+    int size;
+
+    /**
+     * @param k How many neighbours to keep
+     */
+    ClosestNeighbours(int k) {
+        this.distances = new double[k];
+        this.classes = new int[k];
+    }
+
+    /**
+     * Forgets all stored neighbours.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return Distance a neighbour has to beat to be stored, infinite while there are less than k neighbours
+     */
+    double bound() {
+        return size < distances.length ? Double.POSITIVE_INFINITY : distances[size - 1];
+    }
+
+    /**
+     * Stores the neighbour if it is among the k closest. When distances tie, the newer neighbour wins, which is how the
+     * priority queue this replaced behaved for k = 1.
+     *
+     * @param distance Distance to the neighbour
+     * @param classification Class of the neighbour
+     */
+    void offer(double distance, int classification) {
+        if (size == distances.length) {
+            if (distance > distances[size - 1]) {
+                return;
+            }
+
+            // Drops the furthest neighbour to make space.
+            size--;
+        }
+
+        // Shifts further neighbours one slot to the right and inserts the new one before them.
+        int position = size;
+        while (position > 0 && distances[position - 1] >= distance) {
+            distances[position] = distances[position - 1];
+            classes[position] = classes[position - 1];
+            position--;
+        }
+
+        distances[position] = distance;
+        classes[position] = classification;
+        size++;
+    }
+
+}
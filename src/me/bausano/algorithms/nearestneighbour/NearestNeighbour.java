@@ -3,86 +3,424 @@ package me.bausano.algorithms.nearestneighbour;
 import me.bausano.Settings;
 import me.bausano.algorithms.Classifier;
 
-import java.util.PriorityQueue;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
 public class NearestNeighbour implements Classifier {
 
     /**
-     * Data set of structured input data to match against.
+     * How many digits of a batch are compared against each neighbour before moving on to the next neighbour. The block
+     * of digits stays in cache while the neighbours stream past it once per block rather than once per digit.
      */
-    private final double[][] neighbours;
+    private static final int QUERY_BLOCK_SIZE = 16;
+
+    /**
+     * After how many features the partial distance is compared against the distance of the k-th closest neighbour.
+     * Checking after every feature would cost a branch per feature and stop the loop from being unrolled.
+     */
+    private static final int DISTANCE_BLOCK_SIZE = 16;
+
+    /**
+     * Data set of structured input data to match against. The array has spare capacity for appended neighbours, only
+     * the first size rows are valid. It is replaced by a larger copy when it fills up. With early abandoning, the rows
+     * are copies with features in the order of featureOrder.
+     */
+    private volatile double[][] neighbours;
+
+    /**
+     * Number of valid rows in the neighbours array. Appends publish a new row by incrementing it, after the row and
+     * any grown array have been written.
+     */
+    private volatile int size;
+
+    /**
+     * Serializes appends. Queries never take it.
+     */
+    private final Object appendLock = new Object();
+
+    /**
+     * How many closest neighbours get to vote on the classification.
+     */
+    private final int k;
+
+    /**
+     * Order in which features are summed up when distances are abandoned early, null when they are not. Features
+     * with the highest variance come first, because the expected squared difference of a feature between two digits is
+     * twice its variance. The partial distance therefore grows the fastest and passes the bound soonest.
+     */
+    private final int[] featureOrder;
+
+    /**
+     * Number of neighbours compared against the queries so far.
+     */
+    private final LongAdder candidates = new LongAdder();
+
+    /**
+     * Number of features summed up in those comparisons.
+     */
+    private final LongAdder featuresTouched = new LongAdder();
+
+    /**
+     * Buffers reused between queries made by the same thread.
+     */
+    private final ThreadLocal<Scratch> scratch;
 
     /**
      * @param neighbours Input data set where last int is the class
      */
     public NearestNeighbour(double[][] neighbours) {
-        this.neighbours = neighbours;
+        this(neighbours, Settings.K_NEAREST_NEIGHBOURS);
     }
 
     /**
-     * @inheritDoc
+     * @param neighbours Input data set where last int is the class
+     * @param k How many closest neighbours get to vote on the classification
      */
-    public int classify (double[] digit) {
-        // How close was the closest neighbour to the digit.
-        double bestEstimate = Double.MIN_VALUE;
-        // Which class had the closest distance.
-        int closestClass = 0;
+    public NearestNeighbour(double[][] neighbours, int k) {
+        this(neighbours, k, Settings.NEAREST_NEIGHBOUR_EARLY_ABANDON);
+    }
 
-        // Finds class with the highest estimate.
-        double[] estimates = estimate(digit);
-        for (int classIndex = 0; classIndex < estimates.length; classIndex++) {
-            if (estimates[classIndex] < bestEstimate) {
-                continue;
+    /**
+     * Early abandoning stops summing up the distance to a neighbour once it is further than the k-th closest
+     * neighbour found so far. Such neighbour could not be among the closest, so the results are exact. The neighbours
+     * are copied with their features reordered, which takes as much memory as the data set once more.
+     *
+     * @param neighbours Input data set where last int is the class
+     * @param k How many closest neighbours get to vote on the classification
+     * @param earlyAbandon Whether to abandon distances that cannot beat the k-th closest neighbour
+     */
+    public NearestNeighbour(double[][] neighbours, int k, boolean earlyAbandon) {
+        this.k = k;
+        this.featureOrder = earlyAbandon ? featureOrderOf(neighbours) : null;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(k));
+
+        if (featureOrder == null) {
+            this.neighbours = neighbours;
+        } else {
+            double[][] reordered = new double[neighbours.length][];
+            for (int neighbourIndex = 0; neighbourIndex < neighbours.length; neighbourIndex++) {
+                reordered[neighbourIndex] = reorder(neighbours[neighbourIndex], new double[featureOrder.length + 1]);
             }
 
-            // Updates the leading estimate.
-            closestClass = classIndex;
-            bestEstimate = estimates[classIndex];
+            this.neighbours = reordered;
         }
 
-        return closestClass;
+        this.size = neighbours.length;
+    }
+
+    /**
+     * Creates a copy that holds the neighbours of the source. The rows are never changed once added, so they are
+     * shared, only the array that lists them is copied.
+     *
+     * @param source Nearest neighbour to copy
+     */
+    private NearestNeighbour(NearestNeighbour source) {
+        this.k = source.k;
+        this.featureOrder = source.featureOrder;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(k));
+
+        synchronized (source.appendLock) {
+            this.size = source.size;
+            this.neighbours = Arrays.copyOf(source.neighbours, source.size);
+        }
+    }
+
+    /**
+     * Copies the data set, so that digits can be appended to the copy without affecting this one.
+     *
+     * @return New nearest neighbour with the same neighbours
+     */
+    public NearestNeighbour copy() {
+        return new NearestNeighbour(this);
+    }
+
+    /**
+     * Adds a labelled digit to the data set. The array grows by doubling, so appends take amortised constant time.
+     * Queries running concurrently with the append either see the new neighbour or not, but always see a consistent
+     * data set.
+     *
+     * @param neighbour Digit where last int is the class
+     */
+    public void append(double[] neighbour) {
+        synchronized (appendLock) {
+            double[][] rows = neighbours;
+
+            if (size == rows.length) {
+                // Publishes the grown array before the size, so that a reader that sees the new size sees it too.
+                rows = Arrays.copyOf(rows, Math.max(16, rows.length * 2));
+                neighbours = rows;
+            }
+
+            rows[size] = featureOrder == null ? neighbour : reorder(neighbour, new double[featureOrder.length + 1]);
+            size = size + 1;
+        }
+    }
+
+    /**
+     * @return Number of digits in the data set
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Only appends change the results, so the number of digits in the data set serves as the version.
+     *
+     * @inheritDoc
+     */
+    @Override
+    public long version() {
+        return size;
+    }
+
+    /**
+     * Tells how much work early abandoning saves. Without it, every feature of every neighbour is touched.
+     *
+     * @return Average number of features summed up per compared neighbour since the instance was created
+     */
+    public double featuresTouchedPerCandidate() {
+        long compared = candidates.sum();
+
+        return compared == 0 ? 0d : (double) featuresTouched.sum() / compared;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public int classify (double[] digit) {
+        double[] estimates = scratch.get().estimates;
+        estimateInto(digit, estimates);
+
+        return classOf(estimates);
     }
 
     /**
      * @inheritDoc
      */
     public double[] estimate(double[] digit) {
-        PriorityQueue<Neighbour> closestNeighbours = new PriorityQueue<>(Settings.K_NEAREST_NEIGHBOURS);
+        double[] classes = new double[Settings.OUTPUT_CLASSES_COUNT];
+        estimateInto(digit, classes);
 
-        // Fills the queue with distances.
-        for (double[] neighbour : neighbours) {
+        return classes;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void estimateInto(double[] digit, double[] estimates) {
+        Scratch buffers = scratch.get();
+        ClosestNeighbours closestNeighbours = buffers.selections(1)[0];
+        closestNeighbours.clear();
+        double[] query = featureOrder == null ? digit : reorder(digit, buffers.queries(1, digit.length)[0]);
+
+        // Reads the size before the array, see append.
+        int count = size;
+        double[][] rows = neighbours;
+
+        // Fills the selection with distances.
+        for (int neighbourIndex = 0; neighbourIndex < count; neighbourIndex++) {
+            double[] neighbour = rows[neighbourIndex];
+            double distance = distance(query, neighbour, closestNeighbours, buffers);
+            closestNeighbours.offer(distance, (int) neighbour[neighbour.length - 1]);
+        }
+
+        recordWork(buffers, count, digit);
+        countVotes(closestNeighbours, estimates);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void classify(double[][] digits, int[] classes) {
+        double[] estimates = scratch.get().estimates;
+
+        for (int blockStart = 0; blockStart < digits.length; blockStart += QUERY_BLOCK_SIZE) {
+            int blockEnd = Math.min(blockStart + QUERY_BLOCK_SIZE, digits.length);
+            ClosestNeighbours[] selections = selectBlock(digits, blockStart, blockEnd);
+
+            for (int digitIndex = blockStart; digitIndex < blockEnd; digitIndex++) {
+                countVotes(selections[digitIndex - blockStart], estimates);
+                classes[digitIndex] = classOf(estimates);
+            }
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void estimate(double[][] digits, double[][] estimates) {
+        for (int blockStart = 0; blockStart < digits.length; blockStart += QUERY_BLOCK_SIZE) {
+            int blockEnd = Math.min(blockStart + QUERY_BLOCK_SIZE, digits.length);
+            ClosestNeighbours[] selections = selectBlock(digits, blockStart, blockEnd);
+
+            for (int digitIndex = blockStart; digitIndex < blockEnd; digitIndex++) {
+                countVotes(selections[digitIndex - blockStart], estimates[digitIndex]);
+            }
+        }
+    }
+
+    /**
+     * Finds the k closest neighbours of each digit, which is what a shard of a distributed reference set answers. The
+     * distances are exact squared distances, so the closest neighbours of several shards can be merged by distance.
+     *
+     * @param digits Digits to find neighbours for
+     * @return Closest neighbours of each digit, at most k, the closest first
+     */
+    public Neighbour[][] closest(double[][] digits) {
+        Neighbour[][] closest = new Neighbour[digits.length][];
+
+        for (int blockStart = 0; blockStart < digits.length; blockStart += QUERY_BLOCK_SIZE) {
+            int blockEnd = Math.min(blockStart + QUERY_BLOCK_SIZE, digits.length);
+            ClosestNeighbours[] selections = selectBlock(digits, blockStart, blockEnd);
+
+            for (int digitIndex = blockStart; digitIndex < blockEnd; digitIndex++) {
+                ClosestNeighbours selection = selections[digitIndex - blockStart];
+                Neighbour[] neighbours = new Neighbour[selection.size];
+
+                for (int neighbourIndex = 0; neighbourIndex < selection.size; neighbourIndex++) {
+                    neighbours[neighbourIndex] = new Neighbour(
+                            selection.classes[neighbourIndex],
+                            selection.distances[neighbourIndex]
+                    );
+                }
+
+                closest[digitIndex] = neighbours;
+            }
+        }
+
+        return closest;
+    }
+
+    /**
+     * Finds the closest neighbours for a block of digits. The loops are inverted compared to the single digit query,
+     * each neighbour is loaded once and compared against every digit in the block.
+     *
+     * @param digits Digits to find neighbours for
+     * @param blockStart First digit of the block
+     * @param blockEnd Digit after the last one of the block
+     * @return Selections of closest neighbours, one for each digit in the block, owned by the current thread
+     */
+    private ClosestNeighbours[] selectBlock(double[][] digits, int blockStart, int blockEnd) {
+        Scratch buffers = scratch.get();
+        ClosestNeighbours[] selections = buffers.selections(blockEnd - blockStart);
+        double[][] queries = featureOrder == null
+                ? null
+                : buffers.queries(blockEnd - blockStart, digits[blockStart].length);
+
+        for (int digitIndex = blockStart; digitIndex < blockEnd; digitIndex++) {
+            selections[digitIndex - blockStart].clear();
+
+            if (queries != null) {
+                reorder(digits[digitIndex], queries[digitIndex - blockStart]);
+            }
+        }
+
+        // Reads the size before the array, see append.
+        int count = size;
+        double[][] rows = neighbours;
+
+        for (int neighbourIndex = 0; neighbourIndex < count; neighbourIndex++) {
+            double[] neighbour = rows[neighbourIndex];
             int target = (int) neighbour[neighbour.length - 1];
-            double distance = calculateDistance(digit, neighbour);
 
-            closestNeighbours.add(new Neighbour(target, distance));
+            for (int digitIndex = blockStart; digitIndex < blockEnd; digitIndex++) {
+                ClosestNeighbours selection = selections[digitIndex - blockStart];
+                double[] query = queries == null ? digits[digitIndex] : queries[digitIndex - blockStart];
 
-            // Ensures there's not more than k neighbours in the fit queue.
-            if (closestNeighbours.size() > Settings.K_NEAREST_NEIGHBOURS) closestNeighbours.poll();
+                selection.offer(distance(query, neighbour, selection, buffers), target);
+            }
         }
 
-        double[] classes = new double[Settings.OUTPUT_CLASSES_COUNT];
-        for (int classIndex = 0; classIndex < classes.length; classIndex++) {
-            // Storage to close compilers mouth.
-            int target = classIndex;
-            // Counts occurrence of a class and divides it by total queue size.
-            classes[classIndex] = (double) closestNeighbours.stream()
-                    .filter((Neighbour x) -> x.classification == target)
-                    .count() / (double) Settings.K_NEAREST_NEIGHBOURS;
+        recordWork(buffers, count * (blockEnd - blockStart), digits[blockStart]);
+
+        return selections;
+    }
+
+    /**
+     * Distance of a neighbour in the mode the instance was created with.
+     *
+     * @param query Digit being classified, with features in the same order as the neighbour
+     * @param neighbour Neighbour to compare against
+     * @param selection Closest neighbours of the digit found so far
+     * @param buffers Buffers of the current thread, counts the touched features
+     * @return Exact distance, or a partial one larger than the distance of the k-th closest neighbour
+     */
+    private double distance(double[] query, double[] neighbour, ClosestNeighbours selection, Scratch buffers) {
+        if (featureOrder == null) {
+            return calculateDistance(query, neighbour);
         }
 
-        return classes;
+        return calculatePartialDistance(query, neighbour, selection.bound(), buffers);
+    }
+
+    /**
+     * Adds the work of the current thread to the shared counters. Done once per query or block, so that the counters
+     * are not contended in the distance loop.
+     *
+     * @param buffers Buffers of the current thread
+     * @param compared Number of neighbours compared
+     * @param digit Any of the compared digits, to tell the number of features
+     */
+    private void recordWork(Scratch buffers, long compared, double[] digit) {
+        candidates.add(compared);
+        featuresTouched.add(featureOrder == null ? compared * (digit.length - 1) : buffers.featuresTouched);
+        buffers.featuresTouched = 0;
+    }
+
+    /**
+     * Counts occurrence of each class among the closest neighbours and divides it by k.
+     *
+     * @param closestNeighbours Closest neighbours of a digit
+     * @param estimates Output buffer for the class probabilities
+     */
+    private void countVotes(ClosestNeighbours closestNeighbours, double[] estimates) {
+        Arrays.fill(estimates, 0, Settings.OUTPUT_CLASSES_COUNT, 0d);
+
+        for (int neighbourIndex = 0; neighbourIndex < closestNeighbours.size; neighbourIndex++) {
+            estimates[closestNeighbours.classes[neighbourIndex]] += 1d / (double) k;
+        }
+    }
+
+    /**
+     * Finds class with the highest estimate.
+     *
+     * @param estimates Probabilities for each class
+     * @return Class with the highest probability, the last one wins on ties
+     */
+    private int classOf(double[] estimates) {
+        // How close was the closest neighbour to the digit.
+        double bestEstimate = Double.MIN_VALUE;
+        // Which class had the closest distance.
+        int closestClass = 0;
+
+        for (int classIndex = 0; classIndex < Settings.OUTPUT_CLASSES_COUNT; classIndex++) {
+            if (estimates[classIndex] < bestEstimate) {
+                continue;
+            }
+
+            // Updates the leading estimate.
+            closestClass = classIndex;
+            bestEstimate = estimates[classIndex];
+        }
+
+        return closestClass;
     }
 
     /**
      * Calculates distance between two vectors. To find the Euclidean distance, the result needs to be square rooted.
      * This is however not necessary to do for this algorithm, therefore we can avoid the computation.
      *
-     * @param from Point which has at least Settings.INPUT_PARAMETERS length
-     * @param to Point which has at least Settings.INPUT_PARAMETERS length
+     * @param from Point where the last value is the class
+     * @param to Point which has at least as many values as from
      * @return Distance between the two multi dimensional points
      */
-    private double calculateDistance (double[] from, double[] to) {
-        int sum = 0;
+    double calculateDistance (double[] from, double[] to) {
+        double sum = 0d;
 
         // We assume both arrays will have adequate number of elements. These assumptions might possibly result in
         // better overall performance.
@@ -95,4 +433,155 @@ public class NearestNeighbour implements Classifier {
         return sum;
     }
 
+    /**
+     * Calculates the distance like calculateDistance, but gives up once the sum is larger than the bound. Squared
+     * differences never decrease the sum, so the full distance would be larger too. The bound is only checked between
+     * blocks of features.
+     *
+     * @param from Point where the last value is the class
+     * @param to Point which has at least as many values as from
+     * @param bound Distance above which the exact value does not matter
+     * @param buffers Buffers of the current thread, counts the touched features
+     * @return Distance between the two points, or a partial distance larger than the bound
+     */
+    double calculatePartialDistance (double[] from, double[] to, double bound, Scratch buffers) {
+        double sum = 0d;
+        int features = from.length - 1;
+        int feature = 0;
+
+        while (feature < features) {
+            int blockEnd = Math.min(feature + DISTANCE_BLOCK_SIZE, features);
+            for (; feature < blockEnd; feature++) {
+                double difference = from[feature] - to[feature];
+
+                sum += difference * difference;
+            }
+
+            if (sum > bound) {
+                break;
+            }
+        }
+
+        buffers.featuresTouched += feature;
+
+        return sum;
+    }
+
+    /**
+     * Copies the digit with its features in the order of featureOrder. The class stays in the last slot.
+     *
+     * @param digit Digit in the original order
+     * @param output Buffer of the same length as the digit
+     * @return The output buffer
+     */
+    private double[] reorder(double[] digit, double[] output) {
+        for (int feature = 0; feature < featureOrder.length; feature++) {
+            output[feature] = digit[featureOrder[feature]];
+        }
+        output[output.length - 1] = digit[digit.length - 1];
+
+        return output;
+    }
+
+    /**
+     * Orders features from the one with the highest variance over the neighbours. This is computed once, when the
+     * instance is created, neighbours appended later keep the order.
+     *
+     * @param neighbours Neighbours where last value is the class
+     * @return Indices of the features in the order they should be summed up
+     */
+    private static int[] featureOrderOf(double[][] neighbours) {
+        int features = neighbours.length == 0 ? Settings.INPUT_NEURONS : neighbours[0].length - 1;
+        double[] means = new double[features];
+        double[] variances = new double[features];
+
+        for (double[] neighbour : neighbours) {
+            for (int feature = 0; feature < features; feature++) {
+                means[feature] += neighbour[feature] / neighbours.length;
+            }
+        }
+
+        for (double[] neighbour : neighbours) {
+            for (int feature = 0; feature < features; feature++) {
+                double deviation = neighbour[feature] - means[feature];
+                variances[feature] += deviation * deviation;
+            }
+        }
+
+        return IntStream.range(0, features)
+                .boxed()
+                .sorted(Comparator.comparingDouble((Integer feature) -> variances[feature]).reversed())
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    /**
+     * Buffers owned by one thread.
+     */
+    private static class Scratch {
+
+        /**
+         * Class probabilities of the digit being classified.
+         */
+        final double[] estimates = new double[Settings.OUTPUT_CLASSES_COUNT];
+
+        /**
+         * Selections of closest neighbours, grown when a larger block comes in.
+         */
+        private ClosestNeighbours[] selections = new ClosestNeighbours[0];
+
+        /**
+         * Digits of the current query or block with reordered features, grown when a larger block comes in.
+         */
+        private double[][] queries = new double[0][];
+
+        /**
+         * Features touched by partial distances since the work was last recorded.
+         */
+        long featuresTouched;
+
+        /**
+         * How many neighbours each selection keeps.
+         */
+        private final int k;
+
+        /**
+         * @param k How many neighbours each selection keeps
+         */
+        Scratch(int k) {
+            this.k = k;
+        }
+
+        /**
+         * @param count How many selections are needed
+         * @return At least count selections
+         */
+        ClosestNeighbours[] selections(int count) {
+            if (selections.length < count) {
+                ClosestNeighbours[] grown = Arrays.copyOf(selections, count);
+                for (int selectionIndex = selections.length; selectionIndex < count; selectionIndex++) {
+                    grown[selectionIndex] = new ClosestNeighbours(k);
+                }
+
+                selections = grown;
+            }
+
+            return selections;
+        }
+
+        /**
+         * @param count How many query buffers are needed
+         * @param length Length of a digit with its class
+         * @return At least count buffers of given length
+         */
+        double[][] queries(int count, int length) {
+            if (queries.length < count || queries[0].length != length) {
+                queries = new double[Math.max(count, queries.length)][length];
+            }
+
+            return queries;
+        }
+
+    }
+
 }
@@ -16,7 +16,7 @@ public class Neighbour implements Comparable<Neighbour> {
      * @param classification Digit
      * @param distance Distance to currently compared
      */
-    Neighbour (int classification, double distance) {
+    public Neighbour (int classification, double distance) {
         this.distance = distance;
         this.classification = classification;
     }
@@ -1,26 +1,43 @@
 package me.bausano.algorithms.neuralnetwork;
 
-import java.util.function.Function;
+import java.util.function.DoubleUnaryOperator;
 
 public class ActivationMapper {
 
     /**
-     * Activation function that is used to introduce non linearity to the network.
+     * Name of the function, such as sigmoid. Code that is generated for a network inlines functions it knows by name
+     * and calls the function object for all others.
      */
-    public final Function<Double, Double> function;
+    public final String name;
+
+    /**
+     * Activation function that is used to introduce non linearity to the network. It works on primitive doubles, so
+     * that applying it does not box a value for each neuron.
+     */
+    public final DoubleUnaryOperator function;
 
     /**
      * Function that takes result of previous activation function and computes the derivative for that value. This is
      * not optimal as we are limited on what activation functions can we use. However both relu and sigmoid is well
      * derivable and those are the main functions we use.
      */
-    public final Function<Double, Double> derivative;
+    public final DoubleUnaryOperator derivative;
+
+    /**
+     * @param function Non linear function
+     * @param derivative Transformer that takes output of the function and calculates the derivative at that point
+     */
+    public ActivationMapper(DoubleUnaryOperator function, DoubleUnaryOperator derivative) {
+        this("custom", function, derivative);
+    }
 
     /**
+     * @param name Name of the function
      * @param function Non linear function
      * @param derivative Transformer that takes output of the function and calculates the derivative at that point
      */
-    public ActivationMapper(Function<Double, Double> function, Function<Double, Double> derivative) {
+    public ActivationMapper(String name, DoubleUnaryOperator function, DoubleUnaryOperator derivative) {
+        this.name = name;
         this.function = function;
         this.derivative = derivative;
     }
@@ -32,6 +49,7 @@ public class ActivationMapper {
      */
     public static ActivationMapper sigmoid() {
         return new ActivationMapper(
+                "sigmoid",
                 x -> 1d / (1d + Math.pow(Math.E, -x)),
                 x -> x * (1d - x)
         );
@@ -0,0 +1,194 @@
+package me.bausano.algorithms.neuralnetwork;
+
+import me.bausano.Settings;
+
+import java.util.Arrays;
+
+/**
+ * Backpropagation of a whole mini-batch at once, written as matrix products over the batch. The sample by sample path
+ * in the trainer walks the weights of the next layer column by column to gather the errors, which jumps between the
+ * rows of the jagged weight arrays. Here every product streams over whole rows instead:
+ * - forward pass: activations of the batch times the transposed weights, see Layer::activation for blocks,
+ * - backward pass: errors of the batch times the weights, each weight row is added to the errors of the previous
+ *   layer scaled by the error of its neuron,
+ * - gradients: transposed errors times the activations, each activation row is added to the gradient row of a neuron,
+ *   see Layer::gradients.
+ * All buffers are allocated once and reused between batches.
+ */
+class BatchBackpropagation {
+
+    /**
+     * Network that is trained.
+     */
+    private final NeuralNetwork network;
+
+    /**
+     * Upper bound on the number of samples in a batch.
+     */
+    private final int capacity;
+
+    /**
+     * Activations of each layer for each sample of the batch. Index 0 holds the samples themselves, so layer indices
+     * are shifted by one.
+     */
+    private final double[][][] activations;
+
+    /**
+     * Errors of each neuron of each layer for each sample of the batch.
+     */
+    private final double[][][] errors;
+
+    /**
+     * Sum of the weight gradients over the batch, scaled by the learning rate, in the shape of the weights.
+     */
+    final double[][][] weightGradients;
+
+    /**
+     * Sum of the bias gradients over the batch, scaled by the learning rate.
+     */
+    final double[][] biasGradients;
+
+    /**
+     * Desired activations of the output neurons for the sample whose errors are being computed.
+     */
+    private final double[] expected;
+
+    /**
+     * @param network Network that is trained
+     * @param capacity Upper bound on the number of samples in a batch
+     */
+    BatchBackpropagation(NeuralNetwork network, int capacity) {
+        Layer[] layers = network.layers;
+
+        this.network = network;
+        this.capacity = capacity;
+        this.activations = new double[layers.length + 1][][];
+        this.errors = new double[layers.length][][];
+        this.weightGradients = new double[layers.length][][];
+        this.biasGradients = new double[layers.length][];
+        this.expected = new double[layers[layers.length - 1].neurons.length];
+
+        activations[0] = new double[capacity][];
+        for (int layerIndex = 0; layerIndex < layers.length; layerIndex++) {
+            int neurons = layers[layerIndex].neurons.length;
+            int outputs = layers[layerIndex].outputs();
+
+            activations[layerIndex + 1] = new double[capacity][outputs];
+            errors[layerIndex] = new double[capacity][outputs];
+            weightGradients[layerIndex] = new double[neurons][layers[layerIndex].neurons[0].length];
+            biasGradients[layerIndex] = new double[neurons];
+        }
+    }
+
+    /**
+     * @return Whether the buffers still match the layers of the network, which changes when the network expands
+     */
+    boolean fits() {
+        Layer[] layers = network.layers;
+        if (layers.length != errors.length) {
+            return false;
+        }
+
+        for (int layerIndex = 0; layerIndex < layers.length; layerIndex++) {
+            if (layers[layerIndex].neurons.length != biasGradients[layerIndex].length
+                    || layers[layerIndex].neurons[0].length != weightGradients[layerIndex][0].length
+                    || layers[layerIndex].outputs() != errors[layerIndex][0].length) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return Upper bound on the number of samples in a batch
+     */
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Computes the gradients of the batch into weightGradients and biasGradients, overwriting the previous batch.
+     *
+     * @param samples Training data where last int is the class
+     * @param targets Probabilities of each class for each sample or null to teach the class of each sample
+     * @param from Index of the first sample of the batch
+     * @param count Number of samples in the batch, at most the capacity
+     * @param learningRate Learning rate the gradients are scaled by
+     * @return Sum of the losses of the samples, half of the squared output error each
+     */
+    double accumulate(double[][] samples, double[][] targets, int from, int count, double learningRate) {
+        Layer[] layers = network.layers;
+        int outputLayer = layers.length - 1;
+
+        for (int sampleIndex = 0; sampleIndex < count; sampleIndex++) {
+            activations[0][sampleIndex] = samples[from + sampleIndex];
+        }
+
+        // Forward pass, the layers only read as many inputs as they have weights, so the class slot is ignored.
+        for (int layerIndex = 0; layerIndex < layers.length; layerIndex++) {
+            layers[layerIndex].activation(activations[layerIndex], activations[layerIndex + 1], count);
+        }
+
+        // Errors of the output layer, the same formula as in the sample by sample path.
+        double loss = 0d;
+        for (int sampleIndex = 0; sampleIndex < count; sampleIndex++) {
+            double[] outputs = activations[outputLayer + 1][sampleIndex];
+            double[] outputErrors = errors[outputLayer][sampleIndex];
+
+            network.expectedActivations(
+                    samples[from + sampleIndex],
+                    targets == null ? null : targets[from + sampleIndex],
+                    expected
+            );
+
+            for (int neuronIndex = 0; neuronIndex < outputs.length; neuronIndex++) {
+                double error = outputs[neuronIndex] - expected[neuronIndex];
+
+                loss += error * error / 2d;
+                outputErrors[neuronIndex] = error * Settings.activation.derivative.applyAsDouble(outputs[neuronIndex]);
+            }
+        }
+
+        // Backward pass. Errors of the previous layer are the errors of this layer times its weights, accumulated row
+        // by row, and then scaled by the derivative of the previous layer's activations.
+        for (int layerIndex = outputLayer; layerIndex > 0; layerIndex--) {
+            double[][] weights = layers[layerIndex].neurons;
+
+            for (int sampleIndex = 0; sampleIndex < count; sampleIndex++) {
+                double[] layerErrors = errors[layerIndex][sampleIndex];
+                double[] previousErrors = errors[layerIndex - 1][sampleIndex];
+                double[] previousActivations = activations[layerIndex][sampleIndex];
+
+                Arrays.fill(previousErrors, 0d);
+                for (int neuronIndex = 0; neuronIndex < layerErrors.length; neuronIndex++) {
+                    double error = layerErrors[neuronIndex];
+                    double[] row = weights[neuronIndex];
+
+                    for (int weightIndex = 0; weightIndex < previousErrors.length; weightIndex++) {
+                        previousErrors[weightIndex] += error * row[weightIndex];
+                    }
+                }
+
+                for (int neuronIndex = 0; neuronIndex < previousErrors.length; neuronIndex++) {
+                    previousErrors[neuronIndex] *= layers[layerIndex - 1].derivative(previousActivations[neuronIndex]);
+                }
+            }
+        }
+
+        // Gradients are the outer products of the errors and the inputs of each layer, summed over the batch.
+        for (int layerIndex = 0; layerIndex < layers.length; layerIndex++) {
+            layers[layerIndex].gradients(
+                    activations[layerIndex],
+                    errors[layerIndex],
+                    count,
+                    learningRate,
+                    weightGradients[layerIndex],
+                    biasGradients[layerIndex]
+            );
+        }
+
+        return loss;
+    }
+
+}
@@ -0,0 +1,86 @@
+package me.bausano.algorithms.neuralnetwork;
+
+import me.bausano.Settings;
+import me.bausano.algorithms.Classifier;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Base of the classes NetworkCompiler generates for a trained network. The generated class only implements the feed
+ * forward with the shape and the weights of the network baked in, the rest of the classifier lives here. It is a
+ * snapshot, later training of the original network does not change it, so its version never changes either.
+ */
+abstract class CompiledNetwork implements Classifier {
+
+    /**
+     * Copy of the network the class was generated for. Its weights are read by generated code that does not inline
+     * them and its class mapping turns the output activations into classes.
+     */
+    final NeuralNetwork network;
+
+    /**
+     * Activation function of the network, called by generated code for functions it cannot inline.
+     */
+    final DoubleUnaryOperator activation;
+
+    /**
+     * Activation buffers of each layer, owned by one thread.
+     */
+    private final ThreadLocal<double[][]> activations;
+
+    /**
+     * @param network Copy of the network the class was generated for
+     */
+    CompiledNetwork(NeuralNetwork network) {
+        this.network = network;
+        this.activation = Settings.activation.function;
+        this.activations = ThreadLocal.withInitial(() -> {
+            double[][] buffers = new double[network.layers.length][];
+            for (int layerIndex = 0; layerIndex < buffers.length; layerIndex++) {
+                buffers[layerIndex] = new double[network.layers[layerIndex].outputs()];
+            }
+
+            return buffers;
+        });
+    }
+
+    /**
+     * Folds the layers over the digit, generated for the exact shape of the network.
+     *
+     * @param digit Input digit with pixels
+     * @param activations Buffers for the activations of each layer, the last one receives the output activations
+     */
+    abstract void feedForward(double[] digit, double[][] activations);
+
+    /**
+     * @inheritDoc
+     */
+    public int classify(double[] digit) {
+        double[][] buffers = activations.get();
+        feedForward(digit, buffers);
+
+        return network.classOf(buffers[buffers.length - 1]);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public double[] estimate(double[] digit) {
+        double[] estimates = new double[Settings.OUTPUT_CLASSES_COUNT];
+        estimateInto(digit, estimates);
+
+        return estimates;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void estimateInto(double[] digit, double[] estimates) {
+        double[][] buffers = activations.get();
+        feedForward(digit, buffers);
+
+        network.mapNeuronsToDigits(buffers[buffers.length - 1], estimates);
+    }
+
+}
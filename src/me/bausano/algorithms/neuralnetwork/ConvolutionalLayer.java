@@ -0,0 +1,302 @@
+package me.bausano.algorithms.neuralnetwork;
+
+import java.util.Arrays;
+
+/**
+ * First layer of a network that maps the raw pixels through trainable kernels, the way DataSet maps them through the
+ * fixed Settings.FILTERS. The layer outputs the pixels followed by one map for each kernel, each as large as the image,
+ * which is the layout of the digits DataSet stores with filters, so the layers behind it do not change. A kernel is
+ * anchored at its top left corner and pixels beyond the right and the bottom edge count as zero, as in DataSet. Like
+ * the values DataSet maps through filters, the maps have no activation function.
+ *
+ * Each kernel is a neuron whose weights are the kernel read row by row and whose bias is added to every value of its
+ * map, so copying, training and distributed training treat the kernels like the weights of any other layer.
+ *
+ * The maps are computed as im2col followed by one matrix product. The patch under the kernel at each pixel is copied
+ * into a row of a column matrix, for all samples of a block, and every kernel is then multiplied with every row. The
+ * gradients of the kernels are the transposed errors times the same column matrix. The layer only reads the first
+ * width * height inputs, so it takes the raw pixels as well as digits stored with filters.
+ */
+public class ConvolutionalLayer extends Layer {
+
+    /**
+     * How many pixels are on one row of the image.
+     */
+    public final int width;
+
+    /**
+     * How many rows the image has.
+     */
+    public final int height;
+
+    /**
+     * How many weights are on one row of each kernel.
+     */
+    public final int kernelWidth;
+
+    /**
+     * How many rows each kernel has.
+     */
+    public final int kernelHeight;
+
+    /**
+     * Index of the pixel under each weight of a kernel placed at each pixel, -1 beyond the edges of the image. The
+     * indices of the kernel at pixel p start at p * kernelWidth * kernelHeight.
+     */
+    private final int[] patchIndices;
+
+    /**
+     * Buffers reused between calls made by the same thread.
+     */
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * @param kernels Weights of each kernel, read row by row
+     * @param biases Bias of each kernel
+     * @param width How many pixels are on one row of the image
+     * @param height How many rows the image has
+     * @param kernelWidth How many weights are on one row of each kernel
+     * @param kernelHeight How many rows each kernel has
+     */
+    public ConvolutionalLayer (double[][] kernels, double[] biases, int width, int height, int kernelWidth,
+                               int kernelHeight) {
+        super(kernels, biases);
+        this.width = width;
+        this.height = height;
+        this.kernelWidth = kernelWidth;
+        this.kernelHeight = kernelHeight;
+
+        int kernelSize = kernelWidth * kernelHeight;
+        patchIndices = new int[width * height * kernelSize];
+
+        for (int pixel = 0; pixel < width * height; pixel++) {
+            int row = pixel / width;
+            int column = pixel % width;
+
+            for (int kernelRow = 0; kernelRow < kernelHeight; kernelRow++) {
+                for (int kernelColumn = 0; kernelColumn < kernelWidth; kernelColumn++) {
+                    boolean inside = row + kernelRow < height && column + kernelColumn < width;
+
+                    patchIndices[pixel * kernelSize + kernelRow * kernelWidth + kernelColumn] = inside
+                            ? (row + kernelRow) * width + column + kernelColumn
+                            : -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a layer whose kernels start as given filters, such as Settings.FILTERS, with zero biases.
+     *
+     * @param filters Matrices of weights, all of the same size
+     * @param width How many pixels are on one row of the image
+     * @param height How many rows the image has
+     * @return New layer
+     */
+    public static ConvolutionalLayer fromFilters (double[][][] filters, int width, int height) {
+        int kernelHeight = filters[0].length;
+        int kernelWidth = filters[0][0].length;
+        double[][] kernels = new double[filters.length][kernelWidth * kernelHeight];
+
+        for (int filterIndex = 0; filterIndex < filters.length; filterIndex++) {
+            for (int kernelRow = 0; kernelRow < kernelHeight; kernelRow++) {
+                System.arraycopy(
+                        filters[filterIndex][kernelRow],
+                        0,
+                        kernels[filterIndex],
+                        kernelRow * kernelWidth,
+                        kernelWidth
+                );
+            }
+        }
+
+        return new ConvolutionalLayer(
+                kernels,
+                new double[filters.length],
+                width,
+                height,
+                kernelWidth,
+                kernelHeight
+        );
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void activation (double[] inputs, double[] outputs) {
+        Scratch buffers = scratch.get();
+        buffers.inputs[0] = inputs;
+        buffers.outputs[0] = outputs;
+
+        activation(buffers.inputs, buffers.outputs, 1);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void activation (double[][] inputs, double[][] outputs, int count) {
+        int pixels = width * height;
+        int kernelSize = kernelWidth * kernelHeight;
+        double[] columns = im2col(inputs, count);
+
+        for (int sampleIndex = 0; sampleIndex < count; sampleIndex++) {
+            System.arraycopy(inputs[sampleIndex], 0, outputs[sampleIndex], 0, pixels);
+        }
+
+        // The column matrix times the transposed kernels. Each kernel is loaded once for all rows of the block.
+        for (int kernelIndex = 0; kernelIndex < neurons.length; kernelIndex++) {
+            double[] kernel = neurons[kernelIndex];
+            double bias = biases[kernelIndex];
+            int mapStart = pixels * (kernelIndex + 1);
+
+            for (int sampleIndex = 0; sampleIndex < count; sampleIndex++) {
+                double[] output = outputs[sampleIndex];
+                int rowStart = sampleIndex * pixels * kernelSize;
+
+                for (int pixel = 0; pixel < pixels; pixel++) {
+                    double product = bias;
+                    for (int weightIndex = 0; weightIndex < kernelSize; weightIndex++) {
+                        product += kernel[weightIndex] * columns[rowStart + weightIndex];
+                    }
+
+                    output[mapStart + pixel] = product;
+                    rowStart += kernelSize;
+                }
+            }
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void gradients (double[][] inputs, double[][] errors, int count, double learningRate,
+                           double[][] weightGradients, double[] biasGradients) {
+        int pixels = width * height;
+        int kernelSize = kernelWidth * kernelHeight;
+        double[] columns = im2col(inputs, count);
+
+        // The transposed errors of each map times the column matrix. The errors of the pixels themselves are ignored,
+        // they do not depend on any weight.
+        for (int kernelIndex = 0; kernelIndex < weightGradients.length; kernelIndex++) {
+            double[] gradient = weightGradients[kernelIndex];
+            double bias = 0d;
+            int mapStart = pixels * (kernelIndex + 1);
+
+            Arrays.fill(gradient, 0d);
+            for (int sampleIndex = 0; sampleIndex < count; sampleIndex++) {
+                double[] sampleErrors = errors[sampleIndex];
+                int rowStart = sampleIndex * pixels * kernelSize;
+
+                for (int pixel = 0; pixel < pixels; pixel++) {
+                    double error = sampleErrors[mapStart + pixel] * learningRate;
+                    for (int weightIndex = 0; weightIndex < kernelSize; weightIndex++) {
+                        gradient[weightIndex] += columns[rowStart + weightIndex] * error;
+                    }
+
+                    bias += error;
+                    rowStart += kernelSize;
+                }
+            }
+
+            biasGradients[kernelIndex] = bias;
+        }
+    }
+
+    /**
+     * @return The pixels and one map of the size of the image for each kernel
+     */
+    @Override
+    public int outputs () {
+        return width * height * (neurons.length + 1);
+    }
+
+    /**
+     * The maps are linear, so the derivative is one everywhere.
+     *
+     * @param activation Output of the layer
+     * @return One
+     */
+    @Override
+    public double derivative (double activation) {
+        return 1d;
+    }
+
+    /**
+     * Kernels are few and every weight of them is used at every pixel, so they are not pruned.
+     *
+     * @param sparsity Ignored
+     */
+    @Override
+    public void prune (double sparsity) {
+    }
+
+    /**
+     * Deep clones the layer.
+     *
+     * @return New layer instance with the same kernels and biases
+     */
+    @Override
+    public ConvolutionalLayer copy () {
+        double[][] newKernels = new double[neurons.length][];
+        for (int kernelIndex = 0; kernelIndex < neurons.length; kernelIndex++) {
+            newKernels[kernelIndex] = neurons[kernelIndex].clone();
+        }
+
+        return new ConvolutionalLayer(newKernels, biases.clone(), width, height, kernelWidth, kernelHeight);
+    }
+
+    /**
+     * Copies the patch under the kernel at each pixel of each sample into a row of the column matrix of the current
+     * thread. The matrix is valid until the thread's next call.
+     *
+     * @param inputs Samples whose first width * height values are the pixels
+     * @param count How many samples to copy
+     * @return Column matrix with count * width * height rows of kernelWidth * kernelHeight values, row after row
+     */
+    private double[] im2col (double[][] inputs, int count) {
+        Scratch buffers = scratch.get();
+        int rowsLength = patchIndices.length;
+
+        if (buffers.columns.length < count * rowsLength) {
+            buffers.columns = new double[count * rowsLength];
+        }
+
+        double[] columns = buffers.columns;
+        for (int sampleIndex = 0; sampleIndex < count; sampleIndex++) {
+            double[] sample = inputs[sampleIndex];
+            int offset = sampleIndex * rowsLength;
+
+            for (int index = 0; index < rowsLength; index++) {
+                int pixel = patchIndices[index];
+                columns[offset + index] = pixel < 0 ? 0d : sample[pixel];
+            }
+        }
+
+        return columns;
+    }
+
+    /**
+     * Buffers owned by one thread.
+     */
+    private static class Scratch {
+
+        /**
+         * Column matrix of the last block, grown to the largest block seen.
+         */
+        double[] columns = new double[0];
+
+        /**
+         * Wraps a single sample into a block of one.
+         */
+        final double[][] inputs = new double[1][];
+
+        /**
+         * Wraps the outputs of a single sample into a block of one.
+         */
+        final double[][] outputs = new double[1][];
+    }
+
+}
@@ -2,6 +2,8 @@ package me.bausano.algorithms.neuralnetwork;
 
 import me.bausano.Settings;
 
+import java.util.Arrays;
+
 public class Layer {
 
     /**
@@ -16,6 +18,29 @@ public class Layer {
      */
     public double[] biases;
 
+    /**
+     * Index into columns and values where each neuron's row starts, with one extra element that ends the last row.
+     * Null until the layer is pruned. The rows hold only the weights that survived pruning, in compressed sparse row
+     * format, and they double as the mask that keeps pruned weights at zero while the layer is fine-tuned.
+     */
+    private int[] rowStarts;
+
+    /**
+     * Index of the input each kept weight is connected to.
+     */
+    private int[] columns;
+
+    /**
+     * Kept weights, in the same order as columns.
+     */
+    private double[] values;
+
+    /**
+     * Whether the activations are computed from the compressed rows rather than from the dense weights. Skipping the
+     * zero weights only pays off when there are few enough of the others, as each kept weight needs an extra index.
+     */
+    private boolean sparseKernel;
+
     /**
      * @param neurons Neurons with their associated weights
      * @param biases Bias associated with each neuron
@@ -32,22 +57,254 @@ public class Layer {
      * @return Sets of inputs for next layer
      */
     public double[] activation (double[] inputs) {
-        double[] outputs = new double[neurons.length];
+        double[] outputs = new double[outputs()];
+        activation(inputs, outputs);
+
+        return outputs;
+    }
+
+    /**
+     * Computes the activation vector for the layer into a buffer owned by the caller.
+     *
+     * @param inputs Outputs from the previous layer
+     * @param outputs Buffer with at least as many elements as there are neurons
+     */
+    public void activation (double[] inputs, double[] outputs) {
+        if (sparseKernel) {
+            sparseActivation(inputs, outputs);
+            return;
+        }
 
         // Calculate output for each neuron by multiplying its weights by outputs from last layer.
         for (int neuronIndex = 0; neuronIndex < neurons.length; neuronIndex++) {
+            double[] weights = neurons[neuronIndex];
             double product = biases[neuronIndex];
 
             // Multiplies matrix of weights with inputs matrix.
-            for (int weightIndex = 0; weightIndex < neurons[neuronIndex].length; weightIndex++) {
-                product += neurons[neuronIndex][weightIndex] * inputs[weightIndex];
+            for (int weightIndex = 0; weightIndex < weights.length; weightIndex++) {
+                product += weights[weightIndex] * inputs[weightIndex];
             }
 
             // Maps the output through an activation function.
-            outputs[neuronIndex] = Settings.activation.function.apply(product);
+            outputs[neuronIndex] = Settings.activation.function.applyAsDouble(product);
         }
+    }
 
-        return outputs;
+    /**
+     * Computes the activation vectors for a block of inputs. Each neuron's weights are loaded once and multiplied with
+     * all inputs of the block, rather than being loaded again for every input.
+     *
+     * @param inputs Outputs from the previous layer, one row for each sample
+     * @param outputs Buffers with at least as many elements as there are neurons, one row for each sample
+     * @param count How many rows of the block to compute
+     */
+    public void activation (double[][] inputs, double[][] outputs, int count) {
+        if (sparseKernel) {
+            for (int sampleIndex = 0; sampleIndex < count; sampleIndex++) {
+                sparseActivation(inputs[sampleIndex], outputs[sampleIndex]);
+            }
+
+            return;
+        }
+
+        for (int neuronIndex = 0; neuronIndex < neurons.length; neuronIndex++) {
+            double[] weights = neurons[neuronIndex];
+            double bias = biases[neuronIndex];
+
+            for (int sampleIndex = 0; sampleIndex < count; sampleIndex++) {
+                double[] sample = inputs[sampleIndex];
+                double product = bias;
+
+                for (int weightIndex = 0; weightIndex < weights.length; weightIndex++) {
+                    product += weights[weightIndex] * sample[weightIndex];
+                }
+
+                outputs[sampleIndex][neuronIndex] = Settings.activation.function.applyAsDouble(product);
+            }
+        }
+    }
+
+    /**
+     * Sums the gradients of the weights and biases over a block of samples, scaled by the learning rate. The gradient
+     * of a weight is the input it is connected to times the error of its neuron, the gradient of a bias is the error.
+     *
+     * @param inputs Inputs of the layer, one row for each sample
+     * @param errors Errors of the outputs of the layer, one row for each sample
+     * @param count How many rows of the block to sum
+     * @param learningRate Learning rate the gradients are scaled by
+     * @param weightGradients Output buffer in the shape of the weights, overwritten
+     * @param biasGradients Output buffer with one element for each neuron, overwritten
+     */
+    public void gradients (double[][] inputs, double[][] errors, int count, double learningRate,
+                           double[][] weightGradients, double[] biasGradients) {
+        for (int neuronIndex = 0; neuronIndex < weightGradients.length; neuronIndex++) {
+            double[] gradient = weightGradients[neuronIndex];
+            double bias = 0d;
+
+            Arrays.fill(gradient, 0d);
+            for (int sampleIndex = 0; sampleIndex < count; sampleIndex++) {
+                double error = errors[sampleIndex][neuronIndex];
+                double[] sample = inputs[sampleIndex];
+
+                // Multiplied in the same order as the trainer always has, so that the updates round alike.
+                for (int weightIndex = 0; weightIndex < gradient.length; weightIndex++) {
+                    gradient[weightIndex] += sample[weightIndex] * error * learningRate;
+                }
+
+                bias += error * learningRate;
+            }
+
+            biasGradients[neuronIndex] = bias;
+        }
+    }
+
+    /**
+     * @return How many values the layer outputs, one for each neuron
+     */
+    public int outputs () {
+        return neurons.length;
+    }
+
+    /**
+     * Derivative of the activation function of the layer, computed from the value of the function over the net.
+     *
+     * @param activation Output of the layer
+     * @return Derivative at the output
+     */
+    public double derivative (double activation) {
+        return Settings.activation.derivative.applyAsDouble(activation);
+    }
+
+    /**
+     * Computes the activation vector from the compressed rows, only multiplying the weights that were kept.
+     *
+     * @param inputs Outputs from the previous layer
+     * @param outputs Buffer with at least as many elements as there are neurons
+     */
+    private void sparseActivation (double[] inputs, double[] outputs) {
+        for (int neuronIndex = 0; neuronIndex < biases.length; neuronIndex++) {
+            double product = biases[neuronIndex];
+
+            for (int index = rowStarts[neuronIndex]; index < rowStarts[neuronIndex + 1]; index++) {
+                product += values[index] * inputs[columns[index]];
+            }
+
+            outputs[neuronIndex] = Settings.activation.function.applyAsDouble(product);
+        }
+    }
+
+    /**
+     * Zeroes the weights with the smallest magnitude until the given portion of the weights is zero and keeps them at
+     * zero from then on. Weights that are already zero count towards the portion.
+     *
+     * @param sparsity Portion of the weights to zero, in range 0 - 1
+     */
+    public void prune (double sparsity) {
+        int weightCount = neurons.length * neurons[0].length;
+        int pruneCount = (int) Math.round(sparsity * weightCount);
+
+        if (pruneCount > 0) {
+            double[] magnitudes = new double[weightCount];
+            int index = 0;
+            for (double[] weights : neurons) {
+                for (double weight : weights) {
+                    magnitudes[index++] = Math.abs(weight);
+                }
+            }
+            Arrays.sort(magnitudes);
+
+            // Ties at the threshold are pruned together, so slightly more weights than asked for may end up zero.
+            double threshold = magnitudes[Math.min(pruneCount, weightCount) - 1];
+            for (double[] weights : neurons) {
+                for (int weightIndex = 0; weightIndex < weights.length; weightIndex++) {
+                    if (Math.abs(weights[weightIndex]) <= threshold) {
+                        weights[weightIndex] = 0d;
+                    }
+                }
+            }
+        }
+
+        compress(Settings.SPARSE_DENSITY_THRESHOLD);
+    }
+
+    /**
+     * Stores the non zero weights in compressed rows, which from then on mark the only weights that may change, and
+     * picks the kernel for the density of the layer.
+     *
+     * @param densityThreshold The sparse kernel is used when at most this portion of the weights is non zero
+     */
+    public void compress (double densityThreshold) {
+        int kept = 0;
+        for (double[] weights : neurons) {
+            for (double weight : weights) {
+                if (weight != 0d) {
+                    kept++;
+                }
+            }
+        }
+
+        rowStarts = new int[neurons.length + 1];
+        columns = new int[kept];
+        values = new double[kept];
+
+        int index = 0;
+        for (int neuronIndex = 0; neuronIndex < neurons.length; neuronIndex++) {
+            rowStarts[neuronIndex] = index;
+
+            for (int weightIndex = 0; weightIndex < neurons[neuronIndex].length; weightIndex++) {
+                if (neurons[neuronIndex][weightIndex] != 0d) {
+                    columns[index] = weightIndex;
+                    values[index] = neurons[neuronIndex][weightIndex];
+                    index++;
+                }
+            }
+        }
+        rowStarts[neurons.length] = index;
+
+        sparseKernel = density() <= densityThreshold;
+    }
+
+    /**
+     * Brings the compressed rows up to date after the dense weights have been changed, for example by the trainer.
+     * Weights that were pruned are set back to zero. Layers that were never pruned are left as they are.
+     */
+    public void weightsChanged () {
+        if (rowStarts == null) {
+            return;
+        }
+
+        for (int neuronIndex = 0; neuronIndex < neurons.length; neuronIndex++) {
+            double[] weights = neurons[neuronIndex];
+            int column = 0;
+
+            for (int index = rowStarts[neuronIndex]; index < rowStarts[neuronIndex + 1]; index++) {
+                // Zeroes the pruned weights between the previous kept weight and this one.
+                for (; column < columns[index]; column++) {
+                    weights[column] = 0d;
+                }
+
+                values[index] = weights[column];
+                column++;
+            }
+
+            for (; column < weights.length; column++) {
+                weights[column] = 0d;
+            }
+        }
+    }
+
+    /**
+     * @return Portion of the weights that may be non zero, 1 for layers that were never pruned
+     */
+    public double density () {
+        return rowStarts == null ? 1d : (double) values.length / (neurons.length * neurons[0].length);
+    }
+
+    /**
+     * @return Whether the activations are computed by the sparse kernel
+     */
+    public boolean isSparse () {
+        return sparseKernel;
     }
 
     /**
@@ -67,7 +324,17 @@ public class Layer {
         // Copy biases.
         System.arraycopy(biases, 0, newBiases, 0, biases.length);
 
-        return new Layer(newNeurons, newBiases);
+        Layer layer = new Layer(newNeurons, newBiases);
+
+        // The clone keeps the pruning mask and the kernel of this layer.
+        if (rowStarts != null) {
+            layer.rowStarts = rowStarts.clone();
+            layer.columns = columns.clone();
+            layer.values = values.clone();
+            layer.sparseKernel = sparseKernel;
+        }
+
+        return layer;
     }
 
 }
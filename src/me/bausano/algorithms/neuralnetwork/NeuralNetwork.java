@@ -6,9 +6,15 @@ import me.bausano.algorithms.Classifier;
 import java.util.Arrays;
 import java.util.PrimitiveIterator;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class NeuralNetwork implements Classifier {
 
+    /**
+     * How many digits of a batch are fed forward through the layers together.
+     */
+    private static final int BLOCK_SIZE = 32;
+
     /**
      * Array of network layers. The input layer is not included and is only abstract. Therefore a network that has
      * structure [64, 36, 10] will have two layers behind the scenes.
@@ -25,6 +31,16 @@ public class NeuralNetwork implements Classifier {
      */
     public final int[] mapDigitToNeuron;
 
+    /**
+     * Buffers reused between feed forwards made by the same thread.
+     */
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(() -> new Scratch(new Layer[0]));
+
+    /**
+     * Grows whenever the weights or the layers change.
+     */
+    private final AtomicLong version = new AtomicLong();
+
     /**
      * @param layers Array of network layers
      * @param mapNeuronToDigit Converts neurons to classes
@@ -46,7 +62,22 @@ public class NeuralNetwork implements Classifier {
      * @return New instance of an untrained network
      */
     public static NeuralNetwork fromBlueprint(int[] schema,  int[] mapNeuronToDigit, int[] mapDigitToNeuron) {
-        PrimitiveIterator.OfDouble rng = new Random().doubles().iterator();
+        return fromBlueprint(schema, mapNeuronToDigit, mapDigitToNeuron, new Random());
+    }
+
+    /**
+     * Generates new neural network with weights drawn from given source, so that a seeded source gives the same
+     * network every time.
+     *
+     * @param schema Layers and neurons including input and output layer
+     * @param mapNeuronToDigit Holds information about which output neuron represents which class
+     * @param mapDigitToNeuron Holds information about which class is bound to which neuron
+     * @param random Source of the initial weights
+     * @return New instance of an untrained network
+     */
+    public static NeuralNetwork fromBlueprint(int[] schema,  int[] mapNeuronToDigit, int[] mapDigitToNeuron,
+                                              Random random) {
+        PrimitiveIterator.OfDouble rng = random.doubles().iterator();
 
         Layer[] layers = new Layer[schema.length - 1];
 
@@ -84,22 +115,119 @@ public class NeuralNetwork implements Classifier {
      * @return New instance of an untrained network
      */
     public static NeuralNetwork fromBlueprint(int[] schema) {
+        return NeuralNetwork.fromBlueprint(schema, new Random());
+    }
+
+    /**
+     * Overloading the init method to default the class mapping.
+     *
+     * @param schema Layers and neurons including input and output layer
+     * @param random Source of the initial weights
+     * @return New instance of an untrained network
+     */
+    public static NeuralNetwork fromBlueprint(int[] schema, Random random) {
         return NeuralNetwork.fromBlueprint(
                 schema,
                 new int[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 },
-                new int[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 }
+                new int[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 },
+                random
         );
     }
 
+    /**
+     * Generates a network that learns its own filters. The first layer convolves the raw pixels with trainable kernels
+     * that start as given filters, see ConvolutionalLayer, and the layers of the schema follow it. The network reads
+     * only the pixels of a digit, so the digits can be stored without being mapped through filters.
+     *
+     * @param filters Initial kernels, all of the same size, such as Settings.FILTERS
+     * @param width How many pixels are on one row of the image
+     * @param height How many rows the image has
+     * @param schema Neurons of the layers behind the convolutional layer, including the output layer
+     * @param random Source of the initial weights of the layers behind the convolutional layer
+     * @return New instance of an untrained network
+     */
+    public static NeuralNetwork withConvolution(double[][][] filters, int width, int height, int[] schema,
+                                                Random random) {
+        ConvolutionalLayer convolution = ConvolutionalLayer.fromFilters(filters, width, height);
+
+        int[] denseSchema = new int[schema.length + 1];
+        denseSchema[0] = convolution.outputs();
+        System.arraycopy(schema, 0, denseSchema, 1, schema.length);
+        NeuralNetwork dense = fromBlueprint(denseSchema, random);
+
+        Layer[] layers = new Layer[dense.layers.length + 1];
+        layers[0] = convolution;
+        System.arraycopy(dense.layers, 0, layers, 1, dense.layers.length);
+
+        return new NeuralNetwork(layers, dense.mapNeuronToDigit, dense.mapDigitToNeuron);
+    }
+
     /**
      * @inheritDoc
      */
     public int classify (double[] digit) {
-        int candidate = 0;
-        double candidateProbability = Double.MIN_VALUE;
+        // Feeds forward the inputs and gathers the results on output neurons.
+        return classOf(feedForward(digit));
+    }
 
+    /**
+     * @inheritDoc
+     */
+    public double[] estimate(double[] digit) {
+        double[] digitProbabilities = new double[Settings.OUTPUT_CLASSES_COUNT];
+        estimateInto(digit, digitProbabilities);
+
+        return digitProbabilities;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void estimateInto(double[] digit, double[] estimates) {
         // Feeds forward the inputs and gathers the results on output neurons.
-        double[] probabilities = feedForward(digit);
+        mapNeuronsToDigits(feedForward(digit), estimates);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void classify(double[][] digits, int[] classes) {
+        for (int blockStart = 0; blockStart < digits.length; blockStart += BLOCK_SIZE) {
+            int count = Math.min(BLOCK_SIZE, digits.length - blockStart);
+            double[][] probabilities = feedForward(digits, blockStart, count);
+
+            for (int sampleIndex = 0; sampleIndex < count; sampleIndex++) {
+                classes[blockStart + sampleIndex] = classOf(probabilities[sampleIndex]);
+            }
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void estimate(double[][] digits, double[][] estimates) {
+        for (int blockStart = 0; blockStart < digits.length; blockStart += BLOCK_SIZE) {
+            int count = Math.min(BLOCK_SIZE, digits.length - blockStart);
+            double[][] probabilities = feedForward(digits, blockStart, count);
+
+            for (int sampleIndex = 0; sampleIndex < count; sampleIndex++) {
+                mapNeuronsToDigits(probabilities[sampleIndex], estimates[blockStart + sampleIndex]);
+            }
+        }
+    }
+
+    /**
+     * Picks the class of the output neuron with the highest activation.
+     *
+     * @param probabilities Activations of the output neurons
+     * @return Class the neuron maps to
+     */
+    int classOf(double[] probabilities) {
+        int candidate = 0;
+        double candidateProbability = Double.MIN_VALUE;
 
         // Each of the probabilities corresponds to one output neuron.
         for (int neuronIndex = 0; neuronIndex < probabilities.length; neuronIndex++) {
@@ -117,19 +245,18 @@ public class NeuralNetwork implements Classifier {
     }
 
     /**
-     * @inheritDoc
+     * Converts activations of the output neurons to probabilities of each class.
+     *
+     * @param neuronProbabilities Activations of the output neurons
+     * @param digitProbabilities Output buffer for the class probabilities
      */
-    public double[] estimate(double[] digit) {
-        // Default each class with -1, which represents "I don't know".
-        double[] digitProbabilities = new double[Settings.OUTPUT_CLASSES_COUNT];
-
-        // Feeds forward the inputs and gathers the results on output neurons.
-        double[] neuronProbabilities = feedForward(digit);
-
+    void mapNeuronsToDigits(double[] neuronProbabilities, double[] digitProbabilities) {
         // If the last digit represents IDK (I don't know this class) value (-1), then it prefills all class values with
-        // the probability of IDK neuron.
+        // the probability of IDK neuron. Otherwise each class defaults to -1, which represents "I don't know".
         Arrays.fill(
                 digitProbabilities,
+                0,
+                Settings.OUTPUT_CLASSES_COUNT,
                 mapNeuronToDigit[mapNeuronToDigit.length - 1] == -1
                         ? neuronProbabilities[neuronProbabilities.length - 1]
                         : -1
@@ -143,8 +270,43 @@ public class NeuralNetwork implements Classifier {
 
             digitProbabilities[mapNeuronToDigit[neuronIndex]] = neuronProbabilities[neuronIndex];
         }
+    }
 
-        return digitProbabilities;
+    /**
+     * Converts what a training sample should teach into the desired activations of the output neurons. Without class
+     * probabilities, the neuron of the class of the sample is expected to fire and all others to stay silent.
+     *
+     * @param sample Training digit where last int is the class
+     * @param target Probabilities of each class or null to use the class of the sample
+     * @param expected Output buffer with one value per output neuron
+     */
+    void expectedActivations(double[] sample, double[] target, double[] expected) {
+        if (target == null) {
+            Arrays.fill(expected, 0d);
+            expected[mapDigitToNeuron[(int) sample[sample.length - 1]]] = 1d;
+            return;
+        }
+
+        for (int neuronIndex = 0; neuronIndex < expected.length; neuronIndex++) {
+            // The IDK neuron has no class of its own, so there is no probability to teach it.
+            expected[neuronIndex] = mapNeuronToDigit[neuronIndex] == -1 ? 0d : target[mapNeuronToDigit[neuronIndex]];
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Marks the network as changed, so that results kept from before the change are not used anymore. The trainer
+     * calls it after each update of the weights, code that changes the layers directly has to call it too.
+     */
+    public void markChanged() {
+        version.incrementAndGet();
     }
 
     /**
@@ -164,24 +326,185 @@ public class NeuralNetwork implements Classifier {
 
         // Assigns this newly created array to the network.
         this.layers = newLayers;
+        markChanged();
+    }
+
+    /**
+     * Deep clones the network, so that the copy can be changed, for example pruned or trained further, without
+     * affecting this one.
+     *
+     * @return New network with the same weights, biases and class mapping
+     */
+    public NeuralNetwork copy () {
+        Layer[] newLayers = new Layer[layers.length];
+        for (int layerIndex = 0; layerIndex < layers.length; layerIndex++) {
+            newLayers[layerIndex] = layers[layerIndex].copy();
+        }
+
+        return new NeuralNetwork(newLayers, mapNeuronToDigit.clone(), mapDigitToNeuron.clone());
+    }
+
+    /**
+     * @return Number of weights and biases of all layers
+     */
+    public int parameterCount () {
+        int count = 0;
+        for (Layer layer : layers) {
+            count += layer.neurons.length * (layer.neurons[0].length + 1);
+        }
+
+        return count;
+    }
+
+    /**
+     * Writes the weights and biases of all layers into one vector, layer by layer, each neuron's weights followed by
+     * its bias. The vector is what distributed training sends between processes.
+     *
+     * @param parameters Output buffer with parameterCount() elements
+     */
+    public void parametersInto (double[] parameters) {
+        int offset = 0;
+        for (Layer layer : layers) {
+            for (int neuronIndex = 0; neuronIndex < layer.neurons.length; neuronIndex++) {
+                double[] weights = layer.neurons[neuronIndex];
+                System.arraycopy(weights, 0, parameters, offset, weights.length);
+                parameters[offset + weights.length] = layer.biases[neuronIndex];
+                offset += weights.length + 1;
+            }
+        }
+    }
+
+    /**
+     * Overwrites the weights and biases of all layers with a vector written by parametersInto.
+     *
+     * @param parameters Weights and biases in the order of parametersInto
+     */
+    public void loadParameters (double[] parameters) {
+        int offset = 0;
+        for (Layer layer : layers) {
+            for (int neuronIndex = 0; neuronIndex < layer.neurons.length; neuronIndex++) {
+                double[] weights = layer.neurons[neuronIndex];
+                System.arraycopy(parameters, offset, weights, 0, weights.length);
+                layer.biases[neuronIndex] = parameters[offset + weights.length];
+                offset += weights.length + 1;
+            }
+
+            layer.weightsChanged();
+        }
+
+        markChanged();
     }
 
     /**
-     * Folds the layers starting with input values and finishing with output layer's activations.
+     * Folds the layers starting with input values and finishing with output layer's activations. The activations are
+     * written into buffers owned by the current thread, so the result is only valid until the thread's next call.
      *
      * @param digit Input digit with pixels
      * @return Activations for each output neuron
      */
-    private double[] feedForward (double[] digit) {
-        // Clones the input digit.
-        double[] carry = Arrays.stream(digit).toArray();
+    double[] feedForward (double[] digit) {
+        double[][] activations = scratch().activations;
+        double[] carry = digit;
 
         // Folds the layers array feeding forward the outputs from one layer to next as inputs.
-        for (Layer layer : layers) {
-            carry = layer.activation(carry);
+        for (int layerIndex = 0; layerIndex < layers.length; layerIndex++) {
+            layers[layerIndex].activation(carry, activations[layerIndex]);
+            carry = activations[layerIndex];
         }
 
         return carry;
     }
 
+    /**
+     * Folds the layers for a block of digits at once. Like the single digit variant, the result lives in buffers
+     * owned by the current thread.
+     *
+     * @param digits Input digits
+     * @param offset Index of the first digit of the block
+     * @param count How many digits are in the block, at most BLOCK_SIZE
+     * @return Activations for each output neuron, one row for each digit of the block
+     */
+    private double[][] feedForward (double[][] digits, int offset, int count) {
+        Scratch buffers = scratch();
+        System.arraycopy(digits, offset, buffers.inputs, 0, count);
+
+        double[][] carry = buffers.inputs;
+        for (int layerIndex = 0; layerIndex < layers.length; layerIndex++) {
+            layers[layerIndex].activation(carry, buffers.blocks[layerIndex], count);
+            carry = buffers.blocks[layerIndex];
+        }
+
+        return carry;
+    }
+
+    /**
+     * Returns the buffers of the current thread, reallocating them if the shape of the network has changed since they
+     * were created, for example after the network was expanded.
+     *
+     * @return Buffers matching the current layers
+     */
+    private Scratch scratch() {
+        Scratch buffers = scratch.get();
+
+        if (!buffers.matches(layers)) {
+            buffers = new Scratch(layers);
+            scratch.set(buffers);
+        }
+
+        return buffers;
+    }
+
+    /**
+     * Activation buffers owned by one thread.
+     */
+    private static class Scratch {
+
+        /**
+         * Activations of each layer for a single digit.
+         */
+        final double[][] activations;
+
+        /**
+         * Activations of each layer for a block of digits.
+         */
+        final double[][][] blocks;
+
+        /**
+         * References to the digits of the block that is being fed forward.
+         */
+        final double[][] inputs = new double[BLOCK_SIZE][];
+
+        /**
+         * @param layers Layers to allocate buffers for
+         */
+        Scratch(Layer[] layers) {
+            activations = new double[layers.length][];
+            blocks = new double[layers.length][][];
+
+            for (int layerIndex = 0; layerIndex < layers.length; layerIndex++) {
+                activations[layerIndex] = new double[layers[layerIndex].outputs()];
+                blocks[layerIndex] = new double[BLOCK_SIZE][layers[layerIndex].outputs()];
+            }
+        }
+
+        /**
+         * @param layers Layers of the network
+         * @return Whether the buffers fit the layers
+         */
+        boolean matches(Layer[] layers) {
+            if (activations.length != layers.length) {
+                return false;
+            }
+
+            for (int layerIndex = 0; layerIndex < layers.length; layerIndex++) {
+                if (activations[layerIndex].length != layers[layerIndex].outputs()) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+    }
+
 }
@@ -0,0 +1,44 @@
+package me.bausano.algorithms.neuralnetwork;
+
+import java.util.Arrays;
+
+/**
+ * Magnitude pruning of trained networks. Many weights of the first layer connect to border pixels and filter responses
+ * that carry almost no signal, so they end up small and can be dropped with little loss of accuracy. Pruned layers keep
+ * their remaining weights in compressed rows and switch to a sparse kernel once they are sparse enough, see Layer.
+ * A few epochs of fine-tuning let the remaining weights make up for the dropped ones, the pruned weights stay zero.
+ */
+public class Pruning {
+
+    /**
+     * Zeroes the smallest weights of each hidden layer. The output layer is left dense, it is small and each of its
+     * weights carries the evidence of a hidden neuron for a class.
+     *
+     * @param network Trained network, changed in place
+     * @param sparsity Portion of the weights of each hidden layer to zero, in range 0 - 1
+     */
+    public static void prune(NeuralNetwork network, double sparsity) {
+        for (int layerIndex = 0; layerIndex < network.layers.length - 1; layerIndex++) {
+            network.layers[layerIndex].prune(sparsity);
+        }
+
+        network.markChanged();
+    }
+
+    /**
+     * Trains the pruned network further with a fixed learning rate. The trainer keeps the pruned weights at zero.
+     *
+     * @param network Pruned network, changed in place
+     * @param data Training data
+     * @param epochs How many passes over the training data to make
+     * @param learningRate Fixed learning rate, usually well below the mean learning rate of the full training
+     */
+    public static void fineTune(NeuralNetwork network, double[][] data, int epochs, double learningRate) {
+        Trainer trainer = new Trainer(network, data);
+
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            trainer.fineTune(Arrays.asList(data).iterator(), data.length, learningRate);
+        }
+    }
+
+}
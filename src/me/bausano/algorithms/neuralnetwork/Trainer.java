@@ -1,19 +1,45 @@
 package me.bausano.algorithms.neuralnetwork;
 
+import me.bausano.Hyperparameters;
 import me.bausano.Settings;
+import me.bausano.TrainingSource;
+
+import java.util.Arrays;
+import java.util.Iterator;
 
 public class Trainer {
 
     /**
      * Sets number of iteration so that the network always finishes the training when the learning rate is lowest.
      */
-    private final int iterations = Settings.CYCLES * (Settings.STEP_SIZE * 2) + Settings.STEP_SIZE + 1;
+    private final int iterations;
+
+    /**
+     * Hyper-parameters of the training.
+     */
+    private final Hyperparameters parameters;
+
+    /**
+     * How many iterations have been trained so far.
+     */
+    private int iteration;
 
     /**
-     * Training data.
+     * Training data, or null when the data comes from a training source.
      */
     private final double[][] data;
 
+    /**
+     * Source of the training data in chunks, or null when the training data is on the heap.
+     */
+    private final TrainingSource source;
+
+    /**
+     * Probabilities of each class the samples are taught towards, one row per sample, or null to teach each sample its
+     * own class. Soft targets let a network learn from the estimates of another model.
+     */
+    private final double[][] targets;
+
     /**
      * Network to train.
      */
@@ -39,39 +65,366 @@ public class Trainer {
      */
     private int nudgesSinceLastCommit;
 
+    /**
+     * Whether epochs backpropagate whole batches as matrices rather than sample by sample.
+     */
+    private boolean batched = Settings.BATCHED_TRAINING;
+
+    /**
+     * Buffers of the batched backpropagation, created on first use.
+     */
+    private BatchBackpropagation backpropagation;
+
+    /**
+     * Listeners notified at batch and epoch boundaries. An array rather than a list, so that notifying them does not
+     * allocate an iterator.
+     */
+    private TrainingListener[] listeners = new TrainingListener[0];
+
+    /**
+     * How many samples have been learned since the weights were last updated.
+     */
+    private int samplesSinceLastCommit;
+
+    /**
+     * Sum of the losses of the samples learned since the weights were last updated.
+     */
+    private double lossSinceLastCommit;
+
+    /**
+     * Index of the next batch within the epoch.
+     */
+    private int batch;
+
+    /**
+     * Sum of the losses of the samples learned in the current epoch.
+     */
+    private double epochLoss;
+
+    /**
+     * Number of samples learned in the current epoch.
+     */
+    private int epochSamples;
+
+    /**
+     * Sum of the gradient norms of the batches of the current epoch.
+     */
+    private double epochGradientNorms;
+
     /**
      * @param network Neural network to train
      * @param data Training data
      */
     public Trainer(NeuralNetwork network, double[][] data) {
+        this(network, data, Hyperparameters.defaults());
+    }
+
+    /**
+     * @param network Neural network to train
+     * @param data Training data
+     * @param parameters Hyper-parameters of the training
+     */
+    public Trainer(NeuralNetwork network, double[][] data, Hyperparameters parameters) {
+        this(network, data, null, parameters);
+    }
+
+    /**
+     * Trains the network towards given probabilities of each class rather than towards the class of each sample. The
+     * output neurons of classes the network does not map are taught towards zero.
+     *
+     * @param network Neural network to train
+     * @param data Training data
+     * @param targets Probabilities of each class for each sample of the training data, in the order of the classes
+     * @param parameters Hyper-parameters of the training
+     */
+    public Trainer(NeuralNetwork network, double[][] data, double[][] targets, Hyperparameters parameters) {
         this.data = data;
+        this.targets = targets;
+        this.source = null;
         this.network = network;
+        this.parameters = parameters;
+        this.iterations = parameters.iterations();
         clearCache();
     }
 
     /**
-     * Trains the network.
+     * Trains the network from a source that hands out the training data chunk by chunk, such as a file larger than
+     * the heap. Every epoch is one pass of the source, and the source decides the order of the samples. A batch never
+     * spans two chunks, so chunks whose size is a multiple of the batch size keep all batches whole.
+     *
+     * @param network Neural network to train
+     * @param source Training data in chunks, which the caller closes after the training
+     * @param parameters Hyper-parameters of the training
+     */
+    public Trainer(NeuralNetwork network, TrainingSource source, Hyperparameters parameters) {
+        this.data = null;
+        this.targets = null;
+        this.source = source;
+        this.network = network;
+        this.parameters = parameters;
+        this.iterations = parameters.iterations();
+        clearCache();
+    }
+
+    /**
+     * Registers a listener that is notified after each update of the weights and after each epoch.
+     *
+     * @param listener Listener to notify
+     */
+    public void addListener(TrainingListener listener) {
+        TrainingListener[] grown = Arrays.copyOf(listeners, listeners.length + 1);
+        grown[listeners.length] = listener;
+        listeners = grown;
+    }
+
+    /**
+     * Switches between the batched backpropagation and the sample by sample one. Both update the weights after the
+     * same samples and scale the updates the same way. They differ in the biases: the sample by sample path updates
+     * each bias by the gradient of the last sample of the batch only, while the batched path sums the bias gradients
+     * over the batch like it does for the weights.
+     *
+     * @param batched Whether epochs backpropagate whole batches as matrices
+     */
+    public void setBatched(boolean batched) {
+        this.batched = batched;
+    }
+
+    /**
+     * Trains the network for the rest of the iterations.
      */
     public void train() {
-        for (int iteration = 0; iteration < iterations; iteration++) {
-            // Changes the learning rate with each iteration. Is it scaled down and cycled.
-            this.LR = calculateLearningRate(iteration);
+        train(iterations - iteration);
+    }
+
+    /**
+     * Continues the training for given number of iterations, or fewer if the training finishes before that. This lets
+     * the caller train in stages and assess the network between them. An interrupted thread stops after the epoch it is
+     * in and keeps its interrupt flag, the training can be continued later.
+     *
+     * @param epochs How many more iterations to train
+     */
+    public void train(int epochs) {
+        int lastIteration = Math.min(iterations, iteration + epochs);
+
+        for (; iteration < lastIteration && !Thread.currentThread().isInterrupted(); iteration++) {
+            trainEpoch(iteration);
+        }
+    }
+
+    /**
+     * Continues training the network from its current weights on a stream of new samples, such as corrected labels.
+     * Unlike the full training, it makes a single pass with a fixed learning rate and stops after a bounded number of
+     * samples, so it can run whenever new samples arrive. It does not use the training data of the trainer.
+     *
+     * @param samples New samples where last int is the class
+     * @param maxSteps Upper bound on the number of samples to learn
+     * @param learningRate Fixed learning rate, usually well below the mean learning rate of the full training
+     * @return Number of samples learned
+     */
+    public int fineTune(Iterator<double[]> samples, int maxSteps, double learningRate) {
+        this.LR = learningRate;
+
+        int step = 0;
+        while (step < maxSteps && samples.hasNext()) {
+            learnSample(samples.next(), null);
+            step++;
+
+            // Updates the weights of all layers every nth sample.
+            if (step % parameters.batchSize == 0) {
+                commitNudges();
+            }
+        }
+
+        // Updates the weights by the leftover nudges.
+        commitNudges();
+
+        return step;
+    }
+
+    /**
+     * Learns a range of the training data with the learning rate of given iteration and updates the weights after each
+     * batch of the range. Unlike the epochs, it does not move the iterations of the trainer forward. Distributed
+     * workers train this way one step at a time and exchange the changes of the weights between the steps.
+     *
+     * @param iteration Iteration whose learning rate to use
+     * @param from Index of the first sample of the range
+     * @param count Number of samples in the range
+     * @throws IllegalStateException If the trainer reads its data from a training source
+     */
+    public void trainRange(int iteration, int from, int count) {
+        if (data == null) {
+            throw new IllegalStateException("Ranges can only be trained from the training data on the heap.");
+        }
+
+        this.LR = calculateLearningRate(iteration);
+        int end = from + count;
+
+        if (batched) {
+            prepareBackpropagation();
+
+            for (int batchStart = from; batchStart < end;) {
+                int batchEnd = Math.min(end, batchStart + backpropagation.capacity());
+
+                learnBatch(data, targets, batchStart, batchEnd - batchStart);
+                batchStart = batchEnd;
+            }
+        } else {
+            for (int sampleIndex = from; sampleIndex < end; sampleIndex++) {
+                learnSample(data[sampleIndex], targets == null ? null : targets[sampleIndex]);
+
+                if ((sampleIndex - from + 1) % parameters.batchSize == 0) {
+                    commitNudges();
+                }
+            }
+        }
+
+        // Updates the weights by the leftover nudges.
+        commitNudges();
+    }
+
+    /**
+     * @return How many iterations have been trained so far
+     */
+    public int trainedIterations() {
+        return iteration;
+    }
+
+    /**
+     * @return How many iterations a full training takes
+     */
+    public int totalIterations() {
+        return iterations;
+    }
 
+    /**
+     * Runs one pass over the training data.
+     *
+     * @param iteration Which iteration of learning is it, drives the learning rate
+     */
+    void trainEpoch(int iteration) {
+        long start = System.nanoTime();
+        batch = 0;
+        epochLoss = 0d;
+        epochSamples = 0;
+        epochGradientNorms = 0d;
+
+        // Changes the learning rate with each iteration. Is it scaled down and cycled.
+        this.LR = calculateLearningRate(iteration);
+
+        if (source != null) {
+            trainSource();
+        } else if (batched) {
+            trainBatches();
+        } else {
             for (int sampleIndex = 0; sampleIndex < data.length; sampleIndex++) {
                 // Calculates the nudges for given sample and saves them to a temporary vector.
-                learnSample(data[sampleIndex]);
+                learnSample(data[sampleIndex], targets == null ? null : targets[sampleIndex]);
 
                 // Updates the weights of all layers every nth sample.
-                if (sampleIndex % Settings.BATCH_SIZE == 0) {
+                if (sampleIndex % parameters.batchSize == 0) {
                     commitNudges();
                 }
             }
+        }
+
+        // After each iteration, it updates the weight by the leftover nudges.
+        commitNudges();
+
+        long nanos = System.nanoTime() - start;
+        for (TrainingListener listener : listeners) {
+            listener.epochFinished(
+                    iteration,
+                    iterations,
+                    epochSamples == 0 ? 0d : epochLoss / epochSamples,
+                    LR,
+                    nanos,
+                    epochSamples / (nanos / 1e9d),
+                    batch == 0 ? 0d : epochGradientNorms / batch
+            );
+        }
+    }
+
+    /**
+     * Runs one pass over the training data with the batched backpropagation. The batches end after the same samples
+     * as in the sample by sample path, which commits after the first sample and then after every batchSize samples.
+     */
+    private void trainBatches() {
+        prepareBackpropagation();
+
+        for (int batchStart = 0; batchStart < data.length;) {
+            int batchEnd = batchStart == 0 ? 1 : Math.min(data.length, batchStart + backpropagation.capacity());
 
-            // After each iteration, it updates the weight by the leftover nudges.
-            commitNudges();
+            learnBatch(data, targets, batchStart, batchEnd - batchStart);
+            batchStart = batchEnd;
         }
     }
 
+    /**
+     * Runs one pass of the training source. The source may read the next chunk while this one is learned, the chunk
+     * is only valid until the next one is asked for.
+     */
+    private void trainSource() {
+        if (batched) {
+            prepareBackpropagation();
+        }
+
+        int sampleIndex = 0;
+        for (double[][] chunk = source.nextChunk(); chunk != null; chunk = source.nextChunk()) {
+            if (batched) {
+                for (int batchStart = 0; batchStart < chunk.length;) {
+                    int batchEnd = Math.min(chunk.length, batchStart + backpropagation.capacity());
+
+                    learnBatch(chunk, null, batchStart, batchEnd - batchStart);
+                    batchStart = batchEnd;
+                }
+            } else {
+                for (double[] sample : chunk) {
+                    learnSample(sample, null);
+
+                    // Updates the weights of all layers every nth sample, counting across the chunks.
+                    if (++sampleIndex % parameters.batchSize == 0) {
+                        commitNudges();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the buffers of the batched backpropagation unless they already fit the network.
+     */
+    private void prepareBackpropagation() {
+        if (backpropagation == null || !backpropagation.fits()) {
+            backpropagation = new BatchBackpropagation(network, parameters.batchSize);
+        }
+    }
+
+    /**
+     * Backpropagates one batch as matrices and updates the weights by it.
+     *
+     * @param samples Samples the batch is taken from
+     * @param sampleTargets Probabilities of each class for each of the samples, or null to teach their classes
+     * @param from Index of the first sample of the batch
+     * @param count Number of samples in the batch, at most the capacity of the backpropagation
+     */
+    private void learnBatch(double[][] samples, double[][] sampleTargets, int from, int count) {
+        // The sample by sample path counts one nudge per neuron per sample, the updates are divided by the same count.
+        int neurons = 0;
+        for (Layer layer : network.layers) {
+            neurons += layer.neurons.length;
+        }
+
+        lossSinceLastCommit += backpropagation.accumulate(samples, sampleTargets, from, count, LR);
+        samplesSinceLastCommit += count;
+        for (int layerIndex = 0; layerIndex < network.layers.length; layerIndex++) {
+            weightNudges[layerIndex] = backpropagation.weightGradients[layerIndex];
+            biasNudges[layerIndex] = backpropagation.biasGradients[layerIndex];
+        }
+        nudgesSinceLastCommit = count * neurons;
+
+        commitNudges();
+    }
+
     /**
      * Resets nudges.
      */
@@ -89,12 +442,12 @@ public class Trainer {
      */
     private double calculateLearningRate(int epoch) {
         // Maximum learning rate equals to mean learning rate with an upper bound of oscillation.
-        double maxLR = Settings.MEAN_LEARNING_RATE + Settings.OSCILLATION;
+        double maxLR = parameters.meanLearningRate + parameters.oscillation;
         // Maximum learning rate equals to mean learning rate with a lower bound of oscillation.
-        double minLR = Settings.MEAN_LEARNING_RATE - Settings.OSCILLATION;
+        double minLR = parameters.meanLearningRate - parameters.oscillation;
 
         // The step including floating point based on step size.
-        double step = 1d + (double) epoch / (2d * Settings.STEP_SIZE);
+        double step = 1d + (double) epoch / (2d * parameters.stepSize);
         // Precise cycle number integer.
         double cycle = Math.floor(step);
         // How much is missing to next 50 % of a cycle.
@@ -111,10 +464,12 @@ public class Trainer {
      * Feeds forward the sample, calculates the error and saves nudges that are to be committed to the network.
      *
      * @param sample Digit
+     * @param target Probabilities of each class to teach or null to teach the class of the digit
      */
-    private void learnSample(double[] sample) {
-        // Converts digit class to expected neuron.
-        int target = network.mapDigitToNeuron[(int) sample[sample.length - 1]];
+    private void learnSample(double[] sample, double[] target) {
+        // Converts digit class or class probabilities to expected activations of the output neurons.
+        double[] expected = new double[network.layers[network.layers.length - 1].neurons.length];
+        network.expectedActivations(sample, target, expected);
 
         // Matrix with each neuron's activation. If we want to implement other activation functions, this would have to
         // include net (pre squashed by activation function) as well as out values.
@@ -122,7 +477,10 @@ public class Trainer {
 
         // Calculates the error of the output layer. This does not include learning rate or previous neuron activations.
         // We will use this variable to fold the layers and propagate the error backwards.
-        double[] partialError = calculateOutputLayerError(target, activationsMatrix[activationsMatrix.length - 1]);
+        double[] partialError = calculateOutputLayerError(expected, activationsMatrix[activationsMatrix.length - 1]);
+
+        lossSinceLastCommit += calculateLoss(expected, activationsMatrix[activationsMatrix.length - 1]);
+        samplesSinceLastCommit++;
 
         // Folding the layers array starting from the last layer.
         for (int layerIndex = network.layers.length - 1; layerIndex >= 0; layerIndex--) {
@@ -158,19 +516,19 @@ public class Trainer {
     /**
      * Calculates the errors for each neuron in the output layer.
      *
-     * @param target What is the desired class of the digit
+     * @param expected Desired activation of each output layer neuron
      * @param activations The activations of each output layer neuron
      * @return Vector of deltas for each neuron that is to be mapped over activation from previous layer and LR
      */
-    private double[] calculateOutputLayerError(int target, double[] activations) {
+    private double[] calculateOutputLayerError(double[] expected, double[] activations) {
         double[] deltas = new double[activations.length];
 
         for (int neuronIndex = 0; neuronIndex < activations.length; neuronIndex++) {
             // Formula -(target - output) that emerges from the chain rule.
-            double totalToOutputError = -((target == neuronIndex ? 1d : 0d) - activations[neuronIndex]);
+            double totalToOutputError = -(expected[neuronIndex] - activations[neuronIndex]);
             // The derivative of activation function computed from the value of the activation function over the net.
             // Functions with steeper derivatives converge faster.
-            double derivative = Settings.activation.derivative.apply(activations[neuronIndex]);
+            double derivative = Settings.activation.derivative.applyAsDouble(activations[neuronIndex]);
             // We cache the value.
             deltas[neuronIndex] = totalToOutputError * derivative;
         }
@@ -178,6 +536,23 @@ public class Trainer {
         return deltas;
     }
 
+    /**
+     * Calculates the loss the training minimises, which is half of the squared error of the output layer.
+     *
+     * @param expected Desired activation of each output layer neuron
+     * @param activations The activations of each output layer neuron
+     * @return Loss of the sample
+     */
+    private double calculateLoss(double[] expected, double[] activations) {
+        double loss = 0d;
+        for (int neuronIndex = 0; neuronIndex < activations.length; neuronIndex++) {
+            double error = expected[neuronIndex] - activations[neuronIndex];
+            loss += error * error;
+        }
+
+        return loss / 2d;
+    }
+
     /**
      * For each layer it computes the error that is sent to previous layer, and nudges each neuron's weights and bias
      * in direction to reduce the error. The functionality differs a little for output layer where we don't recompute
@@ -191,19 +566,17 @@ public class Trainer {
     private double[] addNudgesAndReturnErrors(int layerIndex, double[] previousErrors, double[][] activationMatrix) {
         Layer layer = network.layers[layerIndex];
 
-        double[] currentErrors = new double[layer.neurons.length];
+        double[] currentErrors = previousErrors;
 
-        for (int neuronIndex = 0; neuronIndex < layer.neurons.length; neuronIndex++) {
-            double currentError;
+        // For the output layer, we have already computed the errors. We don't need to consider any weights for this
+        // layer as there are not any connecting it to the output, there's just a single activation number.
+        if (layerIndex != network.layers.length - 1) {
+            currentErrors = new double[layer.outputs()];
 
-            // For the output layer, we have already computed the errors. We don't need to consider any weights for this
-            // layer as there are not any connecting it to the output, there's just a single activation number.
-            if (layerIndex == network.layers.length - 1) {
-                currentError = previousErrors[neuronIndex];
-            } else {
+            for (int neuronIndex = 0; neuronIndex < currentErrors.length; neuronIndex++) {
                 // Derivative of activation output for current neuron. Note that in activation matrix, layer indices are
                 // shifted by one.
-                double derivative = Settings.activation.derivative.apply(activationMatrix[layerIndex + 1][neuronIndex]);
+                double derivative = layer.derivative(activationMatrix[layerIndex + 1][neuronIndex]);
 
                 // Calculates the neurons participation on the total error of next layer.
                 double totalError = 0d;
@@ -217,20 +590,26 @@ public class Trainer {
                     totalError += network.layers[layerIndex + 1].neurons[errorIndex][neuronIndex] * previousErrors[errorIndex];
                 }
 
-                currentError = derivative * totalError;
-            }
-
-            currentErrors[neuronIndex] = currentError;
-
-            // Calculates the nudge for each neuron weight by following the chain rule and scaling it with learning rate.
-            double[] nudges = new double[activationMatrix[layerIndex].length];
-            for (int activation = 0; activation < nudges.length; activation++) {
-                // Use the activations from previous layer.
-                nudges[activation] = activationMatrix[layerIndex][activation] * currentError * LR;
+                currentErrors[neuronIndex] = derivative * totalError;
             }
+        }
 
-            // Caches nudges to local vector before committing them to the layer.
-            addNudgesForNeuron(layerIndex, neuronIndex, nudges, currentError * LR);
+        // Calculates the nudge for each neuron weight by following the chain rule and scaling it with learning rate.
+        // The layer knows which inputs each weight is connected to, which for convolutional kernels are many.
+        double[][] nudges = new double[layer.neurons.length][layer.neurons[0].length];
+        double[] biasChanges = new double[layer.neurons.length];
+        layer.gradients(
+                new double[][] { activationMatrix[layerIndex] },
+                new double[][] { currentErrors },
+                1,
+                LR,
+                nudges,
+                biasChanges
+        );
+
+        // Caches nudges to local vector before committing them to the layer.
+        for (int neuronIndex = 0; neuronIndex < layer.neurons.length; neuronIndex++) {
+            addNudgesForNeuron(layerIndex, neuronIndex, nudges[neuronIndex], biasChanges[neuronIndex]);
         }
 
         return currentErrors;
@@ -271,6 +650,9 @@ public class Trainer {
             return;
         }
 
+        // Sum of squares of all updates, which gives the norm of the gradient.
+        double squaredUpdates = 0d;
+
         // For each layer, each layer's neuron and each neuron's weight, perform an update.
         for (int layerIndex = 0; layerIndex < network.layers.length; layerIndex++) {
             Layer layer = network.layers[layerIndex];
@@ -278,17 +660,48 @@ public class Trainer {
             // Updates bias. Since trainer is trying to achieve minimum possible error (we are minimizing the function),
             // we have to deduct the nudges from the current bias and weights.
             for (int neuronIndex = 0; neuronIndex < layer.neurons.length; neuronIndex++) {
-                layer.biases[neuronIndex] -= biasNudges[layerIndex][neuronIndex] / nudgesSinceLastCommit;
+                double biasUpdate = biasNudges[layerIndex][neuronIndex] / nudgesSinceLastCommit;
+                layer.biases[neuronIndex] -= biasUpdate;
+                squaredUpdates += biasUpdate * biasUpdate;
 
                 // Updating the weights.
                 for (int weightIndex = 0; weightIndex < layer.neurons[neuronIndex].length; weightIndex++) {
-                    layer.neurons[neuronIndex][weightIndex] -= weightNudges[layerIndex][neuronIndex][weightIndex] / nudgesSinceLastCommit;
+                    double update = weightNudges[layerIndex][neuronIndex][weightIndex] / nudgesSinceLastCommit;
+                    layer.neurons[neuronIndex][weightIndex] -= update;
+                    squaredUpdates += update * update;
                 }
             }
+
+            // Keeps pruned weights at zero and the compressed rows in sync with the weights.
+            layer.weightsChanged();
         }
 
         // Clears temporary vector.
         clearCache();
+        network.markChanged();
+
+        // The updates are scaled by the learning rate, the gradient is not.
+        notifyBatch(LR == 0d ? 0d : Math.sqrt(squaredUpdates) / LR);
+    }
+
+    /**
+     * Notifies the listeners about the batch that has just been committed and starts the batch counters over.
+     *
+     * @param gradientNorm Euclidean norm of the committed gradient
+     */
+    private void notifyBatch(double gradientNorm) {
+        double loss = samplesSinceLastCommit == 0 ? 0d : lossSinceLastCommit / samplesSinceLastCommit;
+
+        for (TrainingListener listener : listeners) {
+            listener.batchFinished(iteration, batch, samplesSinceLastCommit, loss, LR, gradientNorm);
+        }
+
+        epochLoss += lossSinceLastCommit;
+        epochSamples += samplesSinceLastCommit;
+        epochGradientNorms += gradientNorm;
+        batch++;
+        lossSinceLastCommit = 0d;
+        samplesSinceLastCommit = 0;
     }
 
 }
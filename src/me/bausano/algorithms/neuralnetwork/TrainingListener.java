@@ -0,0 +1,39 @@
+package me.bausano.algorithms.neuralnetwork;
+
+/**
+ * Receives the progress of a training. The trainer calls it on its own thread after each update of the weights and
+ * after each epoch, with plain numbers rather than objects, so that listening does not allocate on the training path.
+ * Implementations should return quickly, as the training waits for them.
+ */
+public interface TrainingListener {
+
+    /**
+     * Called after the trainer has committed the nudges of a batch to the weights.
+     *
+     * @param epoch Index of the epoch the batch belongs to
+     * @param batch Index of the batch within the epoch
+     * @param samples Number of samples in the batch
+     * @param loss Mean loss of the samples, measured before the weights were updated
+     * @param learningRate Learning rate the batch was trained with
+     * @param gradientNorm Euclidean norm of the averaged gradient of all weights and biases
+     */
+    default void batchFinished(int epoch, int batch, int samples, double loss, double learningRate,
+                               double gradientNorm) {
+    }
+
+    /**
+     * Called after the trainer has finished a pass over the training data.
+     *
+     * @param epoch Index of the finished epoch
+     * @param epochs Number of epochs of the full training
+     * @param loss Mean loss of the samples of the epoch
+     * @param learningRate Learning rate of the epoch
+     * @param nanos How long the epoch took
+     * @param samplesPerSecond Training throughput of the epoch
+     * @param gradientNorm Mean gradient norm over the batches of the epoch
+     */
+    default void epochFinished(int epoch, int epochs, double loss, double learningRate, long nanos,
+                               double samplesPerSecond, double gradientNorm) {
+    }
+
+}
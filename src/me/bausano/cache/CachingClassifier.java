@@ -0,0 +1,447 @@
+package me.bausano.cache;
+
+import me.bausano.Settings;
+import me.bausano.algorithms.Classifier;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decorator that remembers the results of the wrapped classifier for digits it has seen, so that repeated digits are
+ * answered with a hash lookup. Digits are keyed by their features, which have to be whole numbers as in the bundled
+ * data, other digits go straight to the classifier. The cache is split into stripes by the hash of the digit, each
+ * stripe is a small LRU map with its own lock, so that threads looking up different digits rarely wait for each other.
+ * Every result is stamped with the version of the classifier it was computed with and results of older versions are
+ * treated as missing, which drops them as soon as the classifier changes.
+ */
+public class CachingClassifier implements Classifier {
+
+    /**
+     * Marks an entry whose class has not been computed yet.
+     */
+    private static final int UNKNOWN_CLASS = Integer.MIN_VALUE;
+
+    /**
+     * Classifier whose results are cached.
+     */
+    private final Classifier classifier;
+
+    /**
+     * Independently locked parts of the cache.
+     */
+    private final Stripe[] stripes;
+
+    /**
+     * How many upper bits of the hash pick the stripe.
+     */
+    private final int stripeBits;
+
+    /**
+     * Key reused for the lookups of each thread.
+     */
+    private final ThreadLocal<DigitKey> probe = ThreadLocal.withInitial(DigitKey::probe);
+
+    /**
+     * Number of results found in the cache.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Number of results computed because they were not in the cache.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Number of results computed for digits that cannot be cached.
+     */
+    private final LongAdder bypasses = new LongAdder();
+
+    /**
+     * Number of results dropped because the classifier changed since they were computed.
+     */
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Number of results dropped to make space for new ones.
+     */
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param classifier Classifier whose results are cached
+     */
+    public CachingClassifier(Classifier classifier) {
+        this(classifier, Settings.RESULT_CACHE_CAPACITY, Settings.RESULT_CACHE_STRIPES);
+    }
+
+    /**
+     * @param classifier Classifier whose results are cached
+     * @param capacity Upper bound on the number of cached digits
+     * @param stripeCount Number of independently locked parts, rounded up to a power of two
+     */
+    public CachingClassifier(Classifier classifier, int capacity, int stripeCount) {
+        this.classifier = classifier;
+        this.stripeBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, stripeCount) - 1);
+        this.stripes = new Stripe[1 << stripeBits];
+
+        for (int stripeIndex = 0; stripeIndex < stripes.length; stripeIndex++) {
+            stripes[stripeIndex] = new Stripe(Math.max(1, capacity / stripes.length));
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public int classify(double[] digit) {
+        DigitKey key = probe.get();
+        if (!key.fill(digit)) {
+            bypasses.increment();
+            return classifier.classify(digit);
+        }
+
+        // Reads the version before the result is computed, so that a change during the computation marks it stale.
+        long version = classifier.version();
+        Stripe stripe = stripes[key.stripe(stripeBits)];
+
+        int classification = stripe.classification(key, version);
+        if (classification != UNKNOWN_CLASS) {
+            hits.increment();
+            return classification;
+        }
+
+        misses.increment();
+        classification = classifier.classify(digit);
+        stripe.putClassification(key.copy(), version, classification);
+
+        return classification;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public double[] estimate(double[] digit) {
+        double[] estimates = new double[Settings.OUTPUT_CLASSES_COUNT];
+        estimateInto(digit, estimates);
+
+        return estimates;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void estimateInto(double[] digit, double[] estimates) {
+        DigitKey key = probe.get();
+        if (!key.fill(digit)) {
+            bypasses.increment();
+            classifier.estimateInto(digit, estimates);
+            return;
+        }
+
+        long version = classifier.version();
+        Stripe stripe = stripes[key.stripe(stripeBits)];
+
+        if (stripe.estimates(key, version, estimates)) {
+            hits.increment();
+            return;
+        }
+
+        misses.increment();
+        classifier.estimateInto(digit, estimates);
+        stripe.putEstimates(key.copy(), version, estimates);
+    }
+
+    /**
+     * Looks up every digit of the block and hands only the missing ones to the classifier, in a single batch.
+     *
+     * @inheritDoc
+     */
+    @Override
+    public void classify(double[][] digits, int[] classes) {
+        DigitKey key = probe.get();
+        long version = classifier.version();
+
+        DigitKey[] missedKeys = null;
+        int[] missedIndices = null;
+        int missed = 0;
+
+        for (int digitIndex = 0; digitIndex < digits.length; digitIndex++) {
+            boolean cacheable = key.fill(digits[digitIndex]);
+            int classification = cacheable
+                    ? stripes[key.stripe(stripeBits)].classification(key, version)
+                    : UNKNOWN_CLASS;
+
+            if (classification != UNKNOWN_CLASS) {
+                hits.increment();
+                classes[digitIndex] = classification;
+                continue;
+            }
+
+            if (missedKeys == null) {
+                missedKeys = new DigitKey[digits.length];
+                missedIndices = new int[digits.length];
+            }
+
+            (cacheable ? misses : bypasses).increment();
+            missedKeys[missed] = cacheable ? key.copy() : null;
+            missedIndices[missed] = digitIndex;
+            missed++;
+        }
+
+        if (missed == 0) {
+            return;
+        }
+
+        double[][] missedDigits = new double[missed][];
+        int[] missedClasses = new int[missed];
+        for (int missIndex = 0; missIndex < missed; missIndex++) {
+            missedDigits[missIndex] = digits[missedIndices[missIndex]];
+        }
+
+        classifier.classify(missedDigits, missedClasses);
+
+        for (int missIndex = 0; missIndex < missed; missIndex++) {
+            classes[missedIndices[missIndex]] = missedClasses[missIndex];
+
+            if (missedKeys[missIndex] != null) {
+                DigitKey missedKey = missedKeys[missIndex];
+                stripes[missedKey.stripe(stripeBits)].putClassification(
+                        missedKey,
+                        version,
+                        missedClasses[missIndex]
+                );
+            }
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public long version() {
+        return classifier.version();
+    }
+
+    /**
+     * @return Classifier whose results are cached
+     */
+    public Classifier unwrap() {
+        return classifier;
+    }
+
+    /**
+     * @return Number of results found in the cache
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return Number of results computed because they were not in the cache, or were stale
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return Number of results computed for digits that cannot be cached
+     */
+    public long bypasses() {
+        return bypasses.sum();
+    }
+
+    /**
+     * @return Number of results dropped because the classifier changed since they were computed
+     */
+    public long invalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     * @return Number of results dropped to make space for new ones
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return Portion of all lookups answered from the cache, in range 0 - 1
+     */
+    public double hitRate() {
+        long found = hits.sum();
+        long total = found + misses.sum() + bypasses.sum();
+
+        return total == 0 ? 0d : (double) found / total;
+    }
+
+    /**
+     * @return Number of cached digits
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+
+        return size;
+    }
+
+    /**
+     * Results of one digit.
+     */
+    private static class Entry {
+
+        /**
+         * Version of the classifier the results were computed with.
+         */
+        final long version;
+
+        /**
+         * Class of the digit or UNKNOWN_CLASS.
+         */
+        int classification = UNKNOWN_CLASS;
+
+        /**
+         * Probabilities of each class or null.
+         */
+        double[] estimates;
+
+        /**
+         * @param version Version of the classifier the results were computed with
+         */
+        Entry(long version) {
+            this.version = version;
+        }
+
+    }
+
+    /**
+     * Part of the cache with its own lock. The map is kept in access order, so its eldest entry is the least recently
+     * used one.
+     */
+    private class Stripe {
+
+        /**
+         * Cached results of this stripe.
+         */
+        private final LinkedHashMap<DigitKey, Entry> entries;
+
+        /**
+         * @param capacity Upper bound on the number of digits in this stripe
+         */
+        Stripe(int capacity) {
+            this.entries = new LinkedHashMap<DigitKey, Entry>(capacity * 4 / 3 + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<DigitKey, Entry> eldest) {
+                    if (size() <= capacity) {
+                        return false;
+                    }
+
+                    evictions.increment();
+                    return true;
+                }
+            };
+        }
+
+        /**
+         * @param key Key of the digit
+         * @param version Current version of the classifier
+         * @return Cached class of the digit or UNKNOWN_CLASS
+         */
+        synchronized int classification(DigitKey key, long version) {
+            Entry entry = current(key, version);
+
+            return entry == null ? UNKNOWN_CLASS : entry.classification;
+        }
+
+        /**
+         * @param key Key of the digit
+         * @param version Current version of the classifier
+         * @param output Buffer to copy the cached estimates to
+         * @return Whether the estimates were cached
+         */
+        synchronized boolean estimates(DigitKey key, long version, double[] output) {
+            Entry entry = current(key, version);
+            if (entry == null || entry.estimates == null) {
+                return false;
+            }
+
+            System.arraycopy(entry.estimates, 0, output, 0, entry.estimates.length);
+
+            return true;
+        }
+
+        /**
+         * @param key Immutable key of the digit
+         * @param version Version of the classifier the class was computed with
+         * @param classification Class of the digit
+         */
+        synchronized void putClassification(DigitKey key, long version, int classification) {
+            Entry entry = entryFor(key, version);
+            if (entry != null) {
+                entry.classification = classification;
+            }
+        }
+
+        /**
+         * @param key Immutable key of the digit
+         * @param version Version of the classifier the estimates were computed with
+         * @param estimates Probabilities of each class, copied into the cache
+         */
+        synchronized void putEstimates(DigitKey key, long version, double[] estimates) {
+            Entry entry = entryFor(key, version);
+            if (entry != null) {
+                entry.estimates = estimates.clone();
+            }
+        }
+
+        /**
+         * @return Number of digits in this stripe
+         */
+        synchronized int size() {
+            return entries.size();
+        }
+
+        /**
+         * Finds the entry of the digit and drops it if it is stale.
+         *
+         * @param key Key of the digit
+         * @param version Current version of the classifier
+         * @return Entry computed with the current version or null
+         */
+        private Entry current(DigitKey key, long version) {
+            Entry entry = entries.get(key);
+            if (entry == null || entry.version == version) {
+                return entry;
+            }
+
+            entries.remove(key);
+            invalidations.increment();
+
+            return null;
+        }
+
+        /**
+         * Finds or creates the entry of the digit for given version.
+         *
+         * @param key Immutable key of the digit
+         * @param version Version of the classifier the result was computed with
+         * @return Entry to store the result into, null if the cache already holds results of a newer version
+         */
+        private Entry entryFor(DigitKey key, long version) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.version > version) {
+                return null;
+            }
+
+            if (entry == null || entry.version < version) {
+                entry = new Entry(version);
+                entries.put(key, entry);
+            }
+
+            return entry;
+        }
+
+    }
+
+}
@@ -0,0 +1,114 @@
+package me.bausano.cache;
+
+import java.util.Arrays;
+
+/**
+ * Compact key of a digit whose features are whole numbers, such as the pixels of the bundled data and their filter
+ * maps. Each feature is stored in two bytes instead of eight and the class of the digit is left out, so that a digit
+ * with an unknown class hits the results of the same digit with a known one. Keys used for lookups are mutable and
+ * reused, keys stored in a cache are immutable copies.
+ */
+class DigitKey {
+
+    /**
+     * Multiplier of the 64 bit hash, the golden ratio spreads consecutive values well.
+     */
+    private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Features of the digit.
+     */
+    private short[] features;
+
+    /**
+     * How many features are valid.
+     */
+    private int length;
+
+    /**
+     * 64 bit hash of the features. The upper bits pick the stripe of the cache and the lower bits the bucket.
+     */
+    private long hash;
+
+    /**
+     * @param features Features of the digit
+     * @param length How many features are valid
+     * @param hash 64 bit hash of the features
+     */
+    private DigitKey(short[] features, int length, long hash) {
+        this.features = features;
+        this.length = length;
+        this.hash = hash;
+    }
+
+    /**
+     * @return Empty key to fill lookups into
+     */
+    static DigitKey probe() {
+        return new DigitKey(new short[0], 0, 0);
+    }
+
+    /**
+     * Fills the key with the features of the digit.
+     *
+     * @param digit Digit where the last value is the class
+     * @return False if some feature is not a whole number that fits two bytes, the digit cannot be cached then
+     */
+    boolean fill(double[] digit) {
+        int featureCount = digit.length - 1;
+        if (features.length < featureCount) {
+            features = new short[featureCount];
+        }
+
+        long mixed = featureCount;
+        for (int feature = 0; feature < featureCount; feature++) {
+            double value = digit[feature];
+            short quantised = (short) value;
+
+            // The key has to be exact, otherwise two different digits would share results.
+            if (quantised != value) {
+                return false;
+            }
+
+            features[feature] = quantised;
+            mixed = (mixed + quantised) * MULTIPLIER;
+        }
+
+        this.length = featureCount;
+        this.hash = mixed ^ (mixed >>> 29);
+
+        return true;
+    }
+
+    /**
+     * @return Immutable copy of the key
+     */
+    DigitKey copy() {
+        return new DigitKey(Arrays.copyOf(features, length), length, hash);
+    }
+
+    /**
+     * @param stripeBits Number of bits that pick the stripe
+     * @return Index of the stripe the key belongs to
+     */
+    int stripe(int stripeBits) {
+        return stripeBits == 0 ? 0 : (int) (hash >>> (64 - stripeBits));
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof DigitKey)) {
+            return false;
+        }
+
+        DigitKey key = (DigitKey) other;
+
+        return hash == key.hash && Arrays.equals(features, 0, length, key.features, 0, key.length);
+    }
+
+}
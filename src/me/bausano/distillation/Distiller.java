@@ -0,0 +1,238 @@
+package me.bausano.distillation;
+
+import me.bausano.DataSet;
+import me.bausano.DataView;
+import me.bausano.Hyperparameters;
+import me.bausano.Settings;
+import me.bausano.algorithms.Classifier;
+import me.bausano.algorithms.estimator.Estimator;
+import me.bausano.algorithms.neuralnetwork.NeuralNetwork;
+import me.bausano.algorithms.neuralnetwork.Trainer;
+import me.bausano.validation.CrossValidator;
+
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Trains a single compact network, the student, to imitate a slower model, the teacher, such as the estimator which
+ * asks the nearest neighbour and two networks about every digit. The student is taught the probabilities the teacher
+ * gives to every class rather than just the class of each digit, so it also learns which classes the teacher finds
+ * alike. The teacher can label digits that are not in the training data, therefore the training digits can be
+ * augmented with perturbed copies, so that the student also learns how the teacher behaves around the training digits,
+ * where the nearest neighbour no longer just returns the class of a stored digit.
+ */
+public class Distiller {
+
+    /**
+     * Model whose estimates the student learns.
+     */
+    private final Classifier teacher;
+
+    /**
+     * Hyper-parameters of the student and its training.
+     */
+    private final Hyperparameters parameters;
+
+    /**
+     * Temperature the estimates of the teacher are softened by. Values above one spread the probability towards the
+     * less likely classes, values below one sharpen it towards the most likely one.
+     */
+    private final double temperature;
+
+    /**
+     * @param teacher Trained model whose estimates the student learns
+     */
+    public Distiller(Classifier teacher) {
+        this(teacher, Hyperparameters.defaults(), Settings.DISTILLATION_TEMPERATURE);
+    }
+
+    /**
+     * @param teacher Trained model whose estimates the student learns
+     * @param parameters Hyper-parameters of the student and its training
+     * @param temperature Temperature the estimates of the teacher are softened by, 1 keeps them as they are
+     */
+    public Distiller(Classifier teacher, Hyperparameters parameters, double temperature) {
+        this.teacher = teacher;
+        this.parameters = parameters;
+        this.temperature = temperature;
+    }
+
+    /**
+     * Trains a new student network on the soft targets of given digits. The digits do not need correct classes, only
+     * the teacher's estimates are learned.
+     *
+     * @param digits Digits to transfer the knowledge on, where the last value is the class
+     * @return Trained student
+     */
+    public NeuralNetwork distil(double[][] digits) {
+        NeuralNetwork student = NeuralNetwork.fromBlueprint(parameters.blueprint(DataSet.inputNeuronsOf(digits)));
+        new Trainer(student, digits, softTargets(digits), parameters).train();
+
+        return student;
+    }
+
+    /**
+     * Asks the teacher about every digit and turns its estimates into a probability distribution. The estimates of the
+     * estimator are sums of the estimates of its sub models, which can be negative for classes a network does not know,
+     * so they are clamped to zero before they are scaled by the temperature and normalised.
+     *
+     * @param digits Digits to ask the teacher about
+     * @return Probabilities of each class for each digit
+     */
+    public double[][] softTargets(double[][] digits) {
+        double[][] targets = new double[digits.length][Settings.OUTPUT_CLASSES_COUNT];
+        teacher.estimate(digits, targets);
+
+        for (double[] target : targets) {
+            double sum = 0d;
+            for (int classIndex = 0; classIndex < target.length; classIndex++) {
+                target[classIndex] = Math.pow(Math.max(0d, target[classIndex]), 1d / temperature);
+                sum += target[classIndex];
+            }
+
+            for (int classIndex = 0; classIndex < target.length; classIndex++) {
+                target[classIndex] = sum == 0d ? 1d / target.length : target[classIndex] / sum;
+            }
+        }
+
+        return targets;
+    }
+
+    /**
+     * Adds copies of each digit with every pixel changed by at most one, which the teacher labels for the student. The
+     * bundled digits are centred and scaled, so jitter keeps the copies close to real digits, while shifted copies
+     * would teach the student about digits it never sees.
+     *
+     * @param digits Original digits mapped through given filters
+     * @param copies How many jittered copies of each digit to add
+     * @param random Source of the jitter
+     * @param filters Filters the digits were mapped through
+     * @param width How many pixels are on one row of an image
+     * @param height How many rows an image has
+     * @return Original digits followed by the jittered copies
+     */
+    public static double[][] augment(double[][] digits, int copies, Random random, double[][][] filters, int width,
+                                     int height) {
+        double[][] augmented = new double[digits.length * (copies + 1)][];
+        System.arraycopy(digits, 0, augmented, 0, digits.length);
+
+        for (int index = digits.length; index < augmented.length; index++) {
+            augmented[index] = DataSet.jitter(digits[index % digits.length], 1, random, filters, width, height);
+        }
+
+        return augmented;
+    }
+
+    /**
+     * @param first Trained classifier
+     * @param second Trained classifier
+     * @param digits Digits to compare the classifiers on
+     * @return Portion of the digits both classifiers put into the same class
+     */
+    public static double agreement(Classifier first, Classifier second, double[][] digits) {
+        int[] firstClasses = new int[digits.length];
+        int[] secondClasses = new int[digits.length];
+        first.classify(digits, firstClasses);
+        second.classify(digits, secondClasses);
+
+        int agreed = 0;
+        for (int digitIndex = 0; digitIndex < digits.length; digitIndex++) {
+            if (firstClasses[digitIndex] == secondClasses[digitIndex]) {
+                agreed++;
+            }
+        }
+
+        return digits.length == 0 ? 0d : (double) agreed / digits.length;
+    }
+
+    /**
+     * Trains the estimator on one half of the training file, distils it into students with and without augmented
+     * digits and compares them with a network of the same size trained on the classes alone. All models are validated
+     * on the other half.
+     *
+     * @param args Console arguments
+     * @throws Exception Exceptions are thrown into stdout
+     */
+    public static void main(String[] args) throws Exception {
+        DataSet data = DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), Settings.CROSSFOLD_FACTOR);
+        double[][] training = data.setForTraining;
+        double[][] validation = data.setForValidation;
+
+        long start = System.nanoTime();
+        Estimator teacher = new Estimator(training);
+        teacher.train();
+        System.out.printf("Teacher trained in %.1f s.%n", (System.nanoTime() - start) / 1e9d);
+
+        // The classes of the digits are ignored when soft targets are taught, the baseline is the same network trained
+        // on the classes alone.
+        NeuralNetwork baseline = NeuralNetwork.fromBlueprint(
+                Hyperparameters.defaults().blueprint(DataSet.inputNeuronsOf(training))
+        );
+        new Trainer(baseline, training).train();
+
+        Distiller distiller = new Distiller(teacher);
+        double[][] augmented = augment(training, 1, new Random(42), Settings.FILTERS, data.width, data.height);
+
+        start = System.nanoTime();
+        NeuralNetwork student = distiller.distil(training);
+        double studentSeconds = (System.nanoTime() - start) / 1e9d;
+
+        start = System.nanoTime();
+        NeuralNetwork augmentedStudent = distiller.distil(augmented);
+        double augmentedSeconds = (System.nanoTime() - start) / 1e9d;
+
+        System.out.println("\n> DISTILLATION");
+        System.out.printf(
+                "Students trained in %.1f s on %d digits and in %.1f s on %d augmented digits.%n",
+                studentSeconds,
+                training.length,
+                augmentedSeconds,
+                augmented.length
+        );
+        System.out.printf("%-20s %10s %10s %10s %8s%n", "model", "accuracy", "agreement", "us/digit", "speedup");
+
+        double teacherMicros = microsPerDigit(teacher, validation);
+        printRow("estimator (teacher)", teacher, teacher, validation, teacherMicros);
+        printRow("mlp on classes", baseline, teacher, validation, teacherMicros);
+        printRow("student", student, teacher, validation, teacherMicros);
+        printRow("augmented student", augmentedStudent, teacher, validation, teacherMicros);
+    }
+
+    /**
+     * Prints one row of the distillation report.
+     *
+     * @param title Name of the model
+     * @param model Trained model
+     * @param teacher Model the agreement is measured against
+     * @param validation Digits to validate on
+     * @param teacherMicros Time the teacher takes per digit, in microseconds
+     */
+    private static void printRow(String title, Classifier model, Classifier teacher, double[][] validation,
+                                 double teacherMicros) {
+        double micros = microsPerDigit(model, validation);
+
+        System.out.printf(
+                "%-20s %8.2f %% %8.2f %% %10.1f %7.1fx%n",
+                title,
+                CrossValidator.accuracy(model, DataView.of(validation)) * 100d,
+                agreement(model, teacher, validation) * 100d,
+                micros,
+                teacherMicros / micros
+        );
+    }
+
+    /**
+     * @param model Trained model
+     * @param validation Digits to classify
+     * @return Time the model takes to classify one digit in batches, in microseconds, measured after a warm up
+     */
+    private static double microsPerDigit(Classifier model, double[][] validation) {
+        CrossValidator.accuracy(model, DataView.of(validation));
+
+        long start = System.nanoTime();
+        CrossValidator.accuracy(model, DataView.of(validation));
+
+        return (System.nanoTime() - start) / 1e3d / validation.length;
+    }
+
+}
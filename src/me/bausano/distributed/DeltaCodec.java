@@ -0,0 +1,295 @@
+package me.bausano.distributed;
+
+import me.bausano.Settings;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes the changes of the weights a training worker pushes to the parameter server. Compressed codecs send only an
+ * approximation of the changes and keep what they did not send in a residual, which is added to the next changes. No
+ * change is lost that way, it only arrives a few steps later.
+ */
+public class DeltaCodec {
+
+    /**
+     * Tag of the uncompressed encoding.
+     */
+    private static final byte DENSE = 0;
+
+    /**
+     * Tag of the encoding that keeps only the largest changes.
+     */
+    private static final byte TOP_K = 1;
+
+    /**
+     * Tag of the encoding that rounds each change to one byte.
+     */
+    private static final byte QUANTISED = 2;
+
+    /**
+     * Size of the tag and the length written in front of each encoded delta.
+     */
+    private static final int HEADER_BYTES = 1 + Integer.BYTES;
+
+    /**
+     * Largest magnitude of a quantised change.
+     */
+    private static final int QUANTISATION_LEVELS = Byte.MAX_VALUE;
+
+    /**
+     * Name the codec is picked by on the command line.
+     */
+    public final String name;
+
+    /**
+     * Tag written in front of each encoded delta.
+     */
+    private final byte tag;
+
+    /**
+     * Portion of the changes the top k encoding sends.
+     */
+    private final double fraction;
+
+    /**
+     * @param name Name the codec is picked by
+     * @param tag Tag written in front of each encoded delta
+     * @param fraction Portion of the changes the top k encoding sends
+     */
+    private DeltaCodec(String name, byte tag, double fraction) {
+        this.name = name;
+        this.tag = tag;
+        this.fraction = fraction;
+    }
+
+    /**
+     * @return Codec that sends every change as a double
+     */
+    public static DeltaCodec dense() {
+        return new DeltaCodec("dense", DENSE, 1d);
+    }
+
+    /**
+     * @param fraction Portion of the changes to send, in range 0 - 1
+     * @return Codec that sends only the largest changes along with their indices
+     */
+    public static DeltaCodec topK(double fraction) {
+        return new DeltaCodec("top-k", TOP_K, fraction);
+    }
+
+    /**
+     * @return Codec that sends each change as one byte scaled by the largest change
+     */
+    public static DeltaCodec quantised() {
+        return new DeltaCodec("quantised", QUANTISED, 1d);
+    }
+
+    /**
+     * @param name Name of the codec: dense, top-k or quantised
+     * @return Codec of given name, top k sends Settings.DELTA_TOP_K_FRACTION of the changes
+     */
+    public static DeltaCodec forName(String name) {
+        switch (name) {
+            case "dense":
+                return dense();
+            case "top-k":
+                return topK(Settings.DELTA_TOP_K_FRACTION);
+            case "quantised":
+                return quantised();
+            default:
+                throw new IllegalArgumentException("Unknown codec " + name + ", use dense, top-k or quantised.");
+        }
+    }
+
+    /**
+     * Writes the changes and leaves in the residual what was not sent.
+     *
+     * @param output Stream of the connection
+     * @param residual Changes to send, including those left over from the previous deltas
+     * @throws IOException If the connection fails
+     */
+    public void write(DataOutputStream output, double[] residual) throws IOException {
+        output.writeByte(tag);
+        output.writeInt(residual.length);
+
+        if (tag == DENSE) {
+            ByteBuffer buffer = ByteBuffer.allocate(residual.length * Double.BYTES);
+            buffer.asDoubleBuffer().put(residual);
+            output.write(buffer.array());
+
+            Arrays.fill(residual, 0d);
+        } else if (tag == TOP_K) {
+            writeTopK(output, residual);
+        } else {
+            writeQuantised(output, residual);
+        }
+    }
+
+    /**
+     * Reads a delta written by any codec.
+     *
+     * @param input Stream of the connection
+     * @param delta Output buffer that receives the changes, as long as the delta
+     * @return Number of bytes the encoded delta took
+     * @throws IOException If the connection fails or the delta is malformed
+     */
+    public static int read(DataInputStream input, double[] delta) throws IOException {
+        byte tag = input.readByte();
+        int length = input.readInt();
+        if (length != delta.length) {
+            throw new IOException("Delta of " + length + " changes does not fit " + delta.length + " parameters.");
+        }
+
+        if (tag == DENSE) {
+            byte[] bytes = new byte[length * Double.BYTES];
+            input.readFully(bytes);
+            ByteBuffer.wrap(bytes).asDoubleBuffer().get(delta);
+
+            return HEADER_BYTES + Double.BYTES * length;
+        } else if (tag == TOP_K) {
+            Arrays.fill(delta, 0d);
+
+            int count = input.readInt();
+            if (count < 0 || count > length) {
+                throw new IOException("Delta of " + count + " changes does not fit " + length + " parameters.");
+            }
+
+            byte[] bytes = new byte[count * (Integer.BYTES + Float.BYTES)];
+            input.readFully(bytes);
+            ByteBuffer entries = ByteBuffer.wrap(bytes);
+            for (int entry = 0; entry < count; entry++) {
+                int index = entries.getInt();
+                if (index < 0 || index >= length) {
+                    throw new IOException("Change " + index + " is out of " + length + " parameters.");
+                }
+
+                delta[index] = entries.getFloat();
+            }
+
+            return HEADER_BYTES + Integer.BYTES + (Integer.BYTES + Float.BYTES) * count;
+        } else if (tag == QUANTISED) {
+            double scale = input.readDouble();
+            byte[] levels = new byte[length];
+            input.readFully(levels);
+            for (int index = 0; index < length; index++) {
+                delta[index] = levels[index] * scale;
+            }
+
+            return HEADER_BYTES + Double.BYTES + length;
+        }
+
+        throw new IOException("Unknown delta encoding " + tag + ".");
+    }
+
+    /**
+     * Sends the largest changes as pairs of index and float.
+     *
+     * @param output Stream of the connection
+     * @param residual Changes to send, the sent ones are taken out of it
+     * @throws IOException If the connection fails
+     */
+    private void writeTopK(DataOutputStream output, double[] residual) throws IOException {
+        int count = Math.max(1, Math.min(residual.length, (int) Math.ceil(residual.length * fraction)));
+
+        double[] magnitudes = new double[residual.length];
+        for (int index = 0; index < residual.length; index++) {
+            magnitudes[index] = Math.abs(residual[index]);
+        }
+        double threshold = select(magnitudes, residual.length - count);
+
+        ByteBuffer entries = ByteBuffer.allocate(count * (Integer.BYTES + Float.BYTES));
+        int written = 0;
+        for (int index = 0; index < residual.length && written < count; index++) {
+            if (Math.abs(residual[index]) < threshold) {
+                continue;
+            }
+
+            float change = (float) residual[index];
+            entries.putInt(index).putFloat(change);
+            // Keeps the rounding of the float in the residual.
+            residual[index] -= change;
+            written++;
+        }
+
+        output.writeInt(count);
+        output.write(entries.array());
+    }
+
+    /**
+     * Finds the value that would be at given position if the values were sorted, in linear time on average. Sorting
+     * the changes after every step took longer than the step itself.
+     *
+     * @param values Values to select from, reordered in place
+     * @param rank Position of the value in ascending order
+     * @return Value at the position
+     */
+    private static double select(double[] values, int rank) {
+        int low = 0;
+        int high = values.length - 1;
+
+        while (low < high) {
+            double pivot = values[(low + high) >>> 1];
+            int left = low;
+            int right = high;
+
+            // Moves the values below the pivot to the left and those above it to the right.
+            while (left <= right) {
+                while (values[left] < pivot) {
+                    left++;
+                }
+                while (values[right] > pivot) {
+                    right--;
+                }
+
+                if (left <= right) {
+                    double swap = values[left];
+                    values[left] = values[right];
+                    values[right] = swap;
+                    left++;
+                    right--;
+                }
+            }
+
+            // Continues in the part that holds the rank, values between right and left equal the pivot.
+            if (rank <= right) {
+                high = right;
+            } else if (rank >= left) {
+                low = left;
+            } else {
+                return values[rank];
+            }
+        }
+
+        return values[rank];
+    }
+
+    /**
+     * Sends every change rounded to one of the levels between minus and plus the largest change.
+     *
+     * @param output Stream of the connection
+     * @param residual Changes to send, the rounding errors stay in it
+     * @throws IOException If the connection fails
+     */
+    private void writeQuantised(DataOutputStream output, double[] residual) throws IOException {
+        double largest = 0d;
+        for (double change : residual) {
+            largest = Math.max(largest, Math.abs(change));
+        }
+
+        double scale = largest == 0d ? 1d : largest / QUANTISATION_LEVELS;
+        output.writeDouble(scale);
+
+        byte[] levels = new byte[residual.length];
+        for (int index = 0; index < residual.length; index++) {
+            levels[index] = (byte) Math.round(residual[index] / scale);
+            residual[index] -= levels[index] * scale;
+        }
+
+        output.write(levels);
+    }
+
+}
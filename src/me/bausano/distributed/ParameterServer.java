@@ -0,0 +1,475 @@
+package me.bausano.distributed;
+
+import me.bausano.DataSet;
+import me.bausano.DataView;
+import me.bausano.Hyperparameters;
+import me.bausano.Settings;
+import me.bausano.algorithms.neuralnetwork.NeuralNetwork;
+import me.bausano.algorithms.neuralnetwork.Trainer;
+import me.bausano.validation.CrossValidator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds the weights of a network that worker processes train together, see TrainingWorker. Each worker trains one
+ * step on its part of the training data, pushes how its step changed the weights and pulls the weights back, which
+ * by then include the steps of the other workers. The changes of each worker are divided by the number of workers, so
+ * a round in which every worker makes one step moves the weights by the mean of their changes.
+ *
+ * The server keeps a clock of steps for every worker. A push is answered once the slowest worker that still trains
+ * is at most staleness steps behind. With staleness 0 every round is synchronous, higher staleness lets fast workers
+ * go on with weights that miss the latest steps of slow ones, which bounds how stale their weights can get.
+ */
+public class ParameterServer implements AutoCloseable {
+
+    /**
+     * Message a worker sends its changes with.
+     */
+    static final byte PUSH = 1;
+
+    /**
+     * Message a worker sends once it has finished its training.
+     */
+    static final byte LEAVE = 2;
+
+    /**
+     * Network whose weights the workers train.
+     */
+    private final NeuralNetwork network;
+
+    /**
+     * Current weights and biases, in the order of NeuralNetwork::parametersInto.
+     */
+    private final double[] parameters;
+
+    /**
+     * How many steps each worker has pushed.
+     */
+    private final int[] clocks;
+
+    /**
+     * Whether each worker still trains. Workers count as training until they leave or their connection drops, also
+     * before they connect, so that nobody runs ahead of a worker that is still starting. Workers that do not connect
+     * within the connect timeout count as left.
+     */
+    private final boolean[] training;
+
+    /**
+     * Whether each worker has connected. A worker connects once, later connections with its index are dropped.
+     */
+    private final boolean[] connected;
+
+    /**
+     * How long the server waits for all workers to connect.
+     */
+    private final long connectTimeoutNanos;
+
+    /**
+     * How many steps a worker may get ahead of the slowest one.
+     */
+    private final int staleness;
+
+    /**
+     * Socket the workers connect to.
+     */
+    private final ServerSocket server;
+
+    /**
+     * Accepts the connections and serves each of them in its own thread.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Connections that are being served, closed along with the server.
+     */
+    private final List<Socket> connections = new ArrayList<>();
+
+    /**
+     * Number of bytes the workers pushed.
+     */
+    private final LongAdder bytesPushed = new LongAdder();
+
+    /**
+     * Set once the server is closed.
+     */
+    private boolean closed;
+
+    /**
+     * @param network Network to train, its current weights are the starting point
+     * @param workers Number of workers, identified by indices 0 to workers - 1
+     * @param staleness How many steps a worker may get ahead of the slowest one, 0 for synchronous training
+     * @param port Local port to listen on, 0 picks any free port
+     * @throws IOException If the server cannot bind the port
+     */
+    public ParameterServer(NeuralNetwork network, int workers, int staleness, int port) throws IOException {
+        this(network, workers, staleness, port, Settings.WORKER_CONNECT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param network Network to train, its current weights are the starting point
+     * @param workers Number of workers, identified by indices 0 to workers - 1
+     * @param staleness How many steps a worker may get ahead of the slowest one, 0 for synchronous training
+     * @param port Local port to listen on, 0 picks any free port
+     * @param connectTimeoutMillis How long to wait for all workers to connect before the missing ones count as left
+     * @throws IOException If the server cannot bind the port
+     */
+    public ParameterServer(NeuralNetwork network, int workers, int staleness, int port, long connectTimeoutMillis)
+            throws IOException {
+        this.network = network;
+        this.parameters = new double[network.parameterCount()];
+        this.clocks = new int[workers];
+        this.training = new boolean[workers];
+        this.connected = new boolean[workers];
+        this.staleness = staleness;
+        this.connectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis);
+        this.executor = Executors.newCachedThreadPool();
+
+        network.parametersInto(parameters);
+        Arrays.fill(training, true);
+
+        // Like the inference server, the parameter server only listens on the loopback interface.
+        this.server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        this.executor.execute(this::accept);
+        this.executor.execute(this::expireUnconnected);
+    }
+
+    /**
+     * Trains a network with worker processes on this machine and compares it with one trained by a single trainer. The
+     * arguments are the staleness, the codec of the changes (dense, top-k or quantised) and the number of workers.
+     * Both networks are validated on the testing file.
+     *
+     * @param args Console arguments
+     * @throws Exception Exceptions are thrown into stdout
+     */
+    public static void main(String[] args) throws Exception {
+        int staleness = args.length > 0 ? Integer.parseInt(args[0]) : Settings.TRAINING_STALENESS;
+        String codec = args.length > 1 ? args[1] : "dense";
+        int workerCount = args.length > 2 ? Integer.parseInt(args[2]) : Settings.TRAINING_WORKERS;
+
+        double[][] training = DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), -1).setForTraining;
+        double[][] testing = DataSet.from(Paths.get(Settings.TESTING_FILE_PATH), -1).setForTraining;
+        int[] blueprint = Hyperparameters.defaults().blueprint(DataSet.inputNeuronsOf(training));
+
+        long start = System.nanoTime();
+        NeuralNetwork single = NeuralNetwork.fromBlueprint(blueprint);
+        new Trainer(single, training).train();
+        double singleSeconds = (System.nanoTime() - start) / 1e9d;
+
+        start = System.nanoTime();
+        NeuralNetwork distributed = NeuralNetwork.fromBlueprint(blueprint);
+        List<Process> workers = new ArrayList<>();
+        try (ParameterServer server = new ParameterServer(distributed, workerCount, staleness, 0)) {
+            for (int workerIndex = 0; workerIndex < workerCount; workerIndex++) {
+                Process worker = TrainingWorker.start(workerIndex, workerCount, server.port(), codec);
+                workers.add(worker);
+
+                // A worker that dies, for example before it connects, must not keep the others waiting.
+                int exitedIndex = workerIndex;
+                worker.onExit().thenRun(() -> server.leave(exitedIndex));
+            }
+
+            server.awaitWorkers();
+            double distributedSeconds = (System.nanoTime() - start) / 1e9d;
+
+            // Lets the workers print their summaries first.
+            for (Process worker : workers) {
+                worker.waitFor();
+            }
+
+            System.out.println("\n> PARAMETER SERVER");
+            System.out.printf(
+                    "%d workers, staleness %d, %s deltas, %.1f kB pushed per step.%n",
+                    workerCount,
+                    staleness,
+                    codec,
+                    server.bytesPushed() / 1e3d / Math.max(1, server.steps())
+            );
+            System.out.printf("%-14s %10s %10s%n", "training", "accuracy", "seconds");
+            System.out.printf(
+                    "%-14s %8.2f %% %10.1f%n",
+                    "single",
+                    CrossValidator.accuracy(single, DataView.of(testing)) * 100d,
+                    singleSeconds
+            );
+            System.out.printf(
+                    "%-14s %8.2f %% %10.1f%n",
+                    "distributed",
+                    CrossValidator.accuracy(server.network(), DataView.of(testing)) * 100d,
+                    distributedSeconds
+            );
+        } finally {
+            for (Process worker : workers) {
+                worker.destroy();
+            }
+        }
+    }
+
+    /**
+     * @return Port the server listens on
+     */
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Waits until every worker has left or dropped its connection.
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public synchronized void awaitWorkers() throws InterruptedException {
+        while (slowestClock() != Integer.MAX_VALUE) {
+            wait();
+        }
+    }
+
+    /**
+     * @return Network with the current weights, which the workers keep changing until they leave
+     */
+    public synchronized NeuralNetwork network() {
+        network.loadParameters(parameters);
+
+        return network;
+    }
+
+    /**
+     * @return Number of steps all workers pushed together
+     */
+    public synchronized long steps() {
+        long steps = 0;
+        for (int clock : clocks) {
+            steps += clock;
+        }
+
+        return steps;
+    }
+
+    /**
+     * @return Number of bytes the workers pushed
+     */
+    public long bytesPushed() {
+        return bytesPushed.sum();
+    }
+
+    /**
+     * Stops waiting for a worker that has finished or failed. A worker that has not connected yet is not let in
+     * afterwards.
+     *
+     * @param worker Index of the worker
+     */
+    public synchronized void leave(int worker) {
+        training[worker] = false;
+        notifyAll();
+    }
+
+    /**
+     * Stops accepting workers and drops the connected ones.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+
+        server.close();
+
+        synchronized (connections) {
+            for (Socket connection : connections) {
+                connection.close();
+            }
+        }
+
+        executor.shutdown();
+    }
+
+    /**
+     * Writes the weights and biases to a worker.
+     *
+     * @param output Stream of the connection
+     * @param parameters Weights and biases
+     * @throws IOException If the connection fails
+     */
+    static void writeParameters(DataOutputStream output, double[] parameters) throws IOException {
+        // Converts all values at once, writing the doubles one by one costs more than the step of the worker.
+        ByteBuffer buffer = ByteBuffer.allocate(parameters.length * Double.BYTES);
+        buffer.asDoubleBuffer().put(parameters);
+
+        output.writeInt(parameters.length);
+        output.write(buffer.array());
+        output.flush();
+    }
+
+    /**
+     * @param input Stream of the connection
+     * @param parameters Output buffer for the weights and biases, as long as the network has parameters
+     * @throws IOException If the connection fails or the parameters belong to a network of a different shape
+     */
+    static void readParameters(DataInputStream input, double[] parameters) throws IOException {
+        int length = input.readInt();
+        if (length != parameters.length) {
+            throw new IOException("Got " + length + " parameters for a network with " + parameters.length + ".");
+        }
+
+        byte[] bytes = new byte[length * Double.BYTES];
+        input.readFully(bytes);
+        ByteBuffer.wrap(bytes).asDoubleBuffer().get(parameters);
+    }
+
+    /**
+     * Accepts connections until the server is closed.
+     */
+    private void accept() {
+        try {
+            while (true) {
+                Socket connection = server.accept();
+                connection.setTcpNoDelay(true);
+
+                synchronized (connections) {
+                    connections.add(connection);
+                }
+
+                executor.execute(() -> serve(connection));
+            }
+        } catch (IOException e) {
+            // The server socket has been closed.
+        }
+    }
+
+    /**
+     * Serves one worker. The worker introduces itself with its index and gets the current weights, then it pushes its
+     * changes after every step and gets the weights back until it leaves.
+     *
+     * @param connection Connection to a worker
+     */
+    private void serve(Socket connection) {
+        int worker = -1;
+        double[] delta = new double[parameters.length];
+        double[] snapshot = new double[parameters.length];
+
+        try (
+                Socket socket = connection;
+                DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))
+        ) {
+            int index = input.readInt();
+            if (index < 0 || index >= clocks.length) {
+                throw new IOException("Unknown worker " + index + ".");
+            }
+
+            synchronized (this) {
+                if (connected[index] || !training[index]) {
+                    throw new IOException("Worker " + index + " has connected before or has been given up on.");
+                }
+
+                connected[index] = true;
+                worker = index;
+                notifyAll();
+                System.arraycopy(parameters, 0, snapshot, 0, parameters.length);
+            }
+            writeParameters(output, snapshot);
+
+            while (input.readByte() == PUSH) {
+                bytesPushed.add(DeltaCodec.read(input, delta));
+                push(worker, delta, snapshot);
+                writeParameters(output, snapshot);
+            }
+        } catch (EOFException | SocketException e) {
+            // The worker has gone away or the server is closing.
+        } catch (IOException e) {
+            System.err.println("Dropping worker " + worker + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (worker >= 0) {
+                leave(worker);
+            }
+
+            synchronized (connections) {
+                connections.remove(connection);
+            }
+        }
+    }
+
+    /**
+     * Adds the changes of a worker to the weights, then waits until the slowest worker is at most staleness steps
+     * behind and copies the weights for the worker.
+     *
+     * @param worker Index of the worker
+     * @param delta Changes of the weights and biases made by the step of the worker
+     * @param snapshot Output buffer for the weights the worker continues with
+     * @throws InterruptedException If the server is interrupted while waiting for the other workers
+     */
+    private synchronized void push(int worker, double[] delta, double[] snapshot) throws InterruptedException {
+        double share = 1d / clocks.length;
+        for (int index = 0; index < parameters.length; index++) {
+            parameters[index] += delta[index] * share;
+        }
+
+        clocks[worker]++;
+        notifyAll();
+
+        while (slowestClock() < clocks[worker] - staleness) {
+            wait();
+        }
+
+        System.arraycopy(parameters, 0, snapshot, 0, parameters.length);
+    }
+
+    /**
+     * Waits until all workers have connected or the connect timeout has passed, then gives up on the workers that have
+     * not connected.
+     */
+    private synchronized void expireUnconnected() {
+        long deadline = System.nanoTime() + connectTimeoutNanos;
+
+        try {
+            for (int worker = 0; worker < connected.length && !closed; ) {
+                long remaining = deadline - System.nanoTime();
+                if (connected[worker] || !training[worker]) {
+                    worker++;
+                } else if (remaining > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } else {
+                    System.err.println("Worker " + worker + " has not connected in time.");
+                    leave(worker);
+                    worker++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return Clock of the slowest worker that still trains, or the largest integer once none does
+     */
+    private int slowestClock() {
+        int slowest = Integer.MAX_VALUE;
+        for (int worker = 0; worker < clocks.length; worker++) {
+            if (training[worker]) {
+                slowest = Math.min(slowest, clocks[worker]);
+            }
+        }
+
+        return slowest;
+    }
+
+}
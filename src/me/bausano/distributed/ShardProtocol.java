@@ -0,0 +1,115 @@
+package me.bausano.distributed;
+
+import me.bausano.algorithms.nearestneighbour.Neighbour;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Binary messages between the coordinator and the shards. A request carries a block of digits, the response carries
+ * the closest neighbours the shard holds for each of them. A connection carries any number of requests, each one is
+ * followed by its response before the next one is sent.
+ */
+final class ShardProtocol {
+
+    /**
+     * Upper bound on the size of a request, which keeps a broken client from making a shard allocate without bounds.
+     */
+    static final int MAX_REQUEST_VALUES = 1 << 24;
+
+    /**
+     * Only static helpers.
+     */
+    private ShardProtocol() {
+    }
+
+    /**
+     * Writes a block of digits. Every digit has the same number of features, the class slot at the end included.
+     *
+     * @param output Stream of the connection
+     * @param digits Block of digits
+     * @throws IOException If the connection fails
+     */
+    static void writeRequest(DataOutputStream output, double[][] digits) throws IOException {
+        int featureCount = digits.length == 0 ? 0 : digits[0].length;
+        output.writeInt(digits.length);
+        output.writeInt(featureCount);
+
+        for (double[] digit : digits) {
+            for (int featureIndex = 0; featureIndex < featureCount; featureIndex++) {
+                output.writeDouble(digit[featureIndex]);
+            }
+        }
+
+        output.flush();
+    }
+
+    /**
+     * @param input Stream of the connection
+     * @return Block of digits
+     * @throws IOException If the connection fails or the request is malformed
+     */
+    static double[][] readRequest(DataInputStream input) throws IOException {
+        int digitCount = input.readInt();
+        int featureCount = input.readInt();
+        if (digitCount < 0 || featureCount < 0 || (long) digitCount * featureCount > MAX_REQUEST_VALUES) {
+            throw new IOException("Malformed request of " + digitCount + " digits with " + featureCount + " features.");
+        }
+
+        double[][] digits = new double[digitCount][featureCount];
+        for (double[] digit : digits) {
+            for (int featureIndex = 0; featureIndex < featureCount; featureIndex++) {
+                digit[featureIndex] = input.readDouble();
+            }
+        }
+
+        return digits;
+    }
+
+    /**
+     * Writes the closest neighbours of each digit of a request, in the same order.
+     *
+     * @param output Stream of the connection
+     * @param closest Closest neighbours of each digit, the closest first
+     * @throws IOException If the connection fails
+     */
+    static void writeResponse(DataOutputStream output, Neighbour[][] closest) throws IOException {
+        for (Neighbour[] neighbours : closest) {
+            output.writeInt(neighbours.length);
+
+            for (Neighbour neighbour : neighbours) {
+                output.writeDouble(neighbour.distance);
+                output.writeInt(neighbour.classification);
+            }
+        }
+
+        output.flush();
+    }
+
+    /**
+     * @param input Stream of the connection
+     * @param digitCount Number of digits in the request the response belongs to
+     * @return Closest neighbours of each digit, the closest first
+     * @throws IOException If the connection fails or the response is malformed
+     */
+    static Neighbour[][] readResponse(DataInputStream input, int digitCount) throws IOException {
+        Neighbour[][] closest = new Neighbour[digitCount][];
+
+        for (int digitIndex = 0; digitIndex < digitCount; digitIndex++) {
+            int size = input.readInt();
+            if (size < 0 || size > MAX_REQUEST_VALUES) {
+                throw new IOException("Malformed response with " + size + " neighbours.");
+            }
+
+            closest[digitIndex] = new Neighbour[size];
+            for (int neighbourIndex = 0; neighbourIndex < size; neighbourIndex++) {
+                double distance = input.readDouble();
+                closest[digitIndex][neighbourIndex] = new Neighbour(input.readInt(), distance);
+            }
+        }
+
+        return closest;
+    }
+
+}
@@ -0,0 +1,176 @@
+package me.bausano.distributed;
+
+import me.bausano.DataSet;
+import me.bausano.Settings;
+import me.bausano.algorithms.nearestneighbour.NearestNeighbour;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Holds one shard of the reference digits of the nearest neighbour and answers which of its digits are closest to the
+ * digits it is sent. The shard does not vote, it returns the distances, so the coordinator can merge the answers of
+ * all shards into the k closest neighbours of the whole reference set.
+ */
+public class ShardWorker implements AutoCloseable {
+
+    /**
+     * Nearest neighbour over the digits of this shard.
+     */
+    private final NearestNeighbour neighbours;
+
+    /**
+     * Socket the coordinators connect to.
+     */
+    private final ServerSocket server;
+
+    /**
+     * Accepts the connections and serves each of them in its own thread.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Connections that are being served, closed along with the worker.
+     */
+    private final List<Socket> connections = new ArrayList<>();
+
+    /**
+     * @param shard Reference digits of this shard, where the last value is the class
+     * @param k How many closest neighbours to return for each digit
+     * @param port Local port to listen on, 0 picks any free port
+     * @throws IOException If the worker cannot bind the port
+     */
+    public ShardWorker(double[][] shard, int k, int port) throws IOException {
+        this.neighbours = new NearestNeighbour(shard, k);
+        this.executor = Executors.newCachedThreadPool();
+
+        // Like the inference server, the worker only listens on the loopback interface.
+        this.server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        this.executor.execute(this::accept);
+    }
+
+    /**
+     * Starts a worker with every n-th digit of the training data. The arguments are the index of the shard, the number
+     * of shards, k and the port, which defaults to any free port. The port is printed once the worker listens, so
+     * whoever starts the process can connect to it.
+     *
+     * @param args Console arguments
+     * @throws Exception Exceptions are thrown into stdout
+     */
+    public static void main(String[] args) throws Exception {
+        int shardIndex = Integer.parseInt(args[0]);
+        int shardCount = Integer.parseInt(args[1]);
+        int k = args.length > 2 ? Integer.parseInt(args[2]) : Settings.K_NEAREST_NEIGHBOURS;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+        double[][] shard = shardOf(
+                DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), -1).setForTraining,
+                shardIndex,
+                shardCount
+        );
+        ShardWorker worker = new ShardWorker(shard, k, port);
+
+        System.out.printf("Shard %d of %d serves %d digits on port %d\n", shardIndex, shardCount, shard.length,
+                worker.port());
+    }
+
+    /**
+     * Splits the digits round robin, which keeps the classes spread evenly over the shards.
+     *
+     * @param digits All reference digits
+     * @param shardIndex Which shard to return, in range 0 - shardCount
+     * @param shardCount Number of shards
+     * @return Every shardCount-th digit, starting at shardIndex
+     */
+    public static double[][] shardOf(double[][] digits, int shardIndex, int shardCount) {
+        List<double[]> shard = new ArrayList<>();
+        for (int digitIndex = shardIndex; digitIndex < digits.length; digitIndex += shardCount) {
+            shard.add(digits[digitIndex]);
+        }
+
+        return shard.toArray(new double[0][]);
+    }
+
+    /**
+     * @return Port the worker listens on
+     */
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections and drops the open ones.
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+
+        synchronized (connections) {
+            for (Socket connection : connections) {
+                connection.close();
+            }
+        }
+
+        executor.shutdown();
+    }
+
+    /**
+     * Accepts connections until the worker is closed.
+     */
+    private void accept() {
+        try {
+            while (true) {
+                Socket connection = server.accept();
+                connection.setTcpNoDelay(true);
+
+                synchronized (connections) {
+                    connections.add(connection);
+                }
+
+                executor.execute(() -> serve(connection));
+            }
+        } catch (IOException e) {
+            // The server socket has been closed.
+        }
+    }
+
+    /**
+     * Answers the requests of one connection until the coordinator closes it.
+     *
+     * @param connection Connection to a coordinator
+     */
+    private void serve(Socket connection) {
+        try (
+                Socket socket = connection;
+                DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))
+        ) {
+            while (true) {
+                double[][] digits = ShardProtocol.readRequest(input);
+                ShardProtocol.writeResponse(output, neighbours.closest(digits));
+            }
+        } catch (EOFException | SocketException e) {
+            // The coordinator has gone away or the worker is closing.
+        } catch (IOException e) {
+            System.err.println("Dropping connection: " + e.getMessage());
+        } finally {
+            synchronized (connections) {
+                connections.remove(connection);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,588 @@
+package me.bausano.distributed;
+
+import me.bausano.DataSet;
+import me.bausano.DataView;
+import me.bausano.Settings;
+import me.bausano.algorithms.Classifier;
+import me.bausano.algorithms.nearestneighbour.NearestNeighbour;
+import me.bausano.algorithms.nearestneighbour.Neighbour;
+import me.bausano.validation.CrossValidator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Nearest neighbour whose reference digits are split between worker processes, see ShardWorker. Each query is sent to
+ * all shards at once, each shard returns its k closest digits with their distances and the coordinator merges them
+ * into the k closest digits of the whole reference set, which then vote like in the nearest neighbour. The distances
+ * are exact, therefore with all shards up the result is the same as if one process held all digits, except that
+ * neighbours of equal distance in different shards may be picked in a different order.
+ *
+ * A shard that does not answer within the timeout or whose connection fails is left out of the vote and is not asked
+ * again for a while. The queries are then answered from the digits of the remaining shards, which degrades the
+ * accuracy instead of failing the caller.
+ */
+public class ShardedNearestNeighbour implements Classifier, AutoCloseable {
+
+    /**
+     * Orders neighbours from the closest. Neighbour itself compares the other way round.
+     */
+    private static final Comparator<Neighbour> BY_DISTANCE =
+            Comparator.comparingDouble(neighbour -> neighbour.distance);
+
+    /**
+     * Workers that hold the reference digits.
+     */
+    private final Shard[] shards;
+
+    /**
+     * How many closest neighbours get to vote on the classification.
+     */
+    private final int k;
+
+    /**
+     * How long in milliseconds to wait for a shard to connect or to answer.
+     */
+    private final int timeoutMillis;
+
+    /**
+     * Sends the requests to the shards in parallel.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * How many requests were not answered in time.
+     */
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * How many requests failed for other reasons, such as a refused connection.
+     */
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * How many requests were not sent because their shard was down.
+     */
+    private final LongAdder skipped = new LongAdder();
+
+    /**
+     * @param addresses Addresses of the shard workers
+     * @param k How many closest neighbours get to vote on the classification, the workers have to return at least k
+     */
+    public ShardedNearestNeighbour(List<InetSocketAddress> addresses, int k) {
+        this(addresses, k, Settings.SHARD_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param addresses Addresses of the shard workers
+     * @param k How many closest neighbours get to vote on the classification, the workers have to return at least k
+     * @param timeoutMillis How long in milliseconds to wait for a shard to connect or to answer
+     */
+    public ShardedNearestNeighbour(List<InetSocketAddress> addresses, int k, int timeoutMillis) {
+        this.k = k;
+        this.timeoutMillis = timeoutMillis;
+        this.executor = Executors.newCachedThreadPool();
+        this.shards = new Shard[addresses.size()];
+
+        for (int shardIndex = 0; shardIndex < shards.length; shardIndex++) {
+            shards[shardIndex] = new Shard(addresses.get(shardIndex));
+        }
+    }
+
+    /**
+     * Starts shard workers as separate processes on this machine, then compares the sharded nearest neighbour with
+     * one that holds all digits in this process on the testing data. Finally it kills one of the workers to show how
+     * the coordinator degrades. The first argument is the number of shards.
+     *
+     * @param args Console arguments
+     * @throws Exception Exceptions are thrown into stdout
+     */
+    public static void main(String[] args) throws Exception {
+        int shardCount = args.length > 0 ? Integer.parseInt(args[0]) : Settings.SHARD_COUNT;
+        int k = Settings.K_NEAREST_NEIGHBOURS;
+
+        double[][] training = DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), -1).setForTraining;
+        double[][] testing = DataSet.from(Paths.get(Settings.TESTING_FILE_PATH), -1).setForTraining;
+
+        List<Process> workers = new ArrayList<>();
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        try {
+            for (int shardIndex = 0; shardIndex < shardCount; shardIndex++) {
+                Process worker = startWorker(shardIndex, shardCount, k);
+                workers.add(worker);
+
+                // The worker prints its port once it listens, the port is the last word of the line.
+                String line = new BufferedReader(
+                        new InputStreamReader(worker.getInputStream(), StandardCharsets.UTF_8)
+                ).readLine();
+                if (line == null) {
+                    throw new IllegalStateException("Shard " + shardIndex + " exited before it started listening.");
+                }
+
+                System.out.println(line);
+                int port = Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+                addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            }
+
+            NearestNeighbour local = new NearestNeighbour(training, k);
+            try (ShardedNearestNeighbour sharded = new ShardedNearestNeighbour(addresses, k)) {
+                System.out.println("\n> SHARDED NEAREST NEIGHBOUR");
+                System.out.printf("%-22s %10s %14s %14s%n", "model", "accuracy", "us/dig single", "us/dig batch");
+                printRow("single process", local, testing);
+                printRow(shardCount + " shards", sharded, testing);
+
+                workers.get(0).destroy();
+                workers.get(0).waitFor();
+                printRow((shardCount - 1) + " of " + shardCount + " shards", sharded, testing);
+
+                System.out.printf(
+                        "Requests timed out: %d, failed: %d, skipped while the shard was down: %d%n",
+                        sharded.timeouts(),
+                        sharded.failures(),
+                        sharded.skipped()
+                );
+            }
+        } finally {
+            for (Process worker : workers) {
+                worker.destroy();
+            }
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public int classify(double[] digit) {
+        return classOf(estimate(digit));
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public double[] estimate(double[] digit) {
+        double[] estimates = new double[Settings.OUTPUT_CLASSES_COUNT];
+        countVotes(closest(new double[][] { digit })[0], estimates);
+
+        return estimates;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void classify(double[][] digits, int[] classes) {
+        Neighbour[][] closest = closest(digits);
+        double[] estimates = new double[Settings.OUTPUT_CLASSES_COUNT];
+
+        for (int digitIndex = 0; digitIndex < digits.length; digitIndex++) {
+            countVotes(closest[digitIndex], estimates);
+            classes[digitIndex] = classOf(estimates);
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void estimate(double[][] digits, double[][] estimates) {
+        Neighbour[][] closest = closest(digits);
+
+        for (int digitIndex = 0; digitIndex < digits.length; digitIndex++) {
+            countVotes(closest[digitIndex], estimates[digitIndex]);
+        }
+    }
+
+    /**
+     * Asks all shards that are up about the digits and merges their answers. The digits are sent in requests of at
+     * most Settings.SHARD_REQUEST_SIZE digits, so that the time a shard takes to answer does not grow with the block.
+     *
+     * @param digits Digits to find neighbours for
+     * @return Closest neighbours of each digit among the shards that answered, at most k, the closest first
+     * @throws IllegalStateException If no shard answered
+     */
+    public Neighbour[][] closest(double[][] digits) {
+        Neighbour[][] closest = new Neighbour[digits.length][];
+
+        for (int requestStart = 0; requestStart < digits.length; requestStart += Settings.SHARD_REQUEST_SIZE) {
+            double[][] request = Arrays.copyOfRange(
+                    digits,
+                    requestStart,
+                    Math.min(requestStart + Settings.SHARD_REQUEST_SIZE, digits.length)
+            );
+
+            Neighbour[][] merged = closestOfRequest(request);
+            System.arraycopy(merged, 0, closest, requestStart, merged.length);
+        }
+
+        return closest;
+    }
+
+    /**
+     * @return How many requests to shards were not answered in time
+     */
+    public long timeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * @return How many requests to shards failed for other reasons than a timeout
+     */
+    public long failures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return How many requests were not sent because their shard was down
+     */
+    public long skipped() {
+        return skipped.sum();
+    }
+
+    /**
+     * Closes the connections to the shards. The workers keep running.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+
+        for (Shard shard : shards) {
+            shard.close();
+        }
+    }
+
+    /**
+     * Sends one request to all shards that are up in parallel and merges the answers. The socket timeout only bounds
+     * each read, so a shard that trickles its answer could hold the query for many timeouts. The whole answer therefore
+     * has to arrive within the timeout, otherwise the shard is abandoned.
+     *
+     * @param request Digits of the request
+     * @return Closest neighbours of each digit among the shards that answered, at most k, the closest first
+     */
+    private Neighbour[][] closestOfRequest(double[][] request) {
+        List<Shard> asked = new ArrayList<>();
+        List<Future<Neighbour[][]>> answers = new ArrayList<>();
+        for (Shard shard : shards) {
+            if (shard.isDown()) {
+                skipped.increment();
+                continue;
+            }
+
+            asked.add(shard);
+            answers.add(executor.submit(() -> shard.query(request)));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        List<Neighbour[][]> received = new ArrayList<>();
+        for (int answerIndex = 0; answerIndex < answers.size(); answerIndex++) {
+            Future<Neighbour[][]> answer = answers.get(answerIndex);
+
+            try {
+                Neighbour[][] closest = answer.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (closest != null) {
+                    received.add(closest);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the shards.", e);
+            } catch (ExecutionException e) {
+                failures.increment();
+            } catch (TimeoutException e) {
+                timeouts.increment();
+                answer.cancel(true);
+                // Closing the connections is what stops a read that is still waiting.
+                asked.get(answerIndex).abandon();
+            }
+        }
+
+        if (received.isEmpty()) {
+            throw new IllegalStateException("None of the " + shards.length + " shards answered.");
+        }
+
+        Neighbour[][] merged = new Neighbour[request.length][];
+        List<Neighbour> candidates = new ArrayList<>();
+        for (int digitIndex = 0; digitIndex < request.length; digitIndex++) {
+            candidates.clear();
+            for (Neighbour[][] closest : received) {
+                candidates.addAll(Arrays.asList(closest[digitIndex]));
+            }
+
+            candidates.sort(BY_DISTANCE);
+            merged[digitIndex] = candidates.subList(0, Math.min(k, candidates.size())).toArray(new Neighbour[0]);
+        }
+
+        return merged;
+    }
+
+    /**
+     * Counts occurrence of each class among the closest neighbours and divides it by k.
+     *
+     * @param closest Closest neighbours of a digit
+     * @param estimates Output buffer for the class probabilities
+     */
+    private void countVotes(Neighbour[] closest, double[] estimates) {
+        Arrays.fill(estimates, 0, Settings.OUTPUT_CLASSES_COUNT, 0d);
+
+        for (Neighbour neighbour : closest) {
+            estimates[neighbour.classification] += 1d / (double) k;
+        }
+    }
+
+    /**
+     * Finds class with the highest estimate.
+     *
+     * @param estimates Probabilities for each class
+     * @return Class with the highest probability, the last one wins on ties like in the nearest neighbour
+     */
+    private static int classOf(double[] estimates) {
+        double bestEstimate = Double.MIN_VALUE;
+        int closestClass = 0;
+
+        for (int classIndex = 0; classIndex < Settings.OUTPUT_CLASSES_COUNT; classIndex++) {
+            if (estimates[classIndex] < bestEstimate) {
+                continue;
+            }
+
+            closestClass = classIndex;
+            bestEstimate = estimates[classIndex];
+        }
+
+        return closestClass;
+    }
+
+    /**
+     * Starts a shard worker in a new JVM with the class path of this one.
+     *
+     * @param shardIndex Index of the shard
+     * @param shardCount Number of shards
+     * @param k How many closest neighbours the worker returns
+     * @return Process of the worker, whose first line of output holds the port
+     * @throws IOException If the process cannot be started
+     */
+    private static Process startWorker(int shardIndex, int shardCount, int k) throws IOException {
+        return new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp",
+                System.getProperty("java.class.path"),
+                ShardWorker.class.getName(),
+                String.valueOf(shardIndex),
+                String.valueOf(shardCount),
+                String.valueOf(k)
+        ).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    /**
+     * Prints one row of the report.
+     *
+     * @param title Name of the model
+     * @param model Nearest neighbour to measure
+     * @param testing Digits to classify
+     */
+    private static void printRow(String title, Classifier model, double[][] testing) {
+        // Warms up the model, for the sharded one also the connections.
+        double accuracy = CrossValidator.accuracy(model, DataView.of(testing));
+
+        long start = System.nanoTime();
+        for (double[] digit : testing) {
+            model.classify(digit);
+        }
+        double singleMicros = (System.nanoTime() - start) / 1e3d / testing.length;
+
+        start = System.nanoTime();
+        CrossValidator.accuracy(model, DataView.of(testing));
+        double batchMicros = (System.nanoTime() - start) / 1e3d / testing.length;
+
+        System.out.printf("%-22s %8.2f %% %14.1f %14.1f%n", title, accuracy * 100d, singleMicros, batchMicros);
+    }
+
+    /**
+     * Connections to one worker and whether it is up.
+     */
+    private class Shard {
+
+        /**
+         * Address the worker listens on.
+         */
+        private final InetSocketAddress address;
+
+        /**
+         * Open connections that no query uses at the moment.
+         */
+        private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Connections that queries wait on at the moment.
+         */
+        private final Set<Connection> busy = ConcurrentHashMap.newKeySet();
+
+        /**
+         * Time in milliseconds until which the shard is considered down and is not asked.
+         */
+        private volatile long downUntil;
+
+        /**
+         * @param address Address the worker listens on
+         */
+        Shard(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        /**
+         * @return Whether the shard failed recently and should be left alone
+         */
+        boolean isDown() {
+            return System.currentTimeMillis() < downUntil;
+        }
+
+        /**
+         * Sends a request over an idle connection or a new one. A connection whose request failed or timed out may
+         * still receive the response later, so it is closed rather than reused.
+         *
+         * @param request Digits of the request
+         * @return Closest neighbours of each digit in the shard, or null if the shard did not answer
+         */
+        Neighbour[][] query(double[][] request) {
+            Connection connection = idle.poll();
+
+            try {
+                if (connection == null) {
+                    connection = new Connection(address);
+                }
+
+                busy.add(connection);
+                ShardProtocol.writeRequest(connection.output, request);
+                Neighbour[][] closest = ShardProtocol.readResponse(connection.input, request.length);
+                busy.remove(connection);
+                idle.add(connection);
+
+                return closest;
+            } catch (SocketTimeoutException e) {
+                timeouts.increment();
+            } catch (IOException e) {
+                // The coordinator has counted the timeout when it abandoned the connection.
+                if (connection == null || !connection.abandoned) {
+                    failures.increment();
+                }
+            }
+
+            if (connection != null) {
+                busy.remove(connection);
+                connection.close();
+            }
+
+            downUntil = System.currentTimeMillis() + Settings.SHARD_RETRY_MILLIS;
+            // Other connections to a failed worker are most likely broken as well.
+            close();
+
+            return null;
+        }
+
+        /**
+         * Leaves the shard alone for a while and closes all its connections, including those that queries still wait
+         * on, which makes their reads fail straight away.
+         */
+        void abandon() {
+            downUntil = System.currentTimeMillis() + Settings.SHARD_RETRY_MILLIS;
+
+            for (Connection connection : busy) {
+                connection.abandoned = true;
+                connection.close();
+            }
+
+            close();
+        }
+
+        /**
+         * Closes the idle connections.
+         */
+        void close() {
+            Connection connection;
+            while ((connection = idle.poll()) != null) {
+                connection.close();
+            }
+        }
+
+    }
+
+    /**
+     * Open connection to a worker.
+     */
+    private class Connection {
+
+        /**
+         * Underlying socket.
+         */
+        private final Socket socket;
+
+        /**
+         * Reads the responses.
+         */
+        private final DataInputStream input;
+
+        /**
+         * Writes the requests.
+         */
+        private final DataOutputStream output;
+
+        /**
+         * Set when the coordinator gave up waiting for the answer and closed the connection under the query.
+         */
+        private volatile boolean abandoned;
+
+        /**
+         * @param address Address the worker listens on
+         * @throws IOException If the worker cannot be reached in time
+         */
+        Connection(InetSocketAddress address) throws IOException {
+            this.socket = new Socket();
+
+            try {
+                socket.connect(address, timeoutMillis);
+                socket.setSoTimeout(timeoutMillis);
+                socket.setTcpNoDelay(true);
+                this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Closes the socket, errors are ignored as the connection is abandoned anyway.
+         */
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing left to clean up.
+            }
+        }
+
+    }
+
+}
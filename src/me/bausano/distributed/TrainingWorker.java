@@ -0,0 +1,177 @@
+package me.bausano.distributed;
+
+import me.bausano.DataSet;
+import me.bausano.Hyperparameters;
+import me.bausano.Settings;
+import me.bausano.algorithms.neuralnetwork.NeuralNetwork;
+import me.bausano.algorithms.neuralnetwork.Trainer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Paths;
+
+/**
+ * Trains a network on one part of the training data together with other workers, see ParameterServer. The worker
+ * keeps a local copy of the network, trains it one batch at a time with the usual trainer and pushes the difference
+ * between the weights before and after the batch, then replaces its copy with the weights it pulls back.
+ */
+public class TrainingWorker {
+
+    /**
+     * Index of the worker, which identifies it to the server.
+     */
+    private final int index;
+
+    /**
+     * Training data of this worker.
+     */
+    private final double[][] partition;
+
+    /**
+     * Hyper-parameters of the network and its training, the same for all workers.
+     */
+    private final Hyperparameters parameters;
+
+    /**
+     * Encodes the changes of the weights.
+     */
+    private final DeltaCodec codec;
+
+    /**
+     * @param index Index of the worker, which identifies it to the server
+     * @param partition Training data of this worker, where the last value is the class
+     * @param parameters Hyper-parameters of the network and its training, the same for all workers
+     * @param codec Encodes the changes of the weights
+     */
+    public TrainingWorker(int index, double[][] partition, Hyperparameters parameters, DeltaCodec codec) {
+        this.index = index;
+        this.partition = partition;
+        this.parameters = parameters;
+        this.codec = codec;
+    }
+
+    /**
+     * Trains every n-th digit of the training file with a parameter server on this machine. The arguments are the
+     * index of the worker, the number of workers, the port of the server and the codec of the changes.
+     *
+     * @param args Console arguments
+     * @throws Exception Exceptions are thrown into stdout
+     */
+    public static void main(String[] args) throws Exception {
+        int workerIndex = Integer.parseInt(args[0]);
+        int workerCount = Integer.parseInt(args[1]);
+        int port = Integer.parseInt(args[2]);
+        DeltaCodec codec = DeltaCodec.forName(args.length > 3 ? args[3] : "dense");
+
+        double[][] partition = ShardWorker.shardOf(
+                DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), -1).setForTraining,
+                workerIndex,
+                workerCount
+        );
+
+        long start = System.nanoTime();
+        long bytes = new TrainingWorker(workerIndex, partition, Hyperparameters.defaults(), codec).train(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+        );
+
+        // Formatted first and printed at once, so that the lines of workers sharing the output do not interleave.
+        System.out.println(String.format(
+                "Worker %d of %d trained %d digits in %.1f s and pushed %.1f MB",
+                workerIndex,
+                workerCount,
+                partition.length,
+                (System.nanoTime() - start) / 1e9d,
+                bytes / 1e6d
+        ));
+    }
+
+    /**
+     * Starts a worker in a new JVM with the class path of this one. Its output goes to the output of this process.
+     *
+     * @param workerIndex Index of the worker
+     * @param workerCount Number of workers
+     * @param port Port of the parameter server on the loopback interface
+     * @param codec Name of the codec of the changes
+     * @return Process of the worker
+     * @throws IOException If the process cannot be started
+     */
+    public static Process start(int workerIndex, int workerCount, int port, String codec) throws IOException {
+        return new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp",
+                System.getProperty("java.class.path"),
+                TrainingWorker.class.getName(),
+                String.valueOf(workerIndex),
+                String.valueOf(workerCount),
+                String.valueOf(port),
+                codec
+        ).inheritIO().start();
+    }
+
+    /**
+     * Runs the full training, one push and pull per batch.
+     *
+     * @param server Address of the parameter server
+     * @return Number of bytes pushed
+     * @throws IOException If the connection to the server fails
+     */
+    public long train(InetSocketAddress server) throws IOException {
+        NeuralNetwork network = NeuralNetwork.fromBlueprint(parameters.blueprint(DataSet.inputNeuronsOf(partition)));
+        Trainer trainer = new Trainer(network, partition, parameters);
+
+        double[] weights = new double[network.parameterCount()];
+        double[] trained = new double[weights.length];
+        // Changes that the codec has not sent yet.
+        double[] residual = new double[weights.length];
+
+        try (
+                Socket socket = new Socket(server.getAddress(), server.getPort());
+                DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))
+        ) {
+            socket.setTcpNoDelay(true);
+            output.writeInt(index);
+            output.flush();
+
+            ParameterServer.readParameters(input, weights);
+            network.loadParameters(weights);
+
+            long bytes = 0;
+            for (int iteration = 0; iteration < parameters.iterations(); iteration++) {
+                for (int batchStart = 0; batchStart < partition.length; batchStart += parameters.batchSize) {
+                    trainer.trainRange(
+                            iteration,
+                            batchStart,
+                            Math.min(parameters.batchSize, partition.length - batchStart)
+                    );
+
+                    network.parametersInto(trained);
+                    for (int parameterIndex = 0; parameterIndex < weights.length; parameterIndex++) {
+                        residual[parameterIndex] += trained[parameterIndex] - weights[parameterIndex];
+                    }
+
+                    int written = output.size();
+                    output.writeByte(ParameterServer.PUSH);
+                    codec.write(output, residual);
+                    output.flush();
+                    bytes += output.size() - written;
+
+                    ParameterServer.readParameters(input, weights);
+                    network.loadParameters(weights);
+                }
+            }
+
+            output.writeByte(ParameterServer.LEAVE);
+            output.flush();
+
+            return bytes;
+        }
+    }
+
+}
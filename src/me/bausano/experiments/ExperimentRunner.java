@@ -0,0 +1,267 @@
+package me.bausano.experiments;
+
+import me.bausano.DataSet;
+import me.bausano.DataView;
+import me.bausano.Settings;
+import me.bausano.algorithms.Algorithms;
+import me.bausano.algorithms.Classifier;
+import me.bausano.instrumentation.LatencyHistogram;
+import me.bausano.validation.CrossValidator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the runs of a spec file, see RunSpec, on a fixed number of threads and measures each of them. Every run trains
+ * its model on one thread with a seeded source of initial weights, so repeated experiments give the same models. Data
+ * files are loaded once and shared by all runs that name them.
+ *
+ * Allocations are counted per thread, so they belong to one run whatever runs next to it. The heap is shared though:
+ * when the runs go one at a time the peak heap is reset before each run and belongs to it alone, when they overlap it
+ * is the peak of the whole process since the experiment started.
+ */
+public class ExperimentRunner {
+
+    /**
+     * Upper bound on the number of runs going at the same time.
+     */
+    private final int parallelism;
+
+    /**
+     * Digits of the data files loaded so far, keyed by path.
+     */
+    private final Map<String, double[][]> data = new ConcurrentHashMap<>();
+
+    /**
+     * @param parallelism Upper bound on the number of runs going at the same time
+     */
+    public ExperimentRunner(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Runs a spec file and writes the results into a CSV file. The arguments are the spec file, the results file and
+     * the number of runs to go at the same time, which defaults to one so that the timings do not disturb each other.
+     *
+     * @param args Console arguments
+     * @throws Exception Exceptions are thrown into stdout
+     */
+    public static void main(String[] args) throws Exception {
+        Path specPath = Paths.get(args.length > 0 ? args[0] : Settings.EXPERIMENT_SPEC_PATH);
+        Path resultsPath = Paths.get(args.length > 1 ? args[1] : Settings.EXPERIMENT_RESULTS_PATH);
+        int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+        List<RunSpec> specs = RunSpec.read(specPath);
+        System.out.printf("Running %d runs from %s, %d at a time.\n", specs.size(), specPath, parallelism);
+
+        List<RunResult> results = new ExperimentRunner(parallelism).run(specs);
+        write(results, resultsPath);
+
+        System.out.println("\n> EXPERIMENT");
+        System.out.printf(
+                "%-18s %-10s %10s %10s %10s %10s %12s %10s%n",
+                "run",
+                "algorithm",
+                "accuracy",
+                "train s",
+                "mean us",
+                "p99 us",
+                "alloc MB",
+                "peak MB"
+        );
+        for (RunResult result : results) {
+            if (result.error != null) {
+                System.out.printf("%-18s %-10s failed: %s%n", result.spec.name, result.spec.algorithm, result.error);
+                continue;
+            }
+
+            System.out.printf(
+                    "%-18s %-10s %8.2f %% %10.2f %10.1f %10.1f %12.1f %10.1f%n",
+                    result.spec.name,
+                    result.spec.algorithm,
+                    result.accuracy * 100d,
+                    result.trainingSeconds,
+                    result.meanLatencyMicros,
+                    result.p99LatencyMicros,
+                    result.allocatedBytes / 1e6d,
+                    result.peakHeapBytes / 1e6d
+            );
+        }
+        System.out.printf("Results written to %s.\n", resultsPath);
+    }
+
+    /**
+     * Runs all runs and waits for them. A run that fails does not stop the others, its result carries the error.
+     *
+     * @param specs Runs to go
+     * @return Results in the order of the runs
+     * @throws InterruptedException If the calling thread is interrupted while the runs go
+     */
+    public List<RunResult> run(List<RunSpec> specs) throws InterruptedException {
+        List<Callable<RunResult>> tasks = new ArrayList<>(specs.size());
+        for (RunSpec spec : specs) {
+            tasks.add(() -> {
+                try {
+                    return measure(spec);
+                } catch (RuntimeException | OutOfMemoryError e) {
+                    return RunResult.failed(spec, e);
+                }
+            });
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, specs.size())));
+        List<RunResult> results = new ArrayList<>(specs.size());
+
+        try {
+            List<Future<RunResult>> futures = pool.invokeAll(tasks);
+            for (int runIndex = 0; runIndex < futures.size(); runIndex++) {
+                try {
+                    results.add(futures.get(runIndex).get());
+                } catch (ExecutionException e) {
+                    results.add(RunResult.failed(specs.get(runIndex), e.getCause()));
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return results;
+    }
+
+    /**
+     * Writes the results into a CSV file with a header line.
+     *
+     * @param results Results of the runs
+     * @param path File to create or overwrite
+     * @throws IOException If the file cannot be written
+     */
+    public static void write(List<RunResult> results, Path path) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+
+        try (Writer writer = Files.newBufferedWriter(path)) {
+            writer.write(RunResult.CSV_HEADER);
+            writer.write('\n');
+
+            for (RunResult result : results) {
+                writer.write(result.toCsv());
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Trains the model of one run and measures it. The accuracy pass classifies in batches and warms the model up, the
+     * latency pass then classifies the testing digits one at a time, which is what a caller waiting for one answer
+     * sees.
+     *
+     * @param spec Run to go
+     * @return Measurements of the run
+     */
+    private RunResult measure(RunSpec spec) {
+        double[][] training = load(spec.trainingPath);
+        double[][] testing = load(spec.testingPath);
+
+        if (parallelism == 1) {
+            resetPeakHeap();
+        }
+        long allocatedBefore = allocatedBytes();
+
+        long start = System.nanoTime();
+        Classifier model = Algorithms.train(spec.algorithm, training, spec.parameters, new Random(spec.seed));
+        double trainingSeconds = (System.nanoTime() - start) / 1e9d;
+
+        double accuracy = CrossValidator.accuracy(model, DataView.of(testing));
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        for (double[] digit : testing) {
+            long digitStart = System.nanoTime();
+            model.classify(digit);
+            latencies.record(System.nanoTime() - digitStart);
+        }
+
+        return new RunResult(
+                spec,
+                accuracy,
+                trainingSeconds,
+                latencies.mean() / 1e3d,
+                latencies.percentile(0.99d) / 1e3d,
+                allocatedBytes() - allocatedBefore,
+                peakHeap(),
+                null
+        );
+    }
+
+    /**
+     * Loads a data file or returns the digits loaded by an earlier run.
+     *
+     * @param path Path to the data file
+     * @return All digits of the file
+     */
+    private double[][] load(String path) {
+        return data.computeIfAbsent(path, key -> {
+            try {
+                return DataSet.from(Paths.get(key), -1).setForTraining;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * @return Bytes the current thread has allocated so far, or 0 where the JVM does not count them
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        return 0;
+    }
+
+    /**
+     * Starts the peak of every heap pool over from its current use.
+     */
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * @return Sum of the peaks of the heap pools since they were last reset
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        return peak;
+    }
+
+}
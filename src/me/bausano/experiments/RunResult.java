@@ -0,0 +1,117 @@
+package me.bausano.experiments;
+
+import java.util.Locale;
+
+/**
+ * Measurements of one run of an experiment. A run that failed carries the error and zeros for the measurements.
+ */
+public class RunResult {
+
+    /**
+     * First line of the results file, the columns of toCsv.
+     */
+    public static final String CSV_HEADER = "name,algorithm,seed,hyperparameters,accuracy,training_seconds,"
+            + "mean_latency_us,p99_latency_us,allocated_mb,peak_heap_mb,error";
+
+    /**
+     * Run that was measured.
+     */
+    public final RunSpec spec;
+
+    /**
+     * Portion of the testing digits classified correctly.
+     */
+    public final double accuracy;
+
+    /**
+     * Time the model took to build and train, in seconds.
+     */
+    public final double trainingSeconds;
+
+    /**
+     * Mean time to classify one digit, in microseconds.
+     */
+    public final double meanLatencyMicros;
+
+    /**
+     * Time within which 99 % of the digits were classified, in microseconds.
+     */
+    public final double p99LatencyMicros;
+
+    /**
+     * Bytes the run allocated on its thread, which covers training and classification as both run single threaded.
+     */
+    public final long allocatedBytes;
+
+    /**
+     * Largest heap use seen while the run was going, see ExperimentRunner for how concurrent runs share it.
+     */
+    public final long peakHeapBytes;
+
+    /**
+     * Message of the error that stopped the run, or null if it finished.
+     */
+    public final String error;
+
+    /**
+     * @param spec Run that was measured
+     * @param accuracy Portion of the testing digits classified correctly
+     * @param trainingSeconds Time the model took to build and train, in seconds
+     * @param meanLatencyMicros Mean time to classify one digit, in microseconds
+     * @param p99LatencyMicros Time within which 99 % of the digits were classified, in microseconds
+     * @param allocatedBytes Bytes the run allocated on its thread
+     * @param peakHeapBytes Largest heap use seen while the run was going
+     * @param error Message of the error that stopped the run, or null if it finished
+     */
+    public RunResult(RunSpec spec, double accuracy, double trainingSeconds, double meanLatencyMicros,
+                     double p99LatencyMicros, long allocatedBytes, long peakHeapBytes, String error) {
+        this.spec = spec;
+        this.accuracy = accuracy;
+        this.trainingSeconds = trainingSeconds;
+        this.meanLatencyMicros = meanLatencyMicros;
+        this.p99LatencyMicros = p99LatencyMicros;
+        this.allocatedBytes = allocatedBytes;
+        this.peakHeapBytes = peakHeapBytes;
+        this.error = error;
+    }
+
+    /**
+     * @param spec Run that failed
+     * @param error What stopped the run
+     * @return Result that only carries the error
+     */
+    static RunResult failed(RunSpec spec, Throwable error) {
+        return new RunResult(spec, 0d, 0d, 0d, 0d, 0, 0, String.valueOf(error));
+    }
+
+    /**
+     * @return Row of the results file, the text columns are quoted
+     */
+    public String toCsv() {
+        // The root locale keeps the decimal point a dot whatever the locale of the machine.
+        return String.format(
+                Locale.ROOT,
+                "%s,%s,%d,%s,%.4f,%.3f,%.2f,%.2f,%.1f,%.1f,%s",
+                quote(spec.name),
+                quote(spec.algorithm),
+                spec.seed,
+                quote(spec.parameters.toString()),
+                accuracy,
+                trainingSeconds,
+                meanLatencyMicros,
+                p99LatencyMicros,
+                allocatedBytes / 1e6d,
+                peakHeapBytes / 1e6d,
+                error == null ? "" : quote(error)
+        );
+    }
+
+    /**
+     * @param value Text of a column
+     * @return Text in double quotes with the quotes inside doubled
+     */
+    private static String quote(String value) {
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+}
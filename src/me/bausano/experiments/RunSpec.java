@@ -0,0 +1,168 @@
+package me.bausano.experiments;
+
+import me.bausano.Hyperparameters;
+import me.bausano.Settings;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One run of an experiment: which algorithm to train, on which data, with which hyper-parameters and seed. A spec file
+ * holds one run per line, the name of the run and the algorithm followed by any number of key=value pairs, for example
+ * "mlp-wide mlp hidden=64 seed=7". Empty lines and lines starting with # are skipped. Keys that are left out take the
+ * values from Settings:
+ * - training, testing: paths to the data files,
+ * - seed: seed of the initial weights of the networks,
+ * - hidden, lr, oscillation, step, batch, cycles, k: hyper-parameters, see Hyperparameters.
+ */
+public class RunSpec {
+
+    /**
+     * Seed of the runs that do not set one, so that runs are reproducible unless asked otherwise.
+     */
+    public static final long DEFAULT_SEED = 42;
+
+    /**
+     * Keys a spec line may set.
+     */
+    private static final List<String> KEYS = List.of(
+            "training", "testing", "seed", "hidden", "lr", "oscillation", "step", "batch", "cycles", "k"
+    );
+
+    /**
+     * Name of the run in the results.
+     */
+    public final String name;
+
+    /**
+     * Name of the algorithm, see Algorithms::train.
+     */
+    public final String algorithm;
+
+    /**
+     * Path to the file the model is trained on.
+     */
+    public final String trainingPath;
+
+    /**
+     * Path to the file the model is assessed on.
+     */
+    public final String testingPath;
+
+    /**
+     * Hyper-parameters of the algorithm.
+     */
+    public final Hyperparameters parameters;
+
+    /**
+     * Seed of the initial weights of the networks.
+     */
+    public final long seed;
+
+    /**
+     * @param name Name of the run in the results
+     * @param algorithm Name of the algorithm, see Algorithms::train
+     * @param trainingPath Path to the file the model is trained on
+     * @param testingPath Path to the file the model is assessed on
+     * @param parameters Hyper-parameters of the algorithm
+     * @param seed Seed of the initial weights of the networks
+     */
+    public RunSpec(String name, String algorithm, String trainingPath, String testingPath, Hyperparameters parameters,
+                   long seed) {
+        this.name = name;
+        this.algorithm = algorithm;
+        this.trainingPath = trainingPath;
+        this.testingPath = testingPath;
+        this.parameters = parameters;
+        this.seed = seed;
+    }
+
+    /**
+     * @param path Spec file
+     * @return Runs in the order of the file
+     * @throws IOException If the file cannot be read
+     * @throws IllegalArgumentException If a line is malformed
+     */
+    public static List<RunSpec> read(Path path) throws IOException {
+        return parse(Files.readAllLines(path));
+    }
+
+    /**
+     * @param lines Lines of a spec file
+     * @return Runs in the order of the lines
+     * @throws IllegalArgumentException If a line is malformed
+     */
+    public static List<RunSpec> parse(List<String> lines) {
+        List<RunSpec> runs = new ArrayList<>();
+
+        for (int lineIndex = 0; lineIndex < lines.size(); lineIndex++) {
+            String line = lines.get(lineIndex).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            try {
+                runs.add(parseLine(line));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + (lineIndex + 1) + ": " + e.getMessage(), e);
+            }
+        }
+
+        return runs;
+    }
+
+    /**
+     * @param line Non empty line of a spec file
+     * @return Run the line describes
+     * @throws IllegalArgumentException If the line is malformed
+     */
+    private static RunSpec parseLine(String line) {
+        String[] words = line.split("\\s+");
+        if (words.length < 2) {
+            throw new IllegalArgumentException("A run needs a name and an algorithm.");
+        }
+
+        Map<String, String> values = new HashMap<>();
+        for (int wordIndex = 2; wordIndex < words.length; wordIndex++) {
+            int separator = words[wordIndex].indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + words[wordIndex] + ".");
+            }
+
+            values.put(words[wordIndex].substring(0, separator), words[wordIndex].substring(separator + 1));
+        }
+
+        Hyperparameters defaults = Hyperparameters.defaults();
+        RunSpec run = new RunSpec(
+                words[0],
+                words[1],
+                values.getOrDefault("training", Settings.TRAINING_FILE_PATH),
+                values.getOrDefault("testing", Settings.TESTING_FILE_PATH),
+                new Hyperparameters(
+                        Integer.parseInt(values.getOrDefault("hidden", String.valueOf(defaults.hiddenNeurons))),
+                        Double.parseDouble(values.getOrDefault("lr", String.valueOf(defaults.meanLearningRate))),
+                        Double.parseDouble(values.getOrDefault("oscillation", String.valueOf(defaults.oscillation))),
+                        Integer.parseInt(values.getOrDefault("step", String.valueOf(defaults.stepSize))),
+                        Integer.parseInt(values.getOrDefault("batch", String.valueOf(defaults.batchSize))),
+                        Integer.parseInt(values.getOrDefault("cycles", String.valueOf(defaults.cycles))),
+                        Integer.parseInt(values.getOrDefault("k", String.valueOf(defaults.kNearestNeighbours)))
+                ),
+                Long.parseLong(values.getOrDefault("seed", String.valueOf(DEFAULT_SEED)))
+        );
+
+        // Catches typos, which would otherwise silently run with the defaults.
+        for (String key : values.keySet()) {
+            if (!KEYS.contains(key)) {
+                throw new IllegalArgumentException("Unknown key " + key + ".");
+            }
+        }
+
+        return run;
+    }
+
+}
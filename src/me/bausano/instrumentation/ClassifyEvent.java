@@ -0,0 +1,30 @@
+package me.bausano.instrumentation;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event emitted around each classification made through an instrumented classifier.
+ */
+@Name("me.bausano.Classify")
+@Label("Classify")
+@Category({ "Classifier" })
+@Description("Classification of one digit or a batch of digits")
+public class ClassifyEvent extends Event {
+
+    /**
+     * Title of the instrumented classifier.
+     */
+    @Label("Model")
+    public String model;
+
+    /**
+     * How many digits were classified in the call.
+     */
+    @Label("Digits")
+    public int digits;
+
+}
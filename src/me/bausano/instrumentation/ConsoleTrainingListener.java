@@ -0,0 +1,62 @@
+package me.bausano.instrumentation;
+
+import me.bausano.algorithms.neuralnetwork.TrainingListener;
+
+/**
+ * Prints a progress line every few epochs. It also warns as soon as the loss stops being a number, which means the
+ * training has diverged and there is no point in waiting for it.
+ */
+public class ConsoleTrainingListener implements TrainingListener {
+
+    /**
+     * After how many epochs a line is printed.
+     */
+    private final int everyEpochs;
+
+    /**
+     * Whether the divergence has been reported already.
+     */
+    private boolean divergenceReported;
+
+    /**
+     * @param everyEpochs After how many epochs a line is printed
+     */
+    public ConsoleTrainingListener(int everyEpochs) {
+        this.everyEpochs = Math.max(1, everyEpochs);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void batchFinished(int epoch, int batch, int samples, double loss, double learningRate,
+                              double gradientNorm) {
+        if (!divergenceReported && (Double.isNaN(loss) || Double.isInfinite(gradientNorm))) {
+            divergenceReported = true;
+            System.out.printf("Epoch %d, batch %d: the training has diverged.\n", epoch + 1, batch);
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void epochFinished(int epoch, int epochs, double loss, double learningRate, long nanos,
+                              double samplesPerSecond, double gradientNorm) {
+        if ((epoch + 1) % everyEpochs != 0 && epoch + 1 != epochs) {
+            return;
+        }
+
+        System.out.printf(
+                "Epoch %d/%d: loss %.5f, learning rate %.3f, %.1f ms, %.0f samples/s, gradient norm %.5f\n",
+                epoch + 1,
+                epochs,
+                loss,
+                learningRate,
+                nanos / 1e6d,
+                samplesPerSecond,
+                gradientNorm
+        );
+    }
+
+}
@@ -0,0 +1,119 @@
+package me.bausano.instrumentation;
+
+import me.bausano.algorithms.neuralnetwork.TrainingListener;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes the progress of a training into a CSV file with one row per epoch and, optionally, one row per batch. Rows
+ * are told apart by the first column. The file is flushed after each epoch, so it can be plotted while the training
+ * runs.
+ */
+public class CsvTrainingListener implements TrainingListener, Closeable {
+
+    /**
+     * First line of the file.
+     */
+    private static final String HEADER =
+            "kind,epoch,batch,samples,loss,learning_rate,gradient_norm,nanos,samples_per_second";
+
+    /**
+     * Where the rows go.
+     */
+    private final Writer writer;
+
+    /**
+     * Whether to write a row for each batch as well.
+     */
+    private final boolean batches;
+
+    /**
+     * Reused for each row.
+     */
+    private final StringBuilder row = new StringBuilder();
+
+    /**
+     * @param writer Where the rows go
+     * @param batches Whether to write a row for each batch as well
+     * @throws IOException If the header cannot be written
+     */
+    public CsvTrainingListener(Writer writer, boolean batches) throws IOException {
+        this.writer = writer;
+        this.batches = batches;
+        this.writer.write(HEADER);
+        this.writer.write('\n');
+    }
+
+    /**
+     * @param path File to create or overwrite
+     * @param batches Whether to write a row for each batch as well
+     * @throws IOException If the file cannot be created
+     */
+    public CsvTrainingListener(Path path, boolean batches) throws IOException {
+        this(Files.newBufferedWriter(path), batches);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void batchFinished(int epoch, int batch, int samples, double loss, double learningRate,
+                              double gradientNorm) {
+        if (!batches) {
+            return;
+        }
+
+        row.setLength(0);
+        row.append("batch,").append(epoch).append(',').append(batch).append(',').append(samples).append(',')
+                .append(loss).append(',').append(learningRate).append(',').append(gradientNorm).append(",,\n");
+        write(false);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void epochFinished(int epoch, int epochs, double loss, double learningRate, long nanos,
+                              double samplesPerSecond, double gradientNorm) {
+        row.setLength(0);
+        row.append("epoch,").append(epoch).append(",,,")
+                .append(loss).append(',').append(learningRate).append(',').append(gradientNorm).append(',')
+                .append(nanos).append(',').append(samplesPerSecond).append('\n');
+        write(true);
+    }
+
+    /**
+     * Flushes and closes the file.
+     *
+     * @throws IOException If the file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * Writes the row that has been built.
+     *
+     * @param flush Whether to flush the writer afterwards
+     */
+    private void write(boolean flush) {
+        try {
+            writer.append(row);
+
+            if (flush) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            // Listeners cannot throw checked exceptions and a training should not go on without its log.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
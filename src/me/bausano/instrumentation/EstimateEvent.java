@@ -0,0 +1,30 @@
+package me.bausano.instrumentation;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event emitted around each estimate made through an instrumented classifier.
+ */
+@Name("me.bausano.Estimate")
+@Label("Estimate")
+@Category({ "Classifier" })
+@Description("Class probabilities of one digit or a batch of digits")
+public class EstimateEvent extends Event {
+
+    /**
+     * Title of the instrumented classifier.
+     */
+    @Label("Model")
+    public String model;
+
+    /**
+     * How many digits were estimated in the call.
+     */
+    @Label("Digits")
+    public int digits;
+
+}
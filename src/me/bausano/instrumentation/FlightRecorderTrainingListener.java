@@ -0,0 +1,62 @@
+package me.bausano.instrumentation;
+
+import me.bausano.algorithms.neuralnetwork.TrainingListener;
+
+/**
+ * Emits the progress of a training as flight recorder events, so that a recording shows the loss and throughput of the
+ * training next to the garbage collections and the compilations of the same period. Events are only allocated while
+ * the recording of them is enabled.
+ */
+public class FlightRecorderTrainingListener implements TrainingListener {
+
+    /**
+     * Never committed, only asks whether recording of batch events is enabled.
+     */
+    private static final TrainingBatchEvent batchProbe = new TrainingBatchEvent();
+
+    /**
+     * Never committed, only asks whether recording of epoch events is enabled.
+     */
+    private static final TrainingEpochEvent epochProbe = new TrainingEpochEvent();
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void batchFinished(int epoch, int batch, int samples, double loss, double learningRate,
+                              double gradientNorm) {
+        if (!batchProbe.isEnabled()) {
+            return;
+        }
+
+        TrainingBatchEvent event = new TrainingBatchEvent();
+        event.epoch = epoch;
+        event.batch = batch;
+        event.samples = samples;
+        event.loss = loss;
+        event.learningRate = learningRate;
+        event.gradientNorm = gradientNorm;
+        event.commit();
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void epochFinished(int epoch, int epochs, double loss, double learningRate, long nanos,
+                              double samplesPerSecond, double gradientNorm) {
+        if (!epochProbe.isEnabled()) {
+            return;
+        }
+
+        TrainingEpochEvent event = new TrainingEpochEvent();
+        event.epoch = epoch;
+        event.nanos = nanos;
+        event.loss = loss;
+        event.learningRate = learningRate;
+        event.samplesPerSecond = samplesPerSecond;
+        event.gradientNorm = gradientNorm;
+        event.commit();
+    }
+
+}
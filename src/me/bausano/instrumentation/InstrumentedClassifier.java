@@ -0,0 +1,351 @@
+package me.bausano.instrumentation;
+
+import me.bausano.algorithms.Classifier;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decorator that measures every call made to the wrapped classifier. It records latency histograms, counts digits for
+ * throughput, optionally measures how many bytes each call allocates and emits flight recorder events. The decorator
+ * is as thread safe as the classifier it wraps.
+ */
+public class InstrumentedClassifier implements Classifier {
+
+    /**
+     * Never committed, only asks whether flight recording of classify events is enabled.
+     */
+    private static final ClassifyEvent classifyEventProbe = new ClassifyEvent();
+
+    /**
+     * Never committed, only asks whether flight recording of estimate events is enabled.
+     */
+    private static final EstimateEvent estimateEventProbe = new EstimateEvent();
+
+    /**
+     * Name of the classifier in reports and flight recordings.
+     */
+    private final String title;
+
+    /**
+     * Classifier that does the work.
+     */
+    private final Classifier classifier;
+
+    /**
+     * Allocation counters of the JVM, null if allocations are not measured.
+     */
+    private final com.sun.management.ThreadMXBean allocations;
+
+    /**
+     * Metrics of classify calls.
+     */
+    private final Operation classify = new Operation();
+
+    /**
+     * Metrics of estimate calls.
+     */
+    private final Operation estimate = new Operation();
+
+    /**
+     * When were the metrics started or last reset.
+     */
+    private volatile long startedAt = System.nanoTime();
+
+    /**
+     * @param title Name of the classifier in reports
+     * @param classifier Classifier to measure
+     * @param measureAllocations Whether to measure allocated bytes, which costs a little extra on each call and is
+     *                           only supported on HotSpot based runtimes
+     */
+    public InstrumentedClassifier(String title, Classifier classifier, boolean measureAllocations) {
+        this.title = title;
+        this.classifier = classifier;
+        this.allocations = measureAllocations ? allocationCounter() : null;
+    }
+
+    /**
+     * @param title Name of the classifier in reports
+     * @param classifier Classifier to measure
+     */
+    public InstrumentedClassifier(String title, Classifier classifier) {
+        this(title, classifier, false);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public int classify(double[] digit) {
+        ClassifyEvent event = beginClassify();
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+
+        int classification = classifier.classify(digit);
+
+        classify.record(System.nanoTime() - start, 1, allocatedBytes() - allocatedBefore);
+        commit(event, 1);
+
+        return classification;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public double[] estimate(double[] digit) {
+        EstimateEvent event = beginEstimate();
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+
+        double[] estimates = classifier.estimate(digit);
+
+        estimate.record(System.nanoTime() - start, 1, allocatedBytes() - allocatedBefore);
+        commit(event, 1);
+
+        return estimates;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void estimateInto(double[] digit, double[] estimates) {
+        EstimateEvent event = beginEstimate();
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+
+        classifier.estimateInto(digit, estimates);
+
+        estimate.record(System.nanoTime() - start, 1, allocatedBytes() - allocatedBefore);
+        commit(event, 1);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void classify(double[][] digits, int[] classes) {
+        ClassifyEvent event = beginClassify();
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+
+        classifier.classify(digits, classes);
+
+        classify.record(System.nanoTime() - start, digits.length, allocatedBytes() - allocatedBefore);
+        commit(event, digits.length);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void estimate(double[][] digits, double[][] estimates) {
+        EstimateEvent event = beginEstimate();
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+
+        classifier.estimate(digits, estimates);
+
+        estimate.record(System.nanoTime() - start, digits.length, allocatedBytes() - allocatedBefore);
+        commit(event, digits.length);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public long version() {
+        return classifier.version();
+    }
+
+    /**
+     * @return Classifier that does the work
+     */
+    public Classifier unwrap() {
+        return classifier;
+    }
+
+    /**
+     * Takes an immutable view of the current metrics.
+     *
+     * @return Metrics of all calls since the decorator was created or last reset
+     */
+    public MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(
+                title,
+                (System.nanoTime() - startedAt) / 1e9d,
+                classify.stats(),
+                estimate.stats()
+        );
+    }
+
+    /**
+     * Starts the metrics over, for example after a warm up.
+     */
+    public void reset() {
+        classify.reset();
+        estimate.reset();
+        startedAt = System.nanoTime();
+    }
+
+    /**
+     * Starts timing a classify call. The event is only created while flight recording of it is enabled, the allocation
+     * would otherwise show up on every call.
+     *
+     * @return Started event or null if flight recording of it is disabled
+     */
+    private static ClassifyEvent beginClassify() {
+        if (!classifyEventProbe.isEnabled()) {
+            return null;
+        }
+
+        ClassifyEvent event = new ClassifyEvent();
+        event.begin();
+
+        return event;
+    }
+
+    /**
+     * Starts timing an estimate call. The event is only created while flight recording of it is enabled, the
+     * allocation would otherwise show up on every call.
+     *
+     * @return Started event or null if flight recording of it is disabled
+     */
+    private static EstimateEvent beginEstimate() {
+        if (!estimateEventProbe.isEnabled()) {
+            return null;
+        }
+
+        EstimateEvent event = new EstimateEvent();
+        event.begin();
+
+        return event;
+    }
+
+    /**
+     * Commits the flight recorder event if flight recording of it is enabled.
+     *
+     * @param event Event started before the call or null
+     * @param digits How many digits the call processed
+     */
+    private void commit(ClassifyEvent event, int digits) {
+        if (event == null) {
+            return;
+        }
+
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.model = title;
+            event.digits = digits;
+            event.commit();
+        }
+    }
+
+    /**
+     * Commits the flight recorder event if flight recording of it is enabled.
+     *
+     * @param event Event started before the call or null
+     * @param digits How many digits the call processed
+     */
+    private void commit(EstimateEvent event, int digits) {
+        if (event == null) {
+            return;
+        }
+
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.model = title;
+            event.digits = digits;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return Bytes allocated by the current thread so far, 0 if allocations are not measured
+     */
+    private long allocatedBytes() {
+        return allocations == null ? 0 : allocations.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * @return Allocation counters of the JVM or null if the runtime does not provide them
+     */
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        return threads;
+    }
+
+    /**
+     * Metrics of one kind of call.
+     */
+    private class Operation {
+
+        /**
+         * Latency of each call.
+         */
+        final LatencyHistogram latencies = new LatencyHistogram();
+
+        /**
+         * Number of processed digits.
+         */
+        final LongAdder digits = new LongAdder();
+
+        /**
+         * Number of allocated bytes.
+         */
+        final LongAdder allocatedBytes = new LongAdder();
+
+        /**
+         * Records one call.
+         *
+         * @param nanos Latency of the call
+         * @param digitCount Number of digits the call processed
+         * @param allocated Number of bytes the call allocated
+         */
+        void record(long nanos, int digitCount, long allocated) {
+            latencies.record(nanos);
+            digits.add(digitCount);
+            allocatedBytes.add(allocated);
+        }
+
+        /**
+         * @return Immutable statistics of the calls
+         */
+        OperationStats stats() {
+            long calls = latencies.count();
+
+            return new OperationStats(
+                    calls,
+                    digits.sum(),
+                    latencies.mean(),
+                    latencies.percentile(0.5d),
+                    latencies.percentile(0.99d),
+                    latencies.percentile(0.999d),
+                    latencies.max(),
+                    allocations == null ? -1d : calls == 0 ? 0d : (double) allocatedBytes.sum() / calls
+            );
+        }
+
+        /**
+         * Forgets all recorded calls.
+         */
+        void reset() {
+            latencies.reset();
+            digits.reset();
+            allocatedBytes.reset();
+        }
+
+    }
+
+}
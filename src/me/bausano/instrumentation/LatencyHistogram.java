@@ -0,0 +1,158 @@
+package me.bausano.instrumentation;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds that can be recorded into from many threads without locking. Values below 32 ns
+ * get a bucket each, above that every power of two is split into 16 buckets. Percentiles are therefore reported with
+ * a relative error of at most about 6 %, which is plenty for capacity planning and keeps the histogram at a fixed size.
+ */
+public class LatencyHistogram {
+
+    /**
+     * How many bits of a value below its highest bit pick the sub bucket.
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * Values below this threshold are counted exactly.
+     */
+    private static final int LINEAR_BUCKETS = 1 << (SUB_BUCKET_BITS + 1);
+
+    /**
+     * Number of buckets needed to cover all positive longs.
+     */
+    private static final int BUCKETS = LINEAR_BUCKETS + (63 - SUB_BUCKET_BITS - 1) * (1 << SUB_BUCKET_BITS);
+
+    /**
+     * How many values fell into each bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Number of recorded values.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * Sum of recorded values.
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * Largest recorded value.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos Latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * @return Number of recorded values
+     */
+    public long count() {
+        return count.get();
+    }
+
+    /**
+     * @return Mean of recorded values in nanoseconds
+     */
+    public double mean() {
+        long recorded = count.get();
+
+        return recorded == 0 ? 0d : (double) sum.get() / recorded;
+    }
+
+    /**
+     * @return Largest recorded value in nanoseconds
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Finds the value below which given portion of recorded values lies. The value is the upper bound of the bucket
+     * the percentile falls into, so it never understates the latency.
+     *
+     * @param percentile Portion of values in range 0 - 1, such as 0.99
+     * @return Latency in nanoseconds
+     */
+    public long percentile(double percentile) {
+        long recorded = count.get();
+        if (recorded == 0) {
+            return 0;
+        }
+
+        // Rank of the value we are looking for, counted from one.
+        long rank = Math.max(1, (long) Math.ceil(percentile * recorded));
+        long seen = 0;
+
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(bucket), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    /**
+     * Forgets all recorded values. Values recorded concurrently with the reset may or may not survive it.
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts.set(bucket, 0);
+        }
+
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * @param value Non negative value
+     * @return Index of the bucket the value falls into
+     */
+    private static int bucketOf(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+
+        // Position of the highest bit picks the power of two, the bits right below it pick the sub bucket.
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+
+        return LINEAR_BUCKETS + (exponent - SUB_BUCKET_BITS - 1) * (1 << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    /**
+     * @param bucket Index of a bucket
+     * @return Largest value that falls into the bucket
+     */
+    private static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = (bucket - LINEAR_BUCKETS) / (1 << SUB_BUCKET_BITS) + SUB_BUCKET_BITS + 1;
+        long subBucket = (bucket - LINEAR_BUCKETS) % (1 << SUB_BUCKET_BITS);
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+
+        return (1L << exponent) + (subBucket + 1) * width - 1;
+    }
+
+}
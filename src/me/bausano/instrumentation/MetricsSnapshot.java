@@ -0,0 +1,48 @@
+package me.bausano.instrumentation;
+
+/**
+ * Immutable view of the metrics of an instrumented classifier at one point in time.
+ */
+public class MetricsSnapshot {
+
+    /**
+     * Title of the instrumented classifier.
+     */
+    public final String title;
+
+    /**
+     * Seconds since the metrics were started or last reset.
+     */
+    public final double elapsedSeconds;
+
+    /**
+     * Statistics of classify calls, both single and batched.
+     */
+    public final OperationStats classify;
+
+    /**
+     * Statistics of estimate calls, both single and batched.
+     */
+    public final OperationStats estimate;
+
+    /**
+     * @param title Title of the instrumented classifier
+     * @param elapsedSeconds Seconds since the metrics were started or last reset
+     * @param classify Statistics of classify calls
+     * @param estimate Statistics of estimate calls
+     */
+    public MetricsSnapshot(String title, double elapsedSeconds, OperationStats classify, OperationStats estimate) {
+        this.title = title;
+        this.elapsedSeconds = elapsedSeconds;
+        this.classify = classify;
+        this.estimate = estimate;
+    }
+
+    /**
+     * @return Digits classified or estimated per second since the metrics were started or last reset
+     */
+    public double throughput() {
+        return elapsedSeconds == 0 ? 0d : (classify.digits + estimate.digits) / elapsedSeconds;
+    }
+
+}
@@ -0,0 +1,78 @@
+package me.bausano.instrumentation;
+
+/**
+ * Immutable statistics of one kind of classifier call, such as classify or estimate, taken at one point in time.
+ */
+public class OperationStats {
+
+    /**
+     * Number of calls.
+     */
+    public final long calls;
+
+    /**
+     * Number of digits processed by the calls. Batched calls process more than one digit each.
+     */
+    public final long digits;
+
+    /**
+     * Mean latency of a call in nanoseconds.
+     */
+    public final double meanNanos;
+
+    /**
+     * Median latency of a call in nanoseconds.
+     */
+    public final long p50Nanos;
+
+    /**
+     * 99th percentile latency of a call in nanoseconds.
+     */
+    public final long p99Nanos;
+
+    /**
+     * 99.9th percentile latency of a call in nanoseconds.
+     */
+    public final long p999Nanos;
+
+    /**
+     * Largest latency of a call in nanoseconds.
+     */
+    public final long maxNanos;
+
+    /**
+     * Average number of bytes allocated by a call, -1 if allocations were not measured.
+     */
+    public final double allocatedBytesPerCall;
+
+    /**
+     * @param calls Number of calls
+     * @param digits Number of digits processed by the calls
+     * @param meanNanos Mean latency
+     * @param p50Nanos Median latency
+     * @param p99Nanos 99th percentile latency
+     * @param p999Nanos 99.9th percentile latency
+     * @param maxNanos Largest latency
+     * @param allocatedBytesPerCall Average bytes allocated by a call or -1
+     */
+    public OperationStats(
+            long calls,
+            long digits,
+            double meanNanos,
+            long p50Nanos,
+            long p99Nanos,
+            long p999Nanos,
+            long maxNanos,
+            double allocatedBytesPerCall
+    ) {
+        this.calls = calls;
+        this.digits = digits;
+        this.meanNanos = meanNanos;
+        this.p50Nanos = p50Nanos;
+        this.p99Nanos = p99Nanos;
+        this.p999Nanos = p999Nanos;
+        this.maxNanos = maxNanos;
+        this.allocatedBytesPerCall = allocatedBytesPerCall;
+    }
+
+}
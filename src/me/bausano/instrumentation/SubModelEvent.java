@@ -0,0 +1,31 @@
+package me.bausano.instrumentation;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event emitted around each sub model call inside a composite classifier such as the estimator. It
+ * shows how the time of one estimate splits between the sub models.
+ */
+@Name("me.bausano.SubModel")
+@Label("Sub Model")
+@Category({ "Classifier" })
+@Description("Estimate made by one sub model of a composite classifier")
+public class SubModelEvent extends Event {
+
+    /**
+     * Name of the sub model.
+     */
+    @Label("Sub Model")
+    public String subModel;
+
+    /**
+     * How many digits were estimated in the call.
+     */
+    @Label("Digits")
+    public int digits;
+
+}
@@ -0,0 +1,54 @@
+package me.bausano.instrumentation;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event emitted after each update of the weights of a network in training.
+ */
+@Name("me.bausano.TrainingBatch")
+@Label("Training Batch")
+@Category({ "Training" })
+@Description("Batch of samples committed to the weights of a network")
+public class TrainingBatchEvent extends Event {
+
+    /**
+     * Index of the epoch the batch belongs to.
+     */
+    @Label("Epoch")
+    public int epoch;
+
+    /**
+     * Index of the batch within the epoch.
+     */
+    @Label("Batch")
+    public int batch;
+
+    /**
+     * Number of samples in the batch.
+     */
+    @Label("Samples")
+    public int samples;
+
+    /**
+     * Mean loss of the samples.
+     */
+    @Label("Loss")
+    public double loss;
+
+    /**
+     * Learning rate the batch was trained with.
+     */
+    @Label("Learning Rate")
+    public double learningRate;
+
+    /**
+     * Euclidean norm of the gradient.
+     */
+    @Label("Gradient Norm")
+    public double gradientNorm;
+
+}
@@ -0,0 +1,57 @@
+package me.bausano.instrumentation;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event emitted after each epoch of a network in training. The event is committed when the epoch ends,
+ * its length is in a field rather than in the duration of the event.
+ */
+@Name("me.bausano.TrainingEpoch")
+@Label("Training Epoch")
+@Category({ "Training" })
+@Description("Pass of a network over its training data")
+public class TrainingEpochEvent extends Event {
+
+    /**
+     * Index of the epoch.
+     */
+    @Label("Epoch")
+    public int epoch;
+
+    /**
+     * How long the epoch took.
+     */
+    @Label("Epoch Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long nanos;
+
+    /**
+     * Mean loss of the samples of the epoch.
+     */
+    @Label("Loss")
+    public double loss;
+
+    /**
+     * Learning rate of the epoch.
+     */
+    @Label("Learning Rate")
+    public double learningRate;
+
+    /**
+     * Training throughput of the epoch.
+     */
+    @Label("Samples Per Second")
+    public double samplesPerSecond;
+
+    /**
+     * Mean gradient norm over the batches of the epoch.
+     */
+    @Label("Gradient Norm")
+    public double gradientNorm;
+
+}
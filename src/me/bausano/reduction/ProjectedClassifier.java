@@ -0,0 +1,148 @@
+package me.bausano.reduction;
+
+import me.bausano.algorithms.Classifier;
+
+/**
+ * Classifier of original digits that projects each digit before it hands it to a model trained on projected digits.
+ * Projected digits are written into buffers owned by the calling thread, so single digit queries do not allocate.
+ */
+public class ProjectedClassifier implements Classifier {
+
+    /**
+     * Projection the model was trained with.
+     */
+    private final Projection projection;
+
+    /**
+     * Model trained on projected digits.
+     */
+    private final Classifier model;
+
+    /**
+     * Buffers reused between queries made by the same thread.
+     */
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * @param projection Projection the model was trained with
+     * @param model Model trained on projected digits
+     */
+    public ProjectedClassifier(Projection projection, Classifier model) {
+        this.projection = projection;
+        this.model = model;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(projection.dimension() + 1));
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public int classify(double[] digit) {
+        double[] projected = scratch.get().digit;
+        projection.projectInto(digit, projected);
+
+        return model.classify(projected);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public double[] estimate(double[] digit) {
+        double[] projected = scratch.get().digit;
+        projection.projectInto(digit, projected);
+
+        return model.estimate(projected);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void estimateInto(double[] digit, double[] estimates) {
+        double[] projected = scratch.get().digit;
+        projection.projectInto(digit, projected);
+
+        model.estimateInto(projected, estimates);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void classify(double[][] digits, int[] classes) {
+        model.classify(scratch.get().project(projection, digits), classes);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void estimate(double[][] digits, double[][] estimates) {
+        model.estimate(scratch.get().project(projection, digits), estimates);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public long version() {
+        return model.version();
+    }
+
+    /**
+     * @return Model trained on projected digits
+     */
+    public Classifier unwrap() {
+        return model;
+    }
+
+    /**
+     * Buffers owned by one thread.
+     */
+    private static class Scratch {
+
+        /**
+         * Projected digit of a single digit query.
+         */
+        final double[] digit;
+
+        /**
+         * Projected digits of a batch, grown when a larger batch comes in.
+         */
+        private double[][] block = new double[0][];
+
+        /**
+         * @param length Length of a projected digit with its class
+         */
+        Scratch(int length) {
+            this.digit = new double[length];
+        }
+
+        /**
+         * Projects a batch into the block buffers.
+         *
+         * @param projection Projection to apply
+         * @param digits Original digits
+         * @return Projected digits, exactly as many as there are original digits
+         */
+        double[][] project(Projection projection, double[][] digits) {
+            if (block.length != digits.length) {
+                double[][] resized = new double[digits.length][];
+                for (int digitIndex = 0; digitIndex < digits.length; digitIndex++) {
+                    resized[digitIndex] = digitIndex < block.length
+                            ? block[digitIndex]
+                            : new double[digit.length];
+                }
+
+                block = resized;
+            }
+
+            for (int digitIndex = 0; digitIndex < digits.length; digitIndex++) {
+                projection.projectInto(digits[digitIndex], block[digitIndex]);
+            }
+
+            return block;
+        }
+
+    }
+
+}
@@ -0,0 +1,464 @@
+package me.bausano.reduction;
+
+import me.bausano.DataSet;
+import me.bausano.DataView;
+import me.bausano.Hyperparameters;
+import me.bausano.Settings;
+import me.bausano.algorithms.Algorithms;
+import me.bausano.algorithms.Classifier;
+import me.bausano.validation.CrossValidator;
+
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Projection of digits onto fewer features, fitted on the training data. Features that do not vary across the training
+ * digits, such as the border pixels and their filter maps, are dropped first. The remaining features can then be
+ * projected onto their top principal components, which captures most of the variance of the correlated pixels and
+ * filter maps in a fraction of the dimensions. Projected digits keep the class in the last slot, so any classifier
+ * trains on them as on the original digits.
+ */
+public class Projection {
+
+    /**
+     * Features whose variance is not above this threshold are considered constant.
+     */
+    private static final double VARIANCE_THRESHOLD = 1e-12;
+
+    /**
+     * Upper bound on the number of power iterations per principal component.
+     */
+    private static final int MAX_POWER_ITERATIONS = 1000;
+
+    /**
+     * Power iteration stops once the direction of the component changes less than this between two iterations.
+     */
+    private static final double CONVERGENCE_THRESHOLD = 1e-10;
+
+    /**
+     * Indices of the features that vary across the training digits.
+     */
+    private final int[] kept;
+
+    /**
+     * Mean of each kept feature over the training digits.
+     */
+    private final double[] means;
+
+    /**
+     * Unit principal components over the kept features, from the one with the largest variance. Null if the kept
+     * features are not projected.
+     */
+    private final double[][] components;
+
+    /**
+     * Variance of the training digits along each principal component, null if the kept features are not projected.
+     */
+    public final double[] explainedVariances;
+
+    /**
+     * Total variance of the training digits over all features.
+     */
+    public final double totalVariance;
+
+    /**
+     * @param kept Indices of the features that vary across the training digits
+     * @param means Mean of each kept feature
+     * @param components Principal components or null
+     * @param explainedVariances Variance along each principal component or null
+     * @param totalVariance Total variance of the training digits
+     */
+    private Projection(int[] kept, double[] means, double[][] components, double[] explainedVariances,
+                       double totalVariance) {
+        this.kept = kept;
+        this.means = means;
+        this.components = components;
+        this.explainedVariances = explainedVariances;
+        this.totalVariance = totalVariance;
+    }
+
+    /**
+     * Fits the projection that only drops the constant features.
+     *
+     * @param training Digits where the last value is the class
+     * @return Fitted projection
+     */
+    public static Projection fit(double[][] training) {
+        return fit(training, 0);
+    }
+
+    /**
+     * Fits the projection on the training digits. The principal components are the leading eigenvectors of the
+     * covariance matrix of the kept features. They are found one by one with power iteration, each found component is
+     * deflated out of the matrix before the next one is looked for.
+     *
+     * @param training Digits where the last value is the class
+     * @param dimensions How many principal components to project onto, 0 or more than there are varying features
+     *                   only drops the constant features
+     * @return Fitted projection
+     */
+    public static Projection fit(double[][] training, int dimensions) {
+        int features = DataSet.inputNeuronsOf(training);
+
+        double[] means = new double[features];
+        double[] variances = new double[features];
+        for (double[] digit : training) {
+            for (int feature = 0; feature < features; feature++) {
+                means[feature] += digit[feature];
+            }
+        }
+
+        for (int feature = 0; feature < features; feature++) {
+            means[feature] /= Math.max(1, training.length);
+        }
+
+        for (double[] digit : training) {
+            for (int feature = 0; feature < features; feature++) {
+                double deviation = digit[feature] - means[feature];
+                variances[feature] += deviation * deviation;
+            }
+        }
+
+        double totalVariance = 0d;
+        int keptCount = 0;
+        for (int feature = 0; feature < features; feature++) {
+            variances[feature] /= Math.max(1, training.length - 1);
+            totalVariance += variances[feature];
+
+            if (variances[feature] > VARIANCE_THRESHOLD) {
+                keptCount++;
+            }
+        }
+
+        int[] kept = new int[keptCount];
+        double[] keptMeans = new double[keptCount];
+        keptCount = 0;
+        for (int feature = 0; feature < features; feature++) {
+            if (variances[feature] > VARIANCE_THRESHOLD) {
+                kept[keptCount] = feature;
+                keptMeans[keptCount] = means[feature];
+                keptCount++;
+            }
+        }
+
+        if (dimensions <= 0 || dimensions >= kept.length) {
+            return new Projection(kept, keptMeans, null, null, totalVariance);
+        }
+
+        double[][] covariance = covarianceOf(training, kept, keptMeans);
+        double[][] components = new double[dimensions][];
+        double[] explainedVariances = new double[dimensions];
+        // The starting vectors are seeded, so that the same data always fit the same projection.
+        Random random = new Random(42);
+
+        for (int component = 0; component < dimensions; component++) {
+            components[component] = dominantEigenvector(covariance, random);
+            explainedVariances[component] = rayleighQuotient(covariance, components[component]);
+
+            // Removes the found component from the matrix, so that the next power iteration converges to the next one.
+            for (int row = 0; row < kept.length; row++) {
+                for (int column = 0; column < kept.length; column++) {
+                    covariance[row][column] -= explainedVariances[component]
+                            * components[component][row]
+                            * components[component][column];
+                }
+            }
+        }
+
+        return new Projection(kept, keptMeans, components, explainedVariances, totalVariance);
+    }
+
+    /**
+     * Compares the accuracy and speed of the models on the training file split by Settings.CROSSFOLD_FACTOR across
+     * projections of decreasing dimension. Arguments are the model names, separated by commas (defaults to nn,mlp),
+     * followed by the numbers of principal components to try.
+     *
+     * @param args Console arguments
+     * @throws Exception Exceptions are thrown into stdout
+     */
+    public static void main(String[] args) throws Exception {
+        String[] models = (args.length > 0 ? args[0] : "nn,mlp").split(",");
+        int[] dimensions = new int[] { 96, 64, 48, 32, 24, 16, 8 };
+        if (args.length > 1) {
+            dimensions = new int[args.length - 1];
+            for (int index = 1; index < args.length; index++) {
+                dimensions[index - 1] = Integer.parseInt(args[index]);
+            }
+        }
+
+        DataSet data = DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), Settings.CROSSFOLD_FACTOR);
+
+        System.out.println("\n> DIMENSIONALITY REDUCTION");
+        System.out.printf("%-12s %-10s", "projection", "features");
+        for (String model : models) {
+            System.out.printf(" %12s %12s", model + " accuracy", "us/digit");
+        }
+        System.out.println();
+
+        printRow("none", data.setForTraining, data.setForValidation, models, 100d);
+
+        Projection constant = Projection.fit(data.setForTraining);
+        printRow(
+                "variance",
+                constant.project(data.setForTraining),
+                constant.project(data.setForValidation),
+                models,
+                100d
+        );
+
+        for (int dimension : dimensions) {
+            Projection projection = Projection.fit(data.setForTraining, dimension);
+            printRow(
+                    "pca",
+                    projection.project(data.setForTraining),
+                    projection.project(data.setForValidation),
+                    models,
+                    projection.explainedVarianceRatio() * 100d
+            );
+        }
+    }
+
+    /**
+     * @return Number of features of the projected digits, without the class
+     */
+    public int dimension() {
+        return components == null ? kept.length : components.length;
+    }
+
+    /**
+     * @return Portion of the total variance of the training digits that the projection keeps, in range 0 - 1
+     */
+    public double explainedVarianceRatio() {
+        if (components == null) {
+            return 1d;
+        }
+
+        double explained = 0d;
+        for (double variance : explainedVariances) {
+            explained += variance;
+        }
+
+        return totalVariance == 0d ? 1d : explained / totalVariance;
+    }
+
+    /**
+     * Projects one digit.
+     *
+     * @param digit Digit with the features the projection was fitted on, where the last value is the class
+     * @return New projected digit, where the last value is the class
+     */
+    public double[] project(double[] digit) {
+        double[] projected = new double[dimension() + 1];
+        projectInto(digit, projected);
+
+        return projected;
+    }
+
+    /**
+     * Projects each digit into a new array.
+     *
+     * @param digits Digits with the features the projection was fitted on
+     * @return New projected digits
+     */
+    public double[][] project(double[][] digits) {
+        double[][] projected = new double[digits.length][];
+        for (int digitIndex = 0; digitIndex < digits.length; digitIndex++) {
+            projected[digitIndex] = project(digits[digitIndex]);
+        }
+
+        return projected;
+    }
+
+    /**
+     * Projects one digit into a buffer, so that queries can project without allocating.
+     *
+     * @param digit Digit with the features the projection was fitted on, where the last value is the class
+     * @param projected Buffer of length dimension() + 1 to write the projected digit to, class included
+     */
+    public void projectInto(double[] digit, double[] projected) {
+        projected[projected.length - 1] = digit[digit.length - 1];
+
+        // Without components the kept features are copied as they are, so that distances between digits do not change.
+        if (components == null) {
+            for (int index = 0; index < kept.length; index++) {
+                projected[index] = digit[kept[index]];
+            }
+
+            return;
+        }
+
+        for (int component = 0; component < components.length; component++) {
+            double[] direction = components[component];
+            double sum = 0d;
+
+            for (int index = 0; index < kept.length; index++) {
+                sum += direction[index] * (digit[kept[index]] - means[index]);
+            }
+
+            projected[component] = sum;
+        }
+    }
+
+    /**
+     * Wraps a model trained on projected digits, so that it can be queried with the original digits.
+     *
+     * @param model Model trained on digits projected by this projection
+     * @return Classifier of original digits
+     */
+    public Classifier wrap(Classifier model) {
+        return new ProjectedClassifier(this, model);
+    }
+
+    /**
+     * Trains the models on the training digits and prints one row of the report.
+     *
+     * @param title Name of the projection
+     * @param training Training digits
+     * @param validation Validation digits
+     * @param models Names of the models
+     * @param explained Percentage of the variance the projection keeps
+     */
+    private static void printRow(String title, double[][] training, double[][] validation, String[] models,
+                                 double explained) {
+        System.out.printf("%-12s %-10s", title, String.format("%d (%.0f%%)", training[0].length - 1, explained));
+
+        for (String model : models) {
+            Classifier classifier = Algorithms.train(model, training, Hyperparameters.defaults());
+
+            // Warms up the classifier before it is timed.
+            CrossValidator.accuracy(classifier, DataView.of(validation));
+            long start = System.nanoTime();
+            double accuracy = CrossValidator.accuracy(classifier, DataView.of(validation));
+            double micros = (System.nanoTime() - start) / 1e3d / validation.length;
+
+            System.out.printf(" %10.2f %% %12.1f", accuracy * 100d, micros);
+        }
+
+        System.out.println();
+    }
+
+    /**
+     * @param training Training digits
+     * @param kept Indices of the features to include
+     * @param means Mean of each included feature
+     * @return Sample covariance matrix of the included features
+     */
+    private static double[][] covarianceOf(double[][] training, int[] kept, double[] means) {
+        double[][] covariance = new double[kept.length][kept.length];
+        double[] deviations = new double[kept.length];
+
+        for (double[] digit : training) {
+            for (int index = 0; index < kept.length; index++) {
+                deviations[index] = digit[kept[index]] - means[index];
+            }
+
+            // The matrix is symmetric, so only the upper triangle is accumulated.
+            for (int row = 0; row < kept.length; row++) {
+                double deviation = deviations[row];
+                double[] covarianceRow = covariance[row];
+
+                for (int column = row; column < kept.length; column++) {
+                    covarianceRow[column] += deviation * deviations[column];
+                }
+            }
+        }
+
+        for (int row = 0; row < kept.length; row++) {
+            for (int column = row; column < kept.length; column++) {
+                covariance[row][column] /= Math.max(1, training.length - 1);
+                covariance[column][row] = covariance[row][column];
+            }
+        }
+
+        return covariance;
+    }
+
+    /**
+     * Finds the eigenvector with the largest eigenvalue by repeatedly multiplying a vector by the matrix.
+     *
+     * @param matrix Symmetric positive semi-definite matrix
+     * @param random Source of the starting vector
+     * @return Unit eigenvector
+     */
+    private static double[] dominantEigenvector(double[][] matrix, Random random) {
+        double[] vector = new double[matrix.length];
+        for (int index = 0; index < vector.length; index++) {
+            vector[index] = random.nextGaussian();
+        }
+        normalize(vector);
+
+        double[] next = new double[matrix.length];
+        for (int iteration = 0; iteration < MAX_POWER_ITERATIONS; iteration++) {
+            for (int row = 0; row < matrix.length; row++) {
+                double sum = 0d;
+                for (int column = 0; column < matrix.length; column++) {
+                    sum += matrix[row][column] * vector[column];
+                }
+                next[row] = sum;
+            }
+
+            // The rest of the matrix is zero, any unit vector is an eigenvector then.
+            if (normalize(next) == 0d) {
+                return vector;
+            }
+
+            double alignment = 0d;
+            for (int index = 0; index < vector.length; index++) {
+                alignment += vector[index] * next[index];
+            }
+
+            double[] previous = vector;
+            vector = next;
+            next = previous;
+
+            if (1d - Math.abs(alignment) < CONVERGENCE_THRESHOLD) {
+                break;
+            }
+        }
+
+        return vector;
+    }
+
+    /**
+     * @param matrix Symmetric matrix
+     * @param vector Unit vector
+     * @return Variance along the vector, which is its eigenvalue if it's an eigenvector
+     */
+    private static double rayleighQuotient(double[][] matrix, double[] vector) {
+        double quotient = 0d;
+        for (int row = 0; row < matrix.length; row++) {
+            double sum = 0d;
+            for (int column = 0; column < matrix.length; column++) {
+                sum += matrix[row][column] * vector[column];
+            }
+            quotient += vector[row] * sum;
+        }
+
+        return quotient;
+    }
+
+    /**
+     * Scales the vector to unit length in place.
+     *
+     * @param vector Vector to scale
+     * @return Length of the vector before scaling
+     */
+    private static double normalize(double[] vector) {
+        double squares = 0d;
+        for (double value : vector) {
+            squares += value * value;
+        }
+
+        double length = Math.sqrt(squares);
+        if (length == 0d) {
+            return 0d;
+        }
+
+        for (int index = 0; index < vector.length; index++) {
+            vector[index] /= length;
+        }
+
+        return length;
+    }
+
+}
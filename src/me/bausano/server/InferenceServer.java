@@ -0,0 +1,206 @@
+package me.bausano.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import me.bausano.DataSet;
+import me.bausano.Hyperparameters;
+import me.bausano.Settings;
+import me.bausano.algorithms.Algorithms;
+import me.bausano.algorithms.Classifier;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+public class InferenceServer implements AutoCloseable {
+
+    /**
+     * Path the digits are posted to.
+     */
+    public static final String CLASSIFY_PATH = "/classify";
+
+    /**
+     * Underlying JDK server.
+     */
+    private final HttpServer server;
+
+    /**
+     * Executor that handles the requests.
+     */
+    private final ExecutorService requestExecutor;
+
+    /**
+     * Forms the batches for the classifier.
+     */
+    private final MicroBatcher batcher;
+
+    /**
+     * @param classifier Model that classifies the digits
+     * @param port Local port to listen on, 0 picks any free port
+     * @throws IOException If the server cannot bind the port
+     */
+    public InferenceServer(Classifier classifier, int port) throws IOException {
+        this.batcher = new MicroBatcher(
+                classifier,
+                Settings.MAX_BATCH_SIZE,
+                Settings.MAX_BATCH_WAIT_MICROS,
+                Settings.BATCH_QUEUE_CAPACITY,
+                Runtime.getRuntime().availableProcessors()
+        );
+        this.requestExecutor = newRequestExecutor();
+
+        // The server only listens on the loopback interface, it is meant to sit next to the service that uses it.
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext(CLASSIFY_PATH, this::handle);
+        this.server.setExecutor(requestExecutor);
+        this.server.start();
+    }
+
+    /**
+     * Starts the server with a model trained on the training data. The first argument picks the model (nn, mlp or
+     * estimator, defaults to nn) and the second one the port.
+     *
+     * @param args Console arguments
+     * @throws Exception Exceptions are thrown into stdout
+     */
+    public static void main(String[] args) throws Exception {
+        String model = args.length > 0 ? args[0] : "nn";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : Settings.SERVER_PORT;
+
+        DataSet inputData = DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), -1);
+        InferenceServer server = new InferenceServer(
+                Algorithms.train(model, inputData.setForTraining, Hyperparameters.defaults()),
+                port
+        );
+
+        System.out.printf("Serving %s on http://localhost:%d%s\n", model, server.port(), CLASSIFY_PATH);
+    }
+
+    /**
+     * @return Port the server listens on
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return Batcher the server dispatches digits to
+     */
+    public MicroBatcher batcher() {
+        return batcher;
+    }
+
+    /**
+     * Stops the server and lets the batcher classify the digits that have already been queued.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        batcher.close();
+        requestExecutor.shutdown();
+    }
+
+    /**
+     * Handles one request. The body holds one digit per line in the same format as the data files, the class at the
+     * end of the line is optional. The response holds one class per line in the same order.
+     *
+     * @param exchange Request and response
+     * @throws IOException If the client goes away
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "Digits have to be posted.\n");
+            return;
+        }
+
+        // The whole body is parsed before anything is queued, so a malformed line does not leave digits behind.
+        List<double[]> digits = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)
+        )) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+
+                digits.add(DataSet.parseDigit(line));
+            }
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, e.getMessage() + "\n");
+            return;
+        }
+
+        List<CompletableFuture<Integer>> results;
+        try {
+            results = batcher.submitAll(digits);
+        } catch (RejectedExecutionException e) {
+            // Tells the client to back off. None of its digits were queued.
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            respond(exchange, 503, e.getMessage() + "\n");
+            return;
+        }
+
+        StringBuilder response = new StringBuilder();
+        try {
+            for (CompletableFuture<Integer> result : results) {
+                response.append(result.get()).append('\n');
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, "The server is shutting down.\n");
+            return;
+        } catch (ExecutionException e) {
+            respond(exchange, 500, e.getCause().getMessage() + "\n");
+            return;
+        }
+
+        respond(exchange, 200, response.toString());
+    }
+
+    /**
+     * Writes a plain text response and closes the exchange.
+     *
+     * @param exchange Request and response
+     * @param status HTTP status code
+     * @param body Response body
+     * @throws IOException If the client goes away
+     */
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Handlers spend most of their time waiting for the batch of their digits, so each request gets its own virtual
+     * thread. Virtual threads only exist since Java 21, hence they are looked up reflectively and older runtimes fall
+     * back to a cached pool of platform threads.
+     *
+     * @return Executor that runs each request in its own thread
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package me.bausano.server;
+
+import me.bausano.Settings;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LoadGenerator {
+
+    /**
+     * Sends digits from the testing data to a running inference server from many concurrent clients and reports the
+     * throughput and latency. Arguments are the port, number of concurrent clients, number of requests per client and
+     * number of digits per request.
+     *
+     * @param args Console arguments
+     * @throws Exception Exceptions are thrown into stdout
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Settings.SERVER_PORT;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int requestsPerClient = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int digitsPerRequest = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+
+        String[] lines = Files.lines(Paths.get(Settings.TESTING_FILE_PATH))
+                .map(String::trim)
+                .filter((String line) -> !line.equals(""))
+                .toArray(String[]::new);
+
+        URI uri = URI.create("http://localhost:" + port + InferenceServer.CLASSIFY_PATH);
+        HttpClient client = HttpClient.newHttpClient();
+
+        // Latencies are stored per request into a shared array, each client owns its own slice.
+        long[] latencies = new long[clients * requestsPerClient];
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+
+        ExecutorService executor = InferenceServer.newRequestExecutor();
+        long start = System.nanoTime();
+
+        for (int clientIndex = 0; clientIndex < clients; clientIndex++) {
+            int offset = clientIndex * requestsPerClient;
+
+            executor.execute(() -> {
+                for (int requestIndex = 0; requestIndex < requestsPerClient; requestIndex++) {
+                    // Builds the body out of consecutive digits so that each client sends different ones.
+                    StringBuilder body = new StringBuilder();
+                    for (int digitIndex = 0; digitIndex < digitsPerRequest; digitIndex++) {
+                        int lineIndex = (offset + requestIndex * digitsPerRequest + digitIndex) % lines.length;
+                        body.append(lines[lineIndex]).append('\n');
+                    }
+
+                    HttpRequest request = HttpRequest.newBuilder(uri)
+                            .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                            .build();
+
+                    long sent = System.nanoTime();
+                    try {
+                        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                        if (response.statusCode() == 503) {
+                            rejected.incrementAndGet();
+                        } else if (response.statusCode() != 200) {
+                            failed.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                    }
+
+                    latencies[offset + requestIndex] = System.nanoTime() - sent;
+                }
+            });
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        double seconds = (System.nanoTime() - start) / 1e9d;
+
+        Arrays.sort(latencies);
+        System.out.printf(
+                "\n> LOAD\n%d clients, %d requests, %d digits per request in %.2f s\n" +
+                        "Throughput %.0f digits/s, rejected %d, failed %d\n" +
+                        "Latency p50 %.3f ms, p99 %.3f ms, max %.3f ms\n",
+                clients,
+                latencies.length,
+                digitsPerRequest,
+                seconds,
+                latencies.length * digitsPerRequest / seconds,
+                rejected.get(),
+                failed.get(),
+                latencies[latencies.length / 2] / 1e6d,
+                latencies[(int) (latencies.length * 0.99)] / 1e6d,
+                latencies[latencies.length - 1] / 1e6d
+        );
+    }
+
+}
@@ -0,0 +1,310 @@
+package me.bausano.server;
+
+import me.bausano.algorithms.Classifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class MicroBatcher implements AutoCloseable {
+
+    /**
+     * How long an idle dispatcher waits for a digit before it checks whether the batcher has been closed.
+     */
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    /**
+     * Model that classifies the batches.
+     */
+    private final Classifier classifier;
+
+    /**
+     * Upper bound on the number of digits in one batch.
+     */
+    private final int maxBatchSize;
+
+    /**
+     * Upper bound on how long the first digit of a batch waits for the batch to fill up.
+     */
+    private final long maxWaitNanos;
+
+    /**
+     * Digits waiting to be batched. The queue is bounded, so that overload turns into rejections rather than memory.
+     */
+    private final BlockingQueue<PendingDigit> queue;
+
+    /**
+     * Threads that form batches and run them through the classifier.
+     */
+    private final Thread[] dispatchers;
+
+    /**
+     * Number of batches dispatched so far.
+     */
+    private final LongAdder batches = new LongAdder();
+
+    /**
+     * Number of digits dispatched so far.
+     */
+    private final LongAdder digits = new LongAdder();
+
+    /**
+     * Cleared when the batcher is closed. Dispatchers finish the queued digits before they exit.
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Submits hold the read lock from checking that the batcher runs until the digit is queued, close takes the write
+     * lock to clear the flag. A digit is therefore either queued before the dispatchers can see the batcher closed, or
+     * rejected, it never lands in the queue after they have left.
+     */
+    private final ReadWriteLock lifecycle = new ReentrantReadWriteLock();
+
+    /**
+     * @param classifier Model that classifies the batches, has to be safe to call from several dispatchers at once
+     * @param maxBatchSize Upper bound on the number of digits in one batch
+     * @param maxWaitMicros Upper bound on how long a digit waits for its batch to fill up
+     * @param queueCapacity How many digits can wait before new ones are rejected
+     * @param dispatcherCount How many batches can be classified at the same time
+     */
+    public MicroBatcher(
+            Classifier classifier,
+            int maxBatchSize,
+            long maxWaitMicros,
+            int queueCapacity,
+            int dispatcherCount
+    ) {
+        this.classifier = classifier;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.dispatchers = new Thread[dispatcherCount];
+
+        for (int dispatcherIndex = 0; dispatcherIndex < dispatcherCount; dispatcherIndex++) {
+            dispatchers[dispatcherIndex] = new Thread(this::dispatch, "micro-batcher-" + dispatcherIndex);
+            dispatchers[dispatcherIndex].setDaemon(true);
+            dispatchers[dispatcherIndex].start();
+        }
+    }
+
+    /**
+     * Queues the digit for classification. The call never blocks, if the queue is full the digit is rejected straight
+     * away and it's up to the caller to retry later.
+     *
+     * @param digit Digit to classify
+     * @return Future that completes with the class of the digit
+     * @throws RejectedExecutionException If the queue is full or the batcher has been closed
+     */
+    public CompletableFuture<Integer> submit(double[] digit) {
+        PendingDigit pending = new PendingDigit(digit);
+
+        lifecycle.readLock().lock();
+        try {
+            if (!running) {
+                throw new RejectedExecutionException("The batcher has been closed.");
+            }
+
+            if (!queue.offer(pending)) {
+                throw new RejectedExecutionException("The batching queue is full.");
+            }
+        } finally {
+            lifecycle.readLock().unlock();
+        }
+
+        return pending.result;
+    }
+
+    /**
+     * Queues all the digits or none of them. Offering them one by one could queue the first few and reject the rest,
+     * which spends the queue on digits nobody waits for anymore. The call never blocks.
+     *
+     * @param digits Digits to classify
+     * @return Futures that complete with the classes of the digits, in the same order
+     * @throws RejectedExecutionException If the digits do not fit the queue or the batcher has been closed
+     */
+    public List<CompletableFuture<Integer>> submitAll(List<double[]> digits) {
+        List<PendingDigit> pending = new ArrayList<>(digits.size());
+        for (double[] digit : digits) {
+            pending.add(new PendingDigit(digit));
+        }
+
+        // The write lock keeps other submits out, and dispatchers only ever free space, so the digits that fit when
+        // the capacity is checked still fit when they are offered.
+        lifecycle.writeLock().lock();
+        try {
+            if (!running) {
+                throw new RejectedExecutionException("The batcher has been closed.");
+            }
+
+            if (queue.remainingCapacity() < pending.size()) {
+                throw new RejectedExecutionException("The batching queue is full.");
+            }
+
+            queue.addAll(pending);
+        } finally {
+            lifecycle.writeLock().unlock();
+        }
+
+        List<CompletableFuture<Integer>> results = new ArrayList<>(pending.size());
+        for (PendingDigit digit : pending) {
+            results.add(digit.result);
+        }
+
+        return results;
+    }
+
+    /**
+     * @return Average number of digits in a dispatched batch
+     */
+    public double averageBatchSize() {
+        long dispatchedBatches = batches.sum();
+
+        return dispatchedBatches == 0 ? 0d : (double) digits.sum() / dispatchedBatches;
+    }
+
+    /**
+     * @return Number of digits waiting in the queue
+     */
+    public int queuedDigits() {
+        return queue.size();
+    }
+
+    /**
+     * Stops accepting new digits and waits for the dispatchers to classify the queued ones. If the calling thread is
+     * interrupted while it waits, or a dispatcher was interrupted, the digits left in the queue are failed rather than
+     * left waiting forever, and the interrupt is kept for the caller.
+     */
+    @Override
+    public void close() {
+        lifecycle.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            lifecycle.writeLock().unlock();
+        }
+
+        try {
+            for (Thread dispatcher : dispatchers) {
+                dispatcher.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<PendingDigit> leftovers = new ArrayList<>();
+        queue.drainTo(leftovers);
+        for (PendingDigit pending : leftovers) {
+            pending.result.completeExceptionally(new RejectedExecutionException("The batcher has been closed."));
+        }
+    }
+
+    /**
+     * Dispatcher loop. Takes the first digit that arrives and then keeps adding digits to the batch until it is full
+     * or until the first digit has waited for the maximum wait time.
+     */
+    private void dispatch() {
+        List<PendingDigit> batch = new ArrayList<>(maxBatchSize);
+
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingDigit first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                long deadline = System.nanoTime() + maxWaitNanos;
+
+                while (batch.size() < maxBatchSize) {
+                    // Takes everything that is already waiting without blocking.
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() == maxBatchSize || remaining <= 0) {
+                        break;
+                    }
+
+                    // Waits for the next digit but never past the deadline of the first one.
+                    PendingDigit next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+
+            if (!batch.isEmpty()) {
+                classifyBatch(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Runs the batch through the batched path of the classifier and completes the futures of its digits.
+     *
+     * @param batch Digits to classify
+     */
+    private void classifyBatch(List<PendingDigit> batch) {
+        double[][] block = new double[batch.size()][];
+        int[] classes = new int[batch.size()];
+
+        for (int digitIndex = 0; digitIndex < block.length; digitIndex++) {
+            block[digitIndex] = batch.get(digitIndex).digit;
+        }
+
+        try {
+            classifier.classify(block, classes);
+        } catch (RuntimeException e) {
+            // A failing batch must not leave its clients waiting forever.
+            for (PendingDigit pending : batch) {
+                pending.result.completeExceptionally(e);
+            }
+
+            return;
+        }
+
+        for (int digitIndex = 0; digitIndex < block.length; digitIndex++) {
+            batch.get(digitIndex).result.complete(classes[digitIndex]);
+        }
+
+        batches.increment();
+        digits.add(block.length);
+    }
+
+    /**
+     * Digit waiting in the queue together with the future of its class.
+     */
+    private static class PendingDigit {
+
+        /**
+         * Digit to classify.
+         */
+        final double[] digit;
+
+        /**
+         * Completed by the dispatcher once the batch with the digit has been classified.
+         */
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        /**
+         * @param digit Digit to classify
+         */
+        PendingDigit(double[] digit) {
+            this.digit = digit;
+        }
+
+    }
+
+}
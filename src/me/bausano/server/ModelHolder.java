@@ -0,0 +1,286 @@
+package me.bausano.server;
+
+import me.bausano.DataView;
+import me.bausano.algorithms.Classifier;
+import me.bausano.validation.Evaluation;
+import me.bausano.validation.Evaluator;
+
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Classifier that serves a published model while a copy of it retrains in the background. The trainers change the
+ * weights of a model in place, so the published model is never trained. Retraining copies it, trains the copy on a
+ * background thread and publishes the copy by swapping one atomic reference. Readers take the reference once per call
+ * without any lock, so a call is answered wholly by the old model or wholly by the new one. The swap is a volatile
+ * write, so a reader that sees the new model sees all of its weights as the trainer left them.
+ *
+ * A published model must not be changed by anyone, the holder relies on it staying as it was published.
+ *
+ * @param <T> Type of the served model
+ */
+public class ModelHolder<T extends Classifier> implements Classifier, AutoCloseable {
+
+    /**
+     * Model that answers the calls.
+     */
+    private final AtomicReference<Snapshot<T>> published;
+
+    /**
+     * Deep clones a model, such as NeuralNetwork::copy.
+     */
+    private final UnaryOperator<T> copier;
+
+    /**
+     * Single thread that retrains the copies one at a time, so that retraining never takes more than one core from the
+     * readers.
+     */
+    private final ExecutorService retrainer;
+
+    /**
+     * Number of retrained models that were not published.
+     */
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * Futures of the retrainings that have not finished yet. Closing the holder drops the queued retrainings without
+     * running them, so their futures are completed here instead.
+     */
+    private final Set<CompletableFuture<Boolean>> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param model Model to serve until the first retrained one is published
+     * @param copier Deep clones a model, such as NeuralNetwork::copy
+     */
+    public ModelHolder(T model, UnaryOperator<T> copier) {
+        this.published = new AtomicReference<>(new Snapshot<>(model, null));
+        this.copier = copier;
+        this.retrainer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "model-retrainer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return Model that answers the calls at the moment, which the caller must not change
+     */
+    public T current() {
+        return published.get().model;
+    }
+
+    /**
+     * Publishes a model that was trained elsewhere, without any gate. Calls that already hold the previous model finish
+     * with it.
+     *
+     * @param model Model to serve from now on, which no one may change afterwards
+     */
+    public void publish(T model) {
+        published.updateAndGet(previous -> new Snapshot<>(model, previous));
+    }
+
+    /**
+     * Retrains a copy of the served model in the background and publishes it once it is trained.
+     *
+     * @param training Trains the copy in place, for example by a Trainer
+     * @return Future that completes with whether the copy was published
+     */
+    public CompletableFuture<Boolean> retrain(Consumer<? super T> training) {
+        return retrain(training, null, 0d);
+    }
+
+    /**
+     * Retrains a copy of the served model in the background and publishes it only if it is at most tolerance less
+     * accurate on the validation digits than the served model. Both are scored in one pass of the evaluator on the
+     * retraining thread. The copy is not published either if another model was published while it trained, as it
+     * would replace a model it was not trained from.
+     *
+     * @param training Trains the copy in place, for example by a Trainer
+     * @param validation Digits both models are scored on, or null to publish without the gate
+     * @param tolerance How much accuracy the retrained model may lose against the served one, 0.01 is one percent
+     * @return Future that completes with whether the copy was published, with a CancellationException if the holder is
+     * closed before the retraining finishes or with a RejectedExecutionException if it has been closed already
+     */
+    public CompletableFuture<Boolean> retrain(Consumer<? super T> training, DataView validation, double tolerance) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        // Registered before it is queued, so a concurrent close either completes it or rejects the queueing.
+        pending.add(result);
+        result.whenComplete((outcome, throwable) -> pending.remove(result));
+
+        try {
+            retrainer.execute(() -> {
+                try {
+                    result.complete(retrainCopy(training, validation, tolerance));
+                } catch (Throwable throwable) {
+                    result.completeExceptionally(throwable);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Trains a copy of the served model and publishes it if it passes the gate, on the retraining thread.
+     *
+     * @param training Trains the copy in place, for example by a Trainer
+     * @param validation Digits both models are scored on, or null to publish without the gate
+     * @param tolerance How much accuracy the retrained model may lose against the served one, 0.01 is one percent
+     * @return Whether the copy was published
+     */
+    private boolean retrainCopy(Consumer<? super T> training, DataView validation, double tolerance) {
+        Snapshot<T> base = published.get();
+        T candidate = copier.apply(base.model);
+        training.accept(candidate);
+
+        // The holder has been closed while the copy trained.
+        if (Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+
+        if (validation != null) {
+            Evaluation[] evaluations = new Evaluator(1, 1).evaluate(
+                    new String[] { "served", "retrained" },
+                    new Classifier[] { base.model, candidate },
+                    validation
+            );
+
+            if (evaluations[1].accuracy() < evaluations[0].accuracy() - tolerance) {
+                rejections.incrementAndGet();
+                return false;
+            }
+        }
+
+        if (!published.compareAndSet(base, new Snapshot<>(candidate, base))) {
+            rejections.incrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return Number of retrained models that were not published, by the gate or because another model was published
+     */
+    public long rejections() {
+        return rejections.get();
+    }
+
+    /**
+     * Grows with every published model, and with the served model's own version should it change anyway.
+     *
+     * @inheritDoc
+     */
+    @Override
+    public long version() {
+        Snapshot<T> snapshot = published.get();
+
+        return snapshot.version + snapshot.model.version() - snapshot.modelVersion;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public int classify(double[] digit) {
+        return published.get().model.classify(digit);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public double[] estimate(double[] digit) {
+        return published.get().model.estimate(digit);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void estimateInto(double[] digit, double[] estimates) {
+        published.get().model.estimateInto(digit, estimates);
+    }
+
+    /**
+     * The whole block is answered by the same model.
+     *
+     * @inheritDoc
+     */
+    @Override
+    public void classify(double[][] digits, int[] classes) {
+        published.get().model.classify(digits, classes);
+    }
+
+    /**
+     * The whole block is answered by the same model.
+     *
+     * @inheritDoc
+     */
+    @Override
+    public void estimate(double[][] digits, double[][] estimates) {
+        published.get().model.estimate(digits, estimates);
+    }
+
+    /**
+     * Stops the retraining thread. A retraining that is under way is interrupted and its model is not published. A
+     * Trainer stops after its current epoch, other trainings run to their end. The futures of the retrainings that are
+     * under way or queued complete with a CancellationException straight away.
+     */
+    @Override
+    public void close() {
+        retrainer.shutdownNow();
+
+        for (CompletableFuture<Boolean> result : pending) {
+            result.completeExceptionally(new CancellationException("The model holder has been closed."));
+        }
+    }
+
+    /**
+     * Published model with the version of the holder it was published at.
+     *
+     * @param <T> Type of the model
+     */
+    private static class Snapshot<T extends Classifier> {
+
+        /**
+         * Model that answers the calls.
+         */
+        final T model;
+
+        /**
+         * Version of the holder when the model was published, one more than the version before.
+         */
+        final long version;
+
+        /**
+         * Version of the model itself when it was published.
+         */
+        final long modelVersion;
+
+        /**
+         * @param model Model to publish
+         * @param previous Snapshot the model replaces or null for the first one
+         */
+        Snapshot(T model, Snapshot<T> previous) {
+            this.model = model;
+            this.version = previous == null
+                    ? 0
+                    : previous.version + previous.model.version() - previous.modelVersion + 1;
+            this.modelVersion = model.version();
+        }
+    }
+
+}
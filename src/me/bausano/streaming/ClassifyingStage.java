@@ -0,0 +1,153 @@
+package me.bausano.streaming;
+
+import me.bausano.algorithms.Classifier;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * Pipeline stage that classifies the digits in blocks through the batched path of the classifier and publishes their
+ * classes one by one in the same order. A block is classified once it is full or once the stage has caught up with the
+ * digits published upstream, so a fast stream is classified in full blocks while a slow one still gets each class
+ * straight away.
+ */
+class ClassifyingStage extends SubmissionPublisher<Integer> implements Flow.Processor<double[], Integer> {
+
+    /**
+     * Model that classifies the digits.
+     */
+    private final Classifier classifier;
+
+    /**
+     * Stage the digits come from.
+     */
+    private final MappingStage<?, double[]> upstream;
+
+    /**
+     * Digits of the block being collected, only the first count are valid.
+     */
+    private final double[][] block;
+
+    /**
+     * Classes of a full block.
+     */
+    private final int[] classes;
+
+    /**
+     * Number of digits in the block being collected.
+     */
+    private int count;
+
+    /**
+     * Number of digits received so far.
+     */
+    private long received;
+
+    /**
+     * Number of classes published so far.
+     */
+    private volatile long published;
+
+    /**
+     * Subscription to the upstream stage.
+     */
+    private Flow.Subscription subscription;
+
+    /**
+     * @param classifier Model that classifies the digits
+     * @param upstream Stage the digits come from
+     * @param blockSize Upper bound on the number of digits classified at once
+     * @param executor Executor that delivers the classes to the downstream stage
+     * @param bufferSize How many classes can wait for the downstream stage
+     */
+    ClassifyingStage(
+            Classifier classifier,
+            MappingStage<?, double[]> upstream,
+            int blockSize,
+            Executor executor,
+            int bufferSize
+    ) {
+        super(executor, bufferSize);
+        this.classifier = classifier;
+        this.upstream = upstream;
+        this.block = new double[Math.max(1, blockSize)][];
+        this.classes = new int[block.length];
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(double[] digit) {
+        block[count++] = digit;
+        received++;
+
+        // Digits that have been published upstream are on their way, so the block only waits for them.
+        if (count == block.length || received >= upstream.published()) {
+            if (!classifyBlock()) {
+                return;
+            }
+        }
+
+        subscription.request(1);
+    }
+
+    /**
+     * Unlike the lag estimate of the publisher, this does not take the publisher's lock, which is held while a
+     * submission waits for space.
+     *
+     * @return Number of classes published so far
+     */
+    long published() {
+        return published;
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        closeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        if (count > 0 && !classifyBlock()) {
+            return;
+        }
+
+        close();
+    }
+
+    /**
+     * Classifies the collected digits and publishes their classes.
+     *
+     * @return Whether the block was classified, the pipeline is failed otherwise
+     */
+    private boolean classifyBlock() {
+        double[][] digits = count == block.length ? block : Arrays.copyOf(block, count);
+
+        try {
+            classifier.classify(digits, classes);
+        } catch (RuntimeException e) {
+            // Fails the rest of the pipeline and stops taking digits.
+            subscription.cancel();
+            closeExceptionally(e);
+            return false;
+        }
+
+        for (int digitIndex = 0; digitIndex < count; digitIndex++) {
+            submit(classes[digitIndex]);
+            published++;
+        }
+
+        // Lets go of the digits, the block only holds references.
+        Arrays.fill(block, 0, count, null);
+        count = 0;
+
+        return true;
+    }
+
+}
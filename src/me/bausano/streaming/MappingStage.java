@@ -0,0 +1,89 @@
+package me.bausano.streaming;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.function.Function;
+
+/**
+ * Pipeline stage that maps each item it receives and passes the result on. It asks upstream for one item at a time and
+ * its own submissions block while the downstream buffer is full, so a slow stage slows down everything before it
+ * instead of letting the buffers grow. Items the mapper maps to null are dropped, which lets a stage skip items it
+ * cannot handle without failing the whole pipeline.
+ *
+ * @param <T> Type of the received items
+ * @param <R> Type of the published items
+ */
+class MappingStage<T, R> extends SubmissionPublisher<R> implements Flow.Processor<T, R> {
+
+    /**
+     * Work of the stage, returns null for items to drop.
+     */
+    private final Function<T, R> mapper;
+
+    /**
+     * Subscription to the upstream stage.
+     */
+    private Flow.Subscription subscription;
+
+    /**
+     * Number of items published so far.
+     */
+    private volatile long published;
+
+    /**
+     * @param mapper Work of the stage, returns null for items to drop
+     * @param executor Executor that delivers the published items to the downstream stage
+     * @param bufferSize How many items can wait for the downstream stage
+     */
+    MappingStage(Function<T, R> mapper, Executor executor, int bufferSize) {
+        super(executor, bufferSize);
+        this.mapper = mapper;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(T item) {
+        R result;
+        try {
+            result = mapper.apply(item);
+        } catch (RuntimeException e) {
+            // Fails the rest of the pipeline and stops taking items.
+            subscription.cancel();
+            closeExceptionally(e);
+            return;
+        }
+
+        if (result != null) {
+            submit(result);
+            published++;
+        }
+        subscription.request(1);
+    }
+
+    /**
+     * Unlike the lag estimate of the publisher, this does not take the publisher's lock, which is held while a
+     * submission waits for space.
+     *
+     * @return Number of items published so far
+     */
+    long published() {
+        return published;
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        closeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        close();
+    }
+
+}
@@ -0,0 +1,248 @@
+package me.bausano.streaming;
+
+import me.bausano.DataSet;
+import me.bausano.Hyperparameters;
+import me.bausano.Settings;
+import me.bausano.algorithms.Algorithms;
+import me.bausano.algorithms.Classifier;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Classifies an unbounded stream of digits with constant memory. Reading, parsing and filter mapping, classification
+ * and writing run as separate stages, each on its own thread, connected by bounded buffers. While one digit is being
+ * classified the next ones are already read and parsed, and the results are written as soon as they are known.
+ * Digits are classified in blocks through the batched path of the classifier. Lines that do not parse are skipped and
+ * counted rather than failing the stream, so the output holds one class for each well formed line.
+ */
+public class StreamingPipeline {
+
+    /**
+     * Model that classifies the digits.
+     */
+    private final Classifier classifier;
+
+    /**
+     * How many items can wait between two stages.
+     */
+    private final int bufferSize;
+
+    /**
+     * Number of lines skipped because they did not hold a digit, over all runs.
+     */
+    private final LongAdder malformedLines = new LongAdder();
+
+    /**
+     * @param classifier Model that classifies the digits
+     * @param bufferSize How many items can wait between two stages
+     */
+    public StreamingPipeline(Classifier classifier, int bufferSize) {
+        this.classifier = classifier;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @param classifier Model that classifies the digits
+     */
+    public StreamingPipeline(Classifier classifier) {
+        this(classifier, Settings.STREAM_BUFFER_SIZE);
+    }
+
+    /**
+     * Classifies digits from a file, or from the standard input if the path is -, and writes their classes to the
+     * standard output. Arguments are the name of the algorithm (nn, mlp or estimator, defaults to nn) and the path.
+     *
+     * @param args Console arguments
+     * @throws Exception Exceptions are thrown into stdout
+     */
+    public static void main(String[] args) throws Exception {
+        String model = args.length > 0 ? args[0] : "nn";
+        String path = args.length > 1 ? args[1] : "-";
+
+        Classifier classifier = Algorithms.train(
+                model,
+                DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), -1).setForTraining,
+                Hyperparameters.defaults()
+        );
+
+        BufferedReader input = path.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8);
+        Writer output = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+
+        StreamingPipeline pipeline = new StreamingPipeline(classifier);
+        long count = pipeline.run(input, output).get();
+        System.err.printf("Classified %d digits, skipped %d malformed lines.\n", count, pipeline.malformedLines());
+    }
+
+    /**
+     * Reads digits from the input, one per line in the same format as the data files with optional class, and writes
+     * their classes to the output, one per line in the same order. Lines that are not digits are skipped. Returns once
+     * the whole input has been read, the future completes once the last class has been written.
+     *
+     * @param input Source of the digits
+     * @param output Destination of the classes, flushed whenever no more classes are waiting to be written
+     * @return Future that completes with the number of classified digits
+     * @throws IOException If reading the input fails
+     */
+    public CompletableFuture<Long> run(BufferedReader input, Writer output) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(3, (Runnable task) -> {
+            Thread thread = new Thread(task, "streaming-stage");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        SubmissionPublisher<String> lines = new SubmissionPublisher<>(executor, bufferSize);
+        MappingStage<String, double[]> parse = new MappingStage<>(this::parseOrSkip, executor, bufferSize);
+        ClassifyingStage classify = new ClassifyingStage(
+                classifier,
+                parse,
+                Settings.STREAM_BLOCK_SIZE,
+                executor,
+                bufferSize
+        );
+        OutputStage write = new OutputStage(output, classify);
+
+        lines.subscribe(parse);
+        parse.subscribe(classify);
+        classify.subscribe(write);
+        write.result.whenComplete((Long count, Throwable error) -> executor.shutdown());
+
+        // The reading stage runs on the calling thread, submit blocks whenever the parsing stage falls behind.
+        try {
+            String line;
+            while ((line = input.readLine()) != null && !write.result.isDone()) {
+                if (!line.trim().isEmpty()) {
+                    lines.submit(line);
+                }
+            }
+
+            lines.close();
+        } catch (IOException e) {
+            lines.closeExceptionally(e);
+            throw e;
+        }
+
+        return write.result;
+    }
+
+    /**
+     * @return Number of lines skipped because they did not hold a digit, over all runs of the pipeline
+     */
+    public long malformedLines() {
+        return malformedLines.sum();
+    }
+
+    /**
+     * Parses one line, or counts it and drops it if it does not hold a digit.
+     *
+     * @param line Line of the input
+     * @return Digit mapped through the filters, or null to skip the line
+     */
+    private double[] parseOrSkip(String line) {
+        try {
+            return DataSet.parseDigit(line);
+        } catch (IllegalArgumentException e) {
+            malformedLines.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Last stage, writes the classes.
+     */
+    private static class OutputStage implements Flow.Subscriber<Integer> {
+
+        /**
+         * Completed when the stream ends.
+         */
+        final CompletableFuture<Long> result = new CompletableFuture<>();
+
+        /**
+         * Destination of the classes.
+         */
+        private final Writer output;
+
+        /**
+         * Stage the classes come from.
+         */
+        private final ClassifyingStage upstream;
+
+        /**
+         * Subscription to the classification stage.
+         */
+        private Flow.Subscription subscription;
+
+        /**
+         * Number of written classes.
+         */
+        private long count;
+
+        /**
+         * @param output Destination of the classes
+         * @param upstream Stage the classes come from
+         */
+        OutputStage(Writer output, ClassifyingStage upstream) {
+            this.output = output;
+            this.upstream = upstream;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(Integer classification) {
+            try {
+                output.write(classification + "\n");
+
+                // Flushes only when we've caught up, so a fast stream is written in large chunks while a slow one
+                // still shows each class straight away.
+                if (count + 1 >= upstream.published()) {
+                    output.flush();
+                }
+            } catch (IOException e) {
+                subscription.cancel();
+                result.completeExceptionally(new UncheckedIOException(e));
+                return;
+            }
+
+            count++;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            try {
+                output.flush();
+                result.complete(count);
+            } catch (IOException e) {
+                result.completeExceptionally(new UncheckedIOException(e));
+            }
+        }
+
+    }
+
+}
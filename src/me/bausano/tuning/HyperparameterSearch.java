@@ -0,0 +1,211 @@
+package me.bausano.tuning;
+
+import me.bausano.DataSet;
+import me.bausano.DataView;
+import me.bausano.Hyperparameters;
+import me.bausano.Settings;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tunes the network hyper-parameters with successive halving. All trials get a small epoch budget, only the best
+ * 1 / eta of them continue with eta times larger budget, and so on until one trial is left. Most configurations are
+ * therefore dropped after a few epochs and the search costs a few full trainings. Trials of a round train
+ * concurrently.
+ *
+ * The learning rate of a trial follows the schedule of its whole training, not of the budget of the round, so early
+ * rounds compare networks that are still in the middle of annealing. Configurations that only do well once the
+ * learning rate has come down can therefore be dropped early, which Hyperband hedges against with its brackets that
+ * start at larger budgets.
+ */
+public class HyperparameterSearch {
+
+    /**
+     * Orders the trials of a round from the most accurate. Trials whose schedule is shorter than the budget stop early,
+     * so they are ranked by their accuracy only rather than pushed behind every trial that trained for longer.
+     */
+    private static final Comparator<Trial> BY_ACCURACY = Comparator
+            .comparingDouble(Trial::accuracy)
+            .reversed();
+
+    /**
+     * Orders finished searches from the best. Trials that made it to the last round of their successive halving come
+     * first, then the more accurate ones.
+     */
+    private static final Comparator<Trial> RANKING = Comparator
+            .comparing(Trial::finalist)
+            .thenComparingDouble(Trial::accuracy)
+            .reversed();
+
+    /**
+     * Data the trials train on.
+     */
+    private final double[][] training;
+
+    /**
+     * Data the trials are assessed on.
+     */
+    private final DataView validation;
+
+    /**
+     * Upper bound on the number of trials trained at the same time.
+     */
+    private final int parallelism;
+
+    /**
+     * @param training Data the trials train on
+     * @param validation Data the trials are assessed on
+     * @param parallelism Upper bound on the number of trials trained at the same time
+     */
+    public HyperparameterSearch(double[][] training, DataView validation, int parallelism) {
+        this.training = training;
+        this.validation = validation;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Runs Hyperband over random configurations from the default search space on the training file split by
+     * Settings.CROSSFOLD_FACTOR. Arguments are the largest epoch budget, eta and the seed.
+     *
+     * @param args Console arguments
+     * @throws Exception Exceptions are thrown into stdout
+     */
+    public static void main(String[] args) throws Exception {
+        int maxEpochs = args.length > 0 ? Integer.parseInt(args[0]) : Hyperparameters.defaults().iterations();
+        int eta = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+        DataSet data = DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), Settings.CROSSFOLD_FACTOR);
+        HyperparameterSearch search = new HyperparameterSearch(
+                data.setForTraining,
+                DataView.of(data.setForValidation),
+                Runtime.getRuntime().availableProcessors()
+        );
+
+        List<Trial> ranking = search.hyperband(SearchSpace.defaults(), maxEpochs, eta, new Random(seed));
+
+        System.out.println("\n> HYPERPARAMETER SEARCH");
+        for (int rank = 0; rank < Math.min(10, ranking.size()); rank++) {
+            Trial trial = ranking.get(rank);
+            System.out.printf(
+                    "%d. %.2f %% after %d epochs: %s\n",
+                    rank + 1,
+                    trial.accuracy() * 100d,
+                    trial.epochs(),
+                    trial.parameters
+            );
+        }
+    }
+
+    /**
+     * Successive halving over given configurations.
+     *
+     * @param configurations Configurations to try
+     * @param minEpochs Epoch budget of the first round
+     * @param maxEpochs Epoch budget no trial goes over
+     * @param eta How many times fewer trials continue into each next round, usually 3
+     * @return All trials from the best
+     * @throws InterruptedException If the calling thread is interrupted while the trials train
+     */
+    public List<Trial> successiveHalving(List<Hyperparameters> configurations, int minEpochs, int maxEpochs, int eta)
+            throws InterruptedException {
+        List<Trial> trials = new ArrayList<>(configurations.size());
+        for (Hyperparameters parameters : configurations) {
+            trials.add(new Trial(parameters, training));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, trials.size())));
+        List<Trial> alive = new ArrayList<>(trials);
+        int budget = Math.min(minEpochs, maxEpochs);
+
+        try {
+            while (true) {
+                advance(pool, alive, budget);
+                alive.sort(BY_ACCURACY);
+
+                // Stops once a single trial is left or nobody can train any longer.
+                boolean exhausted = budget >= maxEpochs || alive.stream().allMatch(Trial::finished);
+                if (alive.size() == 1 || exhausted) {
+                    for (Trial trial : alive) {
+                        trial.markFinalist();
+                    }
+                    break;
+                }
+
+                alive = new ArrayList<>(alive.subList(0, Math.max(1, alive.size() / eta)));
+                budget = (int) Math.min((long) budget * eta, maxEpochs);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        trials.sort(RANKING);
+
+        return trials;
+    }
+
+    /**
+     * Hyperband. Runs several brackets of successive halving that trade the number of configurations against the
+     * budget of the first round, from many trials with a tiny budget to a few trials with the full budget. This
+     * hedges against hyper-parameters whose benefit only shows late in the training.
+     *
+     * @param space Space to pick random configurations from
+     * @param maxEpochs Largest epoch budget of a trial
+     * @param eta How many times fewer trials continue into each next round, usually 3
+     * @param random Source of randomness of the configurations
+     * @return All trials of all brackets from the best
+     * @throws InterruptedException If the calling thread is interrupted while the trials train
+     */
+    public List<Trial> hyperband(SearchSpace space, int maxEpochs, int eta, Random random)
+            throws InterruptedException {
+        int brackets = (int) Math.floor(Math.log(maxEpochs) / Math.log(eta) + 1e-9);
+        List<Trial> trials = new ArrayList<>();
+
+        for (int bracket = brackets; bracket >= 0; bracket--) {
+            int configurationCount = (int) Math.ceil((brackets + 1d) / (bracket + 1d) * Math.pow(eta, bracket));
+            int minEpochs = Math.max(1, (int) (maxEpochs / Math.pow(eta, bracket)));
+
+            trials.addAll(successiveHalving(space.sample(configurationCount, random), minEpochs, maxEpochs, eta));
+        }
+
+        trials.sort(RANKING);
+
+        return trials;
+    }
+
+    /**
+     * Trains all trials up to the budget on the pool and waits for them.
+     *
+     * @param pool Pool to train on
+     * @param trials Trials to train
+     * @param budget Epochs each trial should have trained for once the round is over
+     * @throws InterruptedException If the calling thread is interrupted while the trials train
+     */
+    private void advance(ExecutorService pool, List<Trial> trials, int budget) throws InterruptedException {
+        List<Callable<Void>> tasks = new ArrayList<>(trials.size());
+        for (Trial trial : trials) {
+            tasks.add(() -> {
+                trial.advance(budget, validation);
+                return null;
+            });
+        }
+
+        for (Future<Void> result : pool.invokeAll(tasks)) {
+            try {
+                result.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Trial failed.", e.getCause());
+            }
+        }
+    }
+
+}
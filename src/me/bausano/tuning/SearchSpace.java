@@ -0,0 +1,140 @@
+package me.bausano.tuning;
+
+import me.bausano.Hyperparameters;
+import me.bausano.Settings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Candidate values of each tuned hyper-parameter. Trial configurations are either all combinations of the candidates
+ * or random picks from them. The nearest neighbour parameter k is not tuned here as it has no epochs to prune on.
+ */
+public class SearchSpace {
+
+    /**
+     * Candidate numbers of hidden neurons.
+     */
+    public final int[] hiddenNeurons;
+
+    /**
+     * Candidate mean learning rates.
+     */
+    public final double[] meanLearningRates;
+
+    /**
+     * Candidate learning rate oscillations.
+     */
+    public final double[] oscillations;
+
+    /**
+     * Candidate step sizes of the learning rate cycle.
+     */
+    public final int[] stepSizes;
+
+    /**
+     * Candidate batch sizes.
+     */
+    public final int[] batchSizes;
+
+    /**
+     * Candidate numbers of learning rate cycles.
+     */
+    public final int[] cycles;
+
+    /**
+     * @param hiddenNeurons Candidate numbers of hidden neurons
+     * @param meanLearningRates Candidate mean learning rates
+     * @param oscillations Candidate learning rate oscillations
+     * @param stepSizes Candidate step sizes
+     * @param batchSizes Candidate batch sizes
+     * @param cycles Candidate numbers of learning rate cycles
+     */
+    public SearchSpace(
+            int[] hiddenNeurons,
+            double[] meanLearningRates,
+            double[] oscillations,
+            int[] stepSizes,
+            int[] batchSizes,
+            int[] cycles
+    ) {
+        this.hiddenNeurons = hiddenNeurons;
+        this.meanLearningRates = meanLearningRates;
+        this.oscillations = oscillations;
+        this.stepSizes = stepSizes;
+        this.batchSizes = batchSizes;
+        this.cycles = cycles;
+    }
+
+    /**
+     * @return Space around the values in Settings
+     */
+    public static SearchSpace defaults() {
+        return new SearchSpace(
+                new int[] { 16, 24, Settings.HIDDEN_NEURONS, 64 },
+                new double[] { 1d, 2d, Settings.MEAN_LEARNING_RATE, 4d },
+                new double[] { 0.5d, 1.5d, Settings.OSCILLATION },
+                new int[] { 8, Settings.STEP_SIZE },
+                new int[] { 1, Settings.BATCH_SIZE, 32 },
+                new int[] { Settings.CYCLES }
+        );
+    }
+
+    /**
+     * @return Every combination of the candidate values
+     */
+    public List<Hyperparameters> grid() {
+        List<Hyperparameters> configurations = new ArrayList<>();
+
+        for (int hidden : hiddenNeurons) {
+            for (double learningRate : meanLearningRates) {
+                for (double oscillation : oscillations) {
+                    for (int stepSize : stepSizes) {
+                        for (int batchSize : batchSizes) {
+                            for (int cycle : cycles) {
+                                configurations.add(new Hyperparameters(
+                                        hidden,
+                                        learningRate,
+                                        oscillation,
+                                        stepSize,
+                                        batchSize,
+                                        cycle,
+                                        Settings.K_NEAREST_NEIGHBOURS
+                                ));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return configurations;
+    }
+
+    /**
+     * Picks each hyper-parameter independently at random from its candidates.
+     *
+     * @param count Number of configurations to pick
+     * @param random Source of randomness, seed it to make the search repeatable
+     * @return Random configurations, which may repeat
+     */
+    public List<Hyperparameters> sample(int count, Random random) {
+        List<Hyperparameters> configurations = new ArrayList<>(count);
+
+        for (int index = 0; index < count; index++) {
+            configurations.add(new Hyperparameters(
+                    hiddenNeurons[random.nextInt(hiddenNeurons.length)],
+                    meanLearningRates[random.nextInt(meanLearningRates.length)],
+                    oscillations[random.nextInt(oscillations.length)],
+                    stepSizes[random.nextInt(stepSizes.length)],
+                    batchSizes[random.nextInt(batchSizes.length)],
+                    cycles[random.nextInt(cycles.length)],
+                    Settings.K_NEAREST_NEIGHBOURS
+            ));
+        }
+
+        return configurations;
+    }
+
+}
@@ -0,0 +1,97 @@
+package me.bausano.tuning;
+
+import me.bausano.DataSet;
+import me.bausano.DataView;
+import me.bausano.Hyperparameters;
+import me.bausano.algorithms.neuralnetwork.NeuralNetwork;
+import me.bausano.algorithms.neuralnetwork.Trainer;
+import me.bausano.validation.CrossValidator;
+
+/**
+ * One configuration under evaluation. The network keeps its weights between rounds of the search, so a trial that
+ * survives a round continues training where it left off.
+ */
+public class Trial {
+
+    /**
+     * Configuration of the trial.
+     */
+    public final Hyperparameters parameters;
+
+    /**
+     * Network trained by the trial.
+     */
+    public final NeuralNetwork network;
+
+    /**
+     * Trainer that remembers how far the training got.
+     */
+    private final Trainer trainer;
+
+    /**
+     * Validation accuracy after the last round the trial took part in.
+     */
+    private volatile double accuracy;
+
+    /**
+     * Whether the trial took part in the last round of its successive halving.
+     */
+    private volatile boolean finalist;
+
+    /**
+     * @param parameters Configuration of the trial
+     * @param training Training data
+     */
+    Trial(Hyperparameters parameters, double[][] training) {
+        this.parameters = parameters;
+        this.network = NeuralNetwork.fromBlueprint(parameters.blueprint(DataSet.inputNeuronsOf(training)));
+        this.trainer = new Trainer(network, training, parameters);
+    }
+
+    /**
+     * Trains until the network has seen given number of epochs in total and measures its accuracy.
+     *
+     * @param epochs Epoch budget of the round
+     * @param validation Digits to measure the accuracy on
+     */
+    void advance(int epochs, DataView validation) {
+        trainer.train(epochs - trainer.trainedIterations());
+        accuracy = CrossValidator.accuracy(network, validation);
+    }
+
+    /**
+     * @return Validation accuracy after the last round the trial took part in
+     */
+    public double accuracy() {
+        return accuracy;
+    }
+
+    /**
+     * @return Whether the trial took part in the last round of its successive halving
+     */
+    public boolean finalist() {
+        return finalist;
+    }
+
+    /**
+     * Marks the trial as one that took part in the last round of its successive halving.
+     */
+    void markFinalist() {
+        finalist = true;
+    }
+
+    /**
+     * @return Number of epochs the trial has trained for
+     */
+    public int epochs() {
+        return trainer.trainedIterations();
+    }
+
+    /**
+     * @return Whether the trial has trained for its whole learning rate schedule
+     */
+    boolean finished() {
+        return trainer.trainedIterations() == trainer.totalIterations();
+    }
+
+}
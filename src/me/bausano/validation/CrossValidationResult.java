@@ -0,0 +1,49 @@
+package me.bausano.validation;
+
+/**
+ * Accuracies of all folds of one cross validation and their aggregates.
+ */
+public class CrossValidationResult {
+
+    /**
+     * Portion of correctly classified validation digits for each fold, in range 0 - 1.
+     */
+    public final double[] accuracies;
+
+    /**
+     * Mean accuracy over the folds.
+     */
+    public final double mean;
+
+    /**
+     * Sample variance of the accuracy over the folds.
+     */
+    public final double variance;
+
+    /**
+     * @param accuracies Accuracy of each fold
+     */
+    public CrossValidationResult(double[] accuracies) {
+        this.accuracies = accuracies;
+
+        double sum = 0d;
+        for (double accuracy : accuracies) {
+            sum += accuracy;
+        }
+        this.mean = sum / accuracies.length;
+
+        double squaredDeviations = 0d;
+        for (double accuracy : accuracies) {
+            squaredDeviations += (accuracy - mean) * (accuracy - mean);
+        }
+        this.variance = accuracies.length > 1 ? squaredDeviations / (accuracies.length - 1) : 0d;
+    }
+
+    /**
+     * @return Standard deviation of the accuracy over the folds
+     */
+    public double standardDeviation() {
+        return Math.sqrt(variance);
+    }
+
+}
@@ -0,0 +1,137 @@
+package me.bausano.validation;
+
+import me.bausano.DataSet;
+import me.bausano.DataView;
+import me.bausano.Fold;
+import me.bausano.Hyperparameters;
+import me.bausano.Reporter;
+import me.bausano.Settings;
+import me.bausano.algorithms.Algorithms;
+import me.bausano.algorithms.Classifier;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Trains one classifier on the training part of each fold and scores it on the validation part. The folds are
+ * independent, so they run in a pool of threads.
+ */
+public class CrossValidator {
+
+    /**
+     * How many validation digits are classified in one batched call.
+     */
+    private static final int VALIDATION_BLOCK_SIZE = 64;
+
+    /**
+     * Upper bound on the number of folds trained and evaluated at the same time.
+     */
+    private final int parallelism;
+
+    /**
+     * @param parallelism Upper bound on the number of folds trained at the same time
+     */
+    public CrossValidator(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Uses one thread for each available processor.
+     */
+    public CrossValidator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Cross validates an algorithm on the training data with k stratified folds. Arguments are the name of the
+     * algorithm (nn, mlp or estimator, defaults to nn) and k.
+     *
+     * @param args Console arguments
+     * @throws Exception Exceptions are thrown into stdout
+     */
+    public static void main(String[] args) throws Exception {
+        String model = args.length > 0 ? args[0] : "nn";
+        int k = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        double[][] data = DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), -1).setForTraining;
+        Function<double[][], Classifier> algorithm =
+                (double[][] training) -> Algorithms.train(model, training, Hyperparameters.defaults());
+
+        Reporter.printCrossValidation(model, new CrossValidator().run(DataSet.stratifiedFolds(data, k), algorithm));
+    }
+
+    /**
+     * Trains and evaluates every fold. Folds run concurrently, at most parallelism of them at a time. Each fold trains
+     * on its own thread, so the algorithm must not share mutable state between the classifiers it builds.
+     *
+     * @param folds Folds to evaluate
+     * @param algorithm Builds and trains a classifier from the training digits of a fold
+     * @return Accuracy of each fold and their aggregates
+     * @throws InterruptedException If the calling thread is interrupted while waiting for the folds
+     */
+    public CrossValidationResult run(Fold[] folds, Function<double[][], Classifier> algorithm)
+            throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, folds.length)));
+
+        try {
+            List<Future<Double>> accuracies = new ArrayList<>(folds.length);
+            for (Fold fold : folds) {
+                accuracies.add(pool.submit(() -> accuracy(algorithm.apply(fold.training.rows()), fold.validation)));
+            }
+
+            double[] results = new double[folds.length];
+            for (int foldIndex = 0; foldIndex < folds.length; foldIndex++) {
+                try {
+                    results[foldIndex] = accuracies.get(foldIndex).get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Fold " + foldIndex + " failed.", e.getCause());
+                }
+            }
+
+            return new CrossValidationResult(results);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Classifies the validation digits in batches and counts the correct ones.
+     *
+     * @param classifier Trained classifier
+     * @param validation Digits to validate on
+     * @return Portion of correctly classified digits
+     */
+    public static double accuracy(Classifier classifier, DataView validation) {
+        double[][] block = new double[VALIDATION_BLOCK_SIZE][];
+        int[] classes = new int[VALIDATION_BLOCK_SIZE];
+        int correctlyClassified = 0;
+
+        for (int blockStart = 0; blockStart < validation.size(); blockStart += VALIDATION_BLOCK_SIZE) {
+            int count = Math.min(VALIDATION_BLOCK_SIZE, validation.size() - blockStart);
+            if (count < block.length) {
+                block = new double[count][];
+            }
+
+            for (int index = 0; index < count; index++) {
+                block[index] = validation.get(blockStart + index);
+            }
+
+            classifier.classify(block, classes);
+
+            for (int index = 0; index < count; index++) {
+                if (classes[index] == block[index][block[index].length - 1]) {
+                    correctlyClassified++;
+                }
+            }
+        }
+
+        return validation.size() == 0 ? 0d : (double) correctlyClassified / validation.size();
+    }
+
+}
@@ -0,0 +1,193 @@
+package me.bausano.validation;
+
+/**
+ * Scores of one classifier over a data set. Each thread of the evaluator fills its own evaluation for a part of the
+ * data, the parts are then merged into one, so the counters need no synchronisation.
+ */
+public class Evaluation {
+
+    /**
+     * Name of the classifier in the reports.
+     */
+    public final String title;
+
+    /**
+     * Rows are the correct classes, columns what the classifier said. Correct classifications are on the diagonal.
+     */
+    public final int[][] confusion;
+
+    /**
+     * hitsAtRank[r] counts the digits whose correct class had the r-th highest estimate, counting from 0 and losing all
+     * ties unless it was the predicted class. Ranks from the largest k reported on are not counted.
+     */
+    private final int[] hitsAtRank;
+
+    /**
+     * Number of digits scored.
+     */
+    private int count = 0;
+
+    /**
+     * @param title Name of the classifier in the reports
+     * @param classes Number of output classes
+     * @param topK Largest k the top k accuracy is reported for
+     */
+    Evaluation(String title, int classes, int topK) {
+        this.title = title;
+        this.confusion = new int[classes][classes];
+        this.hitsAtRank = new int[Math.max(1, Math.min(topK, classes))];
+    }
+
+    /**
+     * Scores one digit.
+     *
+     * @param target Correct class of the digit
+     * @param estimates Estimates of the classifier for the digit
+     */
+    void record(int target, double[] estimates) {
+        // The classifiers pick the highest estimate and the last class wins on ties.
+        int predicted = 0;
+        for (int classIndex = 1; classIndex < confusion.length; classIndex++) {
+            if (estimates[classIndex] >= estimates[predicted]) {
+                predicted = classIndex;
+            }
+        }
+
+        // When the classifier is wrong, the correct class ranks behind the predicted one and behind every class it ties
+        // with, so that a model which gives nothing to the other classes does not collect top k hits by their order.
+        int rank = 0;
+        if (predicted != target) {
+            rank = 1;
+            for (int classIndex = 0; classIndex < confusion.length; classIndex++) {
+                if (classIndex != target && classIndex != predicted && estimates[classIndex] >= estimates[target]) {
+                    rank++;
+                }
+            }
+        }
+
+        confusion[target][predicted]++;
+        if (rank < hitsAtRank.length) {
+            hitsAtRank[rank]++;
+        }
+        count++;
+    }
+
+    /**
+     * Adds the counters of another part of the data set to this one.
+     *
+     * @param other Evaluation of the same classifier over other digits
+     */
+    void merge(Evaluation other) {
+        for (int target = 0; target < confusion.length; target++) {
+            for (int predicted = 0; predicted < confusion.length; predicted++) {
+                confusion[target][predicted] += other.confusion[target][predicted];
+            }
+        }
+
+        for (int rank = 0; rank < hitsAtRank.length; rank++) {
+            hitsAtRank[rank] += other.hitsAtRank[rank];
+        }
+        count += other.count;
+    }
+
+    /**
+     * @return Number of digits scored
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * @return Number of digits classified correctly
+     */
+    public int correct() {
+        int correct = 0;
+        for (int classIndex = 0; classIndex < confusion.length; classIndex++) {
+            correct += confusion[classIndex][classIndex];
+        }
+
+        return correct;
+    }
+
+    /**
+     * @return Portion of digits classified correctly
+     */
+    public double accuracy() {
+        return count == 0 ? 0d : (double) correct() / count;
+    }
+
+    /**
+     * @return Largest k the top k accuracy is reported for
+     */
+    public int topK() {
+        return hitsAtRank.length;
+    }
+
+    /**
+     * @param k How many of the highest estimates may hold the correct class, at most topK
+     * @return Portion of digits whose correct class was among the k highest estimates
+     */
+    public double topKAccuracy(int k) {
+        if (k < 1 || k > hitsAtRank.length) {
+            throw new IllegalArgumentException("Top k accuracy is counted for k from 1 to " + hitsAtRank.length + ".");
+        }
+
+        int hits = 0;
+        for (int rank = 0; rank < k; rank++) {
+            hits += hitsAtRank[rank];
+        }
+
+        return count == 0 ? 0d : (double) hits / count;
+    }
+
+    /**
+     * @param classIndex Class to look at
+     * @return Portion of the digits classified as the class that belong to it, 0 if none were
+     */
+    public double precision(int classIndex) {
+        int classified = 0;
+        for (int[] row : confusion) {
+            classified += row[classIndex];
+        }
+
+        return classified == 0 ? 0d : (double) confusion[classIndex][classIndex] / classified;
+    }
+
+    /**
+     * @param classIndex Class to look at
+     * @return Portion of the digits of the class that were classified as it, 0 if there were none
+     */
+    public double recall(int classIndex) {
+        int members = 0;
+        for (int classified : confusion[classIndex]) {
+            members += classified;
+        }
+
+        return members == 0 ? 0d : (double) confusion[classIndex][classIndex] / members;
+    }
+
+    /**
+     * @return Mean precision over all classes, each class weighs the same
+     */
+    public double macroPrecision() {
+        double sum = 0;
+        for (int classIndex = 0; classIndex < confusion.length; classIndex++) {
+            sum += precision(classIndex);
+        }
+
+        return sum / confusion.length;
+    }
+
+    /**
+     * @return Mean recall over all classes, each class weighs the same
+     */
+    public double macroRecall() {
+        double sum = 0;
+        for (int classIndex = 0; classIndex < confusion.length; classIndex++) {
+            sum += recall(classIndex);
+        }
+
+        return sum / confusion.length;
+    }
+
+}
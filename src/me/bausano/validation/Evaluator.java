@@ -0,0 +1,229 @@
+package me.bausano.validation;
+
+import me.bausano.DataSet;
+import me.bausano.DataView;
+import me.bausano.Hyperparameters;
+import me.bausano.Reporter;
+import me.bausano.Settings;
+import me.bausano.algorithms.Algorithms;
+import me.bausano.algorithms.Classifier;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Scores any number of classifiers over a data set in one pass. The digits are split into contiguous parts, one for
+ * each thread, and each thread walks its part block by block, asking every classifier for the estimates of the block
+ * while the block is in the cache. Every thread keeps its own evaluations, which are merged once all threads are done,
+ * so the threads share nothing but the classifiers.
+ *
+ * The accuracy, the confusion matrix, the precision and recall and the top k accuracy all come out of the same
+ * estimates, so each classifier sees each digit once however many scores are reported.
+ */
+public class Evaluator {
+
+    /**
+     * How many digits each classifier estimates in one batched call.
+     */
+    private static final int EVALUATION_BLOCK_SIZE = 64;
+
+    /**
+     * Upper bound on the number of threads that score the data.
+     */
+    private final int parallelism;
+
+    /**
+     * Largest k the top k accuracy is counted for.
+     */
+    private final int topK;
+
+    /**
+     * @param parallelism Upper bound on the number of threads that score the data
+     * @param topK Largest k the top k accuracy is counted for
+     */
+    public Evaluator(int parallelism, int topK) {
+        this.parallelism = Math.max(1, parallelism);
+        this.topK = topK;
+    }
+
+    /**
+     * Uses one thread for each available processor and counts the top k accuracy up to Settings.EVALUATION_TOP_K.
+     */
+    public Evaluator() {
+        this(Runtime.getRuntime().availableProcessors(), Settings.EVALUATION_TOP_K);
+    }
+
+    /**
+     * Trains the nearest neighbour, the network and the estimator on the training file and scores them on the testing
+     * file, first in one pass of the evaluator and then the way the reports used to, with one serial pass for each
+     * metric of each model. The argument is the number of threads, which defaults to the number of processors.
+     *
+     * @param args Console arguments
+     * @throws Exception Exceptions are thrown into stdout
+     */
+    public static void main(String[] args) throws Exception {
+        int parallelism = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+
+        double[][] training = DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), -1).setForTraining;
+        double[][] testing = DataSet.from(Paths.get(Settings.TESTING_FILE_PATH), -1).setForTraining;
+
+        String[] titles = new String[] { "nn", "mlp", "estimator" };
+        Classifier[] classifiers = new Classifier[titles.length];
+        for (int modelIndex = 0; modelIndex < titles.length; modelIndex++) {
+            classifiers[modelIndex] = Algorithms.train(titles[modelIndex], training, Hyperparameters.defaults());
+        }
+
+        // Warms all classifiers up, so that neither way pays for the compilation.
+        Evaluator evaluator = new Evaluator(parallelism, Settings.EVALUATION_TOP_K);
+        evaluator.evaluate(titles, classifiers, DataView.of(testing));
+
+        long start = System.nanoTime();
+        Evaluation[] evaluations = evaluator.evaluate(titles, classifiers, DataView.of(testing));
+        double onePassMillis = (System.nanoTime() - start) / 1e6d;
+
+        // Accuracy and confusion matrix each classify every digit one at a time, and the top k asks for the estimates.
+        start = System.nanoTime();
+        int checksum = 0;
+        for (Classifier classifier : classifiers) {
+            for (int metric = 0; metric < 2; metric++) {
+                for (double[] digit : testing) {
+                    checksum += classifier.classify(digit);
+                }
+            }
+            for (double[] digit : testing) {
+                checksum += (int) classifier.estimate(digit)[0];
+            }
+        }
+        double serialMillis = (System.nanoTime() - start) / 1e6d;
+
+        for (Evaluation evaluation : evaluations) {
+            Reporter.printEvaluation(evaluation);
+        }
+
+        System.out.println("\n> EVALUATION TIME");
+        System.out.printf("One pass on %d threads: %.1f ms\n", parallelism, onePassMillis);
+        System.out.printf("One serial pass per metric per model: %.1f ms (checksum %d)\n", serialMillis, checksum);
+    }
+
+    /**
+     * Scores the classifiers over the digits. The classifiers are called from several threads at once, which all
+     * classifiers in this project allow.
+     *
+     * @param titles Names of the classifiers in the reports
+     * @param classifiers Trained classifiers
+     * @param data Digits with their correct classes in the last element
+     * @return Evaluation of each classifier in the order of the classifiers
+     */
+    public Evaluation[] evaluate(String[] titles, Classifier[] classifiers, DataView data) {
+        int blocks = (data.size() + EVALUATION_BLOCK_SIZE - 1) / EVALUATION_BLOCK_SIZE;
+        int parts = Math.max(1, Math.min(parallelism, blocks));
+        Evaluation[] evaluations = newEvaluations(titles);
+
+        // Single part runs on the calling thread, which spares the pool.
+        if (parts == 1) {
+            evaluatePart(classifiers, data, 0, data.size(), evaluations);
+            return evaluations;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(parts);
+
+        try {
+            List<Future<Evaluation[]>> partials = new ArrayList<>(parts);
+            for (int partIndex = 0; partIndex < parts; partIndex++) {
+                // Parts are whole blocks, so that only the last block of the data can be short.
+                int from = blocks * partIndex / parts * EVALUATION_BLOCK_SIZE;
+                int to = Math.min(data.size(), blocks * (partIndex + 1) / parts * EVALUATION_BLOCK_SIZE);
+                partials.add(pool.submit(() -> {
+                    Evaluation[] partial = newEvaluations(titles);
+                    evaluatePart(classifiers, data, from, to, partial);
+                    return partial;
+                }));
+            }
+
+            for (int partIndex = 0; partIndex < parts; partIndex++) {
+                Evaluation[] partial;
+                try {
+                    partial = partials.get(partIndex).get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Part " + partIndex + " of the evaluation failed.", e.getCause());
+                }
+
+                for (int modelIndex = 0; modelIndex < evaluations.length; modelIndex++) {
+                    evaluations[modelIndex].merge(partial[modelIndex]);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while evaluating.", e);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return evaluations;
+    }
+
+    /**
+     * Scores one classifier over the digits.
+     *
+     * @param title Name of the classifier in the reports
+     * @param classifier Trained classifier
+     * @param data Digits with their correct classes in the last element
+     * @return Evaluation of the classifier
+     */
+    public Evaluation evaluate(String title, Classifier classifier, DataView data) {
+        return evaluate(new String[] { title }, new Classifier[] { classifier }, data)[0];
+    }
+
+    /**
+     * @param titles Names of the classifiers in the reports
+     * @return Empty evaluation for each classifier
+     */
+    private Evaluation[] newEvaluations(String[] titles) {
+        Evaluation[] evaluations = new Evaluation[titles.length];
+        for (int modelIndex = 0; modelIndex < titles.length; modelIndex++) {
+            evaluations[modelIndex] = new Evaluation(titles[modelIndex], Settings.OUTPUT_CLASSES_COUNT, topK);
+        }
+
+        return evaluations;
+    }
+
+    /**
+     * Scores all classifiers over a range of the digits, block by block.
+     *
+     * @param classifiers Trained classifiers
+     * @param data Digits with their correct classes in the last element
+     * @param from Index of the first digit of the range
+     * @param to Index after the last digit of the range
+     * @param evaluations Evaluations of the classifiers the range is added to
+     */
+    private void evaluatePart(Classifier[] classifiers, DataView data, int from, int to, Evaluation[] evaluations) {
+        double[][] block = new double[EVALUATION_BLOCK_SIZE][];
+        double[][] estimates = new double[EVALUATION_BLOCK_SIZE][Settings.OUTPUT_CLASSES_COUNT];
+
+        for (int blockStart = from; blockStart < to; blockStart += EVALUATION_BLOCK_SIZE) {
+            int count = Math.min(EVALUATION_BLOCK_SIZE, to - blockStart);
+            if (count < block.length) {
+                block = new double[count][];
+                estimates = new double[count][Settings.OUTPUT_CLASSES_COUNT];
+            }
+
+            for (int index = 0; index < count; index++) {
+                block[index] = data.get(blockStart + index);
+            }
+
+            for (int modelIndex = 0; modelIndex < classifiers.length; modelIndex++) {
+                classifiers[modelIndex].estimate(block, estimates);
+
+                for (int index = 0; index < count; index++) {
+                    evaluations[modelIndex].record((int) block[index][block[index].length - 1], estimates[index]);
+                }
+            }
+        }
+    }
+
+}
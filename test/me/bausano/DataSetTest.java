@@ -0,0 +1,116 @@
+package me.bausano;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DataSetTest {
+
+    /**
+     * Folds of digits whose classes are far from even stay within one digit of each other in size, and every class is
+     * split between the folds as evenly as its count allows.
+     *
+     * @param k Number of folds
+     */
+    @ParameterizedTest
+    @ValueSource(ints = { 2, 3, 5, 7 })
+    void stratifiedFoldsAreBalanced(int k) {
+        double[][] data = unevenDigits(503);
+        int[] membersOfClass = new int[Settings.OUTPUT_CLASSES_COUNT];
+        for (double[] digit : data) {
+            membersOfClass[classOf(digit)]++;
+        }
+
+        Fold[] folds = DataSet.stratifiedFolds(data, k);
+        assertEquals(k, folds.length);
+
+        int smallest = Integer.MAX_VALUE;
+        int largest = 0;
+        int total = 0;
+        for (Fold fold : folds) {
+            int size = fold.validation.size();
+            smallest = Math.min(smallest, size);
+            largest = Math.max(largest, size);
+            total += size;
+            assertEquals(data.length - size, fold.training.size());
+
+            int[] foldMembersOfClass = new int[Settings.OUTPUT_CLASSES_COUNT];
+            for (int index = 0; index < size; index++) {
+                foldMembersOfClass[classOf(fold.validation.get(index))]++;
+            }
+
+            for (int classIndex = 0; classIndex < membersOfClass.length; classIndex++) {
+                double share = (double) membersOfClass[classIndex] / k;
+                assertTrue(
+                        Math.abs(foldMembersOfClass[classIndex] - share) < 1d,
+                        "Class " + classIndex + " has " + foldMembersOfClass[classIndex] + " digits in a fold, "
+                                + share + " expected."
+                );
+            }
+        }
+
+        assertEquals(data.length, total);
+        assertTrue(largest - smallest <= 1, "Folds range from " + smallest + " to " + largest + " digits.");
+    }
+
+    /**
+     * There have to be at least two folds and no more folds than digits.
+     *
+     * @param k Number of folds that cannot be made out of ten digits
+     */
+    @ParameterizedTest
+    @ValueSource(ints = { -1, 0, 1, 11 })
+    void rejectsImpossibleFoldCounts(int k) {
+        double[][] data = unevenDigits(10);
+
+        assertThrows(IllegalArgumentException.class, () -> DataSet.stratifiedFolds(data, k));
+    }
+
+    /**
+     * As many folds as digits leave one digit in each fold.
+     */
+    @Test
+    void leavesOneOutWhenKIsTheNumberOfDigits() {
+        double[][] data = unevenDigits(10);
+
+        for (Fold fold : DataSet.stratifiedFolds(data, data.length)) {
+            assertEquals(1, fold.validation.size());
+        }
+    }
+
+    /**
+     * @param count Number of digits
+     * @return Digits of a few pixels with classes skewed towards the low ones and the class stored last
+     */
+    private static double[][] unevenDigits(int count) {
+        Random random = new Random(11);
+        double[][] data = new double[count][];
+        for (int digitIndex = 0; digitIndex < count; digitIndex++) {
+            double[] digit = new double[5];
+            for (int pixel = 0; pixel < digit.length - 1; pixel++) {
+                digit[pixel] = random.nextInt(17);
+            }
+            // Squaring a uniform number makes the low classes several times as common as the high ones.
+            double uniform = random.nextDouble();
+            digit[digit.length - 1] = (int) (uniform * uniform * Settings.OUTPUT_CLASSES_COUNT);
+            data[digitIndex] = digit;
+        }
+
+        return data;
+    }
+
+    /**
+     * @param digit Digit with its class stored last
+     * @return Class of the digit
+     */
+    private static int classOf(double[] digit) {
+        return (int) digit[digit.length - 1];
+    }
+
+}
@@ -0,0 +1,203 @@
+package me.bausano.distributed;
+
+import me.bausano.DataSet;
+import me.bausano.Hyperparameters;
+import me.bausano.Settings;
+import me.bausano.algorithms.neuralnetwork.NeuralNetwork;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParameterServerTest {
+
+    /**
+     * Two epochs of a small network, so that a whole distributed training takes a moment.
+     */
+    private static final Hyperparameters PARAMETERS = new Hyperparameters(16, 3d, 2.5d, 1, 10, 0, 1);
+
+    /**
+     * Number of training digits the tests train on.
+     */
+    private static final int DIGITS = 200;
+
+    /**
+     * Two workers on this machine train one network in lockstep, every step of every worker reaches the server and the
+     * weights end up changed.
+     *
+     * @param codec Name of the codec the workers push with
+     * @throws Exception If the training fails
+     */
+    @ParameterizedTest
+    @ValueSource(strings = { "dense", "top-k", "quantised" })
+    void twoWorkersTrainSynchronously(String codec) throws Exception {
+        double[][] training = trainingDigits();
+        NeuralNetwork network = NeuralNetwork.fromBlueprint(
+                PARAMETERS.blueprint(DataSet.inputNeuronsOf(training)),
+                new Random(42)
+        );
+        double[] initial = new double[network.parameterCount()];
+        network.parametersInto(initial);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (ParameterServer server = new ParameterServer(network, 2, 0, 0)) {
+            Future<?>[] workers = new Future<?>[2];
+            for (int workerIndex = 0; workerIndex < workers.length; workerIndex++) {
+                workers[workerIndex] = startWorker(executor, server, workerIndex, 2, training, codec);
+            }
+
+            assertTimeoutPreemptively(Duration.ofSeconds(60), server::awaitWorkers);
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+
+            // Each worker trains every other digit in batches of ten for two epochs.
+            int stepsPerWorker = PARAMETERS.iterations() * (DIGITS / 2 / PARAMETERS.batchSize);
+            assertEquals(2L * stepsPerWorker, server.steps());
+
+            double[] trained = new double[initial.length];
+            server.network().parametersInto(trained);
+            assertFalse(Arrays.equals(initial, trained));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A worker that never connects is given up on after the connect timeout, so the worker that did connect trains to
+     * the end instead of waiting for it forever.
+     *
+     * @throws Exception If the training fails
+     */
+    @Test
+    void workerThatNeverConnectsIsGivenUpOn() throws Exception {
+        double[][] training = trainingDigits();
+        NeuralNetwork network = NeuralNetwork.fromBlueprint(PARAMETERS.blueprint(DataSet.inputNeuronsOf(training)));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ParameterServer server = new ParameterServer(network, 2, 0, 0, 200)) {
+            Future<?> worker = startWorker(executor, server, 0, 2, training, "dense");
+
+            assertTimeoutPreemptively(Duration.ofSeconds(60), server::awaitWorkers);
+            worker.get();
+
+            assertEquals(PARAMETERS.iterations() * (DIGITS / 2 / PARAMETERS.batchSize), server.steps());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A worker whose process has exited stops holding the others back, even when it never connected.
+     *
+     * @throws Exception If the server fails
+     */
+    @Test
+    void leftWorkerIsNotWaitedFor() throws Exception {
+        NeuralNetwork network = NeuralNetwork.fromBlueprint(new int[] { 4, 3, 2 });
+
+        try (ParameterServer server = new ParameterServer(network, 2, 0, 0)) {
+            server.leave(0);
+            server.leave(1);
+
+            assertTimeoutPreemptively(Duration.ofSeconds(5), server::awaitWorkers);
+        }
+    }
+
+    /**
+     * Whatever a codec sends plus what it leaves in the residual adds up to the changes it was given.
+     *
+     * @param codecName Name of the codec
+     * @throws IOException If the streams fail
+     */
+    @ParameterizedTest
+    @ValueSource(strings = { "dense", "top-k", "quantised" })
+    void codecRoundTrips(String codecName) throws IOException {
+        DeltaCodec codec = DeltaCodec.forName(codecName);
+        Random random = new Random(7);
+        double[] changes = new double[1000];
+        for (int index = 0; index < changes.length; index++) {
+            changes[index] = random.nextGaussian() * 0.01d;
+        }
+
+        double[] residual = changes.clone();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            codec.write(output, residual);
+        }
+
+        double[] delta = new double[changes.length];
+        int read = DeltaCodec.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), delta);
+        assertEquals(bytes.size(), read);
+
+        for (int index = 0; index < changes.length; index++) {
+            assertEquals(changes[index], delta[index] + residual[index], 1e-12d);
+        }
+
+        if (codecName.equals("dense")) {
+            assertArrayEquals(changes, delta);
+        } else if (codecName.equals("top-k")) {
+            long sent = Arrays.stream(delta).filter(change -> change != 0d).count();
+            assertEquals((long) Math.ceil(changes.length * Settings.DELTA_TOP_K_FRACTION), sent);
+        } else {
+            // Rounding to the levels leaves at most half a level in the residual.
+            double largest = Arrays.stream(changes).map(Math::abs).max().orElse(0d);
+            for (double left : residual) {
+                assertTrue(Math.abs(left) <= largest / Byte.MAX_VALUE / 2d + 1e-15d);
+            }
+        }
+    }
+
+    /**
+     * @return First training digits of the bundled training file
+     * @throws IOException If the file cannot be read
+     */
+    private static double[][] trainingDigits() throws IOException {
+        return Arrays.copyOf(DataSet.from(Paths.get(Settings.TRAINING_FILE_PATH), -1).setForTraining, DIGITS);
+    }
+
+    /**
+     * Runs a worker on its share of the digits in a thread of this process.
+     *
+     * @param executor Runs the worker
+     * @param server Server the worker trains with
+     * @param workerIndex Index of the worker
+     * @param workerCount Number of workers
+     * @param training Digits all workers share
+     * @param codec Name of the codec the worker pushes with
+     * @return Future of the training
+     */
+    private static Future<?> startWorker(ExecutorService executor, ParameterServer server, int workerIndex,
+                                         int workerCount, double[][] training, String codec) {
+        TrainingWorker worker = new TrainingWorker(
+                workerIndex,
+                ShardWorker.shardOf(training, workerIndex, workerCount),
+                PARAMETERS,
+                DeltaCodec.forName(codec)
+        );
+
+        return executor.submit(() -> worker.train(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                server.port())));
+    }
+
+}
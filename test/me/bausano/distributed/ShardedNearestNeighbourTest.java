@@ -0,0 +1,182 @@
+package me.bausano.distributed;
+
+import me.bausano.DataSet;
+import me.bausano.Settings;
+import me.bausano.algorithms.nearestneighbour.NearestNeighbour;
+import me.bausano.algorithms.nearestneighbour.Neighbour;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardedNearestNeighbourTest {
+
+    /**
+     * Number of shards the tests split the reference digits between.
+     */
+    private static final int SHARDS = 3;
+
+    /**
+     * Shards answer from the same closest digits as one nearest neighbour over all of them. Once a shard is closed,
+     * queries keep being answered from the digits of the other two.
+     *
+     * @throws Exception If a shard cannot be started
+     */
+    @Test
+    void answersFromRemainingShardsOnceOneIsClosed() throws Exception {
+        double[][] references = digits(Settings.TRAINING_FILE_PATH, 600);
+        double[][] queries = digits(Settings.TESTING_FILE_PATH, 100);
+        double[][] firstHalf = Arrays.copyOfRange(queries, 0, queries.length / 2);
+        double[][] secondHalf = Arrays.copyOfRange(queries, queries.length / 2, queries.length);
+
+        List<ShardWorker> workers = new ArrayList<>();
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        try {
+            for (int shardIndex = 0; shardIndex < SHARDS; shardIndex++) {
+                ShardWorker worker = new ShardWorker(ShardWorker.shardOf(references, shardIndex, SHARDS), 1, 0);
+                workers.add(worker);
+                addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), worker.port()));
+            }
+
+            try (ShardedNearestNeighbour sharded = new ShardedNearestNeighbour(addresses, 1)) {
+                assertSameDistances(new NearestNeighbour(references, 1).closest(firstHalf), sharded.closest(firstHalf));
+
+                workers.get(SHARDS - 1).close();
+
+                // The digits of the closed shard are gone, so only the first two shards can hold the closest ones.
+                List<double[]> remaining = new ArrayList<>();
+                for (int shardIndex = 0; shardIndex < SHARDS - 1; shardIndex++) {
+                    remaining.addAll(Arrays.asList(ShardWorker.shardOf(references, shardIndex, SHARDS)));
+                }
+                NearestNeighbour survivors = new NearestNeighbour(remaining.toArray(new double[0][]), 1);
+
+                Neighbour[][] closest = assertTimeoutPreemptively(
+                        Duration.ofSeconds(10),
+                        () -> sharded.closest(secondHalf)
+                );
+                assertSameDistances(survivors.closest(secondHalf), closest);
+                assertTrue(sharded.failures() + sharded.timeouts() + sharded.skipped() > 0);
+            }
+        } finally {
+            for (ShardWorker worker : workers) {
+                worker.close();
+            }
+        }
+    }
+
+    /**
+     * A shard that sends its answer a byte at a time never trips the socket timeout, which bounds each read only. The
+     * query must still give up on it once the timeout has passed in total.
+     *
+     * @throws Exception If a shard cannot be started
+     */
+    @Test
+    void abandonsShardThatTricklesItsAnswer() throws Exception {
+        double[][] references = digits(Settings.TRAINING_FILE_PATH, 600);
+        double[][] queries = digits(Settings.TESTING_FILE_PATH, 10);
+        int timeoutMillis = 300;
+
+        try (
+                ShardWorker worker = new ShardWorker(references, 1, 0);
+                ServerSocket trickler = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())
+        ) {
+            NearestNeighbour neighbours = new NearestNeighbour(references, 1);
+            Thread trickle = new Thread(() -> trickle(trickler, neighbours, timeoutMillis / 3));
+            trickle.setDaemon(true);
+            trickle.start();
+
+            List<InetSocketAddress> addresses = List.of(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), worker.port()),
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), trickler.getLocalPort())
+            );
+
+            try (ShardedNearestNeighbour sharded = new ShardedNearestNeighbour(addresses, 1, timeoutMillis)) {
+                Neighbour[][] closest = assertTimeoutPreemptively(
+                        Duration.ofMillis(timeoutMillis * 5L),
+                        () -> sharded.closest(queries)
+                );
+
+                assertSameDistances(new NearestNeighbour(references, 1).closest(queries), closest);
+                assertEquals(1, sharded.timeouts());
+                assertEquals(0, sharded.failures());
+            }
+        }
+    }
+
+    /**
+     * Serves one connection of the coordinator with the right answer, sent one byte at a time.
+     *
+     * @param server Socket the coordinator connects to
+     * @param neighbours Nearest neighbour that computes the answer
+     * @param pauseMillis Pause between two bytes, below the socket timeout of the coordinator
+     */
+    private static void trickle(ServerSocket server, NearestNeighbour neighbours, int pauseMillis) {
+        try (
+                Socket socket = server.accept();
+                DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()))
+        ) {
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            try (DataOutputStream output = new DataOutputStream(response)) {
+                ShardProtocol.writeResponse(output, neighbours.closest(ShardProtocol.readRequest(input)));
+            }
+
+            OutputStream output = socket.getOutputStream();
+            for (byte value : response.toByteArray()) {
+                output.write(value);
+                output.flush();
+                Thread.sleep(pauseMillis);
+            }
+        } catch (IOException | InterruptedException e) {
+            // The coordinator has hung up, which is what the test expects.
+        }
+    }
+
+    /**
+     * Neighbours of equal distance may come from different shards, so the answers are compared by distance.
+     *
+     * @param expected Closest neighbours of each digit
+     * @param actual Closest neighbours the coordinator merged
+     */
+    private static void assertSameDistances(Neighbour[][] expected, Neighbour[][] actual) {
+        assertEquals(expected.length, actual.length);
+
+        for (int digitIndex = 0; digitIndex < expected.length; digitIndex++) {
+            assertEquals(expected[digitIndex].length, actual[digitIndex].length);
+
+            for (int neighbourIndex = 0; neighbourIndex < expected[digitIndex].length; neighbourIndex++) {
+                assertEquals(
+                        expected[digitIndex][neighbourIndex].distance,
+                        actual[digitIndex][neighbourIndex].distance
+                );
+            }
+        }
+    }
+
+    /**
+     * @param path Data file
+     * @param count Number of digits to read
+     * @return First digits of the file
+     * @throws IOException If the file cannot be read
+     */
+    private static double[][] digits(String path, int count) throws IOException {
+        return Arrays.copyOf(DataSet.from(Paths.get(path), -1).setForTraining, count);
+    }
+
+}
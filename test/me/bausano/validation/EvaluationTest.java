@@ -0,0 +1,112 @@
+package me.bausano.validation;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EvaluationTest {
+
+    /**
+     * Number of classes of the evaluations under test.
+     */
+    private static final int CLASSES = 4;
+
+    /**
+     * The highest estimate is the prediction and a correct prediction is a hit at every k.
+     */
+    @Test
+    void correctPredictionIsHitAtEveryK() {
+        Evaluation evaluation = new Evaluation("test", CLASSES, 3);
+        evaluation.record(2, new double[] { 0.1d, 0.2d, 0.6d, 0.1d });
+
+        assertEquals(1, evaluation.confusion[2][2]);
+        assertEquals(1d, evaluation.accuracy());
+        assertTopK(evaluation, 1d, 1d, 1d);
+    }
+
+    /**
+     * On equal estimates the last class is predicted, so the first of two tied classes is a miss that ranks second.
+     */
+    @Test
+    void lastClassWinsTiedPrediction() {
+        Evaluation evaluation = new Evaluation("test", CLASSES, 3);
+        evaluation.record(1, new double[] { 0d, 0.4d, 0d, 0.4d });
+
+        assertEquals(1, evaluation.confusion[1][3]);
+        assertEquals(0d, evaluation.accuracy());
+        assertTopK(evaluation, 0d, 1d, 1d);
+    }
+
+    /**
+     * A wrong prediction puts the correct class behind every other class with an estimate as high as its own.
+     */
+    @Test
+    void missRanksBehindClassesItTiesWith() {
+        Evaluation evaluation = new Evaluation("test", CLASSES, 3);
+        evaluation.record(0, new double[] { 0.3d, 0.3d, 0.4d, 0d });
+
+        assertEquals(1, evaluation.confusion[0][2]);
+        assertTopK(evaluation, 0d, 0d, 1d);
+    }
+
+    /**
+     * A classifier that gives everything to a wrong class collects no top k hits from the order of the classes it
+     * left at zero.
+     */
+    @Test
+    void oneHotMissIsNoHitAtAnyK() {
+        Evaluation evaluation = new Evaluation("test", CLASSES, 3);
+        evaluation.record(0, new double[] { 0d, 0d, 0d, 1d });
+
+        assertTopK(evaluation, 0d, 0d, 0d);
+    }
+
+    /**
+     * Merged parts count the same as one evaluation that saw all the digits.
+     */
+    @Test
+    void mergeAddsCounters() {
+        double[] right = { 0.9d, 0.1d, 0d, 0d };
+        double[] secondBest = { 0.3d, 0.7d, 0d, 0d };
+
+        Evaluation whole = new Evaluation("test", CLASSES, 2);
+        whole.record(0, right);
+        whole.record(0, secondBest);
+
+        Evaluation first = new Evaluation("test", CLASSES, 2);
+        first.record(0, right);
+        Evaluation second = new Evaluation("test", CLASSES, 2);
+        second.record(0, secondBest);
+        first.merge(second);
+
+        assertEquals(whole.count(), first.count());
+        assertEquals(whole.correct(), first.correct());
+        assertTopK(first, 0.5d, 1d);
+        assertEquals(1d, first.precision(0));
+        assertEquals(0.5d, first.recall(0));
+    }
+
+    /**
+     * Top k accuracy is only kept up to the largest k, which cannot exceed the number of classes.
+     */
+    @Test
+    void topKIsLimitedToClasses() {
+        Evaluation evaluation = new Evaluation("test", CLASSES, 10);
+
+        assertEquals(CLASSES, evaluation.topK());
+        assertThrows(IllegalArgumentException.class, () -> evaluation.topKAccuracy(0));
+        assertThrows(IllegalArgumentException.class, () -> evaluation.topKAccuracy(CLASSES + 1));
+    }
+
+    /**
+     * @param evaluation Evaluation to check
+     * @param expected Expected top k accuracy for k from 1
+     */
+    private static void assertTopK(Evaluation evaluation, double... expected) {
+        for (int k = 1; k <= expected.length; k++) {
+            assertEquals(expected[k - 1], evaluation.topKAccuracy(k), "Top " + k + " accuracy");
+        }
+    }
+
+}